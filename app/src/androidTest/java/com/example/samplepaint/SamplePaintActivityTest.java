@@ -89,4 +89,141 @@ public class SamplePaintActivityTest extends ActivityInstrumentationTestCase2<Sa
         //Verify that the dialog opens with selected color as black
         assertTrue(dialog.getSelectedColor() == Color.BLACK);
     }
+
+    /**
+     * Test that a stroke drawn on the CustomPaintView is recorded in the drawing metrics
+     */
+    public void testStrokeIsRecordedInMetrics(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mCustomPaintView.getMetrics().reset();
+
+        TouchUtils.drag(this, 100, 300, 300, 300, 10);
+        getInstrumentation().waitForIdleSync();
+
+        PaintMetrics metrics = mCustomPaintView.getMetrics();
+        assertEquals(1, metrics.getHistogram(PaintMetrics.COMMIT).getCount());
+        assertTrue(metrics.getHistogram(PaintMetrics.DRAW).getCount() > 0);
+        assertTrue(mCustomPaintView.dumpMetrics().contains("p99="));
+    }
+
+    /**
+     * Test that the predicted tail of a straight stroke reduces its latency
+     */
+    public void testPredictionReducesLatency(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mCustomPaintView.getMetrics().reset();
+        mCustomPaintView.setPredictionEnabled(true);
+
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+
+        assertTrue(mCustomPaintView.getPredictedLatencyReduction() > 0);
+    }
+
+    /**
+     * Test that dragging with the navigation tool moves the canvas instead of drawing
+     */
+    public void testNavigateToolDoesNotDraw(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mCustomPaintView.setTool(CustomPaintView.TOOL_NAVIGATE);
+        int commands = mCustomPaintView.getDocument().size();
+
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+
+        assertEquals(commands, mCustomPaintView.getDocument().size());
+        assertEquals(1f, mCustomPaintView.getZoom());
+    }
+
+    /**
+     * Test that a stroke drawn after adding a layer belongs to the new layer
+     */
+    public void testStrokeGoesIntoNewLayer(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCustomPaintView.addLayer();
+            }
+        });
+        assertEquals(2, mCustomPaintView.getLayerCount());
+        assertEquals(1, mCustomPaintView.getActiveLayer());
+
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+
+        StrokeDocument document = mCustomPaintView.getDocument();
+        assertEquals(1, document.get(document.size() - 1).getLayer());
+    }
+
+    /**
+     * Test that a replay starts from an empty canvas and that stopping it leaves the
+     * document as it was
+     */
+    public void testReplayStartsEmptyAndStops(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+        final int size = mCustomPaintView.getDocument().size();
+
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCustomPaintView.setReplaySpeed(1);
+                assertTrue(mCustomPaintView.startReplay());
+                assertEquals(0, mCustomPaintView.getReplayPosition());
+                mCustomPaintView.seekReplay(size);
+                assertEquals(size, mCustomPaintView.getReplayPosition());
+                mCustomPaintView.stopReplay();
+            }
+        });
+        assertFalse(mCustomPaintView.isReplaying());
+        assertEquals(size, mCustomPaintView.getDocument().size());
+    }
+
+    /**
+     * Test that a stroke drawn with a stamped brush records its brush in the document
+     */
+    public void testStampedBrushIsRecorded(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCustomPaintView.setBrushType(Brush.PENCIL);
+            }
+        });
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+
+        StrokeDocument document = mCustomPaintView.getDocument();
+        assertEquals(Brush.PENCIL, document.get(document.size() - 1).getBrushType());
+    }
+
+    /**
+     * Test that a stroke drawn with the width following the speed records a width per point
+     */
+    public void testVariableWidthStrokeRecordsWidths(){
+        mCustomPaintView = (CustomPaintView)mSamplePaintActivity.findViewById(
+                R.id.custompaint_view);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCustomPaintView.setBrushType(Brush.ROUND);
+                mCustomPaintView.setWidthMode(CustomPaintView.WIDTH_MODE_VELOCITY);
+            }
+        });
+        TouchUtils.drag(this, 100, 400, 300, 300, 20);
+        getInstrumentation().waitForIdleSync();
+
+        StrokeDocument document = mCustomPaintView.getDocument();
+        StrokeCommand command = document.get(document.size() - 1);
+        assertTrue(command.isVariableWidth());
+        assertTrue(command.getMeanWidth() <= command.getWidth());
+    }
 }
@@ -16,11 +16,12 @@
 
 package com.android.colorpicker;
 
-import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.LayerDrawable;
 
+import com.example.samplepaint.ColorMath;
+
 /**
  * A drawable which sets its color filter to a color specified by the user, and changes to a
  * slightly darker color when pressed or focused.
@@ -30,6 +31,8 @@ public class ColorStateDrawable extends LayerDrawable {
     private static final float PRESSED_STATE_MULTIPLIER = 0.70f;
 
     private int mColor;
+    //reused by getPressedColor
+    private final float[] mHsv = new float[3];
 
     public ColorStateDrawable(Drawable[] layers, int color) {
         super(layers);
@@ -58,11 +61,8 @@ public class ColorStateDrawable extends LayerDrawable {
     /**
      * Given a particular color, adjusts its value by a multiplier.
      */
-    private static int getPressedColor(int color) {
-        float[] hsv = new float[3];
-        Color.colorToHSV(color, hsv);
-        hsv[2] = hsv[2] * PRESSED_STATE_MULTIPLIER;
-        return Color.HSVToColor(hsv);
+    private int getPressedColor(int color) {
+        return ColorMath.scaleValue(color, PRESSED_STATE_MULTIPLIER, mHsv);
     }
 
     @Override
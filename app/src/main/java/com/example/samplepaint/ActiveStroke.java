@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * State of the stroke drawn by one pointer: its queued touch samples, the smoothed live path,
+ * the paint it was started with and the points recorded for its command. Instances are reused
+ * from a PointerStrokePool and the points go into arrays kept across strokes, so apart from the
+ * mask of a translucent stroke nothing is allocated until the stroke completes and its
+ * StrokeCommand is created.
+ *
+ * A predicted tail can be drawn past the live path, from its end through the newest sample to
+ * where the StrokePredictor expects the pointer to be. The tail is never drawn into the store
+ * and is dropped as soon as new samples arrive.
+ *
+ * A stroke with a stamped Brush queues dabs along its segments instead of growing the live
+ * path. The queued dabs take the place of the live path: they are drawn every frame until
+ * they are committed into the store. Such strokes have no predicted tail.
+ *
+ * A variable-width stroke takes its width at each sample from a StrokeWidthModel and extends a
+ * StrokeMesh with every segment instead of the live path. Only the new segments are
+ * tessellated, and the stable part of the mesh is committed and dropped the same way the live
+ * path is, so a frame draws no more vertices than the live path has segments. The last
+ * committed row stays in the mesh and the live part starts on it, so there is no seam between
+ * the pieces. Variable-width strokes have no predicted tail either.
+ *
+ * Every commit restarts the live path where the committed one ended, and the round caps of the
+ * two pieces overlap at the seam. A translucent color would blend twice there, so translucent
+ * strokes are drawn opaque: the committed pieces go into a coverage mask of their own, the live
+ * path is drawn with the mask into a layer that applies the alpha once, and the mask is
+ * composited into the store with the alpha when the stroke completes. The mask only allocates
+ * the tiles the stroke touches, and they are released with it.
+ */
+public class ActiveStroke implements StrokeSmoother.PathSink {
+    //extra pixels around the stroke to cover antialiasing
+    private static final int ANTIALIAS_MARGIN = 2;
+    private static final int INITIAL_POINTS = 256;
+
+    private final TouchSampleBuffer mSamples;
+    private final StrokeSmoother mSmoother = new StrokeSmoother();
+    private final Path mPath = new Path();
+    private final Paint mPaint = new Paint();
+    private final DabStamper mStamper;
+    //true if the stroke is drawn with the dabs of a Brush rather than the path
+    private boolean mStamped;
+    private final StrokeWidthModel mWidthModel = new StrokeWidthModel();
+    private final StrokeMesh mMesh = new StrokeMesh();
+    private final StrokeMeshDrawer mMeshDrawer = new StrokeMeshDrawer();
+    //true if the stroke is drawn as a mesh with a width at each sample
+    private boolean mVariableWidth;
+    //true if the stroke is translucent and drawn opaque into the mask
+    private boolean mMasked;
+    //opaque coverage of the committed pieces of a translucent stroke, created on first use
+    private TiledCanvasStore mMask;
+    //draws the mask within the layer of the live path
+    private final Paint mMaskDrawPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //composites the mask into the store with the alpha of the stroke
+    private final Paint mMaskPaint = new Paint();
+    //area the stroke covers so far, the bounds of the layer of a translucent stroke
+    private final Rect mBounds = new Rect();
+    //color of the stroke as selected, mPaint is opaque for a translucent stroke
+    private int mColor;
+    //width at the last sample added to the command
+    private float mLastWidth;
+    //distance the stroke reaches from its curve, antialiasing included
+    private int mPadding;
+    //shared area covered by the segments appended since the last redraw
+    private final Rect mDirtyRect;
+
+    private int mPointerId = -1;
+    //accepted samples of the stroke and the width at each of them, reused by the next stroke
+    private float[] mPoints = new float[INITIAL_POINTS * 2];
+    private float[] mWidths = new float[INITIAL_POINTS];
+    private int mPointCount;
+    private int mBrushType;
+    //end of the live path
+    private float mPenX;
+    private float mPenY;
+    //segments in the live path that are not drawn into the store yet
+    private int mLiveSegments;
+
+    private final StrokePredictor mPredictor;
+    private final Path mTailPath = new Path();
+    private final float[] mPrediction = new float[2];
+    //newest sample, where the tail bends towards the predicted point
+    private float mSampleX;
+    private float mSampleY;
+    //corners of the tail on screen, they have to be redrawn when it goes away
+    private boolean mHasTail;
+    private float mTailStartX;
+    private float mTailStartY;
+    private float mTailEndX;
+    private float mTailEndY;
+
+    /**
+     * @param sampleCapacity touch samples buffered between two frames
+     * @param dirtyRect grown by every segment appended to the live path
+     * @param predictionReduction receives the latency reduction measured for the predicted
+     *                            tail, may be null
+     * @param dabCache dabs of the brushes, shared by the strokes
+     */
+    public ActiveStroke(int sampleCapacity, Rect dirtyRect, LatencyHistogram predictionReduction,
+            DabCache dabCache){
+        mSamples = new TouchSampleBuffer(sampleCapacity);
+        mDirtyRect = dirtyRect;
+        mPredictor = new StrokePredictor(predictionReduction);
+        mStamper = new DabStamper(dabCache);
+    }
+
+    /**
+     * Start a stroke for the pointer
+     * @param pointerId
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @param pressure
+     * @param brush the color, width and style of the stroke are copied from it
+     * @param brushType the Brush the stroke is stamped with, or Brush.ROUND
+     * @param widthMode a StrokeWidthModel mode, only plain strokes vary their width
+     */
+    public void begin(int pointerId, float x, float y, long time, float pressure, Paint brush,
+            int brushType, int widthMode){
+        mPointerId = pointerId;
+        mPaint.set(brush);
+        mSamples.clear();
+        mPath.rewind();
+        mLiveSegments = 0;
+        mPredictor.reset();
+        mSampleX = x;
+        mSampleY = y;
+        mStamped = mStamper.begin(brushType, brush.getColor(), brush.getStrokeWidth());
+        mVariableWidth = !mStamped && widthMode != StrokeWidthModel.MODE_FIXED;
+        mColor = brush.getColor();
+        mMasked = !mStamped && brush.getAlpha() < 255;
+        if (mMasked){
+            mMaskPaint.setAlpha(brush.getAlpha());
+            mPaint.setAlpha(255);
+        }
+        mBounds.setEmpty();
+        if (mVariableWidth){
+            mLastWidth = mWidthModel.begin(widthMode, brush.getStrokeWidth(), x, y, time,
+                    pressure);
+            mMesh.setWidth(mLastWidth);
+        }
+        float reach = brush.getStrokeWidth() / 2;
+        if (mVariableWidth){
+            reach = reach * StrokeMesh.MITER_LIMIT + StrokeMesh.FEATHER / 2;
+        }
+        mPadding = (int) Math.ceil(reach) + ANTIALIAS_MARGIN;
+        mBrushType = brushType;
+        mPointCount = 0;
+        addPoint(x, y, mLastWidth);
+        mSmoother.begin(x, y, this);
+    }
+
+    /**
+     * Queue a sample. If the buffer is full it is drained into the path first
+     * @param x
+     * @param y
+     * @param time
+     * @param pressure
+     */
+    public void queue(float x, float y, long time, float pressure){
+        if (!mSamples.add(x, y, time, pressure)){
+            drain();
+            mSamples.add(x, y, time, pressure);
+        }
+    }
+
+    /**
+     * Append all queued samples to the live path
+     */
+    public void drain(){
+        int count = mSamples.size();
+        if (count > 0){
+            clearTail();
+        }
+        for (int i = 0; i < count; i++){
+            float x = mSamples.getX(i);
+            float y = mSamples.getY(i);
+            mPredictor.add(x, y, mSamples.getTime(i));
+            if (mVariableWidth){
+                float width = mWidthModel.next(x, y, mSamples.getTime(i),
+                        mSamples.getPressure(i));
+                //the curve a sample adds ends halfway to it
+                mMesh.setWidth((mLastWidth + width) / 2);
+                if (mSmoother.add(x, y, this)){
+                    addPoint(x, y, width);
+                    mLastWidth = width;
+                }
+            } else if (mSmoother.add(x, y, this)){
+                addPoint(x, y, 0);
+            }
+            mSampleX = x;
+            mSampleY = y;
+        }
+        mSamples.clear();
+    }
+
+    private void addPoint(float x, float y, float width){
+        if (mPointCount == mWidths.length){
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+            mWidths = Arrays.copyOf(mWidths, mWidths.length * 2);
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        mWidths[mPointCount] = width;
+        mPointCount++;
+    }
+
+    /**
+     * Replace the predicted tail with one reaching the given time past the newest sample
+     * @param horizon milliseconds
+     */
+    public void predictTail(float horizon){
+        clearTail();
+        if (mStamped || mVariableWidth || !mPredictor.predict(horizon, mPrediction)){
+            return;
+        }
+        mTailStartX = mPenX;
+        mTailStartY = mPenY;
+        mTailEndX = mPrediction[0];
+        mTailEndY = mPrediction[1];
+        mTailPath.moveTo(mTailStartX, mTailStartY);
+        mTailPath.lineTo(mSampleX, mSampleY);
+        mTailPath.lineTo(mTailEndX, mTailEndY);
+        addTailDirty();
+        mHasTail = true;
+    }
+
+    /**
+     * Drop the predicted tail, marking the area it covered dirty
+     */
+    public void clearTail(){
+        if (!mHasTail){
+            return;
+        }
+        addTailDirty();
+        mTailPath.rewind();
+        mHasTail = false;
+    }
+
+    private void addTailDirty(){
+        addDirtySegment(mTailStartX, mTailStartY, mSampleX, mSampleY);
+        addDirtySegment(mSampleX, mSampleY, mTailEndX, mTailEndY);
+    }
+
+    /**
+     * Draw the live path, the queued dabs or the stable part of the mesh into the store and
+     * restart it at its end point, so that only the segments added after this call have to be
+     * drawn every frame
+     * @param store
+     */
+    public void commitLivePath(TiledCanvasStore store){
+        if (mStamped){
+            mStamper.commit(store);
+        } else {
+            //the committed pieces of a translucent stroke stay opaque until it completes
+            TiledCanvasStore target = mMasked ? obtainMask(store) : store;
+            if (mVariableWidth){
+                //the last committed row stays in the mesh, so the next piece starts on it
+                target.drawMesh(mMeshDrawer, mMesh, 0, mMesh.getStableRowCount(),
+                        mPaint.getColor());
+                mMesh.commit();
+            } else {
+                target.drawPath(mPath, mPaint);
+            }
+        }
+        mPath.rewind();
+        mPath.moveTo(mPenX, mPenY);
+        mLiveSegments = 0;
+    }
+
+    /**
+     * Complete the stroke: draw the rest of the path into the store and create its command
+     * from the recorded points
+     * @param store
+     * @return StrokeCommand the completed command
+     */
+    public StrokeCommand finish(TiledCanvasStore store){
+        drain();
+        clearTail();
+        mMesh.setWidth(mLastWidth);
+        mSmoother.end(this);
+        if (mStamped){
+            mStamper.commit(store);
+        } else {
+            TiledCanvasStore target = mMasked ? obtainMask(store) : store;
+            if (mVariableWidth){
+                mMesh.end();
+                target.drawMesh(mMeshDrawer, mMesh, 0, mMesh.getRowCount(),
+                        mPaint.getColor());
+            } else {
+                target.drawPath(mPath, mPaint);
+            }
+            if (mMasked){
+                store.drawStore(target, mMaskPaint);
+                target.clear();
+            }
+        }
+        mPath.rewind();
+        mLiveSegments = 0;
+        StrokeCommand command = StrokeCommand.fromSamples(mColor,
+                mPaint.getStrokeWidth(), mPoints, mVariableWidth ? mWidths : null, mPointCount,
+                mSmoother);
+        command.setBrushType(mBrushType);
+        mPointerId = -1;
+        return command;
+    }
+
+    /**
+     * Draw the live path or mesh and the predicted tail. A translucent stroke is drawn opaque
+     * with its mask into a layer over its bounds, which is composited with the alpha of the
+     * stroke
+     * @param canvas
+     */
+    public void draw(Canvas canvas){
+        if (mStamped){
+            mStamper.draw(canvas);
+            return;
+        }
+        if (mMasked){
+            canvas.saveLayerAlpha(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom,
+                    mMaskPaint.getAlpha(), Canvas.ALL_SAVE_FLAG);
+            if (mMask != null){
+                mMask.draw(canvas, mMaskDrawPaint);
+            }
+        }
+        if (mVariableWidth){
+            mMeshDrawer.draw(canvas, mMesh, 0, mMesh.getRowCount(), mPaint.getColor());
+        } else {
+            canvas.drawPath(mPath, mPaint);
+        }
+        if (mHasTail){
+            canvas.drawPath(mTailPath, mPaint);
+        }
+        if (mMasked){
+            canvas.restore();
+        }
+    }
+
+    /**
+     * Get the mask of a translucent stroke, covering the same tiles as the store
+     */
+    private TiledCanvasStore obtainMask(TiledCanvasStore store){
+        if (mMask == null){
+            mMask = new TiledCanvasStore(store.getWidth(), store.getHeight());
+        } else {
+            mMask.resize(store.getWidth(), store.getHeight());
+        }
+        return mMask;
+    }
+
+    public boolean isActive(){
+        return mPointerId != -1;
+    }
+
+    public int getPointerId(){
+        return mPointerId;
+    }
+
+    public int getLiveSegments(){
+        return mLiveSegments;
+    }
+
+    /**
+     * Get the number of dabs queued and not drawn into the store yet
+     * @return int 0 for a plain stroke
+     */
+    public int getLiveDabs(){
+        return mStamped ? mStamper.getPendingCount() : 0;
+    }
+
+    @Override
+    public void moveTo(float x, float y){
+        if (mStamped){
+            mStamper.moveTo(x, y);
+        } else if (mVariableWidth){
+            mMesh.moveTo(x, y);
+        } else {
+            mPath.moveTo(x, y);
+        }
+        addDirtySegment(x, y, x, y);
+        mPenX = x;
+        mPenY = y;
+    }
+
+    @Override
+    public void lineTo(float x, float y){
+        if (mStamped){
+            mStamper.lineTo(x, y);
+        } else if (mVariableWidth){
+            mMesh.lineTo(x, y);
+        } else {
+            mPath.lineTo(x, y);
+        }
+        addDirtySegment(mPenX, mPenY, x, y);
+        mLiveSegments++;
+        mPenX = x;
+        mPenY = y;
+    }
+
+    @Override
+    public void quadTo(float controlX, float controlY, float x, float y){
+        if (mStamped){
+            mStamper.quadTo(controlX, controlY, x, y);
+        } else if (mVariableWidth){
+            mMesh.quadTo(controlX, controlY, x, y);
+        } else {
+            mPath.quadTo(controlX, controlY, x, y);
+        }
+        //the curve stays inside the triangle of its end points and control point
+        addDirtySegment(mPenX, mPenY, controlX, controlY);
+        addDirtySegment(controlX, controlY, x, y);
+        mLiveSegments++;
+        mPenX = x;
+        mPenY = y;
+    }
+
+    /**
+     * Grows the dirty rectangle and the bounds of the stroke by the bounding box of the segment
+     * from (x0, y0) to (x1, y1), padded by the distance the stroke reaches from its curve
+     */
+    private void addDirtySegment(float x0, float y0, float x1, float y1){
+        int pad = mPadding;
+        int left = (int) Math.floor(Math.min(x0, x1)) - pad;
+        int top = (int) Math.floor(Math.min(y0, y1)) - pad;
+        int right = (int) Math.ceil(Math.max(x0, x1)) + pad;
+        int bottom = (int) Math.ceil(Math.max(y0, y1)) + pad;
+        mDirtyRect.union(left, top, right, bottom);
+        mBounds.union(left, top, right, bottom);
+    }
+}
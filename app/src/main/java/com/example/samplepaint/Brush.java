@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.util.Arrays;
+
+/**
+ * A brush that draws a stroke as dabs stamped at an even spacing along its smoothed curve,
+ * instead of stroking the curve with a Paint. A brush only renders the pixels of one dab for a
+ * diameter and a color, and DabCache keeps the rendered dabs, so stamping a dab is a plain
+ * bitmap draw. A brush can also have a texture fixed to the document, like the grain of the
+ * paper, that its dabs are drawn through. Brushes are looked up by the brush type every
+ * StrokeCommand stores; type ROUND is the plain stroke and has no Brush. Other brushes are
+ * added with register.
+ */
+public abstract class Brush {
+    public static final int ROUND = 0;
+    public static final int AIRBRUSH = 1;
+    public static final int MARKER = 2;
+    public static final int PENCIL = 3;
+
+    //indexed by brush type, replaced as a whole when a brush is registered
+    private static volatile Brush[] sBrushes = new Brush[0];
+
+    static {
+        register(AIRBRUSH, new Brush(0.1f) {
+            @Override
+            public void renderDab(int diameter, int color, int[] pixels) {
+                BrushDab.renderAirbrush(diameter, color, pixels);
+            }
+        });
+        register(MARKER, new Brush(0.1f) {
+            @Override
+            public void renderDab(int diameter, int color, int[] pixels) {
+                BrushDab.renderMarker(diameter, color, pixels);
+            }
+        });
+        register(PENCIL, new Brush(0.2f) {
+            @Override
+            public void renderDab(int diameter, int color, int[] pixels) {
+                BrushDab.renderPencil(diameter, color, pixels);
+            }
+
+            @Override
+            public int getTextureSize() {
+                return BrushDab.PENCIL_GRAIN_SIZE;
+            }
+
+            @Override
+            public void renderTexture(int[] pixels) {
+                BrushDab.renderPencilGrain(BrushDab.PENCIL_GRAIN_SIZE, pixels);
+            }
+        });
+    }
+
+    private final float mSpacing;
+
+    /**
+     * @param spacing distance between two dabs relative to their diameter
+     */
+    protected Brush(float spacing){
+        mSpacing = spacing;
+    }
+
+    /**
+     * Make a brush available for strokes of the given type. Types are stored in stroke files,
+     * so a type should keep meaning the same brush
+     * @param type greater than ROUND
+     * @param brush
+     */
+    public static synchronized void register(int type, Brush brush){
+        if (type <= ROUND){
+            throw new IllegalArgumentException("Brush type " + type + " is reserved");
+        }
+        Brush[] brushes = Arrays.copyOf(sBrushes, Math.max(sBrushes.length, type + 1));
+        brushes[type] = brush;
+        sBrushes = brushes;
+    }
+
+    /**
+     * Get the brush of a type
+     * @param type
+     * @return Brush, or null for ROUND and types without a brush, which are drawn as plain
+     * strokes
+     */
+    public static Brush get(int type){
+        Brush[] brushes = sBrushes;
+        return type > ROUND && type < brushes.length ? brushes[type] : null;
+    }
+
+    /**
+     * Get the distance between two dabs relative to their diameter
+     * @return float
+     */
+    public float getSpacing(){
+        return mSpacing;
+    }
+
+    /**
+     * Render the pixels of one dab. Called once for every diameter and color the dab cache
+     * does not hold yet
+     * @param diameter width and height of the dab in pixels
+     * @param color the stroke color
+     * @param pixels receives diameter * diameter unpremultiplied ARGB colors, row by row
+     */
+    public abstract void renderDab(int diameter, int color, int[] pixels);
+
+    /**
+     * Get the size of the texture the dabs are drawn through. Only the alpha of the dabs of a
+     * textured brush is used, the colors come from the texture tinted with the stroke color
+     * @return int width and height of the texture, 0 for brushes without one
+     */
+    public int getTextureSize(){
+        return 0;
+    }
+
+    /**
+     * Render the pixels of the texture. Called once, when a stroke first needs it
+     * @param pixels receives getTextureSize() squared unpremultiplied ARGB colors, row by row,
+     *               repeating seamlessly across the document
+     */
+    public void renderTexture(int[] pixels){
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Exports the canvas as a PNG file in the background. The pixels are read strip by strip and
+ * deflated on the threads of the PaintExecutor, one per core, and the file is written through
+ * a FileChannel as the strips finish, so neither the whole image nor the whole encoded file is
+ * held in memory at once. The sync flush the parallel strips need is only available from KitKat on,
+ * older devices encode the strips one after another on the export thread.
+ */
+public class CanvasExporter {
+    private static final String TAG = "CanvasExporter";
+
+    /**
+     * Interface definition for a callback invoked on the main thread when an export finishes
+     */
+    public interface OnExportFinishedListener {
+        /**
+         * Called when the file is written
+         * @param file
+         * @param success false if the file could not be written
+         */
+        void onExportFinished(File file, boolean success);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //runs the exports one at a time, and reads the pixels of each
+    private final PaintExecutor.Lane mExecutor = PaintExecutor.getInstance().newLane();
+
+    /**
+     * Encode the image into the file in the background
+     * @param source called on the export thread, strip by strip
+     * @param width
+     * @param height
+     * @param file
+     * @param listener invoked on the main thread, may be null
+     */
+    public void export(final PngStripEncoder.PixelSource source, final int width,
+            final int height, final File file, final OnExportFinishedListener listener){
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    write(source, width, height, file);
+                    success = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to export " + file, e);
+                }
+                if (listener != null){
+                    final boolean result = success;
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportFinished(file, result);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the image into a temporary file and rename it over the old one
+     */
+    private void write(PngStripEncoder.PixelSource source, int width, int height, File file)
+            throws IOException {
+        PngStripEncoder encoder = new PngStripEncoder(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                        ? PaintExecutor.getInstance() : null);
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            encoder.encode(source, width, height, out.getChannel());
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)){
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+}
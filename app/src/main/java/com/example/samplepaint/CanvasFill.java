@@ -0,0 +1,525 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * Paint bucket fill of a TiledCanvasStore, tile by tile. Each tile the fill reaches is filled
+ * by a task of its own: the pixels of the tile are copied into a tile sized array, the region is
+ * filled inside it with a scanline fill, the spans reaching the edge of the tile are handed to
+ * its neighbors and the tile is copied back, so the undo history records just the tiles the
+ * fill changed. Like FloodFill the fill runs in rounds: every tile with spans handed to it is
+ * filled in parallel on the executor, and the spans crossing the borders are merged into the
+ * next round, until no tile has any left.
+ *
+ * A tile that is not allocated, or whose pixels all have one color, is one solid span. It is
+ * filled as a whole or not at all, without scanning its pixels or keeping a visited bit per
+ * pixel, and a tile that is not allocated is not even read. Otherwise only a pixel array per
+ * running task and a visited bit per pixel of the tiles reached are held, which lets a fill
+ * cover the whole of a large document. The store is only accessed with the given lock held, so
+ * other threads can draw it between two tiles.
+ */
+public class CanvasFill {
+    private static final int TILE_SIZE = TiledCanvasStore.TILE_SIZE;
+    private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+    /**
+     * A tile of the store the fill reached
+     */
+    private class Tile implements Runnable {
+        final int column;
+        final int row;
+        //part of the tile inside the area of the fill, right and bottom exclusive
+        final Rect area = new Rect();
+
+        //spans handed over by the neighbors, (y, x0, x1) triples in store coordinates
+        private int[] mIncoming = new int[48];
+        private int mIncomingSize;
+        //spans still to scan by this tile's task
+        private int[] mStack = new int[48];
+        private int mStackSize;
+        //one bit per pixel of the tile filled so far, null until the tile is scanned
+        private long[] mVisited;
+        //set once the tile turned out to be one solid span, which needs no more work
+        private boolean mSolid;
+
+        int filled;
+        //pixels filled by the last round
+        private final Rect mFilled = new Rect();
+        private int mRoundFilled;
+
+        Tile(int column, int row){
+            this.column = column;
+            this.row = row;
+            area.set(column * TILE_SIZE, row * TILE_SIZE, (column + 1) * TILE_SIZE,
+                    (row + 1) * TILE_SIZE);
+            area.intersect(mArea);
+        }
+
+        synchronized void handOver(int y, int x0, int x1){
+            if (mSolid){
+                //filled as a whole already, or holding no pixel within the tolerance
+                return;
+            }
+            if (mIncomingSize + 3 > mIncoming.length){
+                mIncoming = grow(mIncoming);
+            }
+            mIncoming[mIncomingSize++] = y;
+            mIncoming[mIncomingSize++] = x0;
+            mIncoming[mIncomingSize++] = x1;
+        }
+
+        /**
+         * Move the handed over spans onto the stack of the task
+         * @return false if there were none
+         */
+        synchronized boolean takeIncoming(){
+            if (mIncomingSize == 0){
+                return false;
+            }
+            int[] stack = mStack;
+            mStack = mIncoming;
+            mStackSize = mIncomingSize;
+            mIncoming = stack;
+            mIncomingSize = 0;
+            return true;
+        }
+
+        private void push(int y, int x0, int x1){
+            if (mStackSize + 3 > mStack.length){
+                mStack = grow(mStack);
+            }
+            mStack[mStackSize++] = y;
+            mStack[mStackSize++] = x0;
+            mStack[mStackSize++] = x1;
+        }
+
+        @Override
+        public void run(){
+            int[] pixels = obtainBuffer();
+            try {
+                fill(pixels);
+            } finally {
+                recycleBuffer(pixels);
+            }
+        }
+
+        private void fill(int[] pixels){
+            mRoundFilled = 0;
+            boolean allocated = true;
+            synchronized (mLock) {
+                if (mVisited == null && mStore.getTile(column, row) == null){
+                    allocated = false;
+                } else {
+                    mStore.readPixels(pixels, area);
+                }
+            }
+            if (mVisited == null){
+                int length = area.width() * area.height();
+                int color = allocated ? pixels[0] : 0;
+                if (!allocated || isUniform(pixels, length)){
+                    fillSolid(pixels, length, color, allocated);
+                    return;
+                }
+                mVisited = new long[TILE_PIXELS / 64];
+            }
+            scan(pixels);
+            if (mRoundFilled > 0){
+                write(pixels);
+            }
+        }
+
+        /**
+         * Fill the whole tile, if its color is within the tolerance, and hand its edges to
+         * the neighbors
+         */
+        private void fillSolid(int[] pixels, int length, int color, boolean allocated){
+            synchronized (this) {
+                mSolid = true;
+                mIncomingSize = 0;
+            }
+            mStackSize = 0;
+            if (!matches(color)){
+                return;
+            }
+            mRoundFilled = length;
+            mFilled.set(area);
+            if (area.left > mArea.left){
+                for (int y = area.top; y < area.bottom; y++){
+                    handOverTo(column - 1, row, y, area.left - 1, area.left - 1);
+                }
+            }
+            if (area.right < mArea.right){
+                for (int y = area.top; y < area.bottom; y++){
+                    handOverTo(column + 1, row, y, area.right, area.right);
+                }
+            }
+            if (area.top > mArea.top){
+                handOverTo(column, row - 1, area.top - 1, area.left, area.right - 1);
+            }
+            if (area.bottom < mArea.bottom){
+                handOverTo(column, row + 1, area.bottom, area.left, area.right - 1);
+            }
+            if (!allocated && mColor == 0){
+                //a transparent fill of a tile without ink leaves it without ink
+                filled += length;
+                return;
+            }
+            Arrays.fill(pixels, 0, length, mColor);
+            write(pixels);
+        }
+
+        /**
+         * Scan the spans handed to the tile in the pixels read from it
+         */
+        private void scan(int[] pixels){
+            long[] visited = mVisited;
+            int left = area.left;
+            int top = area.top;
+            int right = area.right;
+            int bottom = area.bottom;
+            int tileLeft = column * TILE_SIZE;
+            int tileTop = row * TILE_SIZE;
+            int width = right - left;
+            while (mStackSize > 0){
+                int x1 = mStack[--mStackSize];
+                int x0 = mStack[--mStackSize];
+                int y = mStack[--mStackSize];
+                //from a store column to the pixel in the array and to its visited bit
+                int index = (y - top) * width - left;
+                int bitRow = (y - tileTop) * TILE_SIZE - tileLeft;
+                for (int x = x0; x <= x1; x++){
+                    if (!matches(pixels, index, visited, bitRow, x)){
+                        continue;
+                    }
+                    int spanLeft = x;
+                    while (spanLeft > left
+                            && matches(pixels, index, visited, bitRow, spanLeft - 1)){
+                        spanLeft--;
+                    }
+                    int spanRight = x;
+                    while (spanRight < right - 1
+                            && matches(pixels, index, visited, bitRow, spanRight + 1)){
+                        spanRight++;
+                    }
+                    for (int i = spanLeft; i <= spanRight; i++){
+                        pixels[index + i] = mColor;
+                        int bit = bitRow + i;
+                        visited[bit >> 6] |= 1L << bit;
+                    }
+                    if (mRoundFilled == 0){
+                        mFilled.set(spanLeft, y, spanRight + 1, y + 1);
+                    } else {
+                        mFilled.union(spanLeft, y, spanRight + 1, y + 1);
+                    }
+                    mRoundFilled += spanRight - spanLeft + 1;
+
+                    if (spanLeft == left && left > mArea.left){
+                        handOverTo(column - 1, row, y, left - 1, left - 1);
+                    }
+                    if (spanRight == right - 1 && right < mArea.right){
+                        handOverTo(column + 1, row, y, right, right);
+                    }
+                    if (y > top){
+                        push(y - 1, spanLeft, spanRight);
+                    } else if (y > mArea.top){
+                        handOverTo(column, row - 1, y - 1, spanLeft, spanRight);
+                    }
+                    if (y < bottom - 1){
+                        push(y + 1, spanLeft, spanRight);
+                    } else if (y < mArea.bottom - 1){
+                        handOverTo(column, row + 1, y + 1, spanLeft, spanRight);
+                    }
+                    x = spanRight + 1;
+                }
+            }
+        }
+
+        /**
+         * Copy the pixels filled by this round back into the store
+         */
+        private void write(int[] pixels){
+            filled += mRoundFilled;
+            synchronized (mLock) {
+                mStore.writePixels(pixels, area, mFilled);
+                mDirty.union(mFilled);
+            }
+        }
+    }
+
+    //runs the tiles of a round in parallel, null to fill on the calling thread
+    private final ExecutorService mExecutor;
+    //pixel arrays of the tasks, reused from fill to fill
+    private final ArrayList<int[]> mBuffers = new ArrayList<int[]>();
+    //tiles the fill reached, null for the others
+    private Tile[] mTiles = new Tile[0];
+
+    //state of the fill in progress
+    private TiledCanvasStore mStore;
+    private Rect mDirty;
+    private Object mLock;
+    private final Rect mArea = new Rect();
+    private final Rect mCommandArea = new Rect();
+    private final int[] mSeed = new int[1];
+    private final Rect mSeedArea = new Rect();
+    private int mColumns;
+    private int mTarget;
+    private int mColor;
+    private int mTolerance;
+
+    /**
+     * Create a fill that runs on the calling thread
+     */
+    public CanvasFill(){
+        this(null);
+    }
+
+    /**
+     * @param executor runs the tiles reached at the same time in parallel, or null to fill on
+     *                 the calling thread. The fill may run on the executor itself
+     */
+    public CanvasFill(ExecutorService executor){
+        mExecutor = executor;
+    }
+
+    /**
+     * Fill the region of the store around the seed
+     * @param store
+     * @param x seed in store coordinates
+     * @param y
+     * @param color
+     * @param tolerance largest difference of any channel from the seed's color, 0 to 255
+     * @param area the fill does not go past, clamped to the store
+     * @param dirty grown by the area that changed, with the lock held
+     * @param lock held while the store and the dirty rectangle are accessed
+     * @return int number of pixels filled
+     */
+    public int fill(TiledCanvasStore store, int x, int y, int color, int tolerance, Rect area,
+            Rect dirty, Object lock){
+        synchronized (lock) {
+            mArea.set(area);
+            if (!mArea.intersect(0, 0, store.getWidth(), store.getHeight())
+                    || !mArea.contains(x, y)){
+                return 0;
+            }
+            mSeedArea.set(x, y, x + 1, y + 1);
+            store.readPixels(mSeed, mSeedArea);
+            mTarget = mSeed[0];
+            mColumns = store.getColumns();
+            if (mTiles.length != mColumns * store.getRows()){
+                mTiles = new Tile[mColumns * store.getRows()];
+            }
+        }
+        mStore = store;
+        mDirty = dirty;
+        mLock = lock;
+        mColor = color;
+        mTolerance = tolerance;
+        try {
+            handOverTo(x / TILE_SIZE, y / TILE_SIZE, y, x, x);
+            runRounds();
+            int filled = 0;
+            for (Tile tile : mTiles){
+                if (tile != null){
+                    filled += tile.filled;
+                }
+            }
+            return filled;
+        } finally {
+            //the visited bits of a large fill are released right away
+            Arrays.fill(mTiles, null);
+            mStore = null;
+            mDirty = null;
+            mLock = null;
+        }
+    }
+
+    /**
+     * Replay a fill command of a document on the store
+     * @param store
+     * @param command
+     * @param dirty grown by the area that changed
+     * @return int number of pixels filled
+     */
+    public int apply(TiledCanvasStore store, StrokeCommand command, Rect dirty){
+        return apply(store, command, dirty, this);
+    }
+
+    /**
+     * Replay a fill command on a store other threads draw meanwhile
+     * @param store
+     * @param command
+     * @param dirty grown by the area that changed, with the lock held
+     * @param lock held while the store and the dirty rectangle are accessed
+     * @return int number of pixels filled
+     */
+    public int apply(TiledCanvasStore store, StrokeCommand command, Rect dirty, Object lock){
+        mCommandArea.set((int) command.getX(1), (int) command.getY(1), (int) command.getX(2),
+                (int) command.getY(2));
+        return fill(store, (int) command.getX(0), (int) command.getY(0), command.getColor(),
+                command.getTolerance(), mCommandArea, dirty, lock);
+    }
+
+    /**
+     * Release the pixel arrays and the tile grid, they are allocated again by the next fill
+     */
+    public void trimMemory(){
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+        mTiles = new Tile[0];
+    }
+
+    /**
+     * Fill every tile that has spans handed to it, in parallel, until none has
+     */
+    private void runRounds(){
+        ArrayList<Tile> active = new ArrayList<Tile>();
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        while (true){
+            active.clear();
+            for (Tile tile : mTiles){
+                if (tile != null && tile.takeIncoming()){
+                    active.add(tile);
+                }
+            }
+            if (active.isEmpty()){
+                return;
+            }
+            if (mExecutor == null || active.size() == 1){
+                for (Tile tile : active){
+                    tile.run();
+                }
+                continue;
+            }
+            futures.clear();
+            //the calling thread fills the first tile itself
+            for (int i = 1; i < active.size(); i++){
+                futures.add(mExecutor.submit(active.get(i)));
+            }
+            active.get(0).run();
+            for (Future<?> future : futures){
+                await(future);
+            }
+        }
+    }
+
+    private static void await(Future<?> future){
+        if (future instanceof RunnableFuture){
+            //does nothing if a thread of the executor already took the tile
+            ((RunnableFuture<?>) future).run();
+        }
+        boolean interrupted = false;
+        try {
+            while (true){
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    //the tiles must be written before the fill returns
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Hand a span to a tile, creating the tile the first time the fill reaches it
+     */
+    private void handOverTo(int column, int row, int y, int x0, int x1){
+        int index = row * mColumns + column;
+        Tile tile;
+        synchronized (mTiles) {
+            tile = mTiles[index];
+            if (tile == null){
+                tile = new Tile(column, row);
+                mTiles[index] = tile;
+            }
+        }
+        tile.handOver(y, x0, x1);
+    }
+
+    /**
+     * Whether the pixel is not filled yet and within the tolerance of the seed's color
+     */
+    private boolean matches(int[] pixels, int index, long[] visited, int bitRow, int x){
+        int bit = bitRow + x;
+        if ((visited[bit >> 6] & (1L << bit)) != 0){
+            return false;
+        }
+        return matches(pixels[index + x]);
+    }
+
+    /**
+     * Whether the color is within the tolerance of the seed's color
+     */
+    private boolean matches(int pixel){
+        if (pixel == mTarget){
+            return true;
+        }
+        int tolerance = mTolerance;
+        return Math.abs((pixel >>> 24) - (mTarget >>> 24)) <= tolerance
+                && Math.abs(((pixel >> 16) & 0xFF) - ((mTarget >> 16) & 0xFF)) <= tolerance
+                && Math.abs(((pixel >> 8) & 0xFF) - ((mTarget >> 8) & 0xFF)) <= tolerance
+                && Math.abs((pixel & 0xFF) - (mTarget & 0xFF)) <= tolerance;
+    }
+
+    private static boolean isUniform(int[] pixels, int length){
+        int color = pixels[0];
+        for (int i = 1; i < length; i++){
+            if (pixels[i] != color){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int[] obtainBuffer(){
+        synchronized (mBuffers) {
+            if (!mBuffers.isEmpty()){
+                return mBuffers.remove(mBuffers.size() - 1);
+            }
+        }
+        return new int[TILE_PIXELS];
+    }
+
+    private void recycleBuffer(int[] buffer){
+        synchronized (mBuffers) {
+            mBuffers.add(buffer);
+        }
+    }
+
+    private static int[] grow(int[] array){
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Saves and loads the tiles of a TiledCanvasStore as a raw CanvasSnapshot in app-private
+ * storage on a background thread. Only a small handle naming the file has to go into the saved
+ * instance state. All work runs on the file lane of the PaintExecutor, which every view
+ * shares, so a load always sees the file written by an earlier save.
+ */
+public class CanvasPersistence {
+    private static final String TAG = "CanvasPersistence";
+
+    private static final String DIRECTORY = "canvas_state";
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a load finishes
+     */
+    public interface OnCanvasLoadedListener {
+        /**
+         * Called with the loaded tiles
+         * @param state the tiles, or null if the file could not be read
+         */
+        void onCanvasLoaded(CanvasState state);
+    }
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a save finishes
+     */
+    public interface OnCanvasSavedListener {
+        /**
+         * Called once the file is written
+         * @param success false if the file could not be written
+         */
+        void onCanvasSaved(boolean success);
+    }
+
+    /**
+     * Tiles of a saved canvas
+     */
+    public static class CanvasState {
+        public final int width;
+        public final int height;
+        public final int[] columns;
+        public final int[] rows;
+        public final Bitmap[] tiles;
+
+        public CanvasState(int width, int height, int[] columns, int[] rows, Bitmap[] tiles){
+            this.width = width;
+            this.height = height;
+            this.columns = columns;
+            this.rows = rows;
+            this.tiles = tiles;
+        }
+    }
+
+    private final File mDirectory;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PaintExecutor.Lane mExecutor = PaintExecutor.getInstance().getFileLane();
+
+    public CanvasPersistence(Context context){
+        mDirectory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Capture the allocated tiles of the store and write them to the file named by the handle
+     * in the background. Capturing the tiles is the only work done on the calling thread
+     * @param store
+     * @param handle
+     * @param listener invoked on the main thread, may be null
+     */
+    public void save(TiledCanvasStore store, final String handle,
+            final OnCanvasSavedListener listener){
+        final CanvasSnapshot snapshot = CanvasSnapshot.capture(store);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    write(snapshot, handle);
+                    success = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save canvas " + handle, e);
+                } finally {
+                    snapshot.release();
+                }
+                if (listener == null){
+                    return;
+                }
+                final boolean result = success;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCanvasSaved(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get the file named by a handle, for other state saved next to the tiles
+     * @param handle
+     * @return File
+     */
+    public File getFile(String handle){
+        return new File(mDirectory, handle);
+    }
+
+    /**
+     * Read the tiles of the file named by the handle in the background
+     * @param handle
+     * @param listener invoked on the main thread
+     */
+    public void load(final String handle, final OnCanvasLoadedListener listener){
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CanvasState state = null;
+                try {
+                    state = read(handle);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to load canvas " + handle, e);
+                }
+                final CanvasState result = state;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCanvasLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Write the snapshot into a temporary file and rename it over the old one
+     */
+    private void write(CanvasSnapshot snapshot, String handle) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()){
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File file = new File(mDirectory, handle);
+        File temporary = new File(mDirectory, handle + ".tmp");
+        snapshot.writeTo(temporary);
+        if (!temporary.renameTo(file)){
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    private CanvasState read(String handle) throws IOException {
+        return CanvasSnapshot.read(new File(mDirectory, handle));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Raw snapshot of the allocated tiles of a TiledCanvasStore. The file holds a SnapshotHeader
+ * followed by the uncompressed pixels of every tile in the bitmap's own memory layout, so a
+ * snapshot is written tile by tile with plain channel writes and restored by mapping the file
+ * and copying each tile straight into a bitmap, with no image decoding. Tiles with a current
+ * copy in the tile cache are not copied when the snapshot is taken, their copy is pinned and
+ * read back while the file is written. The snapshot retains the cache until it is released, so
+ * the view closing its caches, for example on rotation, does not cut the write short.
+ */
+public class CanvasSnapshot {
+    private static final int TILE_PIXELS =
+            TiledCanvasStore.TILE_SIZE * TiledCanvasStore.TILE_SIZE;
+    private static final int TILE_BYTES = TILE_PIXELS * 4;
+
+    private final SnapshotHeader mHeader;
+    //pixels of each tile without a cached copy, null for the others
+    private final int[][] mPixels;
+    //pinned cached copy of each of the other tiles
+    private final TileCache.Entry[] mCopies;
+    //retained until release, null if the store has no cache
+    private TileCache mTileCache;
+
+    private CanvasSnapshot(SnapshotHeader header, int[][] pixels, TileCache.Entry[] copies,
+            TileCache cache){
+        mHeader = header;
+        mPixels = pixels;
+        mCopies = copies;
+        mTileCache = cache;
+    }
+
+    /**
+     * Copy the pixels of the allocated tiles of the store that are only in memory, and pin the
+     * cached copies of the others. This is the only part of a save that has to run on the
+     * thread owning the store, and it never loads an evicted tile
+     * @param store
+     * @return CanvasSnapshot to be written once with writeTo, or dropped with release
+     */
+    public static CanvasSnapshot capture(TiledCanvasStore store){
+        int count = store.getAllocatedTileCount();
+        int[] columns = new int[count];
+        int[] rows = new int[count];
+        int[][] pixels = new int[count][];
+        TileCache.Entry[] copies = new TileCache.Entry[count];
+        int i = 0;
+        for (int row = 0; row < store.getRows(); row++){
+            for (int column = 0; column < store.getColumns(); column++){
+                if (!store.isEvicted(column, row) && store.getTile(column, row) == null){
+                    continue;
+                }
+                columns[i] = column;
+                rows[i] = row;
+                copies[i] = store.pinCachedTile(column, row);
+                if (copies[i] == null){
+                    pixels[i] = new int[TILE_PIXELS];
+                    store.getTile(column, row).copyPixelsToBuffer(IntBuffer.wrap(pixels[i]));
+                }
+                i++;
+            }
+        }
+        TileCache cache = store.getTileCache();
+        if (cache != null){
+            cache.retain();
+        }
+        return new CanvasSnapshot(new SnapshotHeader(store.getWidth(), store.getHeight(),
+                TiledCanvasStore.TILE_SIZE, columns, rows), pixels, copies, cache);
+    }
+
+    /**
+     * Write the snapshot to the file, one tile at a time, and release it
+     * @param file
+     * @throws IOException
+     */
+    public void writeTo(File file) throws IOException {
+        try {
+            ByteBuffer header = mHeader.encode();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                FileChannel channel = out.getChannel();
+                while (header.hasRemaining()){
+                    channel.write(header);
+                }
+                //the int values hold the bitmap bytes in native order
+                ByteBuffer tile = ByteBuffer.allocateDirect(TILE_BYTES)
+                        .order(ByteOrder.nativeOrder());
+                int[] pixels = new int[TILE_PIXELS];
+                for (int i = 0; i < mPixels.length; i++){
+                    if (mPixels[i] != null){
+                        tile.asIntBuffer().put(mPixels[i]);
+                    } else {
+                        mTileCache.read(mCopies[i], pixels);
+                        tile.asIntBuffer().put(pixels);
+                    }
+                    while (tile.hasRemaining()){
+                        channel.write(tile);
+                    }
+                    tile.clear();
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Unpin the cached copies and release the cache, if the snapshot is not going to be
+     * written. Safe to call more than once
+     */
+    public void release(){
+        if (mTileCache == null){
+            return;
+        }
+        for (int i = 0; i < mCopies.length; i++){
+            if (mCopies[i] != null){
+                mTileCache.unpin(mCopies[i]);
+                mCopies[i] = null;
+            }
+        }
+        mTileCache.release();
+        mTileCache = null;
+    }
+
+    /**
+     * Map the file and copy every tile into a new mutable bitmap
+     * @param file
+     * @return CanvasPersistence.CanvasState
+     * @throws IOException if the file is not a snapshot of the current format
+     */
+    public static CanvasPersistence.CanvasState read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            SnapshotHeader header = SnapshotHeader.decode(buffer, TiledCanvasStore.TILE_SIZE);
+            int count = header.getTileCount();
+            Bitmap[] tiles = new Bitmap[count];
+            int offset = header.getPixelOffset();
+            for (int i = 0; i < count; i++){
+                buffer.limit(offset + TILE_BYTES).position(offset);
+                tiles[i] = Bitmap.createBitmap(TiledCanvasStore.TILE_SIZE,
+                        TiledCanvasStore.TILE_SIZE, Bitmap.Config.ARGB_8888);
+                tiles[i].copyPixelsFromBuffer(buffer);
+                offset += TILE_BYTES;
+            }
+            return new CanvasPersistence.CanvasState(header.width, header.height,
+                    header.columns, header.rows, tiles);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -16,22 +16,31 @@
 
 package com.example.samplepaint;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.graphics.BitmapFactory;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.v4.view.MotionEventCompat;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
-import android.graphics.Path;
-import android.graphics.Paint;
-import android.graphics.Canvas;
-import android.graphics.Bitmap;
-import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This CustomView extends the View class. It is listening on the touch event
@@ -41,22 +50,284 @@ import java.io.ByteArrayOutputStream;
  */
 public class CustomPaintView extends View {
     private static String TAG = "CustomPaintView";
-    //drawing path
-    private Path mDrawPath;
     //defines what to draw
     private Paint mCanvasPaint;
     //defines how to draw
     private Paint mDrawPaint;
     //initial color
     private int mColor = Color.BLACK;
-    //canvas - holding pen, holds the drawings
+    //tiled backing store of the active layer - holds the drawings
     //and transfers them to the view
-    private Canvas mCanvas;
-    //canvas bitmap
-    private Bitmap mCanvasBitmap;
+    private TiledCanvasStore mCanvasStore;
+    //layers of the drawing and their cached composite, created with the first layout
+    private LayerStack mLayers;
+    //memory the tiles of all layers may use together
+    private long mMemoryBudget;
+    //document of the strokes drawn so far, the layers are a cache of it
+    private final StrokeDocument mDocument = new StrokeDocument();
+    //tile snapshots of the strokes and clears that can be undone
+    private final UndoHistory mHistory = new UndoHistory();
+    //saves the drawing with the instance state and restores it
+    private final SavedStateController mSavedState;
+    //writes and reads the document as a stroke file in the background
+    private final StrokeFiles mStrokeFiles;
+    private final CanvasExporter mExporter = new CanvasExporter();
+    //paint of the commands drawn while a stroke file loads
+    private Paint mLoadPaint;
+    private final StrokeFiles.OnStrokesLoadedListener mStrokesLoadedListener =
+            new StrokeFiles.OnStrokesLoadedListener() {
+        @Override
+        public void onLoadStarted(int width, int height) {
+            synchronized (mRenderLock) {
+                mReplay.end();
+                //the strokes in progress end here rather than draw into the cleared layers
+                handleActionCancel();
+                for (int i = 0; i < mLayers.getLayerCount(); i++) {
+                    mLayers.getLayer(i).getStore().clear();
+                }
+                mDocument.clear();
+                mHistory.clear();
+                mLayers.resize(width, height);
+                mViewport.setDocumentSize(width, height);
+            }
+            invalidateAll();
+        }
+
+        @Override
+        public void onStrokesLoaded(ArrayList<StrokeCommand> commands) {
+            synchronized (mRenderLock) {
+                int layerCount = mLayers.getLayerCount();
+                for (StrokeCommand command : commands) {
+                    //the reader rejects files with layers past StrokeFileWriter.MAX_LAYERS
+                    while (command.getLayer() >= mLayers.getLayerCount()) {
+                        mLayers.addLayer(createLayerStore(mCanvasStore.getWidth(),
+                                mCanvasStore.getHeight()));
+                    }
+                    mDocument.add(command);
+                    mDocument.apply(command, mLayers.getLayer(command.getLayer()).getStore(),
+                            mLoadPaint);
+                }
+                if (mLayers.getLayerCount() != layerCount) {
+                    applyMemoryBudget(mMemoryBudget);
+                }
+            }
+            invalidateAll();
+        }
+
+        @Override
+        public void onLoadFinished(boolean success) {
+            Log.d(TAG, "Stroke file loaded: " + success);
+        }
+    };
+    //latency and frame time histograms
+    private final PaintMetrics mMetrics = new PaintMetrics();
+    //System.nanoTime of the oldest brush touch whose samples have not reached the strokes yet,
+    //0 if there is none. Set by the UI thread and taken by the thread drawing the strokes
+    private final AtomicLong mPendingTouchNanos = new AtomicLong();
+    //System.nanoTime of the oldest touch drawn into the strokes but not onto the view yet,
+    //0 if there is none. Guarded by mRenderLock
+    private long mDrawnTouchNanos;
+    //the same for a touch applied to the strokes but not composited into the frame yet, only
+    //used in RENDER_MODE_THREAD
+    private long mFrameTouchNanos;
+    //draws the metric summaries over the canvas when set
+    private boolean mDebugOverlay;
+    private Paint mOverlayPaint;
+    private final StringBuilder mOverlayText = new StringBuilder();
+    //view area covered by the overlay
+    private final Rect mOverlayBounds = new Rect();
+
+    //maps the fixed document coordinates of the store to the view
+    private final Viewport mViewport = new Viewport();
+    private final ScaleGestureDetector mScaleDetector;
+    //focus of the pointers of the last navigation event, in view coordinates
+    private float mLastFocusX;
+    private float mLastFocusY;
+    private final Rect mPrefetchArea = new Rect();
+    //area covered by the segments appended since the last redraw, in document coordinates
+    private final Rect mDirtyRect = new Rect();
+    //one stroke per pointer on the screen, each with the samples waiting for the next frame
+    //rendered dabs of the brushes, shared by the live strokes and the document
+    private final DabCache mDabCache = new DabCache(DabCache.DEFAULT_MAX_BYTES);
+    private final PointerStrokePool mStrokes = new PointerStrokePool(SAMPLE_CAPACITY, mDirtyRect,
+            mMetrics.getHistogram(PaintMetrics.PREDICTION_GAIN), mDabCache);
+    //Brush new strokes are stamped with, Brush.ROUND for plain strokes
+    private int mBrushType = Brush.ROUND;
+    //how the width of new plain strokes follows the pointer
+    private int mWidthMode = WIDTH_MODE_FIXED;
+    //draw a predicted tail ahead of the live strokes
+    private boolean mPrediction;
+    //milliseconds past the newest sample the tail reaches
+    private float mPredictionHorizon = StrokePredictor.DEFAULT_HORIZON;
+    private boolean mFrameScheduled;
+    //when set, long strokes are rasterized into the canvas while they grow
+    private boolean mIncrementalCommit = true;
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFrameScheduled = false;
+            drainSamples();
+            onTouchApplied(mPendingTouchNanos.getAndSet(0));
+            invalidateDirty();
+        }
+    };
+    //time-lapse replay of the document, created in init
+    private ReplayController mReplay;
+    private final ReplayController.Host mReplayHost = new ReplayController.Host() {
+        @Override
+        public LayerStack getLayers() {
+            return mLayers;
+        }
+
+        @Override
+        public boolean isDrawing() {
+            return mStrokes.getActiveCount() > 0;
+        }
+
+        @Override
+        public boolean isRestorePending() {
+            return mSavedState.isRestorePending();
+        }
+
+        @Override
+        public TileCache openTileCache() {
+            return CustomPaintView.this.openTileCache();
+        }
+
+        @Override
+        public long getMinimumMemoryBudget() {
+            return CustomPaintView.this.getMinimumMemoryBudget();
+        }
+
+        @Override
+        public void invalidateDirty() {
+            CustomPaintView.this.invalidateDirty();
+        }
+
+        @Override
+        public void invalidateAll() {
+            CustomPaintView.this.invalidateAll();
+        }
+    };
+    //TOOL_BRUSH, TOOL_FILL or TOOL_NAVIGATE
+    private int mTool = TOOL_BRUSH;
+    private int mFillTolerance = DEFAULT_FILL_TOLERANCE;
+    //runs the fills in the background, created in the constructor
+    private final FillController mFill;
+    //pixels invalidated since the last reset, and what full repaints would have cost
+    private long mInvalidatedPixels;
+    private long mFullRepaintPixels;
+
+    //RENDER_MODE_UI or RENDER_MODE_THREAD, set from the renderMode layout attribute
+    private final int mRenderMode;
+    //guards the store, the document, the history and the strokes in RENDER_MODE_THREAD
+    private final Object mRenderLock = new Object();
+    //touch input handed from the UI thread to the render thread
+    private TouchEventQueue mEventQueue;
+    //read by the fill and mip threads to request frames
+    private volatile RenderThread mRenderThread;
+    //the view as composited by the render thread, null in RENDER_MODE_UI
+    private RenderFrame mFrame;
+    //view pixels changed by the last frame, only used on the render thread
+    private final Rect mFrameChanged = new Rect();
+    //brush of the stroke being started, only used on the render thread
+    private Paint mRenderBrush;
+    private final RenderThread.Callback mRenderCallback = new RenderThread.Callback() {
+        @Override
+        public void onDrainQueue(TouchEventQueue queue) {
+            processEvents(queue);
+        }
+
+        @Override
+        public void onRenderFrame() {
+            renderFrame();
+        }
+    };
+    private final TileMipPyramid.OnTilesBuiltListener mMipTilesBuiltListener =
+            new TileMipPyramid.OnTilesBuiltListener() {
+        @Override
+        public void onTilesBuilt() {
+            if (mFrame != null){
+                invalidateAll();
+            } else {
+                ViewCompat.postInvalidateOnAnimation(CustomPaintView.this);
+            }
+        }
+    };
+    //set while a redraw of the dirty area is posted from the render thread
+    private boolean mInvalidatePosted;
+    private final Runnable mInvalidateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mRenderLock) {
+                mInvalidatePosted = false;
+                invalidateDirty();
+            }
+        }
+    };
+
+    /**
+     * Strokes are rasterized on the UI thread in onTouchEvent and the frame callback
+     */
+    public static final int RENDER_MODE_UI = 0;
+    /**
+     * Touch samples are passed to a dedicated render thread that rasterizes them into the
+     * store and composites the frame, onDraw only draws the frame
+     */
+    public static final int RENDER_MODE_THREAD = 1;
+
+    /**
+     * Touches draw strokes
+     */
+    public static final int TOOL_BRUSH = 0;
+    /**
+     * A touch fills the region of similar color around it with the selected color
+     */
+    public static final int TOOL_FILL = 1;
+    /**
+     * One finger pans and two fingers pinch to zoom
+     */
+    public static final int TOOL_NAVIGATE = 2;
+
+    /**
+     * Strokes keep the width of the brush
+     */
+    public static final int WIDTH_MODE_FIXED = StrokeWidthModel.MODE_FIXED;
+    /**
+     * Strokes get wider the harder the pointer presses
+     */
+    public static final int WIDTH_MODE_PRESSURE = StrokeWidthModel.MODE_PRESSURE;
+    /**
+     * Strokes get thinner the faster the pointer moves
+     */
+    public static final int WIDTH_MODE_VELOCITY = StrokeWidthModel.MODE_VELOCITY;
+    public static final int DEFAULT_FILL_TOLERANCE = 32;
+
+    //touch samples buffered per pointer between two frames
+    private static final int SAMPLE_CAPACITY = 128;
+    //segments of the live path after which its stable prefix is drawn into the canvas
+    private static final int LIVE_SEGMENT_LIMIT = 32;
+    //queued dabs of a stamped stroke after which they are drawn into the canvas
+    private static final int LIVE_DAB_LIMIT = 64;
 
     private static final String SUPER_ID = "super";
-    private static final String BITMAP_ID = "bitmap";
+    //tint shown while the saved drawing is loading
+    private static final int RESTORE_PLACEHOLDER_COLOR = 0x20000000;
+    //text size and line height of the debug overlay in pixels
+    private static final float OVERLAY_TEXT_SIZE = 28f;
+    private static final int OVERLAY_LINE_HEIGHT = 34;
+    //touch events the UI thread can queue ahead of the render thread
+    private static final int EVENT_QUEUE_CAPACITY = 4096;
+    //queue entries only down, up and cancel events may take
+    private static final int EVENT_QUEUE_RESERVE = 4 * PointerStrokePool.MAX_POINTERS;
+    //directory of the tile file, under the cache directory of the app
+    private static final String TILE_CACHE_DIRECTORY = "tiles";
+    //share of the heap the tiles in memory may use
+    private static final int TILE_BUDGET_HEAP_DIVISOR = 4;
+    //view pixels around the dirty area that antialiasing may reach at any zoom
+    private static final int VIEW_ANTIALIAS_MARGIN = 2;
+    //pan events of movement ahead of the view that tiles are prefetched for
+    private static final int PREFETCH_PAN_STEPS = 8;
 
     //Constructor
     public CustomPaintView(Context context, AttributeSet attributeSet){
@@ -64,17 +335,111 @@ public class CustomPaintView extends View {
         setSaveEnabled(true);
         setFocusable(true);
         setFocusableInTouchMode(true);
+        mStrokeFiles = new StrokeFiles(context);
+        mDocument.setDabCache(mDabCache);
+
+        TypedArray attributes = context.obtainStyledAttributes(attributeSet,
+                R.styleable.CustomPaintView, 0, 0);
+        try {
+            mRenderMode = attributes.getInt(R.styleable.CustomPaintView_renderMode,
+                    RENDER_MODE_UI);
+            int documentWidth = attributes.getInt(R.styleable.CustomPaintView_documentWidth, 0);
+            int documentHeight = attributes.getInt(R.styleable.CustomPaintView_documentHeight,
+                    0);
+            if (documentWidth > 0 && documentHeight > 0) {
+                mViewport.setDocumentSize(documentWidth, documentHeight);
+            }
+            mBrushType = attributes.getInt(R.styleable.CustomPaintView_brush, Brush.ROUND);
+            mWidthMode = attributes.getInt(R.styleable.CustomPaintView_widthMode,
+                    WIDTH_MODE_FIXED);
+        } finally {
+            attributes.recycle();
+        }
         init();
+        mSavedState = new SavedStateController(context, mStrokeFiles, mRenderLock, mDocument,
+                mHistory, mViewport, mDrawPaint, mMetrics, new SavedStateController.Host() {
+            @Override
+            public LayerStack getLayers() {
+                return mLayers;
+            }
+
+            @Override
+            public TiledCanvasStore createLayerStore(int width, int height) {
+                return CustomPaintView.this.createLayerStore(width, height);
+            }
+
+            @Override
+            public void onRestoreProgress(boolean finished) {
+                if (finished){
+                    mReplay.resume();
+                }
+                invalidateAll();
+            }
+        });
+        mFill = new FillController(mRenderLock, mDocument, mHistory, mDirtyRect, mMetrics,
+                new FillController.OnFillAppliedListener() {
+            @Override
+            public void onFillApplied() {
+                invalidateDirty();
+            }
+        });
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                mViewport.zoomBy(detector.getScaleFactor(), detector.getFocusX(),
+                        detector.getFocusY());
+                invalidate();
+                return true;
+            }
+        });
+        if (mRenderMode == RENDER_MODE_THREAD) {
+            mEventQueue = new TouchEventQueue(EVENT_QUEUE_CAPACITY);
+            mRenderBrush = new Paint(mDrawPaint);
+            mFrame = new RenderFrame();
+        }
+    }
+
+    /**
+     * Get the rendering backend selected in the layout
+     * @return int RENDER_MODE_UI or RENDER_MODE_THREAD
+     */
+    public int getRenderMode(){
+        return mRenderMode;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mRenderMode == RENDER_MODE_THREAD && mRenderThread == null) {
+            mRenderThread = new RenderThread(mEventQueue, mRenderCallback);
+            mRenderThread.start();
+        }
+        mReplay.onAttachedToWindow();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        //a replay goes on from the same command if the view is attached again
+        mReplay.onDetachedFromWindow();
+        if (mRenderThread != null) {
+            mRenderThread.quit();
+            mRenderThread = null;
+            removeCallbacks(mInvalidateRunnable);
+            mInvalidatePosted = false;
+            synchronized (mRenderLock) {
+                mFrame.recycle();
+            }
+        }
+        super.onDetachedFromWindow();
     }
 
     /**
-     * Initialize the Paint and Path. These will be used to draw the
-     * view on the canvas
+     * Initialize the Paint. Every stroke copies it when it starts
      */
     public void init(){
         Log.d(TAG, "initializing CustomPaintView");
 
-        mDrawPath = new Path();
         mDrawPaint = new Paint();
         mDrawPaint.setColor(mColor);
         mDrawPaint.setAntiAlias(true);
@@ -83,17 +448,171 @@ public class CustomPaintView extends View {
         mDrawPaint.setStrokeJoin(Paint.Join.ROUND);
         mDrawPaint.setStrokeCap(Paint.Cap.ROUND);
 
-        mCanvasPaint = new Paint(Paint.DITHER_FLAG);
+        mCanvasPaint = new Paint(Paint.DITHER_FLAG | Paint.FILTER_BITMAP_FLAG);
+        mReplay = new ReplayController(this, mDocument, new Paint(mDrawPaint), mRenderLock,
+                mDirtyRect, mMipTilesBuiltListener, mReplayHost);
+
+        mOverlayPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mOverlayPaint.setTextSize(OVERLAY_TEXT_SIZE);
    }
 
     /**
-     * Draw the bitmap on canvas
+     * Draw the document on canvas. In RENDER_MODE_THREAD this is the frame the render thread
+     * composited, unless the view panned or zoomed since, in which case the document is
+     * composited here once and the render thread catches up with the new transform
      * @param canvas
      */
     @Override
     protected void onDraw(Canvas canvas){
-        canvas.drawBitmap(mCanvasBitmap, 0, 0, mCanvasPaint);
-        canvas.drawPath(mDrawPath, mDrawPaint);
+        long start = System.nanoTime();
+        if (mSavedState.isRestorePending()) {
+            canvas.drawColor(RESTORE_PLACEHOLDER_COLOR);
+        }
+        long touchNanos;
+        synchronized (mRenderLock) {
+            if (mFrame == null) {
+                drawDocument(canvas, mViewport);
+            } else if (mFrame.isCurrent(mViewport)) {
+                mFrame.draw(canvas);
+                if (mFrame.isPending()) {
+                    //a frame waited for the front bitmap to be shown
+                    requestFrame();
+                }
+            } else {
+                drawDocument(canvas, mViewport);
+                mFrame.setViewport(mViewport, getWidth(), getHeight());
+                requestFrame();
+            }
+            touchNanos = mDrawnTouchNanos;
+            mDrawnTouchNanos = 0;
+        }
+
+        if (touchNanos != 0) {
+            //this frame is the first to show the samples of the touch
+            mMetrics.recordSince(PaintMetrics.TOUCH_TO_DRAW, touchNanos);
+        }
+        mMetrics.recordSince(PaintMetrics.DRAW, start);
+        if (mDebugOverlay) {
+            drawOverlay(canvas);
+        }
+    }
+
+    /**
+     * Draw the tiles covered by the clip and the live paths on canvas, through the transform
+     * from document to view coordinates. Only the composite tiles a change marked are built
+     * again from the layers. When zoomed out the tiles come from the coarsest mip level that
+     * keeps the detail of the view. Called with the render lock held
+     * @param canvas
+     * @param viewport transform the canvas is drawn with
+     */
+    private void drawDocument(Canvas canvas, Viewport viewport){
+        canvas.save();
+        viewport.concat(canvas);
+        //the live strokes show what is committed, which ends at the document edges
+        canvas.clipRect(0, 0, viewport.getDocumentWidth(), viewport.getDocumentHeight());
+        //a replay draws into scratch layers of its own
+        LayerStack layers = mReplay.getLayers() != null ? mReplay.getLayers() : mLayers;
+        layers.draw(canvas, viewport.getScale(), mCanvasPaint);
+        for (int slot = 0; slot < PointerStrokePool.MAX_POINTERS; slot++){
+            ActiveStroke stroke = mStrokes.getStroke(slot);
+            if (stroke.isActive()){
+                stroke.draw(canvas);
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * Called on the render thread. Draws the view pixels changed since the last frame into the
+     * back bitmap of the frame, brings it to the front and invalidates those pixels
+     */
+    private void renderFrame(){
+        synchronized (mRenderLock) {
+            Viewport viewport = mFrame.getViewport();
+            if (!mDirtyRect.isEmpty()) {
+                viewport.toView(mDirtyRect);
+                mDirtyRect.inset(-VIEW_ANTIALIAS_MARGIN, -VIEW_ANTIALIAS_MARGIN);
+                mFrame.invalidate(mDirtyRect);
+                mDirtyRect.setEmpty();
+            }
+            Canvas canvas = mFrame.beginFrame();
+            if (canvas == null) {
+                //nothing changed, or onDraw requests the frame again once it showed the last
+                return;
+            }
+            drawDocument(canvas, viewport);
+            mFrame.endFrame(mFrameChanged);
+            if (mFrameTouchNanos != 0 && mDrawnTouchNanos == 0) {
+                mDrawnTouchNanos = mFrameTouchNanos;
+            }
+            mFrameTouchNanos = 0;
+        }
+        countInvalidatedPixels(mFrameChanged.width() * mFrameChanged.height());
+        ViewCompat.postInvalidateOnAnimation(this, mFrameChanged.left, mFrameChanged.top,
+                mFrameChanged.right, mFrameChanged.bottom);
+        if (mDebugOverlay) {
+            ViewCompat.postInvalidateOnAnimation(this, mOverlayBounds.left, mOverlayBounds.top,
+                    mOverlayBounds.right, mOverlayBounds.bottom);
+        }
+    }
+
+    /**
+     * Ask the render thread for a frame, if it runs
+     */
+    private void requestFrame(){
+        RenderThread thread = mRenderThread;
+        if (thread != null) {
+            thread.requestFrame();
+        }
+    }
+
+    /**
+     * Draw the summary of every metric in the top left corner of the view. The text is built
+     * in a reused StringBuilder
+     * @param canvas
+     */
+    private void drawOverlay(Canvas canvas){
+        mOverlayPaint.setColor(Color.argb(160, 0, 0, 0));
+        canvas.drawRect(mOverlayBounds, mOverlayPaint);
+        mOverlayPaint.setColor(Color.WHITE);
+        for (int metric = 0; metric < mMetrics.getMetricCount(); metric++){
+            mOverlayText.setLength(0);
+            mMetrics.appendSummary(metric, mOverlayText);
+            canvas.drawText(mOverlayText, 0, mOverlayText.length(), OVERLAY_LINE_HEIGHT / 2,
+                    (metric + 1) * OVERLAY_LINE_HEIGHT, mOverlayPaint);
+        }
+    }
+
+    /**
+     * Show or hide the latency and frame time summaries over the canvas
+     * @param enabled
+     */
+    public void setDebugOverlayEnabled(boolean enabled){
+        mDebugOverlay = enabled;
+        mOverlayBounds.set(0, 0, getWidth(),
+                (mMetrics.getMetricCount() + 1) * OVERLAY_LINE_HEIGHT - OVERLAY_LINE_HEIGHT / 2);
+        invalidate(mOverlayBounds);
+    }
+
+    public boolean isDebugOverlayEnabled(){
+        return mDebugOverlay;
+    }
+
+    /**
+     * Get the latency and frame time histograms of this view
+     * @return PaintMetrics
+     */
+    public PaintMetrics getMetrics(){
+        return mMetrics;
+    }
+
+    /**
+     * Get the p50, p95 and p99 of every metric, one per line. Meant for logs and
+     * instrumentation tests
+     * @return String
+     */
+    public String dumpMetrics(){
+        return mMetrics.dump();
     }
 
     /**
@@ -106,150 +625,1247 @@ public class CustomPaintView extends View {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        if (mCanvasBitmap == null) {
-            //create canvas and canvasbitmap
-            mCanvasBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        } else {
-            //Creating the scaled image so that it can be used in case of orientation change
-            Bitmap temporary = Bitmap.createScaledBitmap(mCanvasBitmap, w, h, true);
-            mCanvasBitmap = temporary;
+        if (!mViewport.hasDocumentSize()) {
+            //the document keeps the size of the first layout, unless it was restored
+            mViewport.setDocumentSize(w, h);
+        }
+        //on orientation change only the transform changes, the store keeps its pixels
+        mViewport.setViewSize(w, h);
+        synchronized (mRenderLock) {
+            if (mLayers == null) {
+                //tiles are allocated lazily as the user draws
+                mLayers = new LayerStack(mViewport.getDocumentWidth(),
+                        mViewport.getDocumentHeight());
+                mLayers.addLayer(createLayerStore(mViewport.getDocumentWidth(),
+                        mViewport.getDocumentHeight()));
+                mLayers.setMipBuilder(mRenderLock, mMipTilesBuiltListener);
+                mLayers.setTileCaches(openTileCache(), openTileCache(), openTileCache());
+            }
+            mSavedState.applyRestoredLayers();
+            mCanvasStore = mLayers.getActiveLayer().getStore();
+            applyMemoryBudget(getDefaultMemoryBudget());
+            mSavedState.applyRestoredTiles();
+        }
+        mReplay.resume();
+    }
+
+    /**
+     * Create the store of a new layer, evicting into its own tile file when one can be
+     * created. Changes to its tiles are recorded by the history and mark the composite
+     * @param width
+     * @param height
+     * @return TiledCanvasStore
+     */
+    private TiledCanvasStore createLayerStore(int width, int height){
+        final TiledCanvasStore store = new TiledCanvasStore(width, height);
+        store.setOnTileChangeListener(new TiledCanvasStore.OnTileChangeListener() {
+            @Override
+            public void onTileChanging(int column, int row, Bitmap tile) {
+                mHistory.onTileChanging(store, column, row, tile);
+                mLayers.onLayerTileChanging(store, column, row);
+            }
+
+            @Override
+            public void onEvictedTileReleasing(int column, int row, TileCache.Entry copy) {
+                mHistory.onEvictedTileReleasing(store, column, row, copy);
+                mLayers.onLayerTileChanging(store, column, row);
+            }
+        });
+        store.setTileCache(openTileCache());
+        return store;
+    }
+
+    /**
+     * Create a tile cache backed by a new tile file
+     * @return TileCache the cache, or null if the file cannot be created, in which case every
+     * tile of the store stays in memory
+     */
+    private TileCache openTileCache(){
+        try {
+            return TileCache.open(new File(getContext().getCacheDir(), TILE_CACHE_DIRECTORY));
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot create the tile cache", e);
+            return null;
         }
-        mCanvas = new Canvas( mCanvasBitmap);
     }
 
     /**
-     * Called when touch screen motion event occurs
+     * Called when touch screen motion event occurs. Every pointer draws its own stroke. The
+     * samples of a move event, including the historical samples batched into it, are queued
+     * and appended to the paths once per frame
      * @param event
      * @return boolean
      */
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        float x = event.getX();
-        float y = event.getY();
+        if (mSavedState.isRestorePending()) {
+            //strokes drawn now would be undone down to tiles the restore replaces
+            return true;
+        }
+        if (mReplay.isRunning()) {
+            //touching the view ends the replay, the rest of the gesture is ignored
+            if (MotionEventCompat.getActionMasked(event) == MotionEvent.ACTION_DOWN) {
+                mReplay.stop();
+            }
+            return true;
+        }
+        if (mTool != TOOL_BRUSH) {
+            //strokes begun before the tool changed still end with their pointers
+            endStrokes(event);
+        }
+        if (mTool == TOOL_NAVIGATE) {
+            return navigate(event);
+        }
+        if (mTool == TOOL_FILL) {
+            if (MotionEventCompat.getActionMasked(event) == MotionEvent.ACTION_DOWN) {
+                fillAt(mViewport.toDocumentX(event.getX()), mViewport.toDocumentY(event.getY()));
+            }
+            return true;
+        }
+        if (mFill.isPending()) {
+            //the fill owns the store until it is written
+            return true;
+        }
+        //the event time is in uptime milliseconds, moved onto the System.nanoTime clock
+        long touchNanos = System.nanoTime()
+                - (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L;
+        if (mRenderMode == RENDER_MODE_THREAD) {
+            boolean handled = enqueueEvent(event);
+            //set after the events are queued, so the render thread never takes it before them
+            mPendingTouchNanos.compareAndSet(0, touchNanos);
+            return handled;
+        }
+        mPendingTouchNanos.compareAndSet(0, touchNanos);
+        int actionIndex = MotionEventCompat.getActionIndex(event);
 
-        switch (event.getAction()){
+        switch (MotionEventCompat.getActionMasked(event)){
             case MotionEvent.ACTION_UP:
-                handleActionUp(x, y);
+            case MotionEventCompat.ACTION_POINTER_UP:
+                queueSamples(event);
+                handleActionUp(MotionEventCompat.getPointerId(event, actionIndex));
+                onTouchApplied(mPendingTouchNanos.getAndSet(0));
                 break;
             case MotionEvent.ACTION_DOWN:
-                handleActionDown(x, y);
+                //strokes still active at the start of a gesture missed their up event
+                handleActionCancel();
+                handleActionDown(MotionEventCompat.getPointerId(event, actionIndex),
+                        mViewport.toClampedDocumentX(MotionEventCompat.getX(event, actionIndex)),
+                        mViewport.toClampedDocumentY(MotionEventCompat.getY(event, actionIndex)),
+                        event.getEventTime(), event.getPressure(actionIndex), mDrawPaint,
+                        mBrushType, mWidthMode);
+                onTouchApplied(mPendingTouchNanos.getAndSet(0));
+                break;
+            case MotionEventCompat.ACTION_POINTER_DOWN:
+                handleActionDown(MotionEventCompat.getPointerId(event, actionIndex),
+                        mViewport.toClampedDocumentX(MotionEventCompat.getX(event, actionIndex)),
+                        mViewport.toClampedDocumentY(MotionEventCompat.getY(event, actionIndex)),
+                        event.getEventTime(), event.getPressure(actionIndex), mDrawPaint,
+                        mBrushType, mWidthMode);
+                onTouchApplied(mPendingTouchNanos.getAndSet(0));
                 break;
             case MotionEvent.ACTION_MOVE:
-                handleActionMove(x, y);
+                queueSamples(event);
+                scheduleFrame();
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                handleActionCancel();
                 break;
             default:
                 return false;
 
         }
-        //redraw
-        invalidate();
         return true;
     }
 
     /**
-     * Handles the touch event MotionEvent.ACTION_UP indicating that the user completed the drawing
-     * @param x
-     * @param y
+     * Finish or cancel the strokes an up or cancel event ends while another tool is selected.
+     * In RENDER_MODE_THREAD the strokes belong to the render thread, so the event is always
+     * queued and ends nothing if its pointer has no stroke
+     * @param event
      */
-    private void handleActionUp(float x, float y){
-        mDrawPath.lineTo(x, y);
-        mCanvas.drawPath(mDrawPath, mDrawPaint);
-        mDrawPath.reset();
+    private void endStrokes(MotionEvent event){
+        int action = MotionEventCompat.getActionMasked(event);
+        boolean cancel = action == MotionEvent.ACTION_CANCEL;
+        if (!cancel && action != MotionEvent.ACTION_UP
+                && action != MotionEventCompat.ACTION_POINTER_UP){
+            return;
+        }
+        int pointerId = MotionEventCompat.getPointerId(event,
+                MotionEventCompat.getActionIndex(event));
+        if (mRenderMode == RENDER_MODE_THREAD){
+            offerEvent(cancel ? TouchEventQueue.TYPE_CANCEL : TouchEventQueue.TYPE_UP,
+                    pointerId, 0, 0, event.getEventTime(), 0, mDrawPaint.getColor(),
+                    mDrawPaint.getStrokeWidth(), mBrushType, mWidthMode);
+            mRenderThread.wake();
+        } else if (cancel){
+            handleActionCancel();
+        } else {
+            handleActionUp(pointerId);
+        }
     }
 
     /**
-     * Handles the touch event MotionEvent.ACTION_DOWN indicating the user started the drawing
-     * @param x
-     * @param y
+     * Pan with the focus of the pointers and zoom with the distance between them
+     * @param event
+     * @return boolean
      */
-    private void handleActionDown(float x, float y){
-        mDrawPath.moveTo(x, y);
+    private boolean navigate(MotionEvent event){
+        mScaleDetector.onTouchEvent(event);
+        int action = MotionEventCompat.getActionMasked(event);
+        //a lifted pointer no longer counts towards the focus
+        int skipIndex = action == MotionEventCompat.ACTION_POINTER_UP
+                ? MotionEventCompat.getActionIndex(event) : -1;
+        float sumX = 0;
+        float sumY = 0;
+        int count = 0;
+        for (int p = 0; p < MotionEventCompat.getPointerCount(event); p++){
+            if (p != skipIndex){
+                sumX += MotionEventCompat.getX(event, p);
+                sumY += MotionEventCompat.getY(event, p);
+                count++;
+            }
+        }
+        if (count == 0){
+            return true;
+        }
+        float focusX = sumX / count;
+        float focusY = sumY / count;
+        if (action == MotionEvent.ACTION_MOVE){
+            float dx = focusX - mLastFocusX;
+            float dy = focusY - mLastFocusY;
+            mViewport.panBy(dx, dy);
+            prefetchAhead(dx, dy);
+            invalidate();
+        }
+        mLastFocusX = focusX;
+        mLastFocusY = focusY;
+        return true;
     }
 
     /**
-     * Handles the touch event MotionEvent.ACTION_MOVE indicating the user is moving the finger on
-     * the view
-     * @param x
-     * @param y
+     * Start loading the evicted tiles the view is moving towards
+     * @param dx last pan step in view pixels
+     * @param dy
      */
-    private void handleActionMove(float x, float y){
-        mDrawPath.lineTo(x, y);
+    private void prefetchAhead(float dx, float dy){
+        if (mLayers == null){
+            return;
+        }
+        mViewport.getVisibleDocumentRect(mPrefetchArea);
+        //the document moves with the fingers, so the view moves over it the other way
+        float scale = mViewport.getScale();
+        mPrefetchArea.offset(Math.round(-dx * PREFETCH_PAN_STEPS / scale),
+                Math.round(-dy * PREFETCH_PAN_STEPS / scale));
+        synchronized (mRenderLock) {
+            for (int i = 0; i < mLayers.getLayerCount(); i++){
+                if (mLayers.getLayer(i).isVisible()){
+                    mLayers.getLayer(i).getStore().prefetch(mPrefetchArea);
+                }
+            }
+        }
     }
 
     /**
-     * Clear the canvas. Invoked by the user action to clear the content of the canvas
+     * Go back to the whole document fitting the view
      */
-    public void clearAll(){
-        Log.d(TAG, "Clear all called");
-        mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+    public void resetZoom(){
+        mViewport.resetZoom();
         invalidate();
     }
 
     /**
-     * Set the color in the Paint that the user selected using the color picker
-     * @param color
+     * Get the magnification over the scale that fits the document in the view
+     * @return float
      */
-    public void setSelectedColor(int color){
-        Log.d(TAG, "setting the selected color to" + color);
-        invalidate();
-        mDrawPaint.setColor(color);
+    public float getZoom(){
+        return mViewport.getZoom();
     }
 
     /**
-     * Get the selected color. Used by unit test to verify the selected color
-     * @return int color
+     * Queue the historical samples and the current sample of every pointer of the event with
+     * the stroke of that pointer
+     * @param event
      */
-    public int getSelectedColor(){
-        return mDrawPaint.getColor();
+    private void queueSamples(MotionEvent event){
+        int historySize = event.getHistorySize();
+        int pointerCount = MotionEventCompat.getPointerCount(event);
+        for (int p = 0; p < pointerCount; p++){
+            ActiveStroke stroke = mStrokes.get(MotionEventCompat.getPointerId(event, p));
+            if (stroke == null){
+                continue;
+            }
+            for (int i = 0; i < historySize; i++){
+                stroke.queue(mViewport.toClampedDocumentX(event.getHistoricalX(p, i)),
+                        mViewport.toClampedDocumentY(event.getHistoricalY(p, i)),
+                        event.getHistoricalEventTime(i), event.getHistoricalPressure(p, i));
+            }
+            stroke.queue(mViewport.toClampedDocumentX(MotionEventCompat.getX(event, p)),
+                    mViewport.toClampedDocumentY(MotionEventCompat.getY(event, p)),
+                    event.getEventTime(), event.getPressure(p));
+        }
     }
 
     /**
-     * Callback when the view instance state is about to get saved
-     * @return
+     * Hand the event to the render thread, in document coordinates. Move samples, including
+     * the historical ones, become one queue entry each
+     * @param event
+     * @return boolean
      */
-    @Override
-    protected Parcelable onSaveInstanceState() {
-        Bundle outState = new Bundle();
-        outState.putParcelable(SUPER_ID, super.onSaveInstanceState());
-        outState.putByteArray(BITMAP_ID, compressBitmap(mCanvasBitmap));
-        return outState;
+    private boolean enqueueEvent(MotionEvent event){
+        int actionIndex = MotionEventCompat.getActionIndex(event);
+        int color = mDrawPaint.getColor();
+        float width = mDrawPaint.getStrokeWidth();
+        int brushType = mBrushType;
+        int widthMode = mWidthMode;
+
+        switch (MotionEventCompat.getActionMasked(event)){
+            case MotionEvent.ACTION_UP:
+            case MotionEventCompat.ACTION_POINTER_UP:
+                enqueueMoves(event);
+                offerEvent(TouchEventQueue.TYPE_UP,
+                        MotionEventCompat.getPointerId(event, actionIndex), 0, 0,
+                        event.getEventTime(), 0, color, width, brushType, widthMode);
+                break;
+            case MotionEvent.ACTION_DOWN:
+            case MotionEventCompat.ACTION_POINTER_DOWN:
+                if (MotionEventCompat.getActionMasked(event) == MotionEvent.ACTION_DOWN){
+                    //strokes still active at the start of a gesture missed their up event
+                    offerEvent(TouchEventQueue.TYPE_CANCEL, 0, 0, 0, event.getEventTime(), 0,
+                            color, width, brushType, widthMode);
+                }
+                offerEvent(TouchEventQueue.TYPE_DOWN,
+                        MotionEventCompat.getPointerId(event, actionIndex),
+                        mViewport.toClampedDocumentX(MotionEventCompat.getX(event, actionIndex)),
+                        mViewport.toClampedDocumentY(MotionEventCompat.getY(event, actionIndex)),
+                        event.getEventTime(), event.getPressure(actionIndex), color, width,
+                        brushType, widthMode);
+                break;
+            case MotionEvent.ACTION_MOVE:
+                enqueueMoves(event);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                offerEvent(TouchEventQueue.TYPE_CANCEL, 0, 0, 0, event.getEventTime(), 0, color,
+                        width, brushType, widthMode);
+                break;
+            default:
+                return false;
+        }
+        mRenderThread.wake();
+        return true;
+    }
+
+    private void enqueueMoves(MotionEvent event){
+        int historySize = event.getHistorySize();
+        int pointerCount = MotionEventCompat.getPointerCount(event);
+        for (int p = 0; p < pointerCount; p++){
+            int pointerId = MotionEventCompat.getPointerId(event, p);
+            for (int i = 0; i < historySize; i++){
+                offerEvent(TouchEventQueue.TYPE_MOVE, pointerId,
+                        mViewport.toClampedDocumentX(event.getHistoricalX(p, i)),
+                        mViewport.toClampedDocumentY(event.getHistoricalY(p, i)),
+                        event.getHistoricalEventTime(i), event.getHistoricalPressure(p, i), 0, 0,
+                        0, 0);
+            }
+            offerEvent(TouchEventQueue.TYPE_MOVE, pointerId,
+                    mViewport.toClampedDocumentX(MotionEventCompat.getX(event, p)),
+                    mViewport.toClampedDocumentY(MotionEventCompat.getY(event, p)),
+                    event.getEventTime(), event.getPressure(p), 0, 0, 0, 0);
+        }
     }
 
     /**
-     * Callback method when the state is about to get restored
-     * @param state
+     * Offer an event to the render thread without ever waiting on the UI thread. Once the
+     * render thread falls behind by nearly a full queue, move samples are dropped, and the
+     * entries left free keep the events that start and end strokes from being lost
      */
-    @Override
-    protected void onRestoreInstanceState(Parcelable state) {
-        if (state instanceof Bundle){
-            Bundle stateBundle = (Bundle)state;
-            if (stateBundle.containsKey(SUPER_ID)){
-                super.onRestoreInstanceState(stateBundle.getParcelable(SUPER_ID));
+    private void offerEvent(int type, int pointerId, float x, float y, long time, float pressure,
+            int color, float width, int brushType, int widthMode){
+        if (type == TouchEventQueue.TYPE_MOVE
+                && mEventQueue.remainingCapacity() <= EVENT_QUEUE_RESERVE){
+            return;
+        }
+        if (!mEventQueue.offer(type, pointerId, x, y, time, pressure, color, width, brushType,
+                widthMode)){
+            Log.w(TAG, "Touch event queue full, dropped event of type " + type);
+        }
+    }
+
+    /**
+     * Called on the render thread. Applies the queued events to the strokes, draws everything
+     * they added into the store and posts a redraw of the dirty area. The render lock is taken
+     * for one event or one stroke at a time, so onDraw never waits for a whole batch
+     * @param queue
+     */
+    private void processEvents(TouchEventQueue queue){
+        //taken before the queue is read, so the events of the touch are part of this batch
+        long touchNanos = mPendingTouchNanos.getAndSet(0);
+        while (!queue.isEmpty()){
+            synchronized (mRenderLock) {
+                switch (queue.getType()){
+                    case TouchEventQueue.TYPE_DOWN:
+                        if (mFill.isPending()){
+                            //queued before the fill, which owns the store until it is written
+                            break;
+                        }
+                        mRenderBrush.setColor(queue.getColor());
+                        mRenderBrush.setStrokeWidth(queue.getWidth());
+                        handleActionDown(queue.getPointerId(), queue.getX(), queue.getY(),
+                                queue.getTime(), queue.getPressure(), mRenderBrush,
+                                queue.getBrushType(), queue.getWidthMode());
+                        break;
+                    case TouchEventQueue.TYPE_MOVE:
+                        ActiveStroke stroke = mStrokes.get(queue.getPointerId());
+                        if (stroke != null){
+                            stroke.queue(queue.getX(), queue.getY(), queue.getTime(),
+                                    queue.getPressure());
+                        }
+                        break;
+                    case TouchEventQueue.TYPE_UP:
+                        handleActionUp(queue.getPointerId());
+                        break;
+                    case TouchEventQueue.TYPE_CANCEL:
+                        handleActionCancel();
+                        break;
+                }
+            }
+            queue.remove();
+        }
+        for (int slot = 0; slot < PointerStrokePool.MAX_POINTERS; slot++){
+            synchronized (mRenderLock) {
+                ActiveStroke stroke = mStrokes.getStroke(slot);
+                if (stroke.isActive()){
+                    stroke.drain();
+                    if (isCommitDue(stroke)){
+                        stroke.commitLivePath(mCanvasStore);
+                    }
+                    if (mPrediction){
+                        stroke.predictTail(mPredictionHorizon);
+                    }
+                }
+            }
+        }
+        synchronized (mRenderLock) {
+            onTouchApplied(touchNanos);
+            invalidateDirty();
+        }
+    }
+
+    /**
+     * Called once the samples of a touch reached the strokes, with the render lock held in
+     * RENDER_MODE_THREAD, so the next onDraw records the latency of the oldest of them
+     * @param touchNanos System.nanoTime of the touch, 0 if there was none
+     */
+    private void onTouchApplied(long touchNanos){
+        if (touchNanos == 0){
+            return;
+        }
+        if (mFrame != null){
+            //shown once the render thread composited a frame with it
+            if (mFrameTouchNanos == 0){
+                mFrameTouchNanos = touchNanos;
             }
+        } else if (mDrawnTouchNanos == 0){
+            mDrawnTouchNanos = touchNanos;
+        }
+    }
+
+    /**
+     * Request a single redraw on the next animation frame. Samples queued until then are
+     * appended to the paths in one batch
+     */
+    private void scheduleFrame(){
+        if (!mFrameScheduled){
+            mFrameScheduled = true;
+            ViewCompat.postOnAnimation(this, mFrameRunnable);
+        }
+    }
 
-            if (stateBundle.containsKey(BITMAP_ID)){
-                mCanvasBitmap = uncompressBitmap(stateBundle.getByteArray(BITMAP_ID));
+    /**
+     * Append the queued samples of every active stroke to its path, growing the dirty
+     * rectangle to cover them
+     */
+    private void drainSamples(){
+        for (int slot = 0; slot < PointerStrokePool.MAX_POINTERS; slot++){
+            ActiveStroke stroke = mStrokes.getStroke(slot);
+            if (stroke.isActive()){
+                stroke.drain();
+                if (isCommitDue(stroke)){
+                    //the committed pixels are the ones onDraw showed, nothing to invalidate
+                    stroke.commitLivePath(mCanvasStore);
+                }
+                if (mPrediction){
+                    stroke.predictTail(mPredictionHorizon);
+                }
             }
         }
     }
 
     /**
-     * Compressing the Bitmap to byte[] before saving it in bundle
-     * @param bitmap
-     * @return byte[]
+     * Check whether the live part of a stroke grew long enough to be drawn into the store
+     * @param stroke
+     * @return boolean false if incremental commits are off
+     */
+    private boolean isCommitDue(ActiveStroke stroke){
+        return mIncrementalCommit && (stroke.getLiveSegments() >= LIVE_SEGMENT_LIMIT
+                || stroke.getLiveDabs() >= LIVE_DAB_LIMIT);
+    }
+
+    /**
+     * Enable or disable the predicted tail. When enabled every live stroke is extended by
+     * where its pointer is expected to be a horizon after the newest sample, which hides part
+     * of the delay between the touch and the frame that shows it
+     * @param enabled
      */
-    private byte[] compressBitmap(Bitmap bitmap){
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
-        return stream.toByteArray();
+    public void setPredictionEnabled(boolean enabled){
+        mPrediction = enabled;
+    }
+
+    public boolean isPredictionEnabled(){
+        return mPrediction;
     }
 
     /**
-     * Uncompressing byte[] back to bitmap
-     * @param byte[]
-     * @return Bitmap
+     * Set how far ahead of the newest sample the predicted tail reaches
+     * @param milliseconds
      */
-    private Bitmap uncompressBitmap(byte[] bytes){
-       return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    public void setPredictionHorizon(float milliseconds){
+        mPredictionHorizon = milliseconds;
+    }
+
+    /**
+     * Get the latency the predicted tail took off the strokes, measured by comparing every
+     * prediction with the samples that followed it
+     * @return long mean reduction in microseconds, 0 if nothing was predicted
+     */
+    public long getPredictedLatencyReduction(){
+        return mMetrics.getHistogram(PaintMetrics.PREDICTION_GAIN).getMean();
+    }
+
+    /**
+     * Enable or disable the incremental commit of long strokes. When enabled the cost of
+     * drawing the stroke in progress stays constant however long the stroke gets
+     * @param enabled
+     */
+    public void setIncrementalCommit(boolean enabled){
+        mIncrementalCommit = enabled;
+    }
+
+    public boolean isIncrementalCommit(){
+        return mIncrementalCommit;
+    }
+
+    /**
+     * Invalidates the view pixels covering the dirty rectangle collected since the last redraw.
+     * The viewport belongs to the UI thread, so on the render and fill threads, with the render
+     * lock held, the rectangle is left for a runnable posted to the UI thread. In
+     * RENDER_MODE_THREAD it is left for the next frame of the render thread instead
+     */
+    private void invalidateDirty(){
+        if (mDirtyRect.isEmpty()){
+            return;
+        }
+        if (mFrame != null){
+            requestFrame();
+            return;
+        }
+        if (Looper.myLooper() != Looper.getMainLooper()){
+            if (!mInvalidatePosted){
+                mInvalidatePosted = true;
+                ViewCompat.postOnAnimation(this, mInvalidateRunnable);
+            }
+            return;
+        }
+        mViewport.toView(mDirtyRect);
+        //the padding of the strokes is in document pixels, which shrink when zoomed out
+        mDirtyRect.inset(-VIEW_ANTIALIAS_MARGIN, -VIEW_ANTIALIAS_MARGIN);
+        if (mDirtyRect.intersect(0, 0, getWidth(), getHeight())){
+            countInvalidatedPixels(mDirtyRect.width() * mDirtyRect.height());
+            invalidate(mDirtyRect);
+        }
+        mDirtyRect.setEmpty();
+        if (mDebugOverlay) {
+            //the overlay shows the metrics of the frame being invalidated
+            ViewCompat.postInvalidateOnAnimation(this, mOverlayBounds.left, mOverlayBounds.top,
+                    mOverlayBounds.right, mOverlayBounds.bottom);
+        }
+    }
+
+    /**
+     * Invalidates the whole view and records it as a full repaint. In RENDER_MODE_THREAD the
+     * render thread composites the whole frame again first
+     */
+    private void invalidateAll(){
+        if (mFrame != null){
+            synchronized (mRenderLock) {
+                mFrame.invalidateAll();
+            }
+            requestFrame();
+            return;
+        }
+        countInvalidatedPixels(getWidth() * getHeight());
+        invalidate();
+    }
+
+    /**
+     * Records the pixels of one invalidate request next to the cost of a full repaint
+     * @param pixels
+     */
+    private void countInvalidatedPixels(long pixels){
+        synchronized (mRenderLock) {
+            mInvalidatedPixels += pixels;
+            mFullRepaintPixels += (long) getWidth() * getHeight();
+        }
+    }
+
+    /**
+     * Get the number of pixels invalidated since the last reset
+     * @return long pixel count
+     */
+    public long getInvalidatedPixelCount(){
+        return mInvalidatedPixels;
+    }
+
+    /**
+     * Get the number of pixels that would have been invalidated since the last reset if every
+     * request had repainted the whole view
+     * @return long pixel count
+     */
+    public long getFullRepaintPixelCount(){
+        return mFullRepaintPixels;
+    }
+
+    /**
+     * Reset the invalidation counters
+     */
+    public void resetInvalidationStats(){
+        synchronized (mRenderLock) {
+            mInvalidatedPixels = 0;
+            mFullRepaintPixels = 0;
+        }
+    }
+
+    /**
+     * Handles the touch events MotionEvent.ACTION_UP and ACTION_POINTER_UP indicating that the
+     * user completed the stroke of a pointer. The samples still queued are appended before the
+     * path is drawn into the canvas. The undo step ends when the last pointer is lifted
+     * @param pointerId
+     */
+    private void handleActionUp(int pointerId){
+        ActiveStroke stroke = mStrokes.get(pointerId);
+        if (stroke == null){
+            return;
+        }
+        long start = System.nanoTime();
+        finishStroke(stroke);
+        if (mStrokes.getActiveCount() == 0){
+            mHistory.endOperation();
+        }
+        mMetrics.recordSince(PaintMetrics.COMMIT, start);
+        invalidateDirty();
+    }
+
+    /**
+     * Handles the touch event MotionEvent.ACTION_DOWN or ACTION_POINTER_DOWN indicating the user
+     * started a stroke with another pointer. Pointers beyond the size of the pool are ignored
+     * @param pointerId
+     * @param x
+     * @param y
+     * @param time
+     * @param pressure
+     * @param brush paint the stroke copies its color and width from
+     * @param brushType Brush the stroke is stamped with
+     * @param widthMode how the width of the stroke follows the pointer
+     */
+    private void handleActionDown(int pointerId, float x, float y, long time, float pressure,
+            Paint brush, int brushType, int widthMode){
+        ActiveStroke stale = mStrokes.get(pointerId);
+        if (stale != null){
+            //the pointer id was reused before its up event arrived
+            finishStroke(stale);
+        }
+        if (mStrokes.getActiveCount() == 0){
+            mHistory.beginOperation();
+        }
+        ActiveStroke stroke = mStrokes.acquire(pointerId);
+        if (stroke == null){
+            return;
+        }
+        stroke.begin(pointerId, x, y, time, pressure, brush, brushType, widthMode);
+        invalidateDirty();
+    }
+
+    /**
+     * Handles the touch event MotionEvent.ACTION_CANCEL. The strokes drawn so far are kept
+     */
+    private void handleActionCancel(){
+        if (mStrokes.getActiveCount() == 0){
+            return;
+        }
+        for (int slot = 0; slot < PointerStrokePool.MAX_POINTERS; slot++){
+            ActiveStroke stroke = mStrokes.getStroke(slot);
+            if (stroke.isActive()){
+                finishStroke(stroke);
+            }
+        }
+        mHistory.endOperation();
+        invalidateDirty();
+    }
+
+    /**
+     * Draw the rest of the stroke into the canvas, record its command and release it
+     * @param stroke
+     */
+    private void finishStroke(ActiveStroke stroke){
+        int pointerId = stroke.getPointerId();
+        StrokeCommand command = stroke.finish(mCanvasStore);
+        command.setLayer(mLayers.getActiveIndex());
+        mDocument.add(command);
+        mHistory.addCommand(command);
+        mStrokes.release(pointerId);
+    }
+
+    /**
+     * Shrink the memory used by the canvas when the system runs low. Tiles over the smaller
+     * budget are evicted into the tile caches, so no ink is lost, and the composite, the
+     * downsampled tiles and the fill buffer are released. The budget goes back to normal when
+     * the view is shown again
+     * @param level the level passed to ComponentCallbacks2.onTrimMemory
+     */
+    public void onTrimMemory(int level){
+        if (mLayers == null){
+            return;
+        }
+        synchronized (mRenderLock) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+                applyMemoryBudget(getMinimumMemoryBudget());
+                mLayers.trimMemory();
+                mFill.trimMemory();
+                mDabCache.trimMemory();
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE){
+                applyMemoryBudget(Math.max(getMinimumMemoryBudget(), mMemoryBudget / 2));
+            }
+        }
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE && mLayers != null) {
+            synchronized (mRenderLock) {
+                applyMemoryBudget(getDefaultMemoryBudget());
+            }
+        }
+    }
+
+    /**
+     * Delete the tile files. Call once the view is no longer used. A file is only deleted once
+     * the writes queued for it are done and the saves still reading tiles from it, like the
+     * one started by onSaveInstanceState before a rotation, are written
+     */
+    public void release(){
+        if (mLayers == null){
+            return;
+        }
+        synchronized (mRenderLock) {
+            for (int i = 0; i < mLayers.getLayerCount(); i++){
+                TiledCanvasStore store = mLayers.getLayer(i).getStore();
+                if (store.getTileCache() != null){
+                    store.getTileCache().close();
+                }
+            }
+            mLayers.closeTileCaches();
+        }
+    }
+
+    /**
+     * Split the memory budget between the downsampled tiles, the layers and, unless the stack
+     * is drawn straight from its only layer, the cached composites. The shares add up to the
+     * budget, so the tiles in memory never use more than it
+     * @param bytes
+     */
+    private void applyMemoryBudget(long bytes){
+        mMemoryBudget = bytes;
+        int stores = mLayers.getLayerCount();
+        if (!mLayers.isFlat()){
+            stores += LayerStack.COMPOSITE_STORE_COUNT;
+        }
+        //the downsampled tiles only have to cover the view, and get what is left over
+        long mipBudget = Math.min(getMinimumMemoryBudget(), bytes / (stores + 1));
+        long storeBudget = (bytes - mipBudget) / stores;
+        mLayers.setMipMemoryBudget(bytes - storeBudget * stores);
+        for (int i = 0; i < mLayers.getLayerCount(); i++){
+            mLayers.getLayer(i).getStore().setMemoryBudget(storeBudget);
+        }
+        mLayers.setCompositeMemoryBudget(mLayers.isFlat() ? 0 : storeBudget);
+    }
+
+    /**
+     * Get the memory the tiles in memory may use normally, a share of the heap but at least
+     * the minimum
+     * @return long bytes
+     */
+    private long getDefaultMemoryBudget(){
+        return Math.max(getMinimumMemoryBudget(),
+                Runtime.getRuntime().maxMemory() / TILE_BUDGET_HEAP_DIVISOR);
+    }
+
+    /**
+     * Get the memory of the tiles a frame may draw: the view covers at most twice its size in
+     * document pixels before a downsampled level is drawn instead
+     * @return long bytes
+     */
+    private long getMinimumMemoryBudget(){
+        int columns = 2 * getWidth() / TiledCanvasStore.TILE_SIZE + 2;
+        int rows = 2 * getHeight() / TiledCanvasStore.TILE_SIZE + 2;
+        return (long) columns * rows * TiledCanvasStore.TILE_BYTES;
+    }
+
+    /**
+     * Select what touches do
+     * @param tool TOOL_BRUSH, TOOL_FILL or TOOL_NAVIGATE
+     */
+    public void setTool(int tool){
+        mTool = tool;
+    }
+
+    public int getTool(){
+        return mTool;
+    }
+
+    /**
+     * Select the brush new strokes are drawn with. Strokes with a Brush are stamped with its
+     * dabs, which are rendered once per brush, width and color and then cached
+     * @param brushType Brush.ROUND for plain strokes, or the type of a registered Brush
+     */
+    public void setBrushType(int brushType){
+        mBrushType = brushType;
+    }
+
+    public int getBrushType(){
+        return mBrushType;
+    }
+
+    /**
+     * Select how the width of new strokes follows the pointer. A variable-width stroke is
+     * drawn as a triangle mesh that is extended with every sample. Strokes stamped with a
+     * Brush keep a fixed width
+     * @param widthMode WIDTH_MODE_FIXED, WIDTH_MODE_PRESSURE or WIDTH_MODE_VELOCITY
+     */
+    public void setWidthMode(int widthMode){
+        mWidthMode = widthMode;
+    }
+
+    public int getWidthMode(){
+        return mWidthMode;
+    }
+
+    /**
+     * Set how far the color of a pixel may be from the touched one for a fill to cover it
+     * @param tolerance largest difference of any channel, 0 to 255
+     */
+    public void setFillTolerance(int tolerance){
+        mFillTolerance = tolerance;
+    }
+
+    public int getFillTolerance(){
+        return mFillTolerance;
+    }
+
+    /**
+     * Fill the region of the active layer around the point with the selected color as one undo
+     * step. The fill covers the whole document and goes through it tile by tile, so its memory
+     * use does not grow with the size of the canvas. The strokes in progress are finished first,
+     * and the fill runs in the background: only copying a tile in and out holds the lock, and
+     * strokes, fills and other edits are ignored until it is written
+     * @param x in document coordinates
+     * @param y
+     * @return boolean false if the point is outside of the document or another edit is in
+     * progress
+     */
+    public boolean fillAt(float x, float y){
+        if (mSavedState.isRestorePending() || mFill.isPending()){
+            return false;
+        }
+        mReplay.stop();
+        int documentWidth = mViewport.getDocumentWidth();
+        int documentHeight = mViewport.getDocumentHeight();
+        if (x < 0 || y < 0 || x >= documentWidth || y >= documentHeight){
+            return false;
+        }
+        StrokeCommand fill = StrokeCommand.fill((int) x, (int) y, mDrawPaint.getColor(),
+                mFillTolerance, 0, 0, documentWidth, documentHeight);
+        synchronized (mRenderLock) {
+            //the fill covers the pixels of the strokes in progress, which end here
+            handleActionCancel();
+            fill.setLayer(mLayers.getActiveIndex());
+            mFill.start(fill, mCanvasStore);
+        }
+        return true;
+    }
+
+    /**
+     * Clear the active layer. Invoked by the user action to clear the content of the canvas
+     */
+    public void clearAll(){
+        Log.d(TAG, "Clear all called");
+        if (mSavedState.isRestorePending() || mFill.isPending()){
+            return;
+        }
+        mReplay.stop();
+        StrokeCommand clear = StrokeCommand.clear();
+        synchronized (mRenderLock) {
+            clear.setLayer(mLayers.getActiveIndex());
+            //while fingers are down the clear joins the undo step of their strokes
+            boolean standalone = mStrokes.getActiveCount() == 0;
+            if (standalone){
+                mHistory.beginOperation();
+            }
+            mCanvasStore.clear();
+            mDocument.add(clear);
+            mHistory.addCommand(clear);
+            if (standalone){
+                mHistory.endOperation();
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Revert the last stroke or clear. Only the tiles it changed are restored
+     * @return false if there is nothing to undo
+     */
+    public boolean undo(){
+        if (mSavedState.isRestorePending() || mFill.isPending()){
+            return false;
+        }
+        mReplay.stop();
+        synchronized (mRenderLock) {
+            if (mStrokes.getActiveCount() > 0
+                    || !mHistory.undo(mDocument, mDirtyRect)){
+                return false;
+            }
+            //the history swaps whole tiles without going through the listener
+            mLayers.invalidate(mDirtyRect);
+            invalidateDirty();
+            return true;
+        }
+    }
+
+    /**
+     * Apply the last undone stroke or clear again
+     * @return false if there is nothing to redo
+     */
+    public boolean redo(){
+        if (mSavedState.isRestorePending() || mFill.isPending()){
+            return false;
+        }
+        mReplay.stop();
+        synchronized (mRenderLock) {
+            if (mStrokes.getActiveCount() > 0
+                    || !mHistory.redo(mDocument, mDirtyRect)){
+                return false;
+            }
+            //the history swaps whole tiles without going through the listener
+            mLayers.invalidate(mDirtyRect);
+            invalidateDirty();
+            return true;
+        }
+    }
+
+    public boolean canUndo(){
+        return mHistory.canUndo();
+    }
+
+    public boolean canRedo(){
+        return mHistory.canRedo();
+    }
+
+    /**
+     * Set the memory the undo history may use. The oldest steps are dropped to stay within it
+     * @param bytes
+     */
+    public void setUndoBudget(long bytes){
+        mHistory.setByteBudget(bytes);
+    }
+
+    /**
+     * Get the document of the strokes drawn on this view
+     * @return StrokeDocument
+     */
+    public StrokeDocument getDocument(){
+        return mDocument;
+    }
+
+    /**
+     * Discard the pixels of every layer and render them again from the document
+     */
+    public void rebuildCanvas(){
+        Paint paint = new Paint(mDrawPaint);
+        synchronized (mRenderLock) {
+            mReplay.end();
+            mHistory.clear();
+            for (int i = 0; i < mLayers.getLayerCount(); i++){
+                mDocument.render(mLayers.getLayer(i).getStore(), paint, i);
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Save the document as a compact stroke file in the background. Unlike the saved instance
+     * state it holds the commands rather than the pixels, so it is a fraction of the size.
+     * Layer properties are not part of the document and are not saved
+     * @param file
+     */
+    public void saveStrokes(File file){
+        synchronized (mRenderLock) {
+            mStrokeFiles.save(mDocument, mViewport.getDocumentWidth(),
+                    mViewport.getDocumentHeight(), file, null);
+        }
+    }
+
+    /**
+     * Replace the drawing with the document of a stroke file. The commands are drawn in
+     * batches as they are read, so the first strokes show while the file is still loading.
+     * Call after the first layout
+     * @param file
+     * @return false while another edit is in progress
+     */
+    public boolean loadStrokes(File file){
+        if (mSavedState.isRestorePending() || mFill.isPending()){
+            return false;
+        }
+        mLoadPaint = new Paint(mDrawPaint);
+        mStrokeFiles.load(file, mStrokesLoadedListener);
+        return true;
+    }
+
+    /**
+     * Export the composited layers of the whole document as a PNG file in the background.
+     * The render lock is only held while the rows of each strip are copied, so drawing goes on
+     * during a long export, and strokes drawn meanwhile may show in the strips read after them
+     * @param file
+     * @param listener invoked on the main thread, may be null
+     */
+    public void exportPng(File file, CanvasExporter.OnExportFinishedListener listener){
+        final int width = mViewport.getDocumentWidth();
+        mExporter.export(new PngStripEncoder.PixelSource() {
+            private final Rect mArea = new Rect();
+
+            @Override
+            public void readRows(int top, int rows, int[] pixels) {
+                mArea.set(0, top, width, top + rows);
+                synchronized (mRenderLock) {
+                    mLayers.readPixels(pixels, mArea);
+                }
+            }
+        }, width, mViewport.getDocumentHeight(), file, listener);
+    }
+
+    /**
+     * Replay the document stroke by stroke from an empty canvas, at the replay speed. The
+     * replay draws into scratch layers shown in place of the layers of the drawing, which are
+     * left untouched. Drawing is disabled until the replay ends, and touching the view ends it
+     * @return boolean false if there is nothing to replay or strokes are being drawn
+     */
+    public boolean startReplay(){
+        return mReplay.start();
+    }
+
+    /**
+     * End the replay, showing the whole drawing again
+     */
+    public void stopReplay(){
+        mReplay.stop();
+    }
+
+    /**
+     * Show the drawing as it was after the given number of commands. The layers are rebuilt
+     * from the nearest keyframe captured before the position, and the replay goes on from it
+     * @param position
+     */
+    public void seekReplay(int position){
+        mReplay.seekTo(position);
+    }
+
+    public boolean isReplaying(){
+        return mReplay.isRunning();
+    }
+
+    /**
+     * Get the number of commands the replay has drawn
+     * @return int
+     */
+    public int getReplayPosition(){
+        return mReplay.getPosition();
+    }
+
+    /**
+     * Set how many strokes the replay draws per second. A replay that falls behind draws
+     * several strokes in one frame
+     * @param strokesPerSecond
+     */
+    public void setReplaySpeed(float strokesPerSecond){
+        mReplay.setSpeed(strokesPerSecond);
+    }
+
+    /**
+     * Make the replay start over after a pause once it reaches the end, for example to loop
+     * it on a kiosk
+     * @param looping
+     */
+    public void setReplayLooping(boolean looping){
+        mReplay.setLooping(looping);
+    }
+
+    /**
+     * Add an empty layer on top of the others and make it the active layer
+     * @return int index of the new layer, or -1 while strokes are being drawn or once there
+     * are as many layers as a stroke file can hold
+     */
+    public int addLayer(){
+        int index;
+        synchronized (mRenderLock) {
+            if (mStrokes.getActiveCount() > 0
+                    || mLayers.getLayerCount() >= StrokeFileWriter.MAX_LAYERS){
+                return -1;
+            }
+            index = mLayers.addLayer(createLayerStore(mCanvasStore.getWidth(),
+                    mCanvasStore.getHeight()));
+            mLayers.setActiveIndex(index);
+            mCanvasStore = mLayers.getActiveLayer().getStore();
+            applyMemoryBudget(mMemoryBudget);
+        }
+        invalidateAll();
+        return index;
+    }
+
+    public int getLayerCount(){
+        return mLayers.getLayerCount();
+    }
+
+    /**
+     * Select the layer strokes, fills and clears go into
+     * @param index
+     * @return false while strokes are being drawn
+     */
+    public boolean setActiveLayer(int index){
+        synchronized (mRenderLock) {
+            if (mStrokes.getActiveCount() > 0){
+                return false;
+            }
+            mLayers.setActiveIndex(index);
+            mCanvasStore = mLayers.getActiveLayer().getStore();
+        }
+        invalidateAll();
+        return true;
+    }
+
+    public int getActiveLayer(){
+        return mLayers.getActiveIndex();
+    }
+
+    public void setLayerVisible(int index, boolean visible){
+        synchronized (mRenderLock) {
+            mLayers.setVisible(index, visible);
+            applyMemoryBudget(mMemoryBudget);
+        }
+        invalidateAll();
+    }
+
+    public boolean isLayerVisible(int index){
+        return mLayers.getLayer(index).isVisible();
+    }
+
+    /**
+     * Set the opacity a layer is composited with
+     * @param index
+     * @param opacity 0 to 255
+     */
+    public void setLayerOpacity(int index, int opacity){
+        synchronized (mRenderLock) {
+            mLayers.setOpacity(index, opacity);
+            applyMemoryBudget(mMemoryBudget);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Set how a layer is blended with the layers below it
+     * @param index
+     * @param mode PorterDuff.Mode.SRC_OVER to draw it over them
+     */
+    public void setLayerBlendMode(int index, PorterDuff.Mode mode){
+        synchronized (mRenderLock) {
+            mLayers.setBlendMode(index, mode);
+            applyMemoryBudget(mMemoryBudget);
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Set the color in the Paint that the user selected using the color picker
+     * @param color
+     */
+    public void setSelectedColor(int color){
+        Log.d(TAG, "setting the selected color to" + color);
+        invalidate();
+        mDrawPaint.setColor(color);
+    }
+
+    /**
+     * Get the selected color. Used by unit test to verify the selected color
+     * @return int color
+     */
+    public int getSelectedColor(){
+        return mDrawPaint.getColor();
+    }
+
+    /**
+     * Callback when the view instance state is about to get saved. The tiles of each layer and
+     * the document are written to files in app-private storage in the background and the
+     * bundle only holds the properties of the layers, which name the files by their index.
+     * While a restore is still loading, the files of the last save hold the drawing and are
+     * kept as they are. A replay in progress goes on, the bundle holds the command it reached,
+     * its speed and whether it loops, and the restored view resumes it from there. The SAVE
+     * metric covers the save until the last file is written
+     * @return
+     */
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Bundle outState = new Bundle();
+        if (getId() == NO_ID) {
+            //the files are named by the id, views without one would overwrite each other's
+            Log.w(TAG, "Not saving the canvas of a view without an id");
+        } else if (mSavedState.save(outState, getId())) {
+            mReplay.save(outState);
+        }
+        outState.putParcelable(SUPER_ID, super.onSaveInstanceState());
+        return outState;
+    }
+
+    /**
+     * Callback method when the state is about to get restored. The tiles and the document are
+     * loaded in the background and a placeholder is drawn until they arrive. Touches are
+     * ignored meanwhile, so that nothing is drawn under the restored tiles
+     * @param state
+     */
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (state instanceof Bundle){
+            Bundle stateBundle = (Bundle)state;
+            if (stateBundle.containsKey(SUPER_ID)){
+                super.onRestoreInstanceState(stateBundle.getParcelable(SUPER_ID));
+            }
+            mSavedState.restore(stateBundle, getId());
+            synchronized (mRenderLock) {
+                if (mLayers != null) {
+                    //the restored properties may have selected another layer
+                    mCanvasStore = mLayers.getActiveLayer().getStore();
+                }
+            }
+            //resumed once the restored drawing arrived
+            mReplay.restore(stateBundle);
+        }
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Matrix;
+import android.graphics.Shader;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Least recently used cache of the rendered dabs of the brushes, keyed by brush type, diameter
+ * and color and bounded by the bytes of the bitmaps. A stroke looks its dab up once when it
+ * starts, so a cached dab costs nothing per dab, and a new one is rendered once for the whole
+ * stroke. The dabs of a textured brush are kept as alpha masks shared by every color, and its
+ * texture is kept as a repeating shader.
+ */
+public class DabCache {
+    public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    //turn of the textures against the document, so that their repeats do not line up with the
+    //tile grid or with horizontal and vertical strokes
+    private static final float TEXTURE_ROTATION = 30;
+
+    private final LruCache<Long, Bitmap> mDabs;
+    //reused to render a dab
+    private int[] mPixels = new int[0];
+    //indexed by brush type, null until a stroke of the type needs its texture
+    private BitmapShader[] mTextures = new BitmapShader[0];
+
+    /**
+     * @param maxBytes memory the dab bitmaps may use
+     */
+    public DabCache(int maxBytes){
+        mDabs = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap dab) {
+                return dab.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Get the dab of a brush, rendering it if it is not cached
+     * @param type brush type
+     * @param brush the brush of the type
+     * @param diameter
+     * @param color ignored for textured brushes
+     * @return Bitmap diameter x diameter pixels, an ALPHA_8 mask for textured brushes
+     */
+    public synchronized Bitmap get(int type, Brush brush, int diameter, int color){
+        boolean textured = brush.getTextureSize() > 0;
+        if (textured){
+            //the color comes from the texture
+            color = 0xFF000000;
+        }
+        long key = (long) type << 48 | (long) (diameter & 0xFFFF) << 32 | (color & 0xFFFFFFFFL);
+        Bitmap dab = mDabs.get(key);
+        if (dab == null){
+            if (mPixels.length < diameter * diameter){
+                mPixels = new int[diameter * diameter];
+            }
+            brush.renderDab(diameter, color, mPixels);
+            dab = Bitmap.createBitmap(diameter, diameter, Bitmap.Config.ARGB_8888);
+            dab.setPixels(mPixels, 0, diameter, 0, 0, diameter, diameter);
+            if (textured){
+                Bitmap mask = dab.extractAlpha();
+                dab.recycle();
+                dab = mask;
+            }
+            mDabs.put(key, dab);
+        }
+        return dab;
+    }
+
+    /**
+     * Get the texture of a brush as a shader that repeats it across the document, rendering it
+     * if it is not cached. The shader maps document coordinates, like the canvases of the tiles
+     * and of the view once the viewport is applied
+     * @param type brush type
+     * @param brush the brush of the type, with a texture
+     * @return BitmapShader
+     */
+    public synchronized BitmapShader getTexture(int type, Brush brush){
+        if (type < mTextures.length && mTextures[type] != null){
+            return mTextures[type];
+        }
+        int size = brush.getTextureSize();
+        int[] pixels = new int[size * size];
+        brush.renderTexture(pixels);
+        Bitmap texture = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        texture.setPixels(pixels, 0, size, 0, 0, size, size);
+        BitmapShader shader = new BitmapShader(texture, Shader.TileMode.REPEAT,
+                Shader.TileMode.REPEAT);
+        Matrix matrix = new Matrix();
+        matrix.setRotate(TEXTURE_ROTATION);
+        shader.setLocalMatrix(matrix);
+        if (type >= mTextures.length){
+            mTextures = Arrays.copyOf(mTextures, type + 1);
+        }
+        mTextures[type] = shader;
+        return shader;
+    }
+
+    /**
+     * Drop every dab, every texture and the render buffer. Strokes in progress keep their dab
+     * and their texture
+     */
+    public synchronized void trimMemory(){
+        mDabs.evictAll();
+        mPixels = new int[0];
+        mTextures = new BitmapShader[0];
+    }
+
+    /**
+     * Get the memory used by the cached dabs
+     * @return int bytes
+     */
+    public int getByteCount(){
+        return mDabs.size();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+
+import java.util.Arrays;
+
+/**
+ * Places the dabs of a Brush along the segments of a smoothed stroke. The centers of the dabs
+ * are queued until they are drawn into a TiledCanvasStore, so the dabs of the live part of a
+ * stroke can be drawn over the tiles every frame and committed later, the same way the live
+ * path of a plain stroke is. Quadratic segments are flattened into lines short enough for the
+ * dab spacing. Placing a dab only writes two floats, nothing is allocated once the queue has
+ * grown to the length of the longest live part. The mask dab of a textured brush is drawn with
+ * the texture of the brush tinted with the stroke color, so the texture stays fixed to the
+ * document wherever the dabs land.
+ */
+public class DabStamper implements StrokeSmoother.PathSink {
+    //length of the lines a quadratic segment is flattened into, in dab spacings
+    private static final float FLATTEN_STEPS = 2;
+    private static final int MAX_FLATTEN_LINES = 16;
+
+    private final DabCache mCache;
+    private final DabSpacing mSpacing = new DabSpacing();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //dab of the current stroke, null for a plain stroke
+    private Bitmap mDab;
+    //tints the texture of a textured brush, kept while the strokes keep their color
+    private PorterDuffColorFilter mTint;
+    private int mTintColor;
+    private float mRadius;
+    private float mStep;
+    //x, y pairs of the centers of the dabs not committed yet
+    private float[] mPending = new float[128];
+    private int mPendingCount;
+    //end of the last segment
+    private float mPenX;
+    private float mPenY;
+
+    public DabStamper(DabCache cache){
+        mCache = cache;
+    }
+
+    /**
+     * Prepare the dab of a stroke and drop the dabs still queued
+     * @param brushType
+     * @param color
+     * @param width stroke width, the diameter of the dabs
+     * @return false if the brush type has no Brush and the stroke is drawn as a path
+     */
+    public boolean begin(int brushType, int color, float width){
+        mPendingCount = 0;
+        Brush brush = Brush.get(brushType);
+        if (brush == null){
+            mDab = null;
+            return false;
+        }
+        int diameter = BrushDab.getDiameter(width);
+        mDab = mCache.get(brushType, brush, diameter, color);
+        if (brush.getTextureSize() > 0){
+            if (mTint == null || mTintColor != color){
+                mTint = new PorterDuffColorFilter(color, PorterDuff.Mode.SRC_IN);
+                mTintColor = color;
+            }
+            mPaint.setShader(mCache.getTexture(brushType, brush));
+            mPaint.setColorFilter(mTint);
+        } else {
+            mPaint.setShader(null);
+            mPaint.setColorFilter(null);
+        }
+        mRadius = diameter / 2f;
+        mStep = brush.getSpacing() * diameter;
+        return true;
+    }
+
+    @Override
+    public void moveTo(float x, float y){
+        mSpacing.begin(x, y, mStep);
+        queueDabs();
+        mPenX = x;
+        mPenY = y;
+    }
+
+    @Override
+    public void lineTo(float x, float y){
+        mSpacing.lineTo(x, y);
+        queueDabs();
+        mPenX = x;
+        mPenY = y;
+    }
+
+    @Override
+    public void quadTo(float controlX, float controlY, float x, float y){
+        //the control polygon is at least as long as the curve
+        float length = distance(mPenX, mPenY, controlX, controlY)
+                + distance(controlX, controlY, x, y);
+        int lines = Math.max(1, Math.min(MAX_FLATTEN_LINES,
+                (int) Math.ceil(length / (mStep * FLATTEN_STEPS))));
+        float startX = mPenX;
+        float startY = mPenY;
+        for (int i = 1; i <= lines; i++){
+            float t = (float) i / lines;
+            float u = 1 - t;
+            mSpacing.lineTo(u * u * startX + 2 * u * t * controlX + t * t * x,
+                    u * u * startY + 2 * u * t * controlY + t * t * y);
+            queueDabs();
+        }
+        mPenX = x;
+        mPenY = y;
+    }
+
+    /**
+     * Draw the queued dabs into the store and empty the queue
+     * @param store
+     */
+    public void commit(TiledCanvasStore store){
+        if (mPendingCount > 0){
+            store.drawBitmaps(mDab, mPending, mPendingCount, mPaint);
+            mPendingCount = 0;
+        }
+    }
+
+    /**
+     * Draw the queued dabs on a canvas, keeping them queued
+     * @param canvas
+     */
+    public void draw(Canvas canvas){
+        for (int i = 0; i < mPendingCount; i++){
+            canvas.drawBitmap(mDab, mPending[i * 2] - mRadius, mPending[i * 2 + 1] - mRadius,
+                    mPaint);
+        }
+    }
+
+    /**
+     * Get the number of dabs queued since the last commit
+     * @return int
+     */
+    public int getPendingCount(){
+        return mPendingCount;
+    }
+
+    private void queueDabs(){
+        while (mSpacing.next()){
+            if (mPendingCount * 2 == mPending.length){
+                mPending = Arrays.copyOf(mPending, mPending.length * 2);
+            }
+            mPending[mPendingCount * 2] = mSpacing.getX();
+            mPending[mPendingCount * 2 + 1] = mSpacing.getY();
+            mPendingCount++;
+        }
+    }
+
+    private static float distance(float x0, float y0, float x1, float y1){
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
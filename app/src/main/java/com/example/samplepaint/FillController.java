@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs the fills of a CustomPaintView in the background, one at a time. A fill owns the store
+ * it fills from the moment it starts until it is written: the view ignores strokes and other
+ * edits meanwhile, so the render lock is only held while a tile is copied in or out and the
+ * view keeps drawing during a long fill. The fill is recorded in the document and the undo
+ * history as one undo step.
+ */
+public class FillController {
+    /**
+     * Interface definition for a callback to be invoked once a fill is written
+     */
+    public interface OnFillAppliedListener {
+        /**
+         * Called on the fill thread with the lock held, once the filled pixels are in the
+         * store and marked in the dirty rectangle
+         */
+        void onFillApplied();
+    }
+
+    private final CanvasFill mCanvasFill = new CanvasFill(PaintExecutor.getInstance());
+    //guards the store, the document and the history, shared with the view
+    private final Object mLock;
+    private final StrokeDocument mDocument;
+    private final UndoHistory mHistory;
+    //area the fill changed, in document coordinates, shared with the view
+    private final Rect mDirtyRect;
+    private final PaintMetrics mMetrics;
+    private final OnFillAppliedListener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //set from the start of a fill until it is written, changed on the UI thread with the lock
+    //held
+    private boolean mPending;
+
+    /**
+     * @param lock guards the store, the document and the history
+     * @param document fills are added to it
+     * @param history every fill is one undo step
+     * @param dirtyRect grown by the area a fill changed
+     * @param metrics records the FILL metric
+     * @param listener
+     */
+    public FillController(Object lock, StrokeDocument document, UndoHistory history,
+            Rect dirtyRect, PaintMetrics metrics, OnFillAppliedListener listener){
+        mLock = lock;
+        mDocument = document;
+        mHistory = history;
+        mDirtyRect = dirtyRect;
+        mMetrics = metrics;
+        mListener = listener;
+    }
+
+    /**
+     * Check whether a fill is running, in which case nothing else may write the store
+     * @return boolean
+     */
+    public boolean isPending(){
+        return mPending;
+    }
+
+    /**
+     * Start a fill in the background. Called on the UI thread with the lock held and no
+     * strokes in progress
+     * @param fill command of the fill, with its layer set
+     * @param store the layer the fill goes into
+     */
+    public void start(final StrokeCommand fill, final TiledCanvasStore store){
+        final long start = System.nanoTime();
+        mPending = true;
+        PaintExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                apply(fill, store);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mLock) {
+                            mPending = false;
+                        }
+                        mMetrics.recordSince(PaintMetrics.FILL, start);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Release the fill buffers, unless a fill is using them. Called with the lock held
+     */
+    public void trimMemory(){
+        if (!mPending){
+            mCanvasFill.trimMemory();
+        }
+    }
+
+    /**
+     * Called on the fill thread. Nothing else writes the store while the fill is pending, so
+     * the lock is only held while a tile is copied in or out
+     */
+    private void apply(StrokeCommand fill, TiledCanvasStore store){
+        synchronized (mLock) {
+            mHistory.beginOperation();
+        }
+        mCanvasFill.apply(store, fill, mDirtyRect, mLock);
+        synchronized (mLock) {
+            mDocument.add(fill);
+            mHistory.addCommand(fill);
+            mHistory.endOperation();
+            mListener.onFillApplied();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+
+/**
+ * One layer of a LayerStack: a TiledCanvasStore with the visibility, opacity and blend mode
+ * it is composited with. The properties are changed through the LayerStack, which recomposites
+ * the tiles they affect.
+ */
+public class Layer {
+    private final TiledCanvasStore mStore;
+    private boolean mVisible = true;
+    private int mOpacity = 255;
+    private PorterDuff.Mode mBlendMode = PorterDuff.Mode.SRC_OVER;
+    //draws the tiles of the layer onto the layers below it
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public Layer(TiledCanvasStore store){
+        mStore = store;
+    }
+
+    public TiledCanvasStore getStore(){
+        return mStore;
+    }
+
+    public boolean isVisible(){
+        return mVisible;
+    }
+
+    void setVisible(boolean visible){
+        mVisible = visible;
+    }
+
+    /**
+     * Get the opacity the layer is composited with
+     * @return int 0 to 255
+     */
+    public int getOpacity(){
+        return mOpacity;
+    }
+
+    void setOpacity(int opacity){
+        mOpacity = opacity;
+        mPaint.setAlpha(opacity);
+    }
+
+    public PorterDuff.Mode getBlendMode(){
+        return mBlendMode;
+    }
+
+    void setBlendMode(PorterDuff.Mode mode){
+        mBlendMode = mode;
+        mPaint.setXfermode(mode == PorterDuff.Mode.SRC_OVER ? null : new PorterDuffXfermode(mode));
+    }
+
+    /**
+     * Whether the layer is drawn fully opaque with the default blend mode, so compositing it
+     * is a plain draw of its tiles
+     * @return boolean
+     */
+    public boolean isNormal(){
+        return mOpacity == 255 && mBlendMode == PorterDuff.Mode.SRC_OVER;
+    }
+
+    Paint getPaint(){
+        return mPaint;
+    }
+}
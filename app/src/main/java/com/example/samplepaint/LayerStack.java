@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * Ordered layers of a drawing, bottom first, and the cached composite the view draws. Only
+ * the tiles a change touched are composited again, and each of them is composited from three
+ * cached tiles: the layers below the active one, the active layer and the layers above it. A
+ * stroke on the active layer therefore costs the same however many layers there are. The
+ * layers above are only merged into one cached tile while they all use the default blend mode,
+ * otherwise they are composited one by one.
+ *
+ * A stack of a single layer with default properties is drawn straight from its store, without
+ * a composite. The cached composites evict into tile caches like the layers do, so they count
+ * against the memory budget of the drawing.
+ */
+public class LayerStack {
+    //cached composites: below and above the active layer, and of all layers
+    public static final int COMPOSITE_STORE_COUNT = 3;
+
+    private final ArrayList<Layer> mLayers = new ArrayList<Layer>();
+    private int mActive;
+
+    //cached composites of the layers below and above the active one, and of all layers
+    private final TiledCanvasStore mBelow;
+    private final TiledCanvasStore mAbove;
+    private final TiledCanvasStore mComposite;
+    private boolean[] mBelowDirty;
+    private boolean[] mAboveDirty;
+    private boolean[] mCompositeDirty;
+    private int mColumns;
+    private int mRows;
+
+    //downsampled tiles of the store that is drawn
+    private TileMipPyramid mPyramid;
+    private Object mMipLock;
+    private TileMipPyramid.OnTilesBuiltListener mMipListener;
+    private long mMipBudget = Long.MAX_VALUE;
+    //composites the tiles the downsampled tiles are built from as they are needed
+    private final TileMipPyramid.TileProvider mCompositeProvider =
+            new TileMipPyramid.TileProvider() {
+        @Override
+        public Bitmap getTile(int column, int row) {
+            if (column < mColumns && row < mRows && mCompositeDirty[row * mColumns + column]){
+                mCompositeDirty[row * mColumns + column] = false;
+                compositeTile(column, row, row * mColumns + column, canMergeAbove());
+            }
+            return mComposite.getTile(column, row);
+        }
+    };
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mClip = new Rect();
+
+    /**
+     * Create an empty stack of layers covering width x height pixels
+     * @param width
+     * @param height
+     */
+    public LayerStack(int width, int height){
+        mBelow = new TiledCanvasStore(width, height);
+        mAbove = new TiledCanvasStore(width, height);
+        mComposite = new TiledCanvasStore(width, height);
+        layOut();
+    }
+
+    /**
+     * Add a layer on top of the others. The store must cover the size of the stack
+     * @param store
+     * @return int index of the new layer
+     */
+    public int addLayer(TiledCanvasStore store){
+        mLayers.add(new Layer(store));
+        invalidateAll();
+        return mLayers.size() - 1;
+    }
+
+    public int getLayerCount(){
+        return mLayers.size();
+    }
+
+    public Layer getLayer(int index){
+        return mLayers.get(index);
+    }
+
+    public int getActiveIndex(){
+        return mActive;
+    }
+
+    public Layer getActiveLayer(){
+        return mLayers.get(mActive);
+    }
+
+    /**
+     * Select the layer that strokes are drawn into. The cached composites below and above it
+     * are built again
+     * @param index
+     */
+    public void setActiveIndex(int index){
+        if (index != mActive){
+            mActive = index;
+            invalidateAll();
+        }
+    }
+
+    public void setVisible(int index, boolean visible){
+        mLayers.get(index).setVisible(visible);
+        invalidateAll();
+    }
+
+    /**
+     * Set the opacity a layer is composited with
+     * @param index
+     * @param opacity 0 to 255
+     */
+    public void setOpacity(int index, int opacity){
+        mLayers.get(index).setOpacity(opacity);
+        invalidateAll();
+    }
+
+    public void setBlendMode(int index, PorterDuff.Mode mode){
+        mLayers.get(index).setBlendMode(mode);
+        invalidateAll();
+    }
+
+    /**
+     * Grow every layer and the composites to the given size
+     * @param width
+     * @param height
+     */
+    public void resize(int width, int height){
+        for (Layer layer : mLayers){
+            layer.getStore().resize(width, height);
+        }
+        mBelow.resize(width, height);
+        mAbove.resize(width, height);
+        mComposite.resize(width, height);
+        layOut();
+    }
+
+    /**
+     * Attach the caches the cached composites evict into once their memory budget is exceeded
+     * @param below
+     * @param above
+     * @param composite
+     */
+    public void setTileCaches(TileCache below, TileCache above, TileCache composite){
+        mBelow.setTileCache(below);
+        mAbove.setTileCache(above);
+        mComposite.setTileCache(composite);
+    }
+
+    /**
+     * Set the memory the tiles in memory of each cached composite may use. A budget of 0, for
+     * a stack drawn straight from its only layer, releases them instead of evicting them
+     * @param bytes
+     */
+    public void setCompositeMemoryBudget(long bytes){
+        if (bytes == 0){
+            mBelow.clear();
+            mAbove.clear();
+            mComposite.clear();
+            for (int i = 0; i < mCompositeDirty.length; i++){
+                mBelowDirty[i] = true;
+                mAboveDirty[i] = true;
+                mCompositeDirty[i] = true;
+            }
+        }
+        mBelow.setMemoryBudget(bytes);
+        mAbove.setMemoryBudget(bytes);
+        mComposite.setMemoryBudget(bytes);
+    }
+
+    /**
+     * Delete the tile files of the cached composites
+     */
+    public void closeTileCaches(){
+        TiledCanvasStore[] stores = {mBelow, mAbove, mComposite};
+        for (TiledCanvasStore store : stores){
+            if (store.getTileCache() != null){
+                store.getTileCache().close();
+            }
+        }
+    }
+
+    /**
+     * Downsample the tiles drawn zoomed out on a background thread
+     * @param lock held by every call into the stack and every change of its layers
+     * @param listener invoked on the builder thread once tiles drawn out of date are ready
+     */
+    public void setMipBuilder(Object lock, TileMipPyramid.OnTilesBuiltListener listener){
+        mMipLock = lock;
+        mMipListener = listener;
+        if (mPyramid != null){
+            mPyramid.setBuilder(lock, listener);
+        }
+    }
+
+    /**
+     * Set the memory the downsampled tiles may use
+     * @param bytes
+     */
+    public void setMipMemoryBudget(long bytes){
+        mMipBudget = bytes;
+        if (mPyramid != null){
+            mPyramid.setMemoryBudget(bytes);
+        }
+    }
+
+    /**
+     * Called before a tile of a layer changes. Marks the cached composites covering it
+     * @param store the store of the layer
+     * @param column
+     * @param row
+     */
+    public void onLayerTileChanging(TiledCanvasStore store, int column, int row){
+        if (column >= mColumns || row >= mRows){
+            return;
+        }
+        int index = row * mColumns + column;
+        for (int i = 0; i < mLayers.size(); i++){
+            if (mLayers.get(i).getStore() == store){
+                if (i < mActive){
+                    mBelowDirty[index] = true;
+                } else if (i > mActive){
+                    mAboveDirty[index] = true;
+                }
+                break;
+            }
+        }
+        mCompositeDirty[index] = true;
+        if (mPyramid != null){
+            mPyramid.invalidateTile(column, row);
+        }
+    }
+
+    /**
+     * Mark the cached composites covering the rectangle, for example after tiles of any layer
+     * were replaced without notifying their listener
+     * @param rect in document coordinates
+     */
+    public void invalidate(Rect rect){
+        if (rect.isEmpty()){
+            return;
+        }
+        int maxColumn = Math.min(mColumns - 1, (rect.right - 1) / TiledCanvasStore.TILE_SIZE);
+        int maxRow = Math.min(mRows - 1, (rect.bottom - 1) / TiledCanvasStore.TILE_SIZE);
+        for (int row = Math.max(0, rect.top / TiledCanvasStore.TILE_SIZE); row <= maxRow; row++){
+            for (int column = Math.max(0, rect.left / TiledCanvasStore.TILE_SIZE);
+                    column <= maxColumn; column++){
+                int index = row * mColumns + column;
+                mBelowDirty[index] = true;
+                mAboveDirty[index] = true;
+                mCompositeDirty[index] = true;
+            }
+        }
+        if (mPyramid != null){
+            mPyramid.invalidate(rect);
+        }
+    }
+
+    /**
+     * Mark every cached composite tile
+     */
+    public void invalidateAll(){
+        for (int i = 0; i < mCompositeDirty.length; i++){
+            mBelowDirty[i] = true;
+            mAboveDirty[i] = true;
+            mCompositeDirty[i] = true;
+        }
+        if (mPyramid != null){
+            mPyramid.invalidateAll();
+        }
+    }
+
+    /**
+     * Release the cached composites and downsampled tiles. They are built again when next
+     * drawn
+     */
+    public void trimMemory(){
+        mBelow.clear();
+        mAbove.clear();
+        mComposite.clear();
+        invalidateAll();
+        if (mPyramid != null){
+            mPyramid.trimMemory();
+        }
+    }
+
+    /**
+     * Draw the tiles covered by the clip of the canvas, from the coarsest mip level that keeps
+     * the detail of the given scale. At full resolution the marked tiles are composited first,
+     * zoomed out they are composited as the downsampled tiles are built from them
+     * @param canvas in document coordinates
+     * @param scale view pixels per document pixel
+     * @param paint
+     */
+    public void draw(Canvas canvas, float scale, Paint paint){
+        if (mLayers.get(0).getStore().getColumns() != mColumns
+                || mLayers.get(0).getStore().getRows() != mRows){
+            layOut();
+        }
+        TiledCanvasStore source = isFlat() ? mLayers.get(0).getStore() : mComposite;
+        if (mPyramid == null || mPyramid.getStore() != source){
+            mPyramid = new TileMipPyramid(source);
+            if (mMipLock != null){
+                mPyramid.setBuilder(mMipLock, mMipListener);
+            }
+            mPyramid.setMemoryBudget(mMipBudget);
+            if (source == mComposite){
+                mPyramid.setTileProvider(mCompositeProvider);
+            }
+        }
+        int level = mPyramid.selectLevel(scale);
+        if (level == 0 && source == mComposite && canvas.getClipBounds(mClip)){
+            composite(mClip);
+        }
+        mPyramid.draw(canvas, level, paint);
+    }
+
+    /**
+     * Copy an area of the composited layers into an array, row by row. The layers are
+     * composited into a scratch bitmap of the area that is dropped afterwards, so reading the
+     * whole document, for example to export it strip by strip, does not fill the cached
+     * composite
+     * @param pixels at least area.width() * area.height() long
+     * @param area in document coordinates, within the tile grid
+     */
+    public void readPixels(int[] pixels, Rect area){
+        if (isFlat()){
+            mLayers.get(0).getStore().readPixels(pixels, area);
+            return;
+        }
+        Bitmap strip = Bitmap.createBitmap(area.width(), area.height(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(strip);
+        canvas.translate(-area.left, -area.top);
+        canvas.clipRect(area);
+        for (Layer layer : mLayers){
+            if (layer.isVisible()){
+                layer.getStore().draw(canvas, layer.getPaint());
+            }
+        }
+        strip.getPixels(pixels, 0, area.width(), 0, 0, area.width(), area.height());
+        strip.recycle();
+    }
+
+    /**
+     * Whether the stack is a single layer drawn as is
+     * @return boolean
+     */
+    public boolean isFlat(){
+        return mLayers.size() == 1 && mLayers.get(0).isVisible() && mLayers.get(0).isNormal();
+    }
+
+    /**
+     * Composite the marked tiles of the composite covering the area from the cached tiles
+     * below and above the active layer. Marked tiles out of view wait until they are drawn
+     * @param area in document coordinates
+     */
+    private void composite(Rect area){
+        boolean mergeAbove = canMergeAbove();
+        int maxColumn = Math.min(mColumns - 1, (area.right - 1) / TiledCanvasStore.TILE_SIZE);
+        int maxRow = Math.min(mRows - 1, (area.bottom - 1) / TiledCanvasStore.TILE_SIZE);
+        for (int row = Math.max(0, area.top / TiledCanvasStore.TILE_SIZE); row <= maxRow; row++){
+            for (int column = Math.max(0, area.left / TiledCanvasStore.TILE_SIZE);
+                    column <= maxColumn; column++){
+                int index = row * mColumns + column;
+                if (mCompositeDirty[index]){
+                    mCompositeDirty[index] = false;
+                    compositeTile(column, row, index, mergeAbove);
+                    if (mPyramid != null){
+                        mPyramid.invalidateTile(column, row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Composite one tile of the composite, first building the cached tiles below and above the
+     * active layer again if they are marked
+     */
+    private void compositeTile(int column, int row, int index, boolean mergeAbove){
+        if (mBelowDirty[index]){
+            mBelowDirty[index] = false;
+            compositeLayers(mBelow, column, row, 0, mActive);
+        }
+        if (mergeAbove && mAboveDirty[index]){
+            mAboveDirty[index] = false;
+            compositeLayers(mAbove, column, row, mActive + 1, mLayers.size());
+        }
+        Bitmap tile = drawOnto(mComposite, column, row, null, mBelow.getTile(column, row),
+                null);
+        Layer active = mLayers.get(mActive);
+        if (active.isVisible()){
+            tile = drawOnto(mComposite, column, row, tile,
+                    active.getStore().getTile(column, row), active.getPaint());
+        }
+        if (mergeAbove){
+            tile = drawOnto(mComposite, column, row, tile, mAbove.getTile(column, row), null);
+        } else {
+            for (int i = mActive + 1; i < mLayers.size(); i++){
+                Layer layer = mLayers.get(i);
+                if (layer.isVisible()){
+                    tile = drawOnto(mComposite, column, row, tile,
+                            layer.getStore().getTile(column, row), layer.getPaint());
+                }
+            }
+        }
+        if (tile == null){
+            mComposite.setTile(column, row, null);
+        }
+    }
+
+    /**
+     * Composite a range of layers into one tile of the target
+     * @param target
+     * @param column
+     * @param row
+     * @param from index of the bottom layer
+     * @param to index after the top layer
+     */
+    private void compositeLayers(TiledCanvasStore target, int column, int row, int from, int to){
+        Bitmap tile = null;
+        for (int i = from; i < to; i++){
+            Layer layer = mLayers.get(i);
+            if (layer.isVisible()){
+                tile = drawOnto(target, column, row, tile, layer.getStore().getTile(column, row),
+                        layer.getPaint());
+            }
+        }
+        if (tile == null){
+            target.setTile(column, row, null);
+        }
+    }
+
+    /**
+     * Draw a source tile onto a tile of the target, erasing the target tile before the first
+     * draw
+     * @param tile the target tile if already erased, or null
+     * @return Bitmap the target tile, or null if nothing was drawn yet
+     */
+    private Bitmap drawOnto(TiledCanvasStore target, int column, int row, Bitmap tile,
+            Bitmap source, Paint paint){
+        if (source == null){
+            return tile;
+        }
+        if (tile == null){
+            tile = target.obtainTile(column, row);
+            tile.eraseColor(0);
+        }
+        mCanvas.setBitmap(tile);
+        mCanvas.drawBitmap(source, 0, 0, paint);
+        return tile;
+    }
+
+    /**
+     * Whether the layers above the active one can be cached as one tile, which holds while
+     * they all use the default blend mode
+     */
+    private boolean canMergeAbove(){
+        for (int i = mActive + 1; i < mLayers.size(); i++){
+            if (mLayers.get(i).getBlendMode() != PorterDuff.Mode.SRC_OVER){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Size the dirty marks for the tile grid of the composite, marking every tile
+     */
+    private void layOut(){
+        mColumns = mComposite.getColumns();
+        mRows = mComposite.getRows();
+        if (!mLayers.isEmpty()){
+            mColumns = Math.max(mColumns, mLayers.get(0).getStore().getColumns());
+            mRows = Math.max(mRows, mLayers.get(0).getStore().getRows());
+        }
+        mBelowDirty = new boolean[mColumns * mRows];
+        mAboveDirty = new boolean[mColumns * mRows];
+        mCompositeDirty = new boolean[mColumns * mRows];
+        invalidateAll();
+    }
+}
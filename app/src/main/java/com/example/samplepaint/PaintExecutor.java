@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads of the app: one pool with a thread per core that the tile caches,
+ * the mip builders, the fills, the exports and the saved files share. The threads are named
+ * daemon threads, and they end once they were idle for a few seconds, so nothing is left
+ * running while the app does not draw.
+ *
+ * Work that has to run in order goes through a Lane, which runs its tasks on the pool one at a
+ * time. The lane of the saved files is shared by every view, so a load always sees the file
+ * written by an earlier save, also across a configuration change. A task that waits for other
+ * tasks of the pool, like a parallel fill, runs the ones that did not start yet itself, so the
+ * pool cannot run out of threads.
+ */
+public class PaintExecutor extends ThreadPoolExecutor {
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    private static PaintExecutor sInstance;
+
+    /**
+     * Runs the tasks given to it one at a time on the pool, in the order they were given
+     */
+    public class Lane implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+        private boolean mRunning;
+        private final Runnable mDrain = new Runnable() {
+            @Override
+            public void run() {
+                while (true){
+                    Runnable task;
+                    synchronized (Lane.this) {
+                        task = mTasks.poll();
+                        if (task == null){
+                            mRunning = false;
+                            return;
+                        }
+                    }
+                    task.run();
+                }
+            }
+        };
+
+        @Override
+        public synchronized void execute(Runnable task){
+            mTasks.add(task);
+            if (!mRunning){
+                mRunning = true;
+                PaintExecutor.this.execute(mDrain);
+            }
+        }
+
+        /**
+         * Drop the tasks that did not start yet. The task running now is finished
+         */
+        public synchronized void cancel(){
+            mTasks.clear();
+        }
+    }
+
+    private final Lane mFileLane = new Lane();
+
+    private PaintExecutor(int threads){
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PaintWorker-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the pool of the process, created on first use
+     * @return PaintExecutor
+     */
+    public static synchronized PaintExecutor getInstance(){
+        if (sInstance == null){
+            sInstance = new PaintExecutor(
+                    Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Create a lane for work that has to run in order
+     * @return Lane
+     */
+    public Lane newLane(){
+        return new Lane();
+    }
+
+    /**
+     * Get the lane that reads and writes the saved files
+     * @return Lane
+     */
+    public Lane getFileLane(){
+        return mFileLane;
+    }
+}
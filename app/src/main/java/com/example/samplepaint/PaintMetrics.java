@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Drawing performance measurements of a CustomPaintView: the time from a touch event to the
+ * frame that shows it, the duration of onDraw, of committing a stroke when the finger is
+ * lifted, of saving and restoring the canvas and of bucket fills, and the latency the
+ * predicted ink tail took off the strokes. Each metric is kept in a LatencyHistogram, so
+ * recording does not allocate.
+ */
+public class PaintMetrics {
+    public static final int TOUCH_TO_DRAW = 0;
+    public static final int DRAW = 1;
+    public static final int COMMIT = 2;
+    public static final int SAVE = 3;
+    public static final int RESTORE = 4;
+    public static final int PREDICTION_GAIN = 5;
+    public static final int FILL = 6;
+
+    private static final String[] NAMES = {"touch-to-draw", "draw", "commit", "save", "restore",
+            "prediction-gain", "fill"};
+
+    //100us buckets up to 50ms for the per frame metrics, 1ms buckets up to 1s for the others
+    private final LatencyHistogram[] mHistograms = {
+            new LatencyHistogram(100, 500),
+            new LatencyHistogram(100, 500),
+            new LatencyHistogram(100, 500),
+            new LatencyHistogram(1000, 1000),
+            new LatencyHistogram(1000, 1000),
+            new LatencyHistogram(100, 500),
+            new LatencyHistogram(100, 500)
+    };
+
+    /**
+     * Record a duration
+     * @param metric one of TOUCH_TO_DRAW, DRAW, COMMIT, SAVE, RESTORE, PREDICTION_GAIN or FILL
+     * @param micros
+     */
+    public void record(int metric, long micros){
+        mHistograms[metric].record(micros);
+    }
+
+    /**
+     * Record the time elapsed since the given System.nanoTime value
+     * @param metric
+     * @param startNanos
+     */
+    public void recordSince(int metric, long startNanos){
+        mHistograms[metric].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public LatencyHistogram getHistogram(int metric){
+        return mHistograms[metric];
+    }
+
+    /**
+     * Drop every recorded duration
+     */
+    public void reset(){
+        for (LatencyHistogram histogram : mHistograms){
+            histogram.clear();
+        }
+    }
+
+    /**
+     * Append the sample count and p50, p95 and p99 of the metric in milliseconds
+     * @param metric
+     * @param out
+     */
+    public void appendSummary(int metric, StringBuilder out){
+        LatencyHistogram histogram = mHistograms[metric];
+        out.append(NAMES[metric]).append(" n=").append(histogram.getCount());
+        appendMillis(out.append(" p50="), histogram.getPercentile(0.5f));
+        appendMillis(out.append(" p95="), histogram.getPercentile(0.95f));
+        appendMillis(out.append(" p99="), histogram.getPercentile(0.99f));
+    }
+
+    /**
+     * Get a summary of every metric, one per line
+     * @return String
+     */
+    public String dump(){
+        StringBuilder out = new StringBuilder();
+        for (int metric = 0; metric < mHistograms.length; metric++){
+            appendSummary(metric, out);
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    public int getMetricCount(){
+        return mHistograms.length;
+    }
+
+    /**
+     * Append microseconds as milliseconds with one decimal, without going through a float
+     */
+    private static void appendMillis(StringBuilder out, long micros){
+        long tenths = (micros + 50) / 100;
+        out.append(tenths / 10).append('.').append(tenths % 10).append("ms");
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Path;
+
+/**
+ * Feeds the segments produced by StrokeSmoother into an android.graphics.Path
+ */
+public class PathAdapter implements StrokeSmoother.PathSink {
+    private Path mPath;
+
+    public PathAdapter(Path path){
+        mPath = path;
+    }
+
+    public void setPath(Path path){
+        mPath = path;
+    }
+
+    public Path getPath(){
+        return mPath;
+    }
+
+    @Override
+    public void moveTo(float x, float y){
+        mPath.moveTo(x, y);
+    }
+
+    @Override
+    public void lineTo(float x, float y){
+        mPath.lineTo(x, y);
+    }
+
+    @Override
+    public void quadTo(float controlX, float controlY, float x, float y){
+        mPath.quadTo(controlX, controlY, x, y);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * Preallocated ActiveStrokes, one per pointer drawing at the same time. Pointer ids are mapped
+ * to slots through a plain int array, so finding the stroke of a pointer neither allocates nor
+ * hashes.
+ */
+public class PointerStrokePool {
+    public static final int MAX_POINTERS = 10;
+
+    //pointer ids are small integers, larger ones fall back to a scan of the slots
+    private static final int POINTER_ID_TABLE_SIZE = 32;
+
+    private final ActiveStroke[] mStrokes = new ActiveStroke[MAX_POINTERS];
+    private final int[] mSlotByPointerId = new int[POINTER_ID_TABLE_SIZE];
+    private int mActiveCount;
+
+    /**
+     * @param sampleCapacity touch samples each stroke buffers between two frames
+     * @param dirtyRect grown by the segments of every stroke
+     * @param predictionReduction receives the latency reduction measured by the predicted
+     *                            tails of every stroke, may be null
+     * @param dabCache dabs of the brushes, shared by the strokes
+     */
+    public PointerStrokePool(int sampleCapacity, Rect dirtyRect,
+            LatencyHistogram predictionReduction, DabCache dabCache){
+        for (int i = 0; i < MAX_POINTERS; i++){
+            mStrokes[i] = new ActiveStroke(sampleCapacity, dirtyRect, predictionReduction,
+                    dabCache);
+        }
+        Arrays.fill(mSlotByPointerId, -1);
+    }
+
+    /**
+     * Get a free stroke for the pointer
+     * @param pointerId
+     * @return ActiveStroke, or null if all strokes are in use
+     */
+    public ActiveStroke acquire(int pointerId){
+        for (int slot = 0; slot < MAX_POINTERS; slot++){
+            if (!mStrokes[slot].isActive()){
+                if (pointerId >= 0 && pointerId < POINTER_ID_TABLE_SIZE){
+                    mSlotByPointerId[pointerId] = slot;
+                }
+                mActiveCount++;
+                return mStrokes[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the active stroke of the pointer
+     * @param pointerId
+     * @return ActiveStroke, or null if the pointer has no stroke
+     */
+    public ActiveStroke get(int pointerId){
+        if (pointerId >= 0 && pointerId < POINTER_ID_TABLE_SIZE){
+            int slot = mSlotByPointerId[pointerId];
+            return slot == -1 ? null : mStrokes[slot];
+        }
+        for (int slot = 0; slot < MAX_POINTERS; slot++){
+            if (mStrokes[slot].getPointerId() == pointerId){
+                return mStrokes[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give the stroke of the pointer back to the pool. The stroke has to be finished already
+     * @param pointerId
+     */
+    public void release(int pointerId){
+        if (pointerId >= 0 && pointerId < POINTER_ID_TABLE_SIZE){
+            mSlotByPointerId[pointerId] = -1;
+        }
+        mActiveCount--;
+    }
+
+    /**
+     * Get the stroke in a slot, active or not, for iterating over all strokes
+     * @param slot
+     * @return ActiveStroke
+     */
+    public ActiveStroke getStroke(int slot){
+        return mStrokes[slot];
+    }
+
+    public int getActiveCount(){
+        return mActiveCount;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+/**
+ * Pixels of the view composited on the render thread in RENDER_MODE_THREAD, so that onDraw only
+ * draws one bitmap. Two bitmaps take turns: the render thread draws into the back one while the
+ * front one is on screen. The hardware renderer reads the pixels of a bitmap after onDraw
+ * returns, so the back one is only drawn into once onDraw showed the front one. Each bitmap
+ * keeps the view area that changed since it was last drawn, and a frame only draws that area.
+ * Every method is called with the render lock held.
+ */
+public class RenderFrame {
+    private final Viewport mViewport = new Viewport();
+    private final Bitmap[] mBitmaps = new Bitmap[2];
+    private final Rect[] mDirty = {new Rect(), new Rect()};
+    private int mFront;
+    //cleared when a frame swaps the bitmaps, set again once onDraw showed the new front one
+    private boolean mFrontShown = true;
+    private final Canvas mCanvas = new Canvas();
+
+    /**
+     * Check whether the frame was drawn with the transform of the viewport
+     * @param viewport of the view
+     * @return boolean false if onDraw has to composite the document itself
+     */
+    public boolean isCurrent(Viewport viewport){
+        return mBitmaps[0] != null && mViewport.hasSameTransform(viewport);
+    }
+
+    /**
+     * Take over the transform and the size of the view. The bitmaps are allocated again when
+     * the size changed, and both are drawn again as a whole
+     * @param viewport of the view
+     * @param width of the view
+     * @param height
+     */
+    public void setViewport(Viewport viewport, int width, int height){
+        mViewport.set(viewport);
+        if (mBitmaps[0] == null || mBitmaps[0].getWidth() != width
+                || mBitmaps[0].getHeight() != height){
+            //the last display list may still draw the old bitmaps, so they are not recycled
+            for (int i = 0; i < mBitmaps.length; i++){
+                mBitmaps[i] = width > 0 && height > 0
+                        ? Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888) : null;
+            }
+        }
+        //onDraw composited the document itself, so neither bitmap is on screen
+        mFrontShown = true;
+        invalidateAll();
+    }
+
+    /**
+     * Get the transform the frame is drawn with. It belongs to the render thread, the one of
+     * the view may have moved on
+     * @return Viewport
+     */
+    public Viewport getViewport(){
+        return mViewport;
+    }
+
+    /**
+     * Mark view pixels to be drawn again by the next frames
+     * @param viewRect
+     */
+    public void invalidate(Rect viewRect){
+        for (Rect dirty : mDirty){
+            dirty.union(viewRect);
+        }
+    }
+
+    public void invalidateAll(){
+        if (mBitmaps[0] == null){
+            return;
+        }
+        for (Rect dirty : mDirty){
+            dirty.set(0, 0, mBitmaps[0].getWidth(), mBitmaps[0].getHeight());
+        }
+    }
+
+    /**
+     * Check whether the back bitmap waits for a frame
+     * @return boolean
+     */
+    public boolean isPending(){
+        return mBitmaps[0] != null && !mDirty[1 - mFront].isEmpty();
+    }
+
+    /**
+     * Start drawing the changed area of the back bitmap. Its pixels are cleared, and the
+     * canvas is clipped to them and maps view pixels. The frame has to be finished with
+     * endFrame
+     * @return Canvas null if nothing changed, or if the back bitmap may still be on screen
+     */
+    public Canvas beginFrame(){
+        if (!mFrontShown || !isPending()){
+            return null;
+        }
+        Bitmap back = mBitmaps[1 - mFront];
+        Rect dirty = mDirty[1 - mFront];
+        if (!dirty.intersect(0, 0, back.getWidth(), back.getHeight())){
+            dirty.setEmpty();
+            return null;
+        }
+        mCanvas.setBitmap(back);
+        mCanvas.save();
+        mCanvas.clipRect(dirty);
+        mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        return mCanvas;
+    }
+
+    /**
+     * Finish the frame started with beginFrame and bring it to the front
+     * @param outChanged set to the view pixels that differ from the previous front bitmap
+     */
+    public void endFrame(Rect outChanged){
+        mCanvas.restore();
+        mCanvas.setBitmap(null);
+        int back = 1 - mFront;
+        outChanged.set(mDirty[back]);
+        mDirty[back].setEmpty();
+        mFront = back;
+        mFrontShown = false;
+    }
+
+    /**
+     * Draw the front bitmap. Called from onDraw, after which the back bitmap may be drawn into
+     * @param canvas of the view
+     */
+    public void draw(Canvas canvas){
+        canvas.drawBitmap(mBitmaps[mFront], 0, 0, null);
+        mFrontShown = true;
+    }
+
+    /**
+     * Free the bitmaps once the view is no longer drawn, the next setViewport allocates them
+     * again
+     */
+    public void recycle(){
+        for (int i = 0; i < mBitmaps.length; i++){
+            if (mBitmaps[i] != null){
+                mBitmaps[i].recycle();
+                mBitmaps[i] = null;
+            }
+            mDirty[i].setEmpty();
+        }
+        mFront = 0;
+        mFrontShown = true;
+    }
+}
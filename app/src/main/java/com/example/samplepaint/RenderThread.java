@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.os.Process;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Thread that rasterizes touch input and composites the frames of the view off the UI thread.
+ * It sleeps until the producer wakes it up or a frame is requested, and then lets the callback
+ * drain the TouchEventQueue and draw the frame.
+ */
+public class RenderThread extends Thread {
+
+    /**
+     * Interface definition for the work done on the render thread
+     */
+    public interface Callback {
+        /**
+         * Called on the render thread whenever the queue may hold events
+         * @param queue
+         */
+        void onDrainQueue(TouchEventQueue queue);
+
+        /**
+         * Called on the render thread after a frame was requested
+         */
+        void onRenderFrame();
+    }
+
+    private final TouchEventQueue mQueue;
+    private final Callback mCallback;
+    private volatile boolean mRunning = true;
+    private volatile boolean mFrameRequested;
+
+    public RenderThread(TouchEventQueue queue, Callback callback){
+        super("PaintRenderThread");
+        mQueue = queue;
+        mCallback = callback;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        while (mRunning){
+            if (mQueue.isEmpty() && !mFrameRequested){
+                //a wake up between the check and park leaves a permit, so park returns at once
+                LockSupport.park(this);
+                continue;
+            }
+            if (!mQueue.isEmpty()){
+                mCallback.onDrainQueue(mQueue);
+            }
+            if (mFrameRequested){
+                //cleared first, so a request made while the frame is drawn gets a frame of its own
+                mFrameRequested = false;
+                mCallback.onRenderFrame();
+            }
+        }
+    }
+
+    /**
+     * Wake the thread up after events were offered to the queue
+     */
+    public void wake(){
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Draw a frame once the events queued so far are applied. Any thread may call this
+     */
+    public void requestFrame(){
+        mFrameRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Stop the thread after the current batch of events and wait for it to end, so that the
+     * caller owns the strokes and the store again once this returns
+     */
+    public void quit(){
+        mRunning = false;
+        LockSupport.unpark(this);
+        boolean interrupted = false;
+        while (isAlive()){
+            try {
+                join();
+            } catch (InterruptedException e) {
+                //the thread must be gone before the view drops it
+                interrupted = true;
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
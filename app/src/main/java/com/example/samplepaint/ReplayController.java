@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.support.v4.view.ViewCompat;
+import android.view.View;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Runs the time-lapse StrokeReplay of a CustomPaintView on its animation frames. The replay
+ * draws into scratch layers created with the properties of the layers of the drawing, and
+ * their tile files are deleted when it ends. A replay survives the view being detached and its
+ * state being saved: it resumes at the command it had reached once the view is attached again
+ * and the restored drawing arrived.
+ */
+public class ReplayController {
+    private static final String REPLAY_POSITION_ID = "replay_position";
+    private static final String REPLAY_LOOPING_ID = "replay_looping";
+    private static final String REPLAY_SPEED_ID = "replay_speed";
+
+    /**
+     * Interface definition for the parts of the view the replay works with
+     */
+    public interface Host {
+        /**
+         * Get the layers of the drawing
+         * @return LayerStack null until the first layout
+         */
+        LayerStack getLayers();
+
+        /**
+         * Check whether strokes are being drawn, which keeps a replay from starting
+         * @return boolean
+         */
+        boolean isDrawing();
+
+        /**
+         * Check whether the saved drawing is still loading, a replay resumes once it arrived
+         * @return boolean
+         */
+        boolean isRestorePending();
+
+        /**
+         * Create a tile cache backed by a new tile file
+         * @return TileCache null if the file cannot be created
+         */
+        TileCache openTileCache();
+
+        /**
+         * Get the memory of the tiles a frame may draw
+         * @return long bytes
+         */
+        long getMinimumMemoryBudget();
+
+        /**
+         * Redraw the area the replay marked in the dirty rectangle
+         */
+        void invalidateDirty();
+
+        /**
+         * Redraw the whole view
+         */
+        void invalidateAll();
+    }
+
+    private final View mView;
+    private final StrokeDocument mDocument;
+    private final StrokeReplay mReplay;
+    //guards the replay and its layers, shared with the view
+    private final Object mLock;
+    //area the replay drew into, in document coordinates, shared with the view
+    private final Rect mDirtyRect;
+    private final TileMipPyramid.OnTilesBuiltListener mMipTilesBuiltListener;
+    private final Host mHost;
+    private boolean mScheduled;
+    //command a replay resumes from once the view is attached and the restored drawing arrived,
+    //-1 if there is none to resume
+    private int mResumePosition = -1;
+    private boolean mAttached;
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            boolean running;
+            synchronized (mLock) {
+                running = mReplay.advance(AnimationUtils.currentAnimationTimeMillis(),
+                        mDirtyRect);
+                if (!running){
+                    //the layers of the drawing show again
+                    end();
+                }
+            }
+            if (running){
+                mHost.invalidateDirty();
+                scheduleFrame();
+            } else {
+                mHost.invalidateAll();
+            }
+        }
+    };
+
+    /**
+     * @param view the replay steps on its animation frames
+     * @param document replayed commands
+     * @param paint stroke paint, its color and width are set from each command
+     * @param lock guards the layers and the document
+     * @param dirtyRect grown by the area every step draws into
+     * @param mipTilesBuiltListener told when downsampled tiles of the scratch layers are built
+     * @param host
+     */
+    public ReplayController(View view, StrokeDocument document, Paint paint, Object lock,
+            Rect dirtyRect, TileMipPyramid.OnTilesBuiltListener mipTilesBuiltListener,
+            Host host){
+        mView = view;
+        mDocument = document;
+        mReplay = new StrokeReplay(document, paint);
+        mLock = lock;
+        mDirtyRect = dirtyRect;
+        mMipTilesBuiltListener = mipTilesBuiltListener;
+        mHost = host;
+    }
+
+    /**
+     * Replay the document from an empty canvas, see CustomPaintView.startReplay
+     * @return boolean false if there is nothing to replay or strokes are being drawn
+     */
+    public boolean start(){
+        mResumePosition = -1;
+        synchronized (mLock) {
+            LayerStack layers = mHost.getLayers();
+            if (layers == null || mDocument.size() == 0 || mHost.isDrawing()){
+                return false;
+            }
+            //a replay in progress starts over
+            end();
+            mReplay.start(createLayers(layers), mDirtyRect);
+        }
+        mHost.invalidateAll();
+        scheduleFrame();
+        return true;
+    }
+
+    /**
+     * End the replay, showing the whole drawing again
+     */
+    public void stop(){
+        mResumePosition = -1;
+        synchronized (mLock) {
+            if (mReplay.getLayers() == null){
+                return;
+            }
+            end();
+        }
+        mHost.invalidateAll();
+    }
+
+    /**
+     * Cancel the replay and delete the tile files of its scratch layers. Called with the lock
+     * held
+     */
+    public void end(){
+        LayerStack layers = mReplay.getLayers();
+        mReplay.cancel();
+        if (layers == null){
+            return;
+        }
+        for (int i = 0; i < layers.getLayerCount(); i++){
+            TiledCanvasStore store = layers.getLayer(i).getStore();
+            if (store.getTileCache() != null){
+                store.getTileCache().close();
+            }
+        }
+        layers.closeTileCaches();
+    }
+
+    /**
+     * Start the replay of the saved state, or of the view before it was detached, again at the
+     * command it had reached, once the view is attached and the restored drawing arrived
+     */
+    public void resume(){
+        if (mResumePosition < 0 || !mAttached || mHost.isRestorePending()
+                || mHost.getLayers() == null){
+            return;
+        }
+        int position = mResumePosition;
+        if (start()){
+            seekTo(position);
+        }
+    }
+
+    /**
+     * Show the drawing as it was after the given number of commands
+     * @param position
+     */
+    public void seekTo(int position){
+        if (!mReplay.isRunning()){
+            return;
+        }
+        synchronized (mLock) {
+            mReplay.seekTo(position, mDirtyRect);
+        }
+        mHost.invalidateDirty();
+    }
+
+    public boolean isRunning(){
+        return mReplay.isRunning();
+    }
+
+    /**
+     * Get the scratch layers shown in place of the layers of the drawing
+     * @return LayerStack null unless a replay is in progress
+     */
+    public LayerStack getLayers(){
+        return mReplay.getLayers();
+    }
+
+    public int getPosition(){
+        return mReplay.getPosition();
+    }
+
+    public void setSpeed(float strokesPerSecond){
+        mReplay.setSpeed(strokesPerSecond);
+    }
+
+    public void setLooping(boolean looping){
+        mReplay.setLooping(looping);
+    }
+
+    public void onAttachedToWindow(){
+        mAttached = true;
+        resume();
+    }
+
+    /**
+     * Stop the replay, remembering the command it reached so it goes on from there if the
+     * view is attached again
+     */
+    public void onDetachedFromWindow(){
+        int resumePosition = mReplay.isRunning() ? mReplay.getPosition() : mResumePosition;
+        stop();
+        mResumePosition = resumePosition;
+        mAttached = false;
+        mView.removeCallbacks(mFrameRunnable);
+        mScheduled = false;
+    }
+
+    /**
+     * Put the command the replay reached, its speed and whether it loops into the saved state
+     * @param outState
+     */
+    public void save(Bundle outState){
+        if (mReplay.isRunning()) {
+            outState.putInt(REPLAY_POSITION_ID, mReplay.getPosition());
+        } else if (mResumePosition >= 0) {
+            outState.putInt(REPLAY_POSITION_ID, mResumePosition);
+        }
+        outState.putBoolean(REPLAY_LOOPING_ID, mReplay.isLooping());
+        outState.putFloat(REPLAY_SPEED_ID, mReplay.getSpeed());
+    }
+
+    /**
+     * Take the replay settings from the saved state, and resume a replay that was in progress
+     * once the restored drawing arrived
+     * @param state the bundle saved by save
+     */
+    public void restore(Bundle state){
+        if (state.containsKey(REPLAY_LOOPING_ID)){
+            mReplay.setLooping(state.getBoolean(REPLAY_LOOPING_ID));
+            mReplay.setSpeed(state.getFloat(REPLAY_SPEED_ID));
+        }
+        if (state.containsKey(REPLAY_POSITION_ID)){
+            mResumePosition = state.getInt(REPLAY_POSITION_ID);
+            resume();
+        }
+    }
+
+    /**
+     * Create empty scratch layers with the properties of the layers of the drawing, for a
+     * replay to draw into. They evict into tile files of their own, within the same budget per
+     * layer as the layers of the drawing
+     * @param source the layers of the drawing
+     * @return LayerStack
+     */
+    private LayerStack createLayers(LayerStack source){
+        TiledCanvasStore active = source.getActiveLayer().getStore();
+        int width = active.getWidth();
+        int height = active.getHeight();
+        final LayerStack layers = new LayerStack(width, height);
+        for (int i = 0; i < source.getLayerCount(); i++){
+            Layer layer = source.getLayer(i);
+            final TiledCanvasStore store = new TiledCanvasStore(width, height);
+            store.setOnTileChangeListener(new TiledCanvasStore.OnTileChangeListener() {
+                @Override
+                public void onTileChanging(int column, int row, Bitmap tile) {
+                    layers.onLayerTileChanging(store, column, row);
+                }
+
+                @Override
+                public void onEvictedTileReleasing(int column, int row, TileCache.Entry copy) {
+                    //the replay has no undo history to keep the copy for
+                    if (copy != null){
+                        store.releaseEvictedTile(copy);
+                    }
+                    layers.onLayerTileChanging(store, column, row);
+                }
+            });
+            store.setTileCache(mHost.openTileCache());
+            store.setMemoryBudget(layer.getStore().getMemoryBudget());
+            layers.addLayer(store);
+            layers.setVisible(i, layer.isVisible());
+            layers.setOpacity(i, layer.getOpacity());
+            layers.setBlendMode(i, layer.getBlendMode());
+        }
+        layers.setActiveIndex(source.getActiveIndex());
+        layers.setTileCaches(mHost.openTileCache(), mHost.openTileCache(),
+                mHost.openTileCache());
+        layers.setCompositeMemoryBudget(layers.isFlat() ? 0 : active.getMemoryBudget());
+        layers.setMipBuilder(mLock, mMipTilesBuiltListener);
+        layers.setMipMemoryBudget(mHost.getMinimumMemoryBudget());
+        return layers;
+    }
+
+    /**
+     * Request a single replay step on the next animation frame
+     */
+    private void scheduleFrame(){
+        if (!mScheduled){
+            mScheduled = true;
+            ViewCompat.postOnAnimation(mView, mFrameRunnable);
+        }
+    }
+}
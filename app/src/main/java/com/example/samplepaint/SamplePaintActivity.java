@@ -30,13 +30,30 @@ import com.android.colorpicker.ColorPickerDialog;
 import com.android.colorpicker.ColorPickerSwatch;
 import com.example.samplepaint.R;
 
+import java.io.File;
+
 /**
  * This is the main activity for the SamplePaint app. It uses the CustomView
- * that allows drawing on the view using the finger. There are two menu actions
- * supported
+ * that allows drawing on the view using the finger. The supported menu
+ * actions are
  * Clear: The clear action erases all the drawing on the screen
  * Color Picker: Opens the color picker and allow the user to select the color
  *               to draw on the screen.
+ * Brush/Fill/Zoom and pan: Selects whether touches draw strokes, fill the touched region
+ *       with the selected color, or move and pinch-zoom the canvas.
+ * Round brush/Airbrush/Marker/Pencil: Selects the brush strokes are drawn with.
+ * Fixed width/Width by pressure/Width by speed: Selects how the width of strokes follows
+ *       the finger.
+ * Fit to screen: Zooms out until the whole canvas is in view.
+ * New layer/Next layer: Adds a layer on top and draws into it, or draws into the next layer.
+ * Show or hide layer: Toggles the visibility of the layer being drawn into.
+ * Save strokes/Open strokes: Writes the strokes to a compact stroke file in app-private
+ *       storage, or replaces the drawing with the strokes of that file.
+ * Export PNG: Writes the whole canvas as a PNG file in app-private storage.
+ * Replay: Redraws the drawing stroke by stroke as a time-lapse, or ends the replay.
+ * Undo/Redo: Reverts or reapplies the last stroke or clear, from the overflow menu.
+ * Performance overlay: Shows the drawing latency and frame time percentiles over the
+ *                      canvas, and logs them when it is turned off.
  *
  *
  */
@@ -45,6 +62,10 @@ public class SamplePaintActivity extends AppCompatActivity {
     private CustomPaintView mCustomPaintView;
     private int mSelectedColor = 0;
     protected static final String KEY_SELECTED_COLOR = "selected_color";
+    //stroke file written and read by the save and open strokes actions
+    private static final String STROKE_FILE = "drawing.strokes";
+    //PNG file written by the export action
+    private static final String EXPORT_FILE = "drawing.png";
     //Used in unit test
     public static String FRAGMENT_TAG = "colorpicker";
     /**
@@ -95,6 +116,31 @@ public class SamplePaintActivity extends AppCompatActivity {
         outState.putSerializable(KEY_SELECTED_COLOR, mSelectedColor);
     }
 
+    /**
+     * Invoked when the system asks the app to give memory back. The canvas evicts tiles to its
+     * tile file
+     * @param level
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mCustomPaintView != null){
+            mCustomPaintView.onTrimMemory(level);
+        }
+    }
+
+    /**
+     * Invoked when the activity is destroyed. The canvas was saved with the instance state, so
+     * its tile file can be deleted
+     */
+    @Override
+    protected void onDestroy() {
+        if (mCustomPaintView != null){
+            mCustomPaintView.release();
+        }
+        super.onDestroy();
+    }
+
     /**
      * Invoked when the user selects an item from the Menu.
      *
@@ -115,6 +161,95 @@ public class SamplePaintActivity extends AppCompatActivity {
             case R.id.action_pick_color:
                 openColorPicker();
                 return true;
+            case R.id.action_brush:
+                selectTool(item, CustomPaintView.TOOL_BRUSH);
+                return true;
+            case R.id.action_fill:
+                selectTool(item, CustomPaintView.TOOL_FILL);
+                return true;
+            case R.id.action_navigate:
+                selectTool(item, CustomPaintView.TOOL_NAVIGATE);
+                return true;
+            case R.id.action_brush_round:
+                selectBrush(item, Brush.ROUND);
+                return true;
+            case R.id.action_brush_airbrush:
+                selectBrush(item, Brush.AIRBRUSH);
+                return true;
+            case R.id.action_brush_marker:
+                selectBrush(item, Brush.MARKER);
+                return true;
+            case R.id.action_brush_pencil:
+                selectBrush(item, Brush.PENCIL);
+                return true;
+            case R.id.action_width_fixed:
+                selectWidthMode(item, CustomPaintView.WIDTH_MODE_FIXED);
+                return true;
+            case R.id.action_width_pressure:
+                selectWidthMode(item, CustomPaintView.WIDTH_MODE_PRESSURE);
+                return true;
+            case R.id.action_width_velocity:
+                selectWidthMode(item, CustomPaintView.WIDTH_MODE_VELOCITY);
+                return true;
+            case R.id.action_reset_zoom:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.resetZoom();
+                }
+                return true;
+            case R.id.action_add_layer:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.addLayer();
+                }
+                return true;
+            case R.id.action_next_layer:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.setActiveLayer((mCustomPaintView.getActiveLayer() + 1)
+                            % mCustomPaintView.getLayerCount());
+                }
+                return true;
+            case R.id.action_toggle_layer:
+                if (mCustomPaintView != null){
+                    int layer = mCustomPaintView.getActiveLayer();
+                    mCustomPaintView.setLayerVisible(layer,
+                            !mCustomPaintView.isLayerVisible(layer));
+                }
+                return true;
+            case R.id.action_save_strokes:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.saveStrokes(new File(getFilesDir(), STROKE_FILE));
+                }
+                return true;
+            case R.id.action_open_strokes:
+                File file = new File(getFilesDir(), STROKE_FILE);
+                if (mCustomPaintView != null && file.exists()){
+                    mCustomPaintView.loadStrokes(file);
+                }
+                return true;
+            case R.id.action_export:
+                exportPng();
+                return true;
+            case R.id.action_replay:
+                if (mCustomPaintView != null){
+                    if (mCustomPaintView.isReplaying()){
+                        mCustomPaintView.stopReplay();
+                    } else {
+                        mCustomPaintView.startReplay();
+                    }
+                }
+                return true;
+            case R.id.action_undo:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.undo();
+                }
+                return true;
+            case R.id.action_redo:
+                if (mCustomPaintView != null){
+                    mCustomPaintView.redo();
+                }
+                return true;
+            case R.id.action_debug_overlay:
+                toggleDebugOverlay(item);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -131,6 +266,78 @@ public class SamplePaintActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Export the canvas of the CustomPaintView as a PNG file, logging where it was written
+     */
+    private void exportPng() {
+        if (mCustomPaintView == null){
+            return;
+        }
+        mCustomPaintView.exportPng(new File(getFilesDir(), EXPORT_FILE),
+                new CanvasExporter.OnExportFinishedListener() {
+            @Override
+            public void onExportFinished(File file, boolean success) {
+                Log.i(TAG, (success ? "Exported " : "Failed to export ") + file);
+            }
+        });
+    }
+
+    /**
+     * Select what touches on the CustomPaintView do
+     * @param item the menu item of the tool
+     * @param tool
+     */
+    private void selectTool(MenuItem item, int tool) {
+        if (mCustomPaintView == null){
+            return;
+        }
+        mCustomPaintView.setTool(tool);
+        item.setChecked(true);
+    }
+
+    /**
+     * Select the brush the CustomPaintView draws strokes with
+     * @param item the menu item of the brush
+     * @param brushType
+     */
+    private void selectBrush(MenuItem item, int brushType) {
+        if (mCustomPaintView == null){
+            return;
+        }
+        mCustomPaintView.setBrushType(brushType);
+        item.setChecked(true);
+    }
+
+    /**
+     * Select how the width of the strokes of the CustomPaintView follows the finger
+     * @param item the menu item of the mode
+     * @param widthMode
+     */
+    private void selectWidthMode(MenuItem item, int widthMode) {
+        if (mCustomPaintView == null){
+            return;
+        }
+        mCustomPaintView.setWidthMode(widthMode);
+        item.setChecked(true);
+    }
+
+    /**
+     * Show or hide the performance overlay of the CustomPaintView. The metrics are logged
+     * when the overlay is hidden
+     * @param item the checkable menu item
+     */
+    private void toggleDebugOverlay(MenuItem item) {
+        if (mCustomPaintView == null){
+            return;
+        }
+        boolean enabled = !mCustomPaintView.isDebugOverlayEnabled();
+        mCustomPaintView.setDebugOverlayEnabled(enabled);
+        item.setChecked(enabled);
+        if (!enabled){
+            Log.i(TAG, "Drawing metrics\n" + mCustomPaintView.dumpMetrics());
+        }
+    }
+
     /**
      * Opens the color picker DialogFragment when the user clicks on menu action color_picker
      *
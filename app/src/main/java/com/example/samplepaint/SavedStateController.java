@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Saves the drawing of a CustomPaintView with its instance state and restores it. The tiles of
+ * each layer and the document are written to files in app-private storage in the background,
+ * and the bundle only holds the properties of the layers, which name the files by their index.
+ * A restore loads the files in the background too. The layers may not exist yet when they
+ * arrive, in which case they are kept until the first layout creates them. Layers whose tiles
+ * cannot be read are rendered from the restored document instead.
+ */
+public class SavedStateController {
+    private static final String TAG = "SavedStateController";
+
+    private static final String LAYER_VISIBLE_ID = "layer_visible";
+    private static final String LAYER_OPACITY_ID = "layer_opacity";
+    private static final String LAYER_BLEND_MODE_ID = "layer_blend_mode";
+    private static final String ACTIVE_LAYER_ID = "active_layer";
+    private static final String DOCUMENT_WIDTH_ID = "document_width";
+    private static final String DOCUMENT_HEIGHT_ID = "document_height";
+
+    /**
+     * Interface definition for the parts of the view the saved state is applied to
+     */
+    public interface Host {
+        /**
+         * Get the layers of the drawing
+         * @return LayerStack null until the first layout
+         */
+        LayerStack getLayers();
+
+        /**
+         * Create the store of a layer the restored state adds
+         * @param width
+         * @param height
+         * @return TiledCanvasStore
+         */
+        TiledCanvasStore createLayerStore(int width, int height);
+
+        /**
+         * Called on the main thread whenever a file of the restore was read
+         * @param finished true once it was the last one
+         */
+        void onRestoreProgress(boolean finished);
+    }
+
+    //writes and reads the tiles in the background across configuration changes
+    private final CanvasPersistence mPersistence;
+    //writes and reads the document, shared with the stroke files of the view
+    private final StrokeFiles mStrokeFiles;
+    //guards the layers, the document and the history, shared with the view
+    private final Object mLock;
+    private final StrokeDocument mDocument;
+    private final UndoHistory mHistory;
+    private final Viewport mViewport;
+    //layers that cannot be restored are rendered with a copy of it
+    private final Paint mPaint;
+    private final PaintMetrics mMetrics;
+    private final Host mHost;
+
+    //set while the saved tiles are loading
+    private boolean mRestorePending;
+    //saved files still loading: the tiles of every layer and the document
+    private int mPendingLoads;
+    //state being restored, saved again as it is if the view is saved before it arrives
+    private Bundle mPendingState;
+    //layers whose saved tiles could not be read, rendered from the restored document instead
+    private boolean[] mFailedRestores;
+    //loaded tiles of each layer waiting for the layers to be created
+    private CanvasPersistence.CanvasState[] mRestoredStates;
+    //saved layer properties waiting for the layers to be created
+    private Bundle mRestoredLayers;
+    //System.nanoTime when the saved tiles started loading
+    private long mRestoreStartNanos;
+    //System.nanoTime when the oldest unfinished save started
+    private long mSaveStartNanos;
+    //files of the saves in progress that are not written yet
+    private int mPendingSaves;
+    private final SaveListener mSaveListener = new SaveListener();
+
+    /**
+     * Puts the loaded tiles of one layer into its store, or keeps them until the layers are
+     * created
+     */
+    private class LayerLoadedListener implements CanvasPersistence.OnCanvasLoadedListener {
+        private final int mLayer;
+
+        LayerLoadedListener(int layer){
+            mLayer = layer;
+        }
+
+        @Override
+        public void onCanvasLoaded(CanvasPersistence.CanvasState state) {
+            synchronized (mLock) {
+                if (state == null) {
+                    mFailedRestores[mLayer] = true;
+                } else if (mHost.getLayers() != null) {
+                    applyRestoredState(mLayer, state);
+                } else {
+                    mRestoredStates[mLayer] = state;
+                }
+            }
+            onRestoreLoadFinished();
+        }
+    }
+
+    /**
+     * Puts the saved document back without drawing it, the tiles of the layers are restored
+     * from their own files
+     */
+    private final StrokeFiles.OnStrokesLoadedListener mDocumentLoadedListener =
+            new StrokeFiles.OnStrokesLoadedListener() {
+        @Override
+        public void onLoadStarted(int width, int height) {
+            synchronized (mLock) {
+                mDocument.clear();
+            }
+        }
+
+        @Override
+        public void onStrokesLoaded(ArrayList<StrokeCommand> commands) {
+            synchronized (mLock) {
+                for (StrokeCommand command : commands) {
+                    mDocument.add(command);
+                }
+            }
+        }
+
+        @Override
+        public void onLoadFinished(boolean success) {
+            if (!success) {
+                Log.w(TAG, "Saved document could not be restored");
+            }
+            onRestoreLoadFinished();
+        }
+    };
+
+    /**
+     * Counts the files of the saves in progress down and records how long they took once the
+     * last one is written
+     */
+    private class SaveListener implements CanvasPersistence.OnCanvasSavedListener,
+            StrokeFiles.OnStrokesSavedListener {
+        @Override
+        public void onCanvasSaved(boolean success) {
+            onSaveFinished();
+        }
+
+        @Override
+        public void onStrokesSaved(boolean success) {
+            onSaveFinished();
+        }
+
+        private void onSaveFinished(){
+            mPendingSaves--;
+            if (mPendingSaves == 0) {
+                mMetrics.recordSince(PaintMetrics.SAVE, mSaveStartNanos);
+            }
+        }
+    }
+
+    /**
+     * @param context
+     * @param strokeFiles writes and reads the document
+     * @param lock guards the layers, the document and the history
+     * @param document
+     * @param history cleared when layers are rendered from the document
+     * @param viewport takes the saved document size
+     * @param paint stroke paint
+     * @param metrics records the SAVE and RESTORE metrics
+     * @param host
+     */
+    public SavedStateController(Context context, StrokeFiles strokeFiles, Object lock,
+            StrokeDocument document, UndoHistory history, Viewport viewport, Paint paint,
+            PaintMetrics metrics, Host host){
+        mPersistence = new CanvasPersistence(context);
+        mStrokeFiles = strokeFiles;
+        mLock = lock;
+        mDocument = document;
+        mHistory = history;
+        mViewport = viewport;
+        mPaint = paint;
+        mMetrics = metrics;
+        mHost = host;
+    }
+
+    /**
+     * Check whether the saved files are still loading. Touches and edits are ignored meanwhile,
+     * so that nothing is drawn under the restored tiles
+     * @return boolean
+     */
+    public boolean isRestorePending(){
+        return mRestorePending;
+    }
+
+    /**
+     * Start writing the tiles of each layer and the document to the files of the view, and
+     * put the properties of the layers into the bundle. While a restore is still loading, the
+     * files of the last save hold the drawing and are kept as they are. The SAVE metric covers
+     * the save until the last file is written
+     * @param outState
+     * @param viewId names the files
+     * @return boolean true if the drawing was saved, false if the state being restored was
+     * copied or there is no drawing yet
+     */
+    public boolean save(Bundle outState, int viewId){
+        if (mRestorePending && mPendingState != null) {
+            outState.putAll(mPendingState);
+            return false;
+        }
+        LayerStack layers = mHost.getLayers();
+        if (layers == null) {
+            return false;
+        }
+        int layerCount = layers.getLayerCount();
+        boolean[] visible = new boolean[layerCount];
+        int[] opacity = new int[layerCount];
+        int[] blendModes = new int[layerCount];
+        if (mPendingSaves == 0) {
+            mSaveStartNanos = System.nanoTime();
+        }
+        //one file per layer and one for the document
+        mPendingSaves += layerCount + 1;
+        synchronized (mLock) {
+            for (int i = 0; i < layerCount; i++) {
+                Layer layer = layers.getLayer(i);
+                mPersistence.save(layer.getStore(), getStateHandle(viewId, i), mSaveListener);
+                visible[i] = layer.isVisible();
+                opacity[i] = layer.getOpacity();
+                blendModes[i] = layer.getBlendMode().ordinal();
+            }
+            outState.putInt(ACTIVE_LAYER_ID, layers.getActiveIndex());
+            mStrokeFiles.save(mDocument, mViewport.getDocumentWidth(),
+                    mViewport.getDocumentHeight(),
+                    mPersistence.getFile(getDocumentHandle(viewId)), mSaveListener);
+        }
+        outState.putBooleanArray(LAYER_VISIBLE_ID, visible);
+        outState.putIntArray(LAYER_OPACITY_ID, opacity);
+        outState.putIntArray(LAYER_BLEND_MODE_ID, blendModes);
+        outState.putInt(DOCUMENT_WIDTH_ID, mViewport.getDocumentWidth());
+        outState.putInt(DOCUMENT_HEIGHT_ID, mViewport.getDocumentHeight());
+        return true;
+    }
+
+    /**
+     * Take the document size from the saved state and start loading the files of the view.
+     * The host is told as each of them is read
+     * @param state the bundle saved by save
+     * @param viewId names the files, View.NO_ID if the view has none
+     */
+    public void restore(Bundle state, int viewId){
+        if (state.containsKey(DOCUMENT_WIDTH_ID)){
+            mViewport.setDocumentSize(state.getInt(DOCUMENT_WIDTH_ID),
+                    state.getInt(DOCUMENT_HEIGHT_ID));
+        }
+        if (!state.containsKey(LAYER_VISIBLE_ID) || viewId == View.NO_ID){
+            return;
+        }
+        int layerCount = state.getBooleanArray(LAYER_VISIBLE_ID).length;
+        synchronized (mLock) {
+            if (mHost.getLayers() != null) {
+                applyLayerProperties(state);
+            } else {
+                mRestoredLayers = state;
+            }
+            mRestoredStates = new CanvasPersistence.CanvasState[layerCount];
+            mFailedRestores = new boolean[layerCount];
+        }
+        mRestorePending = true;
+        mPendingState = state;
+        mPendingLoads = layerCount + 1;
+        mRestoreStartNanos = System.nanoTime();
+        for (int i = 0; i < layerCount; i++) {
+            mPersistence.load(getStateHandle(viewId, i), new LayerLoadedListener(i));
+        }
+        mStrokeFiles.load(mPersistence.getFile(getDocumentHandle(viewId)),
+                mDocumentLoadedListener);
+    }
+
+    /**
+     * Add the saved layers that waited for the first layout and set their properties. Called
+     * with the lock held once the layers are created
+     */
+    public void applyRestoredLayers(){
+        if (mRestoredLayers != null) {
+            applyLayerProperties(mRestoredLayers);
+            mRestoredLayers = null;
+        }
+    }
+
+    /**
+     * Put the tiles that were loaded before the first layout into the layers, and render the
+     * layers that could not be read once the restore finished. Called with the lock held once
+     * the layers are created
+     */
+    public void applyRestoredTiles(){
+        if (mRestoredStates != null) {
+            for (int i = 0; i < mRestoredStates.length; i++) {
+                if (mRestoredStates[i] != null) {
+                    applyRestoredState(i, mRestoredStates[i]);
+                    mRestoredStates[i] = null;
+                }
+            }
+        }
+        if (!mRestorePending) {
+            renderFailedRestores();
+        }
+    }
+
+    /**
+     * Add the saved layers and set their properties
+     * @param state the bundle saved by save
+     */
+    private void applyLayerProperties(Bundle state){
+        LayerStack layers = mHost.getLayers();
+        boolean[] visible = state.getBooleanArray(LAYER_VISIBLE_ID);
+        int[] opacity = state.getIntArray(LAYER_OPACITY_ID);
+        int[] blendModes = state.getIntArray(LAYER_BLEND_MODE_ID);
+        PorterDuff.Mode[] modes = PorterDuff.Mode.values();
+        TiledCanvasStore first = layers.getLayer(0).getStore();
+        for (int i = 0; i < visible.length; i++) {
+            if (i == layers.getLayerCount()) {
+                layers.addLayer(mHost.createLayerStore(first.getWidth(), first.getHeight()));
+            }
+            layers.setVisible(i, visible[i]);
+            layers.setOpacity(i, opacity[i]);
+            layers.setBlendMode(i, modes[blendModes[i]]);
+        }
+        layers.setActiveIndex(state.getInt(ACTIVE_LAYER_ID));
+    }
+
+    /**
+     * Put the loaded tiles into the store of a layer
+     * @param layer
+     * @param state
+     */
+    private void applyRestoredState(int layer, CanvasPersistence.CanvasState state){
+        LayerStack layers = mHost.getLayers();
+        if (layer >= layers.getLayerCount()) {
+            return;
+        }
+        layers.resize(state.width, state.height);
+        TiledCanvasStore store = layers.getLayer(layer).getStore();
+        for (int i = 0; i < state.tiles.length; i++) {
+            if (state.tiles[i] != null) {
+                store.restoreTile(state.columns[i], state.rows[i], state.tiles[i]);
+            }
+        }
+        //restored tiles do not go through the listener
+        layers.invalidateAll();
+    }
+
+    /**
+     * Count down the files of a restore. Once all of them are read, the layers whose tiles
+     * could not be read are rendered from the document
+     */
+    private void onRestoreLoadFinished(){
+        boolean finished = --mPendingLoads == 0;
+        if (finished) {
+            mRestorePending = false;
+            mPendingState = null;
+            synchronized (mLock) {
+                if (mHost.getLayers() != null) {
+                    renderFailedRestores();
+                }
+            }
+            mMetrics.recordSince(PaintMetrics.RESTORE, mRestoreStartNanos);
+        }
+        mHost.onRestoreProgress(finished);
+    }
+
+    /**
+     * Render the layers whose saved tiles could not be read from the restored document
+     */
+    private void renderFailedRestores(){
+        if (mFailedRestores == null) {
+            return;
+        }
+        LayerStack layers = mHost.getLayers();
+        Paint paint = new Paint(mPaint);
+        for (int i = 0; i < mFailedRestores.length && i < layers.getLayerCount(); i++) {
+            if (mFailedRestores[i]) {
+                mDocument.render(layers.getLayer(i).getStore(), paint, i);
+            }
+        }
+        mFailedRestores = null;
+        mHistory.clear();
+    }
+
+    /**
+     * Name of the file holding the saved tiles of a layer of the view
+     * @param viewId
+     * @param layer
+     * @return String
+     */
+    private static String getStateHandle(int viewId, int layer){
+        return "canvas_" + viewId + "_" + layer + ".state";
+    }
+
+    /**
+     * Name of the file holding the saved document of the view
+     * @param viewId
+     * @return String
+     */
+    private static String getDocumentHandle(int viewId){
+        return "canvas_" + viewId + ".strokes";
+    }
+}
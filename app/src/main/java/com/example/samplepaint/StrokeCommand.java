@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A single command of a StrokeDocument. A stroke command holds the color, the width and the
+ * points of one stroke packed as x, y pairs in a float array. A clear command erases everything
+ * drawn before it. A fill command holds the color, the color tolerance in place of the width,
+ * and three points: the seed and the top left and bottom right corners of the area the fill
+ * is confined to. Every command belongs to one layer of the drawing, the bottom layer unless
+ * set otherwise. A stroke is drawn with the Brush of its brush type, or as a plain round
+ * stroke for Brush.ROUND. A variable-width stroke also holds the width at each point, its width
+ * is the widest it gets, and it is drawn as a StrokeMesh.
+ */
+public class StrokeCommand {
+    public static final int TYPE_STROKE = 0;
+    public static final int TYPE_CLEAR = 1;
+    public static final int TYPE_FILL = 2;
+
+    private static final int INITIAL_POINTS = 64;
+
+    private final int mType;
+    private final int mColor;
+    private final float mWidth;
+    //x, y pairs
+    private float[] mPoints;
+    //width at each point of a variable-width stroke, null for a fixed width
+    private float[] mWidths;
+    private int mPointCount;
+    //index of the layer the command draws into
+    private int mLayer;
+    private int mBrushType = Brush.ROUND;
+
+    /**
+     * Create an empty stroke
+     * @param color
+     * @param width
+     */
+    public StrokeCommand(int color, float width){
+        this(TYPE_STROKE, color, width, new float[INITIAL_POINTS * 2], 0);
+    }
+
+    /**
+     * Create a stroke from packed x, y pairs
+     * @param color
+     * @param width
+     * @param points
+     * @param pointCount
+     */
+    public StrokeCommand(int color, float width, float[] points, int pointCount){
+        this(TYPE_STROKE, color, width, points, pointCount);
+    }
+
+    private StrokeCommand(int type, int color, float width, float[] points, int pointCount){
+        mType = type;
+        mColor = color;
+        mWidth = width;
+        mPoints = points;
+        mPointCount = pointCount;
+    }
+
+    /**
+     * Create an empty stroke with a width at each of its points
+     * @param color
+     * @param width widest the stroke gets
+     * @return StrokeCommand
+     */
+    public static StrokeCommand variableWidth(int color, float width){
+        StrokeCommand command = new StrokeCommand(color, width);
+        command.mWidths = new float[INITIAL_POINTS];
+        return command;
+    }
+
+    /**
+     * Create a completed stroke from the samples recorded while it was drawn. The smoothed
+     * curve drawn through them is flattened and simplified, so the stroke rendered from the
+     * document stays within the simplification tolerance of the live ink. The arrays are
+     * copied and can be reused
+     * @param color
+     * @param width widest a variable-width stroke gets
+     * @param points x, y pairs of the samples
+     * @param widths width at each sample, or null for a fixed-width stroke
+     * @param count number of samples
+     * @param smoother
+     * @return StrokeCommand
+     */
+    public static StrokeCommand fromSamples(int color, float width, float[] points,
+            float[] widths, int count, StrokeSmoother smoother){
+        count = smoother.flatten(points, widths, count);
+        float[] curve = smoother.getCurve();
+        float[] curveWidths = widths == null ? null : smoother.getCurveWidths();
+        count = smoother.simplify(curve, curveWidths, count);
+        StrokeCommand command = new StrokeCommand(color, width, Arrays.copyOf(curve, count * 2),
+                count);
+        if (widths != null){
+            command.mWidths = Arrays.copyOf(curveWidths, count);
+        }
+        return command;
+    }
+
+    /**
+     * Create a command that clears the drawing
+     * @return StrokeCommand
+     */
+    public static StrokeCommand clear(){
+        return new StrokeCommand(TYPE_CLEAR, 0, 0, new float[0], 0);
+    }
+
+    /**
+     * Create a command that flood fills the region around the seed within an area
+     * @param x
+     * @param y
+     * @param color
+     * @param tolerance
+     * @param left
+     * @param top
+     * @param right exclusive
+     * @param bottom exclusive
+     * @return StrokeCommand
+     */
+    public static StrokeCommand fill(int x, int y, int color, int tolerance, int left, int top,
+            int right, int bottom){
+        return new StrokeCommand(TYPE_FILL, color, tolerance,
+                new float[] {x, y, left, top, right, bottom}, 3);
+    }
+
+    /**
+     * Create the command a stroke file reader is positioned at
+     * @param reader
+     * @return StrokeCommand
+     * @throws IOException if the command is of an unknown type
+     */
+    public static StrokeCommand read(StrokeFileReader reader) throws IOException {
+        int type = reader.getType();
+        if (type != TYPE_STROKE && type != TYPE_CLEAR && type != TYPE_FILL){
+            throw new IOException("Unknown command type " + type);
+        }
+        int pointCount = reader.getPointCount();
+        StrokeCommand command = new StrokeCommand(type, reader.getColor(),
+                reader.getStrokeWidth(), Arrays.copyOf(reader.getPoints(), pointCount * 2),
+                pointCount);
+        command.setLayer(reader.getLayer());
+        command.setBrushType(reader.getBrushType());
+        if (reader.getPointWidths() != null){
+            command.mWidths = Arrays.copyOf(reader.getPointWidths(), pointCount);
+        }
+        return command;
+    }
+
+    /**
+     * Append the command to a stroke file
+     * @param writer
+     * @throws IOException
+     */
+    public void write(StrokeFileWriter writer) throws IOException {
+        writer.write(mType, mLayer, mBrushType, mColor, mWidth, mPoints, mWidths, mPointCount);
+    }
+
+    /**
+     * Append a point, growing the point array when it is full. A variable-width stroke gets
+     * its full width there
+     * @param x
+     * @param y
+     */
+    public void addPoint(float x, float y){
+        addPoint(x, y, mWidth);
+    }
+
+    /**
+     * Append a point with the width of the stroke at it. The width is ignored unless this is
+     * a variable-width stroke
+     * @param x
+     * @param y
+     * @param width
+     */
+    public void addPoint(float x, float y, float width){
+        if (mPointCount * 2 == mPoints.length){
+            mPoints = Arrays.copyOf(mPoints, Math.max(mPoints.length * 2, 4));
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        if (mWidths != null){
+            if (mPointCount == mWidths.length){
+                mWidths = Arrays.copyOf(mWidths, Math.max(mWidths.length * 2, 2));
+            }
+            mWidths[mPointCount] = width;
+        }
+        mPointCount++;
+    }
+
+    /**
+     * Release the unused part of the point array once the stroke is complete
+     */
+    public void trimToSize(){
+        if (mPoints.length > mPointCount * 2){
+            mPoints = Arrays.copyOf(mPoints, mPointCount * 2);
+        }
+        if (mWidths != null && mWidths.length > mPointCount){
+            mWidths = Arrays.copyOf(mWidths, mPointCount);
+        }
+    }
+
+    /**
+     * Replace the vertices of the mesh with the triangle strip of a variable-width stroke
+     * @param mesh
+     */
+    public void toMesh(StrokeMesh mesh){
+        mesh.build(mPoints, mWidths, mPointCount);
+    }
+
+    /**
+     * Queue the dabs along the smoothed curve of the stroke in the stamper, which has to be
+     * begun with the brush of the stroke
+     * @param stamper
+     */
+    public void toDabs(DabStamper stamper){
+        StrokeSmoother.smooth(mPoints, mPointCount, stamper);
+    }
+
+    /**
+     * Replace the path of the adapter with the smoothed curve of the stroke
+     * @param adapter
+     */
+    public void toPath(PathAdapter adapter){
+        adapter.getPath().rewind();
+        StrokeSmoother.smooth(mPoints, mPointCount, adapter);
+    }
+
+    public int getLayer(){
+        return mLayer;
+    }
+
+    public void setLayer(int layer){
+        mLayer = layer;
+    }
+
+    public int getBrushType(){
+        return mBrushType;
+    }
+
+    public void setBrushType(int brushType){
+        mBrushType = brushType;
+    }
+
+    public int getType(){
+        return mType;
+    }
+
+    public int getColor(){
+        return mColor;
+    }
+
+    public float getWidth(){
+        return mWidth;
+    }
+
+    public boolean isVariableWidth(){
+        return mWidths != null;
+    }
+
+    /**
+     * Get the width at a point. A fixed-width stroke has its width everywhere
+     * @param i
+     * @return float
+     */
+    public float getWidth(int i){
+        return mWidths == null ? mWidth : mWidths[i];
+    }
+
+    /**
+     * Get the mean width over the points of the stroke
+     * @return float
+     */
+    public float getMeanWidth(){
+        if (mWidths == null || mPointCount == 0){
+            return mWidth;
+        }
+        float sum = 0;
+        for (int i = 0; i < mPointCount; i++){
+            sum += mWidths[i];
+        }
+        return sum / mPointCount;
+    }
+
+    /**
+     * Get the color tolerance of a fill command
+     * @return int
+     */
+    public int getTolerance(){
+        return (int) mWidth;
+    }
+
+    public int getPointCount(){
+        return mPointCount;
+    }
+
+    public float getX(int i){
+        return mPoints[i * 2];
+    }
+
+    public float getY(int i){
+        return mPoints[i * 2 + 1];
+    }
+
+    /**
+     * Get the packed x, y pairs. Only the first getPointCount() pairs are valid
+     * @return float[]
+     */
+    public float[] getPoints(){
+        return mPoints;
+    }
+}
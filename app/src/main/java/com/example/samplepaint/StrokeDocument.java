@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * In-memory record of a drawing as an ordered list of StrokeCommands. The pixels of the
+ * canvas are a cache that can be rebuilt from the document at any resolution. The commands of
+ * all layers share the list, and a clear command only erases the layer it belongs to.
+ */
+public class StrokeDocument {
+    private final ArrayList<StrokeCommand> mCommands = new ArrayList<StrokeCommand>();
+
+    //reused while rendering
+    private final Path mPath = new Path();
+    private final PathAdapter mPathAdapter = new PathAdapter(mPath);
+    private final Rect mFillBounds = new Rect();
+    //created on the first fill command
+    private CanvasFill mCanvasFill;
+    private FloodFill mFloodFill;
+    private DabCache mDabCache;
+    //created on the first stroke with a Brush
+    private DabStamper mStamper;
+    //created on the first variable-width stroke
+    private StrokeMesh mMesh;
+    private StrokeMeshDrawer mMeshDrawer;
+    //layers with fills are rasterized here before they are scaled, created on the first one
+    private TiledCanvasStore mScratch;
+    private final Paint mScratchPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    //the same for the software rasterizer
+    private StrokeRasterizer mScratchRasterizer;
+
+    /**
+     * Share the dabs rendered for the live strokes with the strokes rendered from the document.
+     * Without one the document creates its own cache on the first stroke with a Brush
+     * @param cache
+     */
+    public void setDabCache(DabCache cache){
+        mDabCache = cache;
+        mStamper = null;
+    }
+
+    public void add(StrokeCommand command){
+        mCommands.add(command);
+    }
+
+    /**
+     * Remove the most recent command
+     * @return StrokeCommand the removed command, or null if the document is empty
+     */
+    public StrokeCommand removeLast(){
+        if (mCommands.isEmpty()){
+            return null;
+        }
+        return mCommands.remove(mCommands.size() - 1);
+    }
+
+    public StrokeCommand get(int index){
+        return mCommands.get(index);
+    }
+
+    public int size(){
+        return mCommands.size();
+    }
+
+    public void clear(){
+        mCommands.clear();
+    }
+
+    /**
+     * Get the index of the first command of a layer that is not erased by a later clear
+     * command of the same layer
+     * @param layer
+     * @return int
+     */
+    public int getFirstVisibleIndex(int layer){
+        for (int i = mCommands.size() - 1; i >= 0; i--){
+            StrokeCommand command = mCommands.get(i);
+            if (command.getType() == StrokeCommand.TYPE_CLEAR && command.getLayer() == layer){
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the number of layers the commands draw into
+     * @return int one more than the highest layer index, at least 1
+     */
+    public int getLayerCount(){
+        int count = 1;
+        for (StrokeCommand command : mCommands){
+            count = Math.max(count, command.getLayer() + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Get the total number of points of all strokes
+     * @return int
+     */
+    public int getPointCount(){
+        int count = 0;
+        for (StrokeCommand command : mCommands){
+            count += command.getPointCount();
+        }
+        return count;
+    }
+
+    /**
+     * Rebuild the tiles of the store of a layer from its visible strokes and fills
+     * @param store
+     * @param paint stroke paint, its color and width are set from each command
+     * @param layer
+     */
+    public void render(TiledCanvasStore store, Paint paint, int layer){
+        store.clear();
+        for (int i = getFirstVisibleIndex(layer); i < mCommands.size(); i++){
+            StrokeCommand command = mCommands.get(i);
+            if (command.getLayer() == layer){
+                apply(command, store, paint);
+            }
+        }
+    }
+
+    /**
+     * Draw a single command into the store of its layer, for example while a drawing is
+     * loading
+     * @param command
+     * @param store
+     * @param paint stroke paint, its color and width are set from the command
+     */
+    public void apply(StrokeCommand command, TiledCanvasStore store, Paint paint){
+        switch (command.getType()){
+            case StrokeCommand.TYPE_CLEAR:
+                store.clear();
+                break;
+            case StrokeCommand.TYPE_FILL:
+                if (mCanvasFill == null){
+                    mCanvasFill = new CanvasFill();
+                }
+                mCanvasFill.apply(store, command, mFillBounds);
+                break;
+            default:
+                if (stamp(command)){
+                    mStamper.commit(store);
+                    break;
+                }
+                if (command.isVariableWidth()){
+                    tessellate(command);
+                    store.drawMesh(mMeshDrawer, mMesh, 0, mMesh.getRowCount(),
+                            command.getColor());
+                    break;
+                }
+                applyStyle(command, paint);
+                command.toPath(mPathAdapter);
+                store.drawPath(mPath, paint);
+                break;
+        }
+    }
+
+    /**
+     * Draw the visible strokes and fills on a canvas scaled by the given factor, for example to
+     * export the drawing at a different resolution. The layers are drawn bottom first and
+     * flattened, since their opacity and blend mode are not part of the document. Fills depend
+     * on the pixels under them, so a layer with fills is rasterized at the document resolution
+     * first and its pixels are drawn scaled
+     * @param canvas
+     * @param paint stroke paint, its color and width are set from each command
+     * @param scale
+     * @param width of the document
+     * @param height
+     */
+    public void render(Canvas canvas, Paint paint, float scale, int width, int height){
+        canvas.save();
+        canvas.scale(scale, scale);
+        int layerCount = getLayerCount();
+        for (int layer = 0; layer < layerCount; layer++){
+            if (hasFill(layer)){
+                if (mScratch == null){
+                    mScratch = new TiledCanvasStore(width, height);
+                } else {
+                    mScratch.resize(width, height);
+                }
+                render(mScratch, paint, layer);
+                mScratch.draw(canvas, mScratchPaint);
+                mScratch.clear();
+                continue;
+            }
+            for (int i = getFirstVisibleIndex(layer); i < mCommands.size(); i++){
+                StrokeCommand command = mCommands.get(i);
+                if (command.getLayer() != layer
+                        || command.getType() != StrokeCommand.TYPE_STROKE){
+                    continue;
+                }
+                if (stamp(command)){
+                    mStamper.draw(canvas);
+                    continue;
+                }
+                if (command.isVariableWidth()){
+                    tessellate(command);
+                    mMeshDrawer.draw(canvas, mMesh, 0, mMesh.getRowCount(),
+                            command.getColor());
+                    continue;
+                }
+                applyStyle(command, paint);
+                command.toPath(mPathAdapter);
+                canvas.drawPath(mPath, paint);
+            }
+        }
+        canvas.restore();
+    }
+
+    /**
+     * Whether a visible command of the layer is a fill
+     */
+    private boolean hasFill(int layer){
+        for (int i = getFirstVisibleIndex(layer); i < mCommands.size(); i++){
+            StrokeCommand command = mCommands.get(i);
+            if (command.getLayer() == layer && command.getType() == StrokeCommand.TYPE_FILL){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draw the visible strokes and fills with the software rasterizer, without a Canvas. Used
+     * to render saved drawings headlessly. The layers are drawn bottom first and flattened. A
+     * layer with fills is rasterized on its own first, so that its fills only see its own
+     * pixels. Strokes with a Brush need its dab bitmaps and are drawn as plain strokes, and
+     * variable-width strokes are drawn at their mean width
+     * @param rasterizer
+     */
+    public void render(StrokeRasterizer rasterizer){
+        int layerCount = getLayerCount();
+        for (int layer = 0; layer < layerCount; layer++){
+            if (hasFill(layer)){
+                if (mScratchRasterizer == null
+                        || mScratchRasterizer.getWidth() != rasterizer.getWidth()
+                        || mScratchRasterizer.getHeight() != rasterizer.getHeight()){
+                    mScratchRasterizer = new StrokeRasterizer(
+                            new int[rasterizer.getWidth() * rasterizer.getHeight()],
+                            rasterizer.getWidth(), rasterizer.getHeight());
+                } else {
+                    mScratchRasterizer.clear();
+                }
+                renderLayer(mScratchRasterizer, layer);
+                rasterizer.drawPixels(mScratchRasterizer.getPixels());
+                continue;
+            }
+            renderLayer(rasterizer, layer);
+        }
+    }
+
+    /**
+     * Draw the visible strokes and fills of one layer with the software rasterizer
+     */
+    private void renderLayer(StrokeRasterizer rasterizer, int layer){
+        for (int i = getFirstVisibleIndex(layer); i < mCommands.size(); i++){
+            StrokeCommand command = mCommands.get(i);
+            if (command.getLayer() != layer || command.getType() == StrokeCommand.TYPE_CLEAR){
+                continue;
+            }
+            if (command.getType() == StrokeCommand.TYPE_FILL){
+                if (mFloodFill == null){
+                    mFloodFill = new FloodFill(null);
+                }
+                fillRasterizer(rasterizer, command);
+                continue;
+            }
+            rasterizer.drawStroke(command.getPoints(), command.getPointCount(),
+                    command.getColor(), command.getMeanWidth());
+        }
+    }
+
+    /**
+     * Replay a fill command on the pixels of the rasterizer, within the area it is confined to
+     */
+    private void fillRasterizer(StrokeRasterizer rasterizer, StrokeCommand command){
+        int left = Math.max(0, (int) command.getX(1));
+        int top = Math.max(0, (int) command.getY(1));
+        int right = Math.min(rasterizer.getWidth(), (int) command.getX(2));
+        int bottom = Math.min(rasterizer.getHeight(), (int) command.getY(2));
+        int x = (int) command.getX(0);
+        int y = (int) command.getY(0);
+        if (x < left || y < top || x >= right || y >= bottom){
+            return;
+        }
+        mFloodFill.fill(rasterizer.getPixels(), top * rasterizer.getWidth() + left,
+                rasterizer.getWidth(), right - left, bottom - top, x - left, y - top,
+                command.getColor(), command.getTolerance());
+    }
+
+    /**
+     * Queue the dabs of a stroke in the stamper if it has a Brush
+     * @return false if the stroke is drawn as a path
+     */
+    private boolean stamp(StrokeCommand command){
+        if (Brush.get(command.getBrushType()) == null){
+            return false;
+        }
+        if (mStamper == null){
+            if (mDabCache == null){
+                mDabCache = new DabCache(DabCache.DEFAULT_MAX_BYTES);
+            }
+            mStamper = new DabStamper(mDabCache);
+        }
+        mStamper.begin(command.getBrushType(), command.getColor(), command.getWidth());
+        command.toDabs(mStamper);
+        return true;
+    }
+
+    /**
+     * Build the mesh of a variable-width stroke. It is drawn the way ActiveStroke draws the
+     * live mesh, so a redrawn stroke is antialiased like the one that was drawn
+     */
+    private void tessellate(StrokeCommand command){
+        if (mMesh == null){
+            mMesh = new StrokeMesh();
+            mMeshDrawer = new StrokeMeshDrawer();
+        }
+        command.toMesh(mMesh);
+    }
+
+    private static void applyStyle(StrokeCommand command, Paint paint){
+        paint.setColor(command.getColor());
+        paint.setStrokeWidth(command.getWidth());
+    }
+}
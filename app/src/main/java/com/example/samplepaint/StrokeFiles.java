@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Saves and loads StrokeDocuments as stroke files on a background thread. The colors of the
+ * color picker form the palette of every file. A load hands the commands to the main thread
+ * in small batches as they are read, so the first strokes can be drawn long before a large
+ * file is read to the end.
+ */
+public class StrokeFiles {
+    private static final String TAG = "StrokeFiles";
+
+    //commands read before they are handed to the main thread
+    private static final int BATCH_COMMANDS = 64;
+
+    /**
+     * Interface definition for callbacks invoked on the main thread while a load progresses
+     */
+    public interface OnStrokesLoadedListener {
+        /**
+         * Called once the header is read, before any command
+         * @param width of the document
+         * @param height
+         */
+        void onLoadStarted(int width, int height);
+
+        /**
+         * Called with the next commands of the file, in order
+         * @param commands
+         */
+        void onStrokesLoaded(ArrayList<StrokeCommand> commands);
+
+        /**
+         * Called when the load ends
+         * @param success false if the file could not be read to the end
+         */
+        void onLoadFinished(boolean success);
+    }
+
+    /**
+     * Interface definition for a callback invoked on the main thread when a save finishes
+     */
+    public interface OnStrokesSavedListener {
+        /**
+         * Called once the file is written
+         * @param success false if the file could not be written
+         */
+        void onStrokesSaved(boolean success);
+    }
+
+    private final int[] mPalette;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //shared with the canvas state saved next to the stroke files
+    private final PaintExecutor.Lane mExecutor = PaintExecutor.getInstance().getFileLane();
+
+    public StrokeFiles(Context context){
+        String[] colors = context.getResources().getStringArray(
+                R.array.default_color_choice_values);
+        mPalette = new int[colors.length];
+        for (int i = 0; i < colors.length; i++){
+            mPalette[i] = Color.parseColor(colors[i]);
+        }
+    }
+
+    /**
+     * Write the commands of the document to the file in the background. Only the list of
+     * commands is copied on the calling thread, the commands themselves are not changed once
+     * added
+     * @param document
+     * @param width of the document
+     * @param height
+     * @param file
+     * @param listener invoked on the main thread, may be null
+     */
+    public void save(StrokeDocument document, final int width, final int height,
+            final File file, final OnStrokesSavedListener listener){
+        final ArrayList<StrokeCommand> commands = new ArrayList<StrokeCommand>(document.size());
+        for (int i = 0; i < document.size(); i++){
+            commands.add(document.get(i));
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    write(commands, width, height, file);
+                    success = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save strokes " + file, e);
+                }
+                if (listener == null){
+                    return;
+                }
+                final boolean result = success;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onStrokesSaved(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read the file in the background
+     * @param file
+     * @param listener invoked on the main thread
+     */
+    public void load(final File file, final OnStrokesLoadedListener listener){
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    read(file, listener);
+                    success = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to load strokes " + file, e);
+                }
+                final boolean result = success;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onLoadFinished(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Write the commands into a temporary file and rename it over the old one
+     */
+    private void write(ArrayList<StrokeCommand> commands, int width, int height, File file)
+            throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Cannot create " + directory);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            StrokeFileWriter writer = new StrokeFileWriter(out.getChannel(), width, height,
+                    mPalette);
+            for (StrokeCommand command : commands){
+                command.write(writer);
+            }
+            writer.flush();
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)){
+            throw new IOException("Cannot rename " + temporary);
+        }
+    }
+
+    private void read(File file, final OnStrokesLoadedListener listener) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            final StrokeFileReader reader = new StrokeFileReader(in.getChannel());
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onLoadStarted(reader.getWidth(), reader.getHeight());
+                }
+            });
+            ArrayList<StrokeCommand> batch = new ArrayList<StrokeCommand>(BATCH_COMMANDS);
+            while (reader.next()){
+                batch.add(StrokeCommand.read(reader));
+                if (batch.size() == BATCH_COMMANDS){
+                    post(batch, listener);
+                    batch = new ArrayList<StrokeCommand>(BATCH_COMMANDS);
+                }
+            }
+            if (!batch.isEmpty()){
+                post(batch, listener);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void post(final ArrayList<StrokeCommand> batch,
+            final OnStrokesLoadedListener listener){
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onStrokesLoaded(batch);
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Build;
+
+/**
+ * Draws rows of a StrokeMesh with Canvas.drawVertices. Each vertex carries the color of the
+ * stroke, with no alpha on the outer vertices and the coverage of the row on the inner ones,
+ * so the edges fade over the feather and come out antialiased without help from the paint.
+ * Long meshes are drawn in runs of at most StrokeMesh.MAX_DRAW_ROWS rows that share a row, so
+ * they all use the one index array of the mesh.
+ *
+ * The triangles of caps and joins overlap, so a translucent color is drawn opaque into a layer
+ * that applies its alpha once. Hardware accelerated canvases only draw vertices from Android Q
+ * on; before that the body of the mesh is filled as one antialiased path instead.
+ */
+public class StrokeMeshDrawer {
+    //Build.VERSION_CODES.Q, the first release whose hardware renderer draws vertices
+    private static final int HARDWARE_VERTICES_SDK = 29;
+
+    private final Paint mPaint = new Paint();
+    private final Path mPath = new Path();
+    private final PathAdapter mPathAdapter = new PathAdapter(mPath);
+    private final RectF mBounds = new RectF();
+    //colors of the vertices of the rows being drawn, grown as needed
+    private int[] mColors = new int[StrokeMesh.MAX_DRAW_ROWS * StrokeMesh.VERTICES_PER_ROW];
+
+    public StrokeMeshDrawer(){
+        mPaint.setAntiAlias(true);
+        mPaint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * Draw the triangles between the given rows of the mesh
+     * @param canvas
+     * @param mesh
+     * @param start first row
+     * @param end exclusive
+     * @param color of the stroke
+     */
+    public void draw(Canvas canvas, StrokeMesh mesh, int start, int end, int color){
+        int alpha = color >>> 24;
+        if (end - start < 2 || alpha == 0){
+            return;
+        }
+        if (alpha < 255){
+            getBounds(mesh, start, end, mBounds);
+            canvas.saveLayerAlpha(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom,
+                    alpha, Canvas.ALL_SAVE_FLAG);
+        }
+        if (canvas.isHardwareAccelerated() && Build.VERSION.SDK_INT < HARDWARE_VERTICES_SDK){
+            mPath.rewind();
+            mesh.triangles(start, end, mPathAdapter);
+            mPaint.setColor(color | 0xFF000000);
+            canvas.drawPath(mPath, mPaint);
+        } else {
+            drawVertices(canvas, mesh, start, end, color & 0xFFFFFF);
+        }
+        if (alpha < 255){
+            canvas.restore();
+        }
+    }
+
+    private void drawVertices(Canvas canvas, StrokeMesh mesh, int start, int end, int rgb){
+        int stride = StrokeMesh.VERTICES_PER_ROW;
+        int rows = end - start;
+        if (mColors.length < rows * stride){
+            mColors = new int[rows * stride];
+        }
+        float[] coverage = mesh.getCoverage();
+        for (int row = 0; row < rows; row++){
+            int inner = rgb | Math.round(coverage[start + row] * 255) << 24;
+            int i = row * stride;
+            mColors[i] = rgb;
+            mColors[i + 1] = inner;
+            mColors[i + 2] = inner;
+            mColors[i + 3] = rgb;
+        }
+        //vertex colors are used as they are when the paint has no shader
+        mPaint.setColor(0xFF000000);
+        short[] indices = StrokeMesh.getIndices();
+        float[] vertices = mesh.getVertices();
+        for (int first = 0; first + 1 < rows; first += StrokeMesh.MAX_DRAW_ROWS - 1){
+            int count = Math.min(StrokeMesh.MAX_DRAW_ROWS, rows - first);
+            canvas.drawVertices(Canvas.VertexMode.TRIANGLES, count * stride * 2, vertices,
+                    (start + first) * stride * 2, null, 0, mColors, first * stride, indices, 0,
+                    (count - 1) * StrokeMesh.INDICES_PER_ROW, mPaint);
+        }
+    }
+
+    /**
+     * Get the area the given rows of the mesh cover, feather included
+     * @param mesh
+     * @param start first row
+     * @param end exclusive
+     * @param out set to the bounds, empty if there are no rows
+     */
+    public static void getBounds(StrokeMesh mesh, int start, int end, RectF out){
+        out.setEmpty();
+        if (end <= start){
+            return;
+        }
+        float[] vertices = mesh.getVertices();
+        int from = start * StrokeMesh.VERTICES_PER_ROW * 2;
+        int to = end * StrokeMesh.VERTICES_PER_ROW * 2;
+        out.set(vertices[from], vertices[from + 1], vertices[from], vertices[from + 1]);
+        for (int i = from + 2; i < to; i += 2){
+            out.union(vertices[i], vertices[i + 1]);
+        }
+    }
+}
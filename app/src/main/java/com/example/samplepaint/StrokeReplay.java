@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * Time-lapse replay of a StrokeDocument at a given number of commands per second. The replay
+ * draws into a scratch LayerStack of its own, so the layers of the drawing are left as they
+ * are and stopping the replay only drops the scratch layers. Every frame draws the commands the
+ * frame clock says are due, so a replay that falls behind draws several commands in one frame
+ * rather than asking for more frames, and the time a frame spends drawing is bounded. The
+ * layers are captured as keyframes at regular intervals the first time the replay passes them,
+ * run-length encoded like the undo history, and a seek restores the nearest keyframe before the
+ * target and replays only the commands after it. Capturing a keyframe counts against the
+ * frame time too: it is spread over as many frames as it takes, and the commands after it
+ * wait until it is complete.
+ */
+public class StrokeReplay {
+    public static final float DEFAULT_SPEED = 20;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+    public static final long DEFAULT_KEYFRAME_BUDGET = 8 * 1024 * 1024;
+    //pause on the finished drawing before a looping replay starts again
+    public static final long LOOP_PAUSE_MILLIS = 2000;
+
+    //time a frame may spend drawing commands, the rest is left to onDraw
+    private static final long FRAME_BUDGET_NANOS = 8000000;
+    private static final int TILE_PIXELS = TiledCanvasStore.TILE_SIZE * TiledCanvasStore.TILE_SIZE;
+    //fixed cost of a tile of a keyframe besides its runs
+    private static final int TILE_OVERHEAD_BYTES = 32;
+
+    /**
+     * Pixels of one tile of one layer
+     */
+    private static class TileRuns {
+        final int layer;
+        final int column;
+        final int row;
+        final int[] runs;
+
+        TileRuns(int layer, int column, int row, int[] runs){
+            this.layer = layer;
+            this.column = column;
+            this.row = row;
+            this.runs = runs;
+        }
+    }
+
+    /**
+     * The tiles of every layer after the commands before a position were drawn. Fully
+     * transparent tiles are left out
+     */
+    private static class Keyframe {
+        final int position;
+        final ArrayList<TileRuns> tiles = new ArrayList<TileRuns>();
+        long bytes;
+
+        Keyframe(int position){
+            this.position = position;
+        }
+
+        void add(TileRuns tile){
+            tiles.add(tile);
+            bytes += TILE_OVERHEAD_BYTES + tile.runs.length * 4L;
+        }
+    }
+
+    private final StrokeDocument mDocument;
+    private final Paint mPaint;
+    //scratch layers the replay draws into, null while it is not running
+    private LayerStack mLayers;
+    //keyframe being captured, the next tile to capture is mCaptureTile of mCaptureLayer
+    private Keyframe mCapturing;
+    private int mCaptureLayer;
+    private int mCaptureTile;
+    //ordered by position, the first one is the empty drawing
+    private final ArrayList<Keyframe> mKeyframes = new ArrayList<Keyframe>();
+    private int mKeyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    private long mKeyframeBudget = DEFAULT_KEYFRAME_BUDGET;
+    private long mKeyframeBytes;
+    private float mSpeed = DEFAULT_SPEED;
+    private boolean mLooping;
+    private boolean mRunning;
+    //number of commands drawn
+    private int mPosition;
+    //number of commands of the document when the replay started
+    private int mCount;
+    //frame time and position the due commands are counted from, the time is -1 until the
+    //next frame
+    private long mBaseTime = -1;
+    private int mBasePosition;
+    //frame time the end was reached, -1 before
+    private long mEndTime = -1;
+
+    //reused while capturing and restoring keyframes
+    private final int[] mPixels = new int[TILE_PIXELS];
+    private final int[] mRuns = new int[TILE_PIXELS * 2];
+
+    /**
+     * Create a replay of the document
+     * @param document
+     * @param paint stroke paint, its color and width are set from each command
+     */
+    public StrokeReplay(StrokeDocument document, Paint paint){
+        mDocument = document;
+        mPaint = paint;
+    }
+
+    /**
+     * Start replaying the commands of the document from the first one. Keyframes of an earlier
+     * replay are dropped, since the document may have changed
+     * @param layers empty scratch layers, one for each layer of the drawing, drawn instead of
+     *               the layers of the drawing until the replay stops
+     * @param dirty grown by the area that changed
+     */
+    public void start(LayerStack layers, Rect dirty){
+        mLayers = layers;
+        mKeyframes.clear();
+        mKeyframeBytes = 0;
+        mKeyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+        mKeyframes.add(new Keyframe(0));
+        mCapturing = null;
+        mCount = mDocument.size();
+        mRunning = true;
+        mPosition = -1;
+        seekTo(0, dirty);
+    }
+
+    /**
+     * Get the scratch layers the replay draws into
+     * @return LayerStack the layers, or null once the replay is cancelled
+     */
+    public LayerStack getLayers(){
+        return mLayers;
+    }
+
+    /**
+     * Draw the commands due at the frame time, after the rest of a keyframe being captured.
+     * The first frame after a start or a seek sets the time the following ones are counted
+     * from
+     * @param frameTime in milliseconds, from the frame clock
+     * @param dirty grown by the area that changed
+     * @return boolean true if another frame is needed, false once the replay reached the end
+     * and stopped, and the scratch layers can be dropped with cancel
+     */
+    public boolean advance(long frameTime, Rect dirty){
+        if (!mRunning){
+            return false;
+        }
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        if (mCapturing != null && !capture(deadline)){
+            //the commands due wait for the keyframe, rather than pile up behind it
+            mBaseTime = -1;
+            return true;
+        }
+        if (mPosition == mCount){
+            if (!mLooping){
+                mRunning = false;
+                return false;
+            }
+            if (mEndTime < 0){
+                mEndTime = frameTime;
+            }
+            if (frameTime - mEndTime >= LOOP_PAUSE_MILLIS){
+                seekTo(0, dirty);
+            }
+            return true;
+        }
+        if (mBaseTime < 0){
+            mBaseTime = frameTime;
+            mBasePosition = mPosition;
+        }
+        long due = mBasePosition + (long) ((frameTime - mBaseTime) * mSpeed / 1000);
+        int target = (int) Math.min(mCount, due);
+        while (mPosition < target){
+            step(dirty);
+            if (mCapturing != null && !capture(deadline)){
+                mBaseTime = -1;
+                break;
+            }
+            if (System.nanoTime() > deadline && mPosition < target){
+                //drop the backlog instead of carrying it into the next frames
+                mBaseTime = frameTime;
+                mBasePosition = mPosition;
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Show the drawing as it was after the given number of commands. The nearest keyframe
+     * before the position is restored unless the position is ahead of the current one, and
+     * the commands after it are drawn
+     * @param position
+     * @param dirty grown by the area that changed
+     */
+    public void seekTo(int position, Rect dirty){
+        position = Math.max(0, Math.min(mCount, position));
+        Keyframe keyframe = findKeyframe(position);
+        if (position < mPosition || keyframe.position > mPosition){
+            restore(keyframe, dirty);
+            mPosition = keyframe.position;
+        }
+        while (mPosition < position){
+            if (mCapturing != null){
+                //a keyframe passed on the way is captured before the commands after it
+                capture(Long.MAX_VALUE);
+            }
+            step(dirty);
+        }
+        mBaseTime = -1;
+        mEndTime = -1;
+    }
+
+    /**
+     * Stop and drop the scratch layers and the keyframes. The layers of the drawing were never
+     * touched, so they show again as they are
+     */
+    public void cancel(){
+        mRunning = false;
+        mLayers = null;
+        mCapturing = null;
+        mKeyframes.clear();
+        mKeyframeBytes = 0;
+    }
+
+    public boolean isRunning(){
+        return mRunning;
+    }
+
+    /**
+     * Get the number of commands drawn so far
+     * @return int
+     */
+    public int getPosition(){
+        return mPosition;
+    }
+
+    /**
+     * Get the number of commands the replay draws in total
+     * @return int
+     */
+    public int getCount(){
+        return mCount;
+    }
+
+    /**
+     * Set the speed of the replay. The commands due are counted again from the next frame
+     * @param commandsPerSecond
+     */
+    public void setSpeed(float commandsPerSecond){
+        mSpeed = commandsPerSecond;
+        mBaseTime = -1;
+    }
+
+    public float getSpeed(){
+        return mSpeed;
+    }
+
+    /**
+     * Start again from the first command, after a pause, once the end is reached
+     * @param looping
+     */
+    public void setLooping(boolean looping){
+        mLooping = looping;
+    }
+
+    public boolean isLooping(){
+        return mLooping;
+    }
+
+    /**
+     * Set the maximum memory used by the keyframes. Every other keyframe is dropped, and the
+     * interval doubled, while they exceed it
+     * @param bytes
+     */
+    public void setKeyframeBudget(long bytes){
+        mKeyframeBudget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * Get the memory used by the keyframes
+     * @return long bytes
+     */
+    public long getKeyframeByteCount(){
+        return mKeyframeBytes;
+    }
+
+    /**
+     * Draw the next command, and start capturing a keyframe after it if one is due and was not
+     * captured yet
+     */
+    private void step(Rect dirty){
+        StrokeCommand command = mDocument.get(mPosition);
+        if (command.getLayer() < mLayers.getLayerCount()){
+            TiledCanvasStore store = mLayers.getLayer(command.getLayer()).getStore();
+            mDocument.apply(command, store, mPaint);
+            unionBounds(command, store, dirty);
+        }
+        mPosition++;
+        if (mPosition % mKeyframeInterval == 0
+                && mKeyframes.get(mKeyframes.size() - 1).position < mPosition){
+            mCapturing = new Keyframe(mPosition);
+            mCaptureLayer = 0;
+            mCaptureTile = 0;
+        }
+    }
+
+    /**
+     * Get the last keyframe at or before the position
+     */
+    private Keyframe findKeyframe(int position){
+        Keyframe found = mKeyframes.get(0);
+        for (int i = 1; i < mKeyframes.size() && mKeyframes.get(i).position <= position; i++){
+            found = mKeyframes.get(i);
+        }
+        return found;
+    }
+
+    /**
+     * Capture the tiles of the keyframe being captured until the deadline, and keep it once
+     * every tile is captured. At least one tile is captured per call
+     * @param deadline System.nanoTime() to stop at
+     * @return false if tiles are left for a later call
+     */
+    private boolean capture(long deadline){
+        Keyframe keyframe = mCapturing;
+        for (; mCaptureLayer < mLayers.getLayerCount(); mCaptureLayer++, mCaptureTile = 0){
+            TiledCanvasStore store = mLayers.getLayer(mCaptureLayer).getStore();
+            int tiles = store.getColumns() * store.getRows();
+            while (mCaptureTile < tiles){
+                int column = mCaptureTile % store.getColumns();
+                int row = mCaptureTile / store.getColumns();
+                mCaptureTile++;
+                Bitmap tile = store.getTile(column, row);
+                if (tile == null){
+                    continue;
+                }
+                tile.getPixels(mPixels, 0, TiledCanvasStore.TILE_SIZE, 0, 0,
+                        TiledCanvasStore.TILE_SIZE, TiledCanvasStore.TILE_SIZE);
+                int[] runs = PixelRunLength.encode(mPixels, TILE_PIXELS, mRuns);
+                if (runs != null){
+                    keyframe.add(new TileRuns(mCaptureLayer, column, row, runs));
+                }
+                if (System.nanoTime() > deadline && mCaptureTile < tiles){
+                    return false;
+                }
+            }
+        }
+        mCapturing = null;
+        mKeyframes.add(keyframe);
+        mKeyframeBytes += keyframe.bytes;
+        trimToBudget();
+        return true;
+    }
+
+    /**
+     * Replace the pixels of every scratch layer with the tiles of the keyframe
+     */
+    private void restore(Keyframe keyframe, Rect dirty){
+        //a keyframe being captured no longer matches the layers
+        mCapturing = null;
+        LayerStack layers = mLayers;
+        for (int layer = 0; layer < layers.getLayerCount(); layer++){
+            layers.getLayer(layer).getStore().clear();
+        }
+        for (int i = 0; i < keyframe.tiles.size(); i++){
+            TileRuns tile = keyframe.tiles.get(i);
+            if (tile.layer >= layers.getLayerCount()){
+                continue;
+            }
+            PixelRunLength.decode(tile.runs, mPixels, TILE_PIXELS);
+            layers.getLayer(tile.layer).getStore().obtainTile(tile.column, tile.row)
+                    .setPixels(mPixels, 0, TiledCanvasStore.TILE_SIZE, 0, 0,
+                            TiledCanvasStore.TILE_SIZE, TiledCanvasStore.TILE_SIZE);
+        }
+        //the tiles were replaced without going through the listener
+        layers.invalidateAll();
+        TiledCanvasStore store = layers.getActiveLayer().getStore();
+        dirty.union(0, 0, store.getWidth(), store.getHeight());
+    }
+
+    /**
+     * Keep every other keyframe after the first one, and double the interval, until the
+     * keyframes fit in the budget. Keyframes are captured at every multiple of the interval,
+     * so the ones left stay evenly spaced
+     */
+    private void trimToBudget(){
+        while (mKeyframeBytes > mKeyframeBudget && mKeyframes.size() > 1){
+            for (int i = mKeyframes.size() - 1; i > 0; i--){
+                if (i % 2 == 1){
+                    mKeyframeBytes -= mKeyframes.remove(i).bytes;
+                }
+            }
+            mKeyframeInterval *= 2;
+        }
+    }
+
+    /**
+     * Grow the dirty rectangle by the area a command drew into
+     */
+    private static void unionBounds(StrokeCommand command, TiledCanvasStore store, Rect dirty){
+        switch (command.getType()){
+            case StrokeCommand.TYPE_CLEAR:
+                dirty.union(0, 0, store.getWidth(), store.getHeight());
+                break;
+            case StrokeCommand.TYPE_FILL:
+                dirty.union((int) command.getX(1), (int) command.getY(1),
+                        (int) command.getX(2), (int) command.getY(2));
+                break;
+            default:
+                if (command.getPointCount() == 0){
+                    break;
+                }
+                float left = command.getX(0);
+                float top = command.getY(0);
+                float right = left;
+                float bottom = top;
+                for (int i = 1; i < command.getPointCount(); i++){
+                    left = Math.min(left, command.getX(i));
+                    top = Math.min(top, command.getY(i));
+                    right = Math.max(right, command.getX(i));
+                    bottom = Math.max(bottom, command.getY(i));
+                }
+                int pad = (int) Math.ceil(command.getWidth() / 2) + 1;
+                dirty.union((int) left - pad, (int) top - pad, (int) right + pad,
+                        (int) bottom + pad);
+                break;
+        }
+    }
+}
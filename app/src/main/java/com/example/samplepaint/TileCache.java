@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Second level of a TiledCanvasStore: copies of the tiles the store evicted from memory, kept in
+ * a memory-mapped TileFile. Evicting a tile only copies its pixels, the write into the file
+ * runs on a background thread, and a tile loaded back before its write finished comes from the
+ * copy. Tiles can be prefetched on the same thread so that loading them later is a copy from
+ * memory. A copy stays valid while its tile is in memory and unchanged, so evicting a tile that
+ * was only looked at costs nothing.
+ *
+ * A copy can be pinned, by a snapshot being written or by an undo step holding a released tile.
+ * Storing or discarding the tile then moves it to a new slot and leaves the pinned copy as it
+ * is until it is unpinned. A snapshot also retains the cache, so closing it while the snapshot
+ * is written only closes the file once the snapshot released it.
+ */
+public class TileCache {
+    private static final String TAG = "TileCache";
+
+    private static final int TILE_PIXELS = TiledCanvasStore.TILE_SIZE * TiledCanvasStore.TILE_SIZE;
+    //pixel buffers kept for reuse
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    //tile files left by an earlier process are deleted on the first open
+    private static boolean sStaleFilesDeleted;
+
+    /**
+     * Copy of one tile
+     */
+    public static class Entry {
+        final int slot;
+        //snapshots and undo steps holding on to the copy
+        int pins;
+        //no longer the copy of its tile, the slot is freed once unpinned
+        boolean detached;
+        //pixels waiting to be written into the slot
+        int[] pending;
+        //pixels read ahead from the slot
+        int[] staged;
+        boolean prefetching;
+        //changes whenever the slot gets new pixels, so a stale prefetch is dropped
+        int generation;
+
+        Entry(int slot){
+            this.slot = slot;
+        }
+    }
+
+    private final TileFile mFile;
+    //guarded by this
+    private final HashMap<Integer, Entry> mEntries = new HashMap<Integer, Entry>();
+    private final ArrayList<int[]> mBuffers = new ArrayList<int[]>();
+    //writes and prefetches of the file, in order
+    private final PaintExecutor.Lane mLane = PaintExecutor.getInstance().newLane();
+    //snapshots still reading pinned copies, guarded by this
+    private int mRetainCount;
+    private boolean mClosed;
+
+    public TileCache(TileFile file){
+        mFile = file;
+    }
+
+    /**
+     * Create a cache backed by a new tile file in the directory
+     * @param directory app-private directory holding only tile files
+     * @return TileCache
+     * @throws IOException
+     */
+    public static synchronized TileCache open(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Cannot create " + directory);
+        }
+        if (!sStaleFilesDeleted){
+            File[] stale = directory.listFiles();
+            if (stale != null){
+                for (File file : stale){
+                    file.delete();
+                }
+            }
+            sStaleFilesDeleted = true;
+        }
+        File file = File.createTempFile("tiles", ".bin", directory);
+        return new TileCache(new TileFile(file, TILE_PIXELS));
+    }
+
+    /**
+     * Whether a copy of the tile is kept
+     * @param column
+     * @param row
+     * @return boolean
+     */
+    public synchronized boolean contains(int column, int row){
+        return mEntries.containsKey(key(column, row));
+    }
+
+    /**
+     * Keep a copy of the pixels of the tile, replacing the previous one. The pixels are copied
+     * on the calling thread and written into the file in the background
+     * @param column
+     * @param row
+     * @param tile
+     */
+    public void store(int column, int row, Bitmap tile){
+        final int[] pixels = obtainBuffer();
+        tile.copyPixelsToBuffer(IntBuffer.wrap(pixels));
+        final Entry entry;
+        synchronized (this) {
+            Integer key = key(column, row);
+            Entry existing = mEntries.get(key);
+            if (existing != null && existing.pins > 0){
+                existing.detached = true;
+                existing = null;
+            }
+            if (existing == null){
+                existing = new Entry(mFile.allocateSlot());
+                mEntries.put(key, existing);
+            }
+            entry = existing;
+            entry.generation++;
+            if (entry.staged != null){
+                recycleBuffer(entry.staged);
+                entry.staged = null;
+            }
+            //a write still queued for the previous copy is superseded by this one
+            entry.pending = pixels;
+        }
+        mLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mFile.write(entry.slot, pixels);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write tile", e);
+                    //the pending copy stays in memory so the ink is not lost
+                    return;
+                }
+                synchronized (TileCache.this) {
+                    if (entry.pending == pixels){
+                        entry.pending = null;
+                    }
+                }
+                recycleBuffer(pixels);
+            }
+        });
+    }
+
+    /**
+     * Create a tile holding the kept copy. The copy stays valid until the tile is stored again
+     * or discarded
+     * @param column
+     * @param row
+     * @return Bitmap a new tile, or null if no copy is kept
+     */
+    public Bitmap load(int column, int row){
+        Bitmap tile = Bitmap.createBitmap(TiledCanvasStore.TILE_SIZE, TiledCanvasStore.TILE_SIZE,
+                Bitmap.Config.ARGB_8888);
+        int slot;
+        synchronized (this) {
+            Entry entry = mEntries.get(key(column, row));
+            if (entry == null){
+                return null;
+            }
+            if (entry.pending != null){
+                tile.copyPixelsFromBuffer(IntBuffer.wrap(entry.pending));
+                return tile;
+            }
+            if (entry.staged != null){
+                tile.copyPixelsFromBuffer(IntBuffer.wrap(entry.staged));
+                recycleBuffer(entry.staged);
+                entry.staged = null;
+                return tile;
+            }
+            slot = entry.slot;
+        }
+        int[] pixels = obtainBuffer();
+        try {
+            mFile.read(slot, pixels);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read tile", e);
+        }
+        tile.copyPixelsFromBuffer(IntBuffer.wrap(pixels));
+        recycleBuffer(pixels);
+        return tile;
+    }
+
+    /**
+     * Read the kept copy of the tile into memory in the background, so a later load does not
+     * wait for the file
+     * @param column
+     * @param row
+     */
+    public void prefetch(int column, int row){
+        final Entry entry;
+        final int generation;
+        synchronized (this) {
+            entry = mEntries.get(key(column, row));
+            if (entry == null || entry.pending != null || entry.staged != null
+                    || entry.prefetching){
+                return;
+            }
+            entry.prefetching = true;
+            generation = entry.generation;
+        }
+        mLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                int[] pixels = obtainBuffer();
+                boolean read = true;
+                try {
+                    mFile.read(entry.slot, pixels);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to prefetch tile", e);
+                    read = false;
+                }
+                synchronized (TileCache.this) {
+                    entry.prefetching = false;
+                    if (read && entry.generation == generation && entry.pending == null
+                            && entry.staged == null){
+                        entry.staged = pixels;
+                        return;
+                    }
+                }
+                recycleBuffer(pixels);
+            }
+        });
+    }
+
+    /**
+     * Drop the kept copy of the tile, for example because the tile was released
+     * @param column
+     * @param row
+     */
+    public synchronized void discard(int column, int row){
+        Entry entry = mEntries.remove(key(column, row));
+        if (entry == null){
+            return;
+        }
+        entry.generation++;
+        if (entry.staged != null){
+            recycleBuffer(entry.staged);
+            entry.staged = null;
+        }
+        if (entry.pins > 0){
+            entry.detached = true;
+        } else {
+            mFile.freeSlot(entry.slot);
+        }
+    }
+
+    /**
+     * Pin the kept copy of the tile, so that it can be read later as it is now
+     * @param column
+     * @param row
+     * @return Entry the copy, to be handed to unpin, or null if no copy is kept
+     */
+    public synchronized Entry pin(int column, int row){
+        Entry entry = mEntries.get(key(column, row));
+        if (entry != null){
+            entry.pins++;
+        }
+        return entry;
+    }
+
+    /**
+     * Release a pinned copy, freeing its slot if it no longer belongs to its tile
+     * @param entry
+     */
+    public synchronized void unpin(Entry entry){
+        entry.pins--;
+        if (entry.pins == 0 && entry.detached){
+            mFile.freeSlot(entry.slot);
+        }
+    }
+
+    /**
+     * Take the kept copy of the tile away from it, pinned, for example as the cheap pre-image
+     * of a released tile. The tile has no copy afterwards
+     * @param column
+     * @param row
+     * @return Entry the copy, to be handed to attach or unpin, or null if no copy is kept
+     */
+    public synchronized Entry detach(int column, int row){
+        Entry entry = mEntries.remove(key(column, row));
+        if (entry != null){
+            entry.pins++;
+            entry.detached = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Make a detached copy the copy of the tile again, replacing the one it has, and unpin it
+     * @param column
+     * @param row
+     * @param entry
+     */
+    public synchronized void attach(int column, int row, Entry entry){
+        discard(column, row);
+        entry.detached = false;
+        entry.pins--;
+        mEntries.put(key(column, row), entry);
+    }
+
+    /**
+     * Copy the pixels of a pinned copy, as they were when it was pinned. Reads from the file
+     * on the calling thread
+     * @param entry
+     * @param pixels at least a tile of pixels long
+     * @throws IOException
+     */
+    public void read(Entry entry, int[] pixels) throws IOException {
+        synchronized (this) {
+            int[] copy = entry.pending != null ? entry.pending : entry.staged;
+            if (copy != null){
+                System.arraycopy(copy, 0, pixels, 0, TILE_PIXELS);
+                return;
+            }
+        }
+        //the slot of a pinned copy is neither freed nor written
+        mFile.read(entry.slot, pixels);
+    }
+
+    /**
+     * Keep the file open for reads of pinned copies, even once the cache is closed
+     */
+    public synchronized void retain(){
+        mRetainCount++;
+    }
+
+    /**
+     * Undo a retain. The file of a closed cache is deleted once the last reader released it
+     */
+    public void release(){
+        synchronized (this) {
+            mRetainCount--;
+            if (!mClosed || mRetainCount > 0){
+                return;
+            }
+        }
+        closeFile();
+    }
+
+    /**
+     * Drop every copy and delete the file once the writes still queued are done and no
+     * snapshot retains the cache
+     */
+    public void close(){
+        boolean retained;
+        synchronized (this) {
+            mEntries.clear();
+            mClosed = true;
+            retained = mRetainCount > 0;
+        }
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+        if (!retained){
+            closeFile();
+        }
+    }
+
+    private void closeFile(){
+        mLane.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFile.close();
+            }
+        });
+    }
+
+    private int[] obtainBuffer(){
+        synchronized (mBuffers) {
+            if (!mBuffers.isEmpty()){
+                return mBuffers.remove(mBuffers.size() - 1);
+            }
+        }
+        return new int[TILE_PIXELS];
+    }
+
+    private void recycleBuffer(int[] buffer){
+        synchronized (mBuffers) {
+            if (mBuffers.size() < MAX_POOLED_BUFFERS){
+                mBuffers.add(buffer);
+            }
+        }
+    }
+
+    private static Integer key(int column, int row){
+        return (row << 16) | column;
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Level of detail pyramid over the tiles of a TiledCanvasStore. Level 0 is the store itself,
+ * and every tile of level n is its four tiles of level n - 1 downsampled by two, so it covers
+ * TILE_SIZE << n document pixels. A zoomed out view draws a few tiles of a coarse level
+ * instead of scaling down every full resolution tile. Changing a store tile only marks the
+ * tiles above it, which are downsampled again the next time they are drawn.
+ *
+ * With a builder set, the marked tiles are downsampled on a background thread one quadrant at a
+ * time, holding the lock of the store only meanwhile, and draw shows the old tiles until the
+ * new ones are ready. The downsampled tiles are kept within a memory budget, the least
+ * recently used ones are dropped and built again when needed.
+ */
+public class TileMipPyramid {
+    //levels above the store
+    public static final int MAX_LEVELS = 5;
+
+    private static final int TILE_SIZE = TiledCanvasStore.TILE_SIZE;
+
+    /**
+     * Interface definition for a callback invoked on the builder thread when tiles that were
+     * drawn out of date are ready
+     */
+    public interface OnTilesBuiltListener {
+        void onTilesBuilt();
+    }
+
+    /**
+     * Interface definition for the source of the store tiles the first level is built from,
+     * for a store whose tiles are only brought up to date when needed
+     */
+    public interface TileProvider {
+        /**
+         * Called with the lock held
+         * @param column
+         * @param row
+         * @return Bitmap the up to date store tile, or null if it holds no ink
+         */
+        Bitmap getTile(int column, int row);
+    }
+
+    private final TiledCanvasStore mStore;
+    //grid of the store the levels were laid out for
+    private int mStoreColumns;
+    private int mStoreRows;
+    //indexed by level - 1
+    private Bitmap[][] mTiles;
+    //out of date or dropped
+    private boolean[][] mDirty;
+    //use count of the last draw or build of each tile, for the LRU eviction
+    private long[][] mLastUse;
+    private int[] mColumns;
+    private int[] mRows;
+    private long mUseCount;
+    private int mResidentCount;
+    private long mMemoryBudget = Long.MAX_VALUE;
+    //tile a rebuild of each level draws into, the tile it replaces becomes the next spare
+    private Bitmap[] mSpares;
+    //changes whenever the levels are laid out again, a build of older levels is dropped
+    private int mGeneration;
+
+    //guards the levels and the store, this pyramid itself unless a builder is set
+    private Object mLock = this;
+    private OnTilesBuiltListener mListener;
+    private TileProvider mProvider;
+    private boolean mBuildScheduled;
+    //level and document area of the last draw that found tiles out of date
+    private boolean mBuildRequested;
+    private int mRequestLevel;
+    private final Rect mRequestArea = new Rect();
+    private final Rect mBuildArea = new Rect();
+    private final Runnable mBuildRunnable = new Runnable() {
+        @Override
+        public void run() {
+            buildRequested();
+        }
+    };
+
+    //reused while downsampling and drawing
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mDownsamplePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mQuadrant = new Rect();
+    private final Rect mClipBounds = new Rect();
+    private final Rect mDestination = new Rect();
+
+    public TileMipPyramid(TiledCanvasStore store){
+        mStore = store;
+        layOut();
+    }
+
+    public TiledCanvasStore getStore(){
+        return mStore;
+    }
+
+    /**
+     * Downsample the tiles on a background thread instead of in draw. Every call into the
+     * pyramid and every change of the store must then hold the lock
+     * @param lock
+     * @param listener invoked on the builder thread once tiles drawn out of date are ready
+     */
+    public void setBuilder(Object lock, OnTilesBuiltListener listener){
+        mLock = lock;
+        mListener = listener;
+    }
+
+    /**
+     * Get the store tiles through a provider instead of straight from the store
+     * @param provider
+     */
+    public void setTileProvider(TileProvider provider){
+        mProvider = provider;
+    }
+
+    /**
+     * Set the memory the downsampled tiles may use. The least recently drawn ones are dropped
+     * past it, besides one spare tile per level
+     * @param bytes
+     */
+    public void setMemoryBudget(long bytes){
+        mMemoryBudget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * Get the number of levels, including the store
+     * @return int
+     */
+    public int getLevelCount(){
+        return mTiles.length + 1;
+    }
+
+    /**
+     * Select the level to draw at the given scale: the coarsest one that still has at least
+     * one tile pixel per view pixel
+     * @param scale view pixels per document pixel
+     * @return int
+     */
+    public int selectLevel(float scale){
+        int level = 0;
+        while (level + 1 < getLevelCount() && scale * (2 << level) <= 1f){
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Mark the tiles above a store tile as out of date. Call before or after the store tile
+     * changes, as long as it is before the next draw
+     * @param column
+     * @param row
+     */
+    public void invalidateTile(int column, int row){
+        if (column >= mStoreColumns || row >= mStoreRows){
+            return;
+        }
+        for (int level = 1; level <= mTiles.length; level++){
+            mDirty[level - 1][(row >> level) * mColumns[level - 1] + (column >> level)] = true;
+        }
+    }
+
+    /**
+     * Mark the tiles above the store tiles covering the rectangle as out of date
+     * @param rect in document coordinates
+     */
+    public void invalidate(Rect rect){
+        if (rect.isEmpty()){
+            return;
+        }
+        int maxColumn = Math.min(mStoreColumns - 1, (rect.right - 1) / TILE_SIZE);
+        int maxRow = Math.min(mStoreRows - 1, (rect.bottom - 1) / TILE_SIZE);
+        for (int row = Math.max(0, rect.top / TILE_SIZE); row <= maxRow; row++){
+            for (int column = Math.max(0, rect.left / TILE_SIZE); column <= maxColumn;
+                    column++){
+                invalidateTile(column, row);
+            }
+        }
+    }
+
+    /**
+     * Mark every tile as out of date, for example after the store tiles were replaced
+     */
+    public void invalidateAll(){
+        for (boolean[] dirty : mDirty){
+            for (int i = 0; i < dirty.length; i++){
+                dirty[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Release every downsampled tile. They are built again when next drawn
+     */
+    public void trimMemory(){
+        for (int level = 0; level < mTiles.length; level++){
+            for (int i = 0; i < mTiles[level].length; i++){
+                mTiles[level][i] = null;
+            }
+            mSpares[level] = null;
+        }
+        mResidentCount = 0;
+        invalidateAll();
+    }
+
+    /**
+     * Draw the tiles of a level that intersect the clip of the canvas. Without a builder the
+     * ones that are out of date are downsampled first, with one they are drawn as they are
+     * and a build is scheduled
+     * @param canvas in document coordinates
+     * @param level 0 to draw the store
+     * @param paint
+     */
+    public void draw(Canvas canvas, int level, Paint paint){
+        if (mStore.getColumns() != mStoreColumns || mStore.getRows() != mStoreRows){
+            layOut();
+        }
+        if (level == 0 || level > mTiles.length){
+            mStore.draw(canvas, paint);
+            return;
+        }
+        if (!canvas.getClipBounds(mClipBounds)){
+            return;
+        }
+        int span = TILE_SIZE << level;
+        int columns = mColumns[level - 1];
+        int maxColumn = Math.min(columns - 1, (mClipBounds.right - 1) / span);
+        int maxRow = Math.min(mRows[level - 1] - 1, (mClipBounds.bottom - 1) / span);
+        boolean outOfDate = false;
+        for (int row = Math.max(0, mClipBounds.top / span); row <= maxRow; row++){
+            for (int column = Math.max(0, mClipBounds.left / span); column <= maxColumn;
+                    column++){
+                int index = row * columns + column;
+                if (mDirty[level - 1][index]){
+                    if (mListener == null){
+                        build(level, column, row, mGeneration);
+                    } else {
+                        outOfDate = true;
+                    }
+                }
+                Bitmap tile = mTiles[level - 1][index];
+                if (tile != null){
+                    mLastUse[level - 1][index] = ++mUseCount;
+                    mDestination.set(column * span, row * span, (column + 1) * span,
+                            (row + 1) * span);
+                    canvas.drawBitmap(tile, null, mDestination, paint);
+                }
+            }
+        }
+        if (outOfDate){
+            requestBuild(level, mClipBounds);
+        }
+    }
+
+    /**
+     * Get the memory used by the tiles above the store
+     * @return long bytes
+     */
+    public long getAllocatedBytes(){
+        return (long) mResidentCount * TILE_SIZE * TILE_SIZE * 4;
+    }
+
+    /**
+     * Called from draw with the lock held. Remembers what to build and schedules the builder
+     */
+    private void requestBuild(int level, Rect area){
+        mBuildRequested = true;
+        mRequestLevel = level;
+        mRequestArea.set(area);
+        if (!mBuildScheduled){
+            mBuildScheduled = true;
+            PaintExecutor.getInstance().execute(mBuildRunnable);
+        }
+    }
+
+    /**
+     * Called on the builder thread. Builds the marked tiles of the last requested area until no
+     * draw asked for more meanwhile
+     */
+    private void buildRequested(){
+        while (true){
+            int level;
+            int generation;
+            synchronized (mLock) {
+                if (!mBuildRequested){
+                    mBuildScheduled = false;
+                    return;
+                }
+                mBuildRequested = false;
+                level = mRequestLevel;
+                generation = mGeneration;
+                mBuildArea.set(mRequestArea);
+                if (level > mTiles.length){
+                    continue;
+                }
+            }
+            if (buildArea(level, generation) && mListener != null){
+                mListener.onTilesBuilt();
+            }
+        }
+    }
+
+    /**
+     * Build the marked tiles of a level covering the build area
+     * @return false if the levels were laid out again and the build is dropped
+     */
+    private boolean buildArea(int level, int generation){
+        int span = TILE_SIZE << level;
+        for (int row = Math.max(0, mBuildArea.top / span); row <= (mBuildArea.bottom - 1) / span;
+                row++){
+            for (int column = Math.max(0, mBuildArea.left / span);
+                    column <= (mBuildArea.right - 1) / span; column++){
+                if (!buildIfMarked(level, column, row, generation)){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build a tile if it is marked. Takes the lock
+     * @return false if the levels were laid out again and the build is dropped
+     */
+    private boolean buildIfMarked(int level, int column, int row, int generation){
+        synchronized (mLock) {
+            if (generation != mGeneration){
+                return false;
+            }
+            if (column >= mColumns[level - 1] || row >= mRows[level - 1]
+                    || !mDirty[level - 1][row * mColumns[level - 1] + column]){
+                return true;
+            }
+        }
+        return build(level, column, row, generation);
+    }
+
+    /**
+     * Downsample a tile from the four tiles below, building the marked ones first. The lock is
+     * held for one quadrant at a time, and the tile draws into a spare bitmap that replaces it
+     * once complete, so a draw meanwhile shows the old tile. A change of the tiles below during
+     * the build marks the tile again
+     * @return false if the levels were laid out again and the build is dropped
+     */
+    private boolean build(int level, int column, int row, int generation){
+        int index;
+        synchronized (mLock) {
+            if (generation != mGeneration){
+                return false;
+            }
+            index = row * mColumns[level - 1] + column;
+            mDirty[level - 1][index] = false;
+        }
+        Bitmap tile = null;
+        for (int quadrant = 0; quadrant < 4; quadrant++){
+            int childColumn = column * 2 + (quadrant & 1);
+            int childRow = row * 2 + (quadrant >> 1);
+            if (level > 1 && !buildIfMarked(level - 1, childColumn, childRow, generation)){
+                return false;
+            }
+            synchronized (mLock) {
+                if (generation != mGeneration){
+                    return false;
+                }
+                Bitmap child = getChild(level - 1, childColumn, childRow);
+                if (child == null){
+                    continue;
+                }
+                if (tile == null){
+                    tile = mSpares[level - 1];
+                    mSpares[level - 1] = null;
+                    if (tile == null){
+                        tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE,
+                                Bitmap.Config.ARGB_8888);
+                    }
+                    tile.eraseColor(0);
+                }
+                int half = TILE_SIZE / 2;
+                mQuadrant.set((quadrant & 1) * half, (quadrant >> 1) * half,
+                        (quadrant & 1) * half + half, (quadrant >> 1) * half + half);
+                mCanvas.setBitmap(tile);
+                mCanvas.drawBitmap(child, null, mQuadrant, mDownsamplePaint);
+            }
+        }
+        synchronized (mLock) {
+            if (generation != mGeneration){
+                return false;
+            }
+            Bitmap old = mTiles[level - 1][index];
+            mTiles[level - 1][index] = tile;
+            mLastUse[level - 1][index] = ++mUseCount;
+            if (old != null){
+                mSpares[level - 1] = old;
+                mResidentCount--;
+            }
+            if (tile != null){
+                mResidentCount++;
+            }
+            trimToBudget();
+        }
+        return true;
+    }
+
+    /**
+     * Get a tile below the one being built, as it is now
+     * @return Bitmap the tile, or null if there is no ink under it
+     */
+    private Bitmap getChild(int level, int column, int row){
+        if (level == 0){
+            if (column >= mStoreColumns || row >= mStoreRows){
+                return null;
+            }
+            return mProvider != null ? mProvider.getTile(column, row)
+                    : mStore.getTile(column, row);
+        }
+        if (column >= mColumns[level - 1] || row >= mRows[level - 1]){
+            return null;
+        }
+        return mTiles[level - 1][row * mColumns[level - 1] + column];
+    }
+
+    /**
+     * Drop the least recently used tiles until the resident ones fit in the budget, keeping
+     * the one used last, which a build may be about to draw. Dropped tiles are marked, so they
+     * are built again when drawn
+     */
+    private void trimToBudget(){
+        long maxCount = mMemoryBudget / (TILE_SIZE * TILE_SIZE * 4);
+        while (mResidentCount > maxCount){
+            int oldestLevel = -1;
+            int oldestIndex = -1;
+            long oldestUse = Long.MAX_VALUE;
+            for (int level = 0; level < mTiles.length; level++){
+                for (int i = 0; i < mTiles[level].length; i++){
+                    if (mTiles[level][i] != null && mLastUse[level][i] < oldestUse
+                            && mLastUse[level][i] != mUseCount){
+                        oldestUse = mLastUse[level][i];
+                        oldestLevel = level;
+                        oldestIndex = i;
+                    }
+                }
+            }
+            if (oldestLevel < 0){
+                return;
+            }
+            mTiles[oldestLevel][oldestIndex] = null;
+            mDirty[oldestLevel][oldestIndex] = true;
+            mResidentCount--;
+        }
+    }
+
+    /**
+     * Size the levels for the current grid of the store, marking every tile as out of date
+     */
+    private void layOut(){
+        mStoreColumns = mStore.getColumns();
+        mStoreRows = mStore.getRows();
+        int levels = 0;
+        while (levels < MAX_LEVELS && (mStoreColumns >> levels > 1 || mStoreRows >> levels > 1)){
+            levels++;
+        }
+        mTiles = new Bitmap[levels][];
+        mDirty = new boolean[levels][];
+        mLastUse = new long[levels][];
+        mColumns = new int[levels];
+        mRows = new int[levels];
+        mSpares = new Bitmap[levels];
+        mResidentCount = 0;
+        mGeneration++;
+        int columns = mStoreColumns;
+        int rows = mStoreRows;
+        for (int level = 0; level < levels; level++){
+            columns = (columns + 1) / 2;
+            rows = (rows + 1) / 2;
+            mColumns[level] = columns;
+            mRows[level] = rows;
+            mTiles[level] = new Bitmap[columns * rows];
+            mDirty[level] = new boolean[columns * rows];
+            mLastUse[level] = new long[columns * rows];
+        }
+        invalidateAll();
+    }
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Region;
+
+import java.util.Arrays;
+
+/**
+ * Backing store of the drawing, split into fixed size square tiles. A tile bitmap is only
+ * allocated once something is drawn on it, so a sparse drawing uses a fraction of the memory of
+ * a full size bitmap, and drawing, clearing and saving only touch the tiles that hold ink.
+ *
+ * With a TileCache attached the tiles in memory are kept within a byte budget. Once it is
+ * exceeded the least recently used tiles are evicted into the cache, and getTile loads them
+ * back transparently, so a document larger than the memory of the device keeps all of its ink.
+ */
+public class TiledCanvasStore {
+    public static final int TILE_SIZE = 256;
+    public static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    /**
+     * Interface definition for a callback invoked before the pixels of a tile change
+     */
+    public interface OnTileChangeListener {
+        /**
+         * Called before a tile is drawn into or released
+         * @param column
+         * @param row
+         * @param tile the current tile, or null if it is not allocated yet
+         */
+        void onTileChanging(int column, int row, Bitmap tile);
+
+        /**
+         * Called before an evicted tile is released, instead of loading it back to pass it to
+         * onTileChanging
+         * @param column
+         * @param row
+         * @param copy the pinned copy the tile had in the cache, to be handed back to
+         *             restoreEvictedTile or released with releaseEvictedTile
+         */
+        void onEvictedTileReleasing(int column, int row, TileCache.Entry copy);
+    }
+
+    //extra pixels around a path to cover antialiasing
+    private static final int ANTIALIAS_MARGIN = 2;
+
+    //tiles in memory
+    private Bitmap[] mTiles;
+    //use count of the last access of each tile in memory, for the LRU eviction
+    private long[] mLastUse;
+    //tiles with a copy in the cache, which is current unless the tile was modified
+    private boolean[] mCached;
+    private boolean[] mModified;
+    private long mUseCount;
+    private int mResidentCount;
+    private TileCache mTileCache;
+    private long mMemoryBudget = Long.MAX_VALUE;
+    private int mColumns;
+    private int mRows;
+    private int mWidth;
+    private int mHeight;
+
+    //reused to draw into a single tile
+    private final Canvas mTileCanvas = new Canvas();
+    private final RectF mPathBounds = new RectF();
+    private final Rect mBounds = new Rect();
+    private final Rect mClipBounds = new Rect();
+    //area a path covers, and the part of it inside one tile
+    private final Path mFillPath = new Path();
+    private final Region mPathRegion = new Region();
+    private final Region mTileRegion = new Region();
+    private OnTileChangeListener mTileChangeListener;
+
+    /**
+     * Create an empty store covering width x height pixels
+     * @param width
+     * @param height
+     */
+    public TiledCanvasStore(int width, int height){
+        mTiles = new Bitmap[0];
+        mLastUse = new long[0];
+        mCached = new boolean[0];
+        mModified = new boolean[0];
+        resize(width, height);
+    }
+
+    /**
+     * Change the area covered by the store. The grid only ever grows so that ink outside of
+     * the new size is kept, and existing tiles are reused without copying their pixels
+     * @param width
+     * @param height
+     */
+    public void resize(int width, int height){
+        int columns = Math.max(mColumns, (width + TILE_SIZE - 1) / TILE_SIZE);
+        int rows = Math.max(mRows, (height + TILE_SIZE - 1) / TILE_SIZE);
+        if (columns != mColumns || rows != mRows){
+            Bitmap[] tiles = new Bitmap[columns * rows];
+            long[] lastUse = new long[columns * rows];
+            boolean[] cached = new boolean[columns * rows];
+            boolean[] modified = new boolean[columns * rows];
+            for (int row = 0; row < mRows; row++){
+                System.arraycopy(mTiles, row * mColumns, tiles, row * columns, mColumns);
+                System.arraycopy(mLastUse, row * mColumns, lastUse, row * columns, mColumns);
+                System.arraycopy(mCached, row * mColumns, cached, row * columns, mColumns);
+                System.arraycopy(mModified, row * mColumns, modified, row * columns, mColumns);
+            }
+            mTiles = tiles;
+            mLastUse = lastUse;
+            mCached = cached;
+            mModified = modified;
+            mColumns = columns;
+            mRows = rows;
+        }
+        mWidth = Math.max(mWidth, width);
+        mHeight = Math.max(mHeight, height);
+    }
+
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getHeight(){
+        return mHeight;
+    }
+
+    public int getColumns(){
+        return mColumns;
+    }
+
+    public int getRows(){
+        return mRows;
+    }
+
+    /**
+     * Get the tile at the given grid position, loading it back from the cache if it was evicted
+     * @param column
+     * @param row
+     * @return Bitmap the tile, or null if nothing was drawn on it
+     */
+    public Bitmap getTile(int column, int row){
+        int index = row * mColumns + column;
+        Bitmap tile = mTiles[index];
+        if (tile == null && mCached[index]){
+            tile = mTileCache.load(column, row);
+            if (tile == null){
+                mCached[index] = false;
+                return null;
+            }
+            mTiles[index] = tile;
+            mModified[index] = false;
+            mResidentCount++;
+            mLastUse[index] = ++mUseCount;
+            trimToBudget(index);
+        } else if (tile != null){
+            mLastUse[index] = ++mUseCount;
+        }
+        return tile;
+    }
+
+    /**
+     * Whether the tile is only held by the cache
+     * @param column
+     * @param row
+     * @return boolean
+     */
+    public boolean isEvicted(int column, int row){
+        int index = row * mColumns + column;
+        return mTiles[index] == null && mCached[index];
+    }
+
+    /**
+     * Take the copy of an evicted tile out of the cache without reading it, releasing the tile
+     * @param column
+     * @param row
+     * @return TileCache.Entry the pinned copy, or null if the tile is not evicted
+     */
+    public TileCache.Entry detachEvictedTile(int column, int row){
+        if (!isEvicted(column, row)){
+            return null;
+        }
+        mCached[row * mColumns + column] = false;
+        return mTileCache.detach(column, row);
+    }
+
+    /**
+     * Make a copy taken by detachEvictedTile the tile at the given grid position again. The
+     * tile in memory, if any, is released without notifying the listener
+     * @param column
+     * @param row
+     * @param copy
+     */
+    public void restoreEvictedTile(int column, int row, TileCache.Entry copy){
+        setTile(column, row, null);
+        mTileCache.attach(column, row, copy);
+        int index = row * mColumns + column;
+        mCached[index] = true;
+        mModified[index] = false;
+    }
+
+    /**
+     * Drop a copy taken by detachEvictedTile or pinCachedTile that is not going to be restored
+     * @param copy
+     */
+    public void releaseEvictedTile(TileCache.Entry copy){
+        mTileCache.unpin(copy);
+    }
+
+    /**
+     * Pin the copy of the tile in the cache if it is current, that is if the tile is evicted or
+     * unchanged since it was loaded, so that it can be read later as it is now
+     * @param column
+     * @param row
+     * @return TileCache.Entry the pinned copy, or null if the cache has no current copy
+     */
+    public TileCache.Entry pinCachedTile(int column, int row){
+        int index = row * mColumns + column;
+        if (!mCached[index] || mModified[index]){
+            return null;
+        }
+        return mTileCache.pin(column, row);
+    }
+
+    /**
+     * Replace the tile at the given grid position without notifying the listener
+     * @param column
+     * @param row
+     * @param tile the new tile, or null to release it
+     */
+    public void setTile(int column, int row, Bitmap tile){
+        int index = row * mColumns + column;
+        if (mCached[index]){
+            mTileCache.discard(column, row);
+            mCached[index] = false;
+        }
+        if (mTiles[index] != null){
+            mResidentCount--;
+        }
+        mTiles[index] = tile;
+        if (tile != null){
+            mResidentCount++;
+            mModified[index] = true;
+            mLastUse[index] = ++mUseCount;
+            trimToBudget(index);
+        }
+    }
+
+    /**
+     * Attach the cache that tiles are evicted into once the memory budget is exceeded
+     * @param cache
+     */
+    public void setTileCache(TileCache cache){
+        mTileCache = cache;
+        trimToBudget(-1);
+    }
+
+    public TileCache getTileCache(){
+        return mTileCache;
+    }
+
+    /**
+     * Set the memory the tiles in memory may use. Without a cache the budget is not enforced
+     * @param bytes
+     */
+    public void setMemoryBudget(long bytes){
+        mMemoryBudget = bytes;
+        trimToBudget(-1);
+    }
+
+    public long getMemoryBudget(){
+        return mMemoryBudget;
+    }
+
+    /**
+     * Get the number of tiles in memory
+     * @return int
+     */
+    public int getResidentTileCount(){
+        return mResidentCount;
+    }
+
+    /**
+     * Start reading the evicted tiles covering the rectangle from the cache in the background,
+     * for example ahead of a pan
+     * @param rect in store coordinates
+     */
+    public void prefetch(Rect rect){
+        if (mTileCache == null){
+            return;
+        }
+        mBounds.set(rect);
+        if (!clampToGrid(mBounds)){
+            return;
+        }
+        for (int row = mBounds.top / TILE_SIZE; row <= (mBounds.bottom - 1) / TILE_SIZE; row++){
+            for (int column = mBounds.left / TILE_SIZE; column <= (mBounds.right - 1) / TILE_SIZE;
+                    column++){
+                int index = row * mColumns + column;
+                if (mTiles[index] == null && mCached[index]){
+                    mTileCache.prefetch(column, row);
+                }
+            }
+        }
+    }
+
+    public void setOnTileChangeListener(OnTileChangeListener listener){
+        mTileChangeListener = listener;
+    }
+
+    /**
+     * Get the tile at the given grid position, allocating it if needed
+     * @param column
+     * @param row
+     * @return Bitmap the tile
+     */
+    public Bitmap obtainTile(int column, int row){
+        int index = row * mColumns + column;
+        Bitmap tile = getTile(column, row);
+        if (tile == null){
+            tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            mTiles[index] = tile;
+            mResidentCount++;
+            mLastUse[index] = ++mUseCount;
+            trimToBudget(index);
+        }
+        //the caller is about to draw into it
+        mModified[index] = true;
+        return tile;
+    }
+
+    /**
+     * Draw the path into the tiles it touches. When its bounds span several tiles, the area the
+     * paint covers is turned into a region first, so that a long diagonal stroke does not
+     * allocate every tile of its bounding box
+     * @param path
+     * @param paint
+     */
+    public void drawPath(Path path, Paint paint){
+        path.computeBounds(mPathBounds, false);
+        int pad = (int) Math.ceil(paint.getStrokeWidth() / 2) + ANTIALIAS_MARGIN;
+        mBounds.set((int) Math.floor(mPathBounds.left) - pad, (int) Math.floor(mPathBounds.top) - pad,
+                (int) Math.ceil(mPathBounds.right) + pad, (int) Math.ceil(mPathBounds.bottom) + pad);
+        if (!clampToGrid(mBounds)){
+            return;
+        }
+        //a hairline has no area to test
+        boolean sparse = (mBounds.left / TILE_SIZE != (mBounds.right - 1) / TILE_SIZE
+                || mBounds.top / TILE_SIZE != (mBounds.bottom - 1) / TILE_SIZE)
+                && paint.getFillPath(path, mFillPath);
+        if (sparse){
+            mTileRegion.set(mBounds);
+            mPathRegion.setPath(mFillPath, mTileRegion);
+        }
+        for (int row = mBounds.top / TILE_SIZE; row <= (mBounds.bottom - 1) / TILE_SIZE; row++){
+            for (int column = mBounds.left / TILE_SIZE; column <= (mBounds.right - 1) / TILE_SIZE;
+                    column++){
+                if (sparse && !touchesRegion(column, row)){
+                    continue;
+                }
+                Canvas canvas = beginTile(column, row);
+                canvas.drawPath(path, paint);
+                endTile();
+            }
+        }
+    }
+
+    /**
+     * Draw the triangles between the given rows of a stroke mesh into the tiles they cover
+     * @param drawer
+     * @param mesh
+     * @param start first row
+     * @param end exclusive
+     * @param color of the stroke
+     */
+    public void drawMesh(StrokeMeshDrawer drawer, StrokeMesh mesh, int start, int end,
+            int color){
+        if (end - start < 2){
+            return;
+        }
+        StrokeMeshDrawer.getBounds(mesh, start, end, mPathBounds);
+        mBounds.set((int) Math.floor(mPathBounds.left) - ANTIALIAS_MARGIN,
+                (int) Math.floor(mPathBounds.top) - ANTIALIAS_MARGIN,
+                (int) Math.ceil(mPathBounds.right) + ANTIALIAS_MARGIN,
+                (int) Math.ceil(mPathBounds.bottom) + ANTIALIAS_MARGIN);
+        if (!clampToGrid(mBounds)){
+            return;
+        }
+        for (int row = mBounds.top / TILE_SIZE; row <= (mBounds.bottom - 1) / TILE_SIZE; row++){
+            for (int column = mBounds.left / TILE_SIZE; column <= (mBounds.right - 1) / TILE_SIZE;
+                    column++){
+                Canvas canvas = beginTile(column, row);
+                drawer.draw(canvas, mesh, start, end, color);
+                endTile();
+            }
+        }
+    }
+
+    /**
+     * Whether the path region reaches into the tile, antialiasing included
+     */
+    private boolean touchesRegion(int column, int row){
+        int left = column * TILE_SIZE;
+        int top = row * TILE_SIZE;
+        mTileRegion.set(left - ANTIALIAS_MARGIN, top - ANTIALIAS_MARGIN,
+                left + TILE_SIZE + ANTIALIAS_MARGIN, top + TILE_SIZE + ANTIALIAS_MARGIN);
+        return mTileRegion.op(mPathRegion, Region.Op.INTERSECT);
+    }
+
+    /**
+     * Draw a bitmap centered on each of the given points. Every tile the bitmaps cover is set
+     * up once for all the bitmaps that touch it, and tiles inside their bounds that none of
+     * them touches are left alone
+     * @param bitmap
+     * @param centers packed x, y pairs
+     * @param count number of points
+     * @param paint
+     */
+    public void drawBitmaps(Bitmap bitmap, float[] centers, int count, Paint paint){
+        if (count == 0){
+            return;
+        }
+        float halfWidth = bitmap.getWidth() / 2f;
+        float halfHeight = bitmap.getHeight() / 2f;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++){
+            minX = Math.min(minX, centers[i * 2]);
+            minY = Math.min(minY, centers[i * 2 + 1]);
+            maxX = Math.max(maxX, centers[i * 2]);
+            maxY = Math.max(maxY, centers[i * 2 + 1]);
+        }
+        mBounds.set((int) Math.floor(minX - halfWidth), (int) Math.floor(minY - halfHeight),
+                (int) Math.ceil(maxX + halfWidth), (int) Math.ceil(maxY + halfHeight));
+        if (!clampToGrid(mBounds)){
+            return;
+        }
+        for (int row = mBounds.top / TILE_SIZE; row <= (mBounds.bottom - 1) / TILE_SIZE; row++){
+            for (int column = mBounds.left / TILE_SIZE; column <= (mBounds.right - 1) / TILE_SIZE;
+                    column++){
+                float tileLeft = column * TILE_SIZE - halfWidth;
+                float tileTop = row * TILE_SIZE - halfHeight;
+                Canvas canvas = null;
+                for (int i = 0; i < count; i++){
+                    float x = centers[i * 2];
+                    float y = centers[i * 2 + 1];
+                    if (x <= tileLeft || x >= tileLeft + TILE_SIZE + 2 * halfWidth
+                            || y <= tileTop || y >= tileTop + TILE_SIZE + 2 * halfHeight){
+                        continue;
+                    }
+                    if (canvas == null){
+                        canvas = beginTile(column, row);
+                    }
+                    canvas.drawBitmap(bitmap, x - halfWidth, y - halfHeight, paint);
+                }
+                if (canvas != null){
+                    endTile();
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw the tiles of another store over the tiles at the same grid positions, for example to
+     * composite a coverage mask with the alpha of the paint. Only the tiles the other store
+     * holds are touched
+     * @param source a store with the same tile size, parts outside of this grid are skipped
+     * @param paint
+     */
+    public void drawStore(TiledCanvasStore source, Paint paint){
+        int columns = Math.min(mColumns, source.getColumns());
+        int rows = Math.min(mRows, source.getRows());
+        for (int row = 0; row < rows; row++){
+            for (int column = 0; column < columns; column++){
+                Bitmap tile = source.getTile(column, row);
+                if (tile == null){
+                    continue;
+                }
+                Canvas canvas = beginTile(column, row);
+                canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, paint);
+                endTile();
+            }
+        }
+    }
+
+    /**
+     * Put a restored tile into the store. Ink drawn on the tile in the meantime is kept on top
+     * of the restored pixels
+     * @param column
+     * @param row
+     * @param restored a mutable tile sized bitmap
+     */
+    public void restoreTile(int column, int row, Bitmap restored){
+        if (column >= mColumns || row >= mRows){
+            return;
+        }
+        Bitmap tile = getTile(column, row);
+        if (tile != null){
+            mTileCanvas.setBitmap(restored);
+            mTileCanvas.drawBitmap(tile, 0, 0, null);
+        }
+        setTile(column, row, restored);
+    }
+
+    /**
+     * Copy an area of the store into an array, row by row. Pixels of tiles that are not
+     * allocated are transparent
+     * @param pixels at least area.width() * area.height() long
+     * @param area in store coordinates, within the tile grid
+     */
+    public void readPixels(int[] pixels, Rect area){
+        int stride = area.width();
+        Arrays.fill(pixels, 0, stride * area.height(), 0);
+        for (int row = area.top / TILE_SIZE; row <= (area.bottom - 1) / TILE_SIZE; row++){
+            for (int column = area.left / TILE_SIZE; column <= (area.right - 1) / TILE_SIZE;
+                    column++){
+                Bitmap tile = getTile(column, row);
+                if (tile != null){
+                    copyTilePixels(tile, column, row, pixels, area, area, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy part of an array holding an area of the store, as filled by readPixels, back into
+     * the tiles. The listener is notified for every tile covered by the bounds
+     * @param pixels
+     * @param area the area the array holds
+     * @param bounds part of the area to copy
+     */
+    public void writePixels(int[] pixels, Rect area, Rect bounds){
+        mBounds.set(bounds);
+        if (!mBounds.intersect(area) || !clampToGrid(mBounds)){
+            return;
+        }
+        for (int row = mBounds.top / TILE_SIZE; row <= (mBounds.bottom - 1) / TILE_SIZE; row++){
+            for (int column = mBounds.left / TILE_SIZE; column <= (mBounds.right - 1) / TILE_SIZE;
+                    column++){
+                if (mTileChangeListener != null){
+                    mTileChangeListener.onTileChanging(column, row, getTile(column, row));
+                }
+                copyTilePixels(obtainTile(column, row), column, row, pixels, area, mBounds,
+                        false);
+            }
+        }
+    }
+
+    /**
+     * Draw the allocated tiles that intersect the clip of the canvas
+     * @param canvas
+     * @param paint
+     */
+    public void draw(Canvas canvas, Paint paint){
+        if (!canvas.getClipBounds(mClipBounds) || !clampToGrid(mClipBounds)){
+            return;
+        }
+        for (int row = mClipBounds.top / TILE_SIZE; row <= (mClipBounds.bottom - 1) / TILE_SIZE;
+                row++){
+            for (int column = mClipBounds.left / TILE_SIZE;
+                    column <= (mClipBounds.right - 1) / TILE_SIZE; column++){
+                Bitmap tile = getTile(column, row);
+                if (tile != null){
+                    canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, paint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release every tile. Only the tiles that were drawn on have to be dropped, and evicted
+     * tiles are handed to the listener as their cached copy, without loading them
+     */
+    public void clear(){
+        for (int i = 0; i < mTiles.length; i++){
+            int column = i % mColumns;
+            int row = i / mColumns;
+            if (mTiles[i] != null){
+                if (mTileChangeListener != null){
+                    mTileChangeListener.onTileChanging(column, row, mTiles[i]);
+                }
+                setTile(column, row, null);
+            } else if (mCached[i]){
+                if (mTileChangeListener != null){
+                    mTileChangeListener.onEvictedTileReleasing(column, row,
+                            detachEvictedTile(column, row));
+                } else {
+                    setTile(column, row, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Render the store into a single bitmap of width x height pixels
+     * @return Bitmap
+     */
+    public Bitmap toBitmap(){
+        Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int row = 0; row < mRows; row++){
+            for (int column = 0; column < mColumns; column++){
+                Bitmap tile = getTile(column, row);
+                if (tile != null){
+                    canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, null);
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get the number of tiles that hold a bitmap
+     * @return int tile count
+     */
+    public int getAllocatedTileCount(){
+        int count = 0;
+        for (int i = 0; i < mTiles.length; i++){
+            if (mTiles[i] != null || mCached[i]){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the memory used by the tile bitmaps in memory
+     * @return long bytes
+     */
+    public long getAllocatedBytes(){
+        return (long) mResidentCount * TILE_BYTES;
+    }
+
+    /**
+     * Set up the shared tile canvas so that it draws into the tile with store coordinates
+     * @param column
+     * @param row
+     * @return Canvas
+     */
+    private Canvas beginTile(int column, int row){
+        if (mTileChangeListener != null){
+            mTileChangeListener.onTileChanging(column, row, getTile(column, row));
+        }
+        mTileCanvas.setBitmap(obtainTile(column, row));
+        mTileCanvas.save();
+        mTileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+        return mTileCanvas;
+    }
+
+    private void endTile(){
+        mTileCanvas.restore();
+    }
+
+    /**
+     * Copy the part of the bounds inside a tile between the tile and an array holding an area
+     * of the store
+     * @param read true to copy from the tile into the array
+     */
+    private static void copyTilePixels(Bitmap tile, int column, int row, int[] pixels, Rect area,
+            Rect bounds, boolean read){
+        int left = Math.max(bounds.left, column * TILE_SIZE);
+        int top = Math.max(bounds.top, row * TILE_SIZE);
+        int right = Math.min(bounds.right, (column + 1) * TILE_SIZE);
+        int bottom = Math.min(bounds.bottom, (row + 1) * TILE_SIZE);
+        int offset = (top - area.top) * area.width() + left - area.left;
+        if (read){
+            tile.getPixels(pixels, offset, area.width(), left - column * TILE_SIZE,
+                    top - row * TILE_SIZE, right - left, bottom - top);
+        } else {
+            tile.setPixels(pixels, offset, area.width(), left - column * TILE_SIZE,
+                    top - row * TILE_SIZE, right - left, bottom - top);
+        }
+    }
+
+    /**
+     * Evict the least recently used tiles into the cache until the tiles in memory fit the
+     * budget. Tiles unchanged since they were loaded already have a current copy
+     * @param keep index of a tile that must stay in memory, or -1
+     */
+    private void trimToBudget(int keep){
+        if (mTileCache == null){
+            return;
+        }
+        while ((long) mResidentCount * TILE_BYTES > mMemoryBudget){
+            int oldest = -1;
+            for (int i = 0; i < mTiles.length; i++){
+                if (mTiles[i] != null && i != keep
+                        && (oldest < 0 || mLastUse[i] < mLastUse[oldest])){
+                    oldest = i;
+                }
+            }
+            if (oldest < 0){
+                return;
+            }
+            if (mModified[oldest] || !mCached[oldest]){
+                mTileCache.store(oldest % mColumns, oldest / mColumns, mTiles[oldest]);
+                mCached[oldest] = true;
+            }
+            mTiles[oldest] = null;
+            mModified[oldest] = false;
+            mResidentCount--;
+        }
+    }
+
+    /**
+     * Clamp the rectangle to the tile grid
+     * @param rect
+     * @return false if nothing is left
+     */
+    private boolean clampToGrid(Rect rect){
+        return rect.intersect(0, 0, mColumns * TILE_SIZE, mRows * TILE_SIZE);
+    }
+}
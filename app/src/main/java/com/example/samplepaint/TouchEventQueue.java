@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Lock-free single-producer single-consumer queue of touch events, used to hand the input of
+ * the UI thread to the render thread. The events are stored in preallocated primitive arrays.
+ * The producer publishes an event by writing the volatile tail after the event's fields, and
+ * the consumer frees a slot by writing the volatile head after reading them, so no locks are
+ * needed as long as only one thread offers and only one thread polls.
+ */
+public class TouchEventQueue {
+    public static final int TYPE_DOWN = 0;
+    public static final int TYPE_MOVE = 1;
+    public static final int TYPE_UP = 2;
+    public static final int TYPE_CANCEL = 3;
+
+    private final int[] mType;
+    private final int[] mPointerId;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mTime;
+    private final float[] mPressure;
+    private final int[] mColor;
+    private final float[] mWidth;
+    private final int[] mBrushType;
+    private final int[] mWidthMode;
+    private final int mMask;
+
+    //next slot to read, written by the consumer only
+    private volatile long mHead;
+    //next slot to write, written by the producer only
+    private volatile long mTail;
+
+    /**
+     * Create a queue holding at least the given number of events. The capacity is rounded up
+     * to a power of two
+     * @param capacity
+     */
+    public TouchEventQueue(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mType = new int[size];
+        mPointerId = new int[size];
+        mX = new float[size];
+        mY = new float[size];
+        mTime = new long[size];
+        mPressure = new float[size];
+        mColor = new int[size];
+        mWidth = new float[size];
+        mBrushType = new int[size];
+        mWidthMode = new int[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Append an event. Called from the producer thread only
+     * @param type
+     * @param pointerId
+     * @param x
+     * @param y
+     * @param time
+     * @param pressure
+     * @param color brush color, used by TYPE_DOWN
+     * @param width brush width, used by TYPE_DOWN
+     * @param brushType used by TYPE_DOWN
+     * @param widthMode StrokeWidthModel mode, used by TYPE_DOWN
+     * @return false if the queue is full
+     */
+    public boolean offer(int type, int pointerId, float x, float y, long time, float pressure,
+            int color, float width, int brushType, int widthMode){
+        long tail = mTail;
+        if (tail - mHead == mType.length){
+            return false;
+        }
+        int index = (int) tail & mMask;
+        mType[index] = type;
+        mPointerId[index] = pointerId;
+        mX[index] = x;
+        mY[index] = y;
+        mTime[index] = time;
+        mPressure[index] = pressure;
+        mColor[index] = color;
+        mWidth[index] = width;
+        mBrushType[index] = brushType;
+        mWidthMode[index] = widthMode;
+        mTail = tail + 1;
+        return true;
+    }
+
+    /**
+     * Get the number of events that can be offered before the queue is full. Called from the
+     * producer thread only, the consumer may free more slots meanwhile
+     * @return int
+     */
+    public int remainingCapacity(){
+        return (int) (mType.length - (mTail - mHead));
+    }
+
+    /**
+     * Called from the consumer thread only
+     * @return true if there is no event to read
+     */
+    public boolean isEmpty(){
+        return mHead == mTail;
+    }
+
+    /**
+     * Drop the oldest event once its fields are read. Called from the consumer thread only
+     */
+    public void remove(){
+        mHead = mHead + 1;
+    }
+
+    public int getType(){
+        return mType[(int) mHead & mMask];
+    }
+
+    public int getPointerId(){
+        return mPointerId[(int) mHead & mMask];
+    }
+
+    public float getX(){
+        return mX[(int) mHead & mMask];
+    }
+
+    public float getY(){
+        return mY[(int) mHead & mMask];
+    }
+
+    public long getTime(){
+        return mTime[(int) mHead & mMask];
+    }
+
+    public float getPressure(){
+        return mPressure[(int) mHead & mMask];
+    }
+
+    public int getColor(){
+        return mColor[(int) mHead & mMask];
+    }
+
+    public float getWidth(){
+        return mWidth[(int) mHead & mMask];
+    }
+
+    public int getBrushType(){
+        return mBrushType[(int) mHead & mMask];
+    }
+
+    public int getWidthMode(){
+        return mWidthMode[(int) mHead & mMask];
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * Multi-level undo and redo of the operations on the TiledCanvasStores of the layers. An
+ * operation records the pre-image of each tile the first time it is changed, run-length
+ * encoded, so a history entry costs in proportion to the area the operation touched and not to
+ * the size of the canvas. The pre-images are the premultiplied pixels as stored, so translucent
+ * pixels come back exactly. An evicted tile that is released, for example by a clear, is recorded
+ * as its copy in the tile cache instead, without reading it back. The oldest entries are
+ * evicted once the history exceeds its step limit or byte budget, but the most recent operation
+ * stays undoable even if it alone is over the budget.
+ */
+public class UndoHistory {
+    public static final int DEFAULT_MAX_STEPS = 50;
+    public static final long DEFAULT_BYTE_BUDGET = 4 * 1024 * 1024;
+
+    private static final int TILE_PIXELS = TiledCanvasStore.TILE_SIZE * TiledCanvasStore.TILE_SIZE;
+    //fixed cost of a tile snapshot besides its runs
+    private static final int TILE_OVERHEAD_BYTES = 32;
+
+    /**
+     * Snapshot of the pixels of one tile
+     */
+    private static class TileSnapshot {
+        final TiledCanvasStore store;
+        final int column;
+        final int row;
+        //null if the tile was empty or evicted
+        final int[] runs;
+        //copy of an evicted tile in the cache of the store, or null
+        final TileCache.Entry evicted;
+
+        TileSnapshot(TiledCanvasStore store, int column, int row, int[] runs){
+            this(store, column, row, runs, null);
+        }
+
+        TileSnapshot(TiledCanvasStore store, int column, int row, int[] runs,
+                TileCache.Entry evicted){
+            this.store = store;
+            this.column = column;
+            this.row = row;
+            this.runs = runs;
+            this.evicted = evicted;
+        }
+
+        long getByteCount(){
+            return TILE_OVERHEAD_BYTES + (runs == null ? 0 : runs.length * 4L);
+        }
+    }
+
+    /**
+     * One undoable operation: the tiles as they were before it and the document commands it
+     * added. Strokes drawn with several fingers at once form a single operation
+     */
+    private static class Entry {
+        final ArrayList<TileSnapshot> tiles = new ArrayList<TileSnapshot>();
+        ArrayList<StrokeCommand> commands = new ArrayList<StrokeCommand>();
+        long bytes;
+
+        boolean contains(TiledCanvasStore store, int column, int row){
+            for (int i = 0; i < tiles.size(); i++){
+                TileSnapshot tile = tiles.get(i);
+                if (tile.store == store && tile.column == column && tile.row == row){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(TileSnapshot tile){
+            tiles.add(tile);
+            bytes += tile.getByteCount();
+        }
+
+        /**
+         * Hand the cached copies of the entry back to the caches, once it is dropped
+         */
+        void release(){
+            for (int i = 0; i < tiles.size(); i++){
+                TileSnapshot tile = tiles.get(i);
+                if (tile.evicted != null){
+                    tile.store.releaseEvictedTile(tile.evicted);
+                }
+            }
+        }
+    }
+
+    private final ArrayList<Entry> mUndoEntries = new ArrayList<Entry>();
+    private final ArrayList<Entry> mRedoEntries = new ArrayList<Entry>();
+    //operation being recorded
+    private Entry mCurrent;
+    private int mMaxSteps = DEFAULT_MAX_STEPS;
+    private long mByteBudget = DEFAULT_BYTE_BUDGET;
+    private long mBytes;
+
+    //reused while taking and restoring snapshots
+    private final int[] mPixels = new int[TILE_PIXELS];
+    private final int[] mRuns = new int[TILE_PIXELS * 2];
+
+    /**
+     * Start recording an operation. Starting a new operation drops the redo entries
+     */
+    public void beginOperation(){
+        if (mCurrent == null){
+            mCurrent = new Entry();
+        }
+        for (Entry entry : mRedoEntries){
+            mBytes -= entry.bytes;
+            entry.release();
+        }
+        mRedoEntries.clear();
+    }
+
+    /**
+     * Record a command the operation being recorded added to the document
+     * @param command
+     */
+    public void addCommand(StrokeCommand command){
+        if (mCurrent != null){
+            mCurrent.commands.add(command);
+        }
+    }
+
+    /**
+     * Finish the operation being recorded
+     */
+    public void endOperation(){
+        if (mCurrent == null){
+            return;
+        }
+        mUndoEntries.add(mCurrent);
+        mBytes += mCurrent.bytes;
+        mCurrent = null;
+        trimToBudget();
+    }
+
+    public boolean isRecording(){
+        return mCurrent != null;
+    }
+
+    /**
+     * Called before a tile of a layer changes. Records its pixels if the operation being
+     * recorded has not changed it yet
+     * @param store the store of the layer
+     * @param column
+     * @param row
+     * @param tile the tile as it is now, or null if it is not allocated
+     */
+    public void onTileChanging(TiledCanvasStore store, int column, int row, Bitmap tile){
+        if (mCurrent != null && !mCurrent.contains(store, column, row)){
+            mCurrent.add(snapshot(store, column, row, tile));
+        }
+    }
+
+    /**
+     * Called before an evicted tile of a layer is released. Keeps its cached copy if the
+     * operation being recorded has not changed the tile yet, and releases it otherwise
+     * @param store the store of the layer
+     * @param column
+     * @param row
+     * @param copy the pinned copy of the tile, or null if the cache had none
+     */
+    public void onEvictedTileReleasing(TiledCanvasStore store, int column, int row,
+            TileCache.Entry copy){
+        if (mCurrent != null && !mCurrent.contains(store, column, row)){
+            mCurrent.add(new TileSnapshot(store, column, row, null, copy));
+        } else if (copy != null){
+            store.releaseEvictedTile(copy);
+        }
+    }
+
+    public boolean canUndo(){
+        return !mUndoEntries.isEmpty();
+    }
+
+    public boolean canRedo(){
+        return !mRedoEntries.isEmpty();
+    }
+
+    /**
+     * Revert the most recent operation
+     * @param document
+     * @param dirty grown by the area that changed
+     * @return false if there was nothing to undo
+     */
+    public boolean undo(StrokeDocument document, Rect dirty){
+        if (mUndoEntries.isEmpty()){
+            return false;
+        }
+        Entry entry = mUndoEntries.remove(mUndoEntries.size() - 1);
+        mBytes -= entry.bytes;
+        Entry redo = swap(entry, dirty);
+        for (int i = 0; i < entry.commands.size(); i++){
+            document.removeLast();
+        }
+        mRedoEntries.add(redo);
+        mBytes += redo.bytes;
+        return true;
+    }
+
+    /**
+     * Apply the most recently undone operation again
+     * @param document
+     * @param dirty grown by the area that changed
+     * @return false if there was nothing to redo
+     */
+    public boolean redo(StrokeDocument document, Rect dirty){
+        if (mRedoEntries.isEmpty()){
+            return false;
+        }
+        Entry entry = mRedoEntries.remove(mRedoEntries.size() - 1);
+        mBytes -= entry.bytes;
+        Entry undo = swap(entry, dirty);
+        for (int i = 0; i < entry.commands.size(); i++){
+            document.add(entry.commands.get(i));
+        }
+        mUndoEntries.add(undo);
+        mBytes += undo.bytes;
+        return true;
+    }
+
+    /**
+     * Drop every entry
+     */
+    public void clear(){
+        for (Entry entry : mUndoEntries){
+            entry.release();
+        }
+        for (Entry entry : mRedoEntries){
+            entry.release();
+        }
+        if (mCurrent != null){
+            mCurrent.release();
+        }
+        mUndoEntries.clear();
+        mRedoEntries.clear();
+        mCurrent = null;
+        mBytes = 0;
+    }
+
+    /**
+     * Set the maximum number of undo steps
+     * @param maxSteps
+     */
+    public void setMaxSteps(int maxSteps){
+        mMaxSteps = maxSteps;
+        trimToBudget();
+    }
+
+    /**
+     * Set the maximum memory used by the undo and redo entries
+     * @param bytes
+     */
+    public void setByteBudget(long bytes){
+        mByteBudget = bytes;
+        trimToBudget();
+    }
+
+    /**
+     * Get the memory used by the undo and redo entries
+     * @return long bytes
+     */
+    public long getByteCount(){
+        return mBytes;
+    }
+
+    public int getUndoCount(){
+        return mUndoEntries.size();
+    }
+
+    /**
+     * Restore the tiles of the entry and return an entry holding the pixels they replaced
+     */
+    private Entry swap(Entry entry, Rect dirty){
+        Entry inverse = new Entry();
+        inverse.commands = entry.commands;
+        for (int i = entry.tiles.size() - 1; i >= 0; i--){
+            TileSnapshot snapshot = entry.tiles.get(i);
+            TiledCanvasStore store = snapshot.store;
+            if (store.isEvicted(snapshot.column, snapshot.row)){
+                inverse.add(new TileSnapshot(store, snapshot.column, snapshot.row, null,
+                        store.detachEvictedTile(snapshot.column, snapshot.row)));
+            } else {
+                Bitmap tile = store.getTile(snapshot.column, snapshot.row);
+                inverse.add(snapshot(store, snapshot.column, snapshot.row, tile));
+            }
+            if (snapshot.evicted != null){
+                store.restoreEvictedTile(snapshot.column, snapshot.row, snapshot.evicted);
+            } else if (snapshot.runs == null){
+                store.setTile(snapshot.column, snapshot.row, null);
+            } else {
+                PixelRunLength.decode(snapshot.runs, mPixels, TILE_PIXELS);
+                store.obtainTile(snapshot.column, snapshot.row)
+                        .copyPixelsFromBuffer(IntBuffer.wrap(mPixels));
+            }
+            int left = snapshot.column * TiledCanvasStore.TILE_SIZE;
+            int top = snapshot.row * TiledCanvasStore.TILE_SIZE;
+            dirty.union(left, top, left + TiledCanvasStore.TILE_SIZE,
+                    top + TiledCanvasStore.TILE_SIZE);
+        }
+        return inverse;
+    }
+
+    private TileSnapshot snapshot(TiledCanvasStore store, int column, int row, Bitmap tile){
+        if (tile == null){
+            return new TileSnapshot(store, column, row, null);
+        }
+        //getPixels would unpremultiply, which rounds the color of translucent pixels
+        tile.copyPixelsToBuffer(IntBuffer.wrap(mPixels));
+        return new TileSnapshot(store, column, row,
+                PixelRunLength.encode(mPixels, TILE_PIXELS, mRuns));
+    }
+
+    /**
+     * Evict the oldest undo entries, and then the redo entries, until the history fits. The
+     * most recent undo entry is only evicted by the step limit, so an operation larger than the
+     * budget can still be undone until the next one ends
+     */
+    private void trimToBudget(){
+        while (!mUndoEntries.isEmpty() && (mUndoEntries.size() > mMaxSteps
+                || (mUndoEntries.size() > 1 && mBytes > mByteBudget))){
+            Entry entry = mUndoEntries.remove(0);
+            mBytes -= entry.bytes;
+            entry.release();
+        }
+        while (!mRedoEntries.isEmpty() && mBytes > mByteBudget){
+            Entry entry = mRedoEntries.remove(0);
+            mBytes -= entry.bytes;
+            entry.release();
+        }
+    }
+}
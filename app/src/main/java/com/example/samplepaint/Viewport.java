@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Maps the fixed coordinate space of the document to the current size of the view. At a zoom
+ * of 1 the document is scaled uniformly to fit the view and centered, so a change of the view
+ * size, for example on rotation, only changes the transform and never the pixels of the
+ * document. Zooming in magnifies around a focus point, and panning moves the document as long
+ * as it covers the view.
+ */
+public class Viewport {
+    //view pixels per document pixel at the largest zoom
+    public static final float MAX_SCALE = 8f;
+
+    private int mDocumentWidth;
+    private int mDocumentHeight;
+    private int mViewWidth;
+    private int mViewHeight;
+    private float mScale = 1f;
+    private float mOffsetX;
+    private float mOffsetY;
+    //magnification over the scale that fits the document in the view
+    private float mZoom = 1f;
+    //document point shown at the center of the view
+    private float mCenterX;
+    private float mCenterY;
+
+    public void setDocumentSize(int width, int height){
+        mDocumentWidth = width;
+        mDocumentHeight = height;
+        mCenterX = width / 2f;
+        mCenterY = height / 2f;
+        update();
+    }
+
+    public void setViewSize(int width, int height){
+        mViewWidth = width;
+        mViewHeight = height;
+        update();
+    }
+
+    public boolean hasDocumentSize(){
+        return mDocumentWidth > 0 && mDocumentHeight > 0;
+    }
+
+    public int getDocumentWidth(){
+        return mDocumentWidth;
+    }
+
+    public int getDocumentHeight(){
+        return mDocumentHeight;
+    }
+
+    /**
+     * Get the number of view pixels per document pixel
+     * @return float
+     */
+    public float getScale(){
+        return mScale;
+    }
+
+    /**
+     * Get the magnification over the scale that fits the document in the view
+     * @return float 1 when the whole document is in view
+     */
+    public float getZoom(){
+        return mZoom;
+    }
+
+    /**
+     * Magnify by the factor, keeping the document point under the focus in place
+     * @param factor
+     * @param focusX in view coordinates
+     * @param focusY
+     */
+    public void zoomBy(float factor, float focusX, float focusY){
+        float documentX = toDocumentX(focusX);
+        float documentY = toDocumentY(focusY);
+        float fitScale = mScale / mZoom;
+        mZoom = Math.max(1f, Math.min(mZoom * factor, Math.max(1f, MAX_SCALE / fitScale)));
+        float scale = fitScale * mZoom;
+        mCenterX = documentX + (mViewWidth / 2f - focusX) / scale;
+        mCenterY = documentY + (mViewHeight / 2f - focusY) / scale;
+        update();
+    }
+
+    /**
+     * Move the document with the fingers
+     * @param dx in view pixels
+     * @param dy
+     */
+    public void panBy(float dx, float dy){
+        mCenterX -= dx / mScale;
+        mCenterY -= dy / mScale;
+        update();
+    }
+
+    /**
+     * Go back to the whole document fitting the view
+     */
+    public void resetZoom(){
+        mZoom = 1f;
+        mCenterX = mDocumentWidth / 2f;
+        mCenterY = mDocumentHeight / 2f;
+        update();
+    }
+
+    /**
+     * Get the part of the document in view
+     * @param out set to the document pixels covering the view, clamped to the document
+     */
+    public void getVisibleDocumentRect(Rect out){
+        out.set((int) Math.floor(toDocumentX(0)), (int) Math.floor(toDocumentY(0)),
+                (int) Math.ceil(toDocumentX(mViewWidth)),
+                (int) Math.ceil(toDocumentY(mViewHeight)));
+        if (!out.intersect(0, 0, mDocumentWidth, mDocumentHeight)){
+            out.setEmpty();
+        }
+    }
+
+    public float toDocumentX(float viewX){
+        return (viewX - mOffsetX) / mScale;
+    }
+
+    public float toDocumentY(float viewY){
+        return (viewY - mOffsetY) / mScale;
+    }
+
+    /**
+     * Map a view x coordinate to the document, clamped to its edges, so that a touch in the
+     * letterbox around the document lands on its border
+     * @param viewX
+     * @return float
+     */
+    public float toClampedDocumentX(float viewX){
+        return Math.max(0, Math.min(mDocumentWidth, toDocumentX(viewX)));
+    }
+
+    public float toClampedDocumentY(float viewY){
+        return Math.max(0, Math.min(mDocumentHeight, toDocumentY(viewY)));
+    }
+
+    public float toViewX(float documentX){
+        return documentX * mScale + mOffsetX;
+    }
+
+    public float toViewY(float documentY){
+        return documentY * mScale + mOffsetY;
+    }
+
+    /**
+     * Convert a rectangle in document coordinates to the view pixels covering it
+     * @param rect
+     */
+    public void toView(Rect rect){
+        rect.set((int) Math.floor(toViewX(rect.left)), (int) Math.floor(toViewY(rect.top)),
+                (int) Math.ceil(toViewX(rect.right)), (int) Math.ceil(toViewY(rect.bottom)));
+    }
+
+    /**
+     * Apply the document to view transform to the canvas
+     * @param canvas
+     */
+    public void concat(Canvas canvas){
+        canvas.translate(mOffsetX, mOffsetY);
+        canvas.scale(mScale, mScale);
+    }
+
+    /**
+     * Take over the sizes, the zoom and the transform of another viewport
+     * @param source
+     */
+    public void set(Viewport source){
+        mDocumentWidth = source.mDocumentWidth;
+        mDocumentHeight = source.mDocumentHeight;
+        mViewWidth = source.mViewWidth;
+        mViewHeight = source.mViewHeight;
+        mScale = source.mScale;
+        mOffsetX = source.mOffsetX;
+        mOffsetY = source.mOffsetY;
+        mZoom = source.mZoom;
+        mCenterX = source.mCenterX;
+        mCenterY = source.mCenterY;
+    }
+
+    /**
+     * Check whether both viewports map the same document to the same view pixels
+     * @param other
+     * @return boolean
+     */
+    public boolean hasSameTransform(Viewport other){
+        return mDocumentWidth == other.mDocumentWidth && mDocumentHeight == other.mDocumentHeight
+                && mViewWidth == other.mViewWidth && mViewHeight == other.mViewHeight
+                && mScale == other.mScale && mOffsetX == other.mOffsetX
+                && mOffsetY == other.mOffsetY;
+    }
+
+    private void update(){
+        if (!hasDocumentSize() || mViewWidth <= 0 || mViewHeight <= 0){
+            mScale = 1f;
+            mOffsetX = 0;
+            mOffsetY = 0;
+            return;
+        }
+        mScale = Math.min((float) mViewWidth / mDocumentWidth,
+                (float) mViewHeight / mDocumentHeight) * mZoom;
+        mCenterX = clampCenter(mCenterX, mDocumentWidth, mViewWidth);
+        mCenterY = clampCenter(mCenterY, mDocumentHeight, mViewHeight);
+        mOffsetX = mViewWidth / 2f - mCenterX * mScale;
+        mOffsetY = mViewHeight / 2f - mCenterY * mScale;
+    }
+
+    /**
+     * Keep the document covering the view along one axis, or centered if it is smaller
+     */
+    private float clampCenter(float center, int documentSize, int viewSize){
+        float halfView = viewSize / 2f / mScale;
+        if (documentSize <= 2 * halfView){
+            return documentSize / 2f;
+        }
+        return Math.max(halfView, Math.min(center, documentSize - halfView));
+    }
+}
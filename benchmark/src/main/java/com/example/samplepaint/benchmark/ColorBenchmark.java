@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.android.colorpicker.HsvColorComparator;
+import com.example.samplepaint.ColorMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Color picker math: sorting a palette with HsvColorComparator and darkening a swatch color
+ * for its pressed state as ColorStateDrawable does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorBenchmark {
+    private static final float PRESSED_STATE_MULTIPLIER = 0.70f;
+
+    //15 is the size of the app's palette
+    @Param({"15", "256"})
+    public int colors;
+
+    private Integer[] mPalette;
+    private Integer[] mWork;
+    private final HsvColorComparator mComparator = new HsvColorComparator();
+    private final float[] mHsv = new float[3];
+    private int mNext;
+
+    @Setup
+    public void setUp(){
+        Random random = new Random(42);
+        mPalette = new Integer[colors];
+        for (int i = 0; i < colors; i++){
+            mPalette[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        mWork = new Integer[colors];
+    }
+
+    @Benchmark
+    public Integer[] sortPalette(){
+        System.arraycopy(mPalette, 0, mWork, 0, colors);
+        Arrays.sort(mWork, mComparator);
+        return mWork;
+    }
+
+    @Benchmark
+    public int pressedColor(){
+        int color = mPalette[mNext];
+        mNext = (mNext + 1) % colors;
+        return ColorMath.scaleValue(color, PRESSED_STATE_MULTIPLIER, mHsv);
+    }
+}
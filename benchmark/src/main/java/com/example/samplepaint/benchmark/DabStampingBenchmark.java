@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.BrushDab;
+import com.example.samplepaint.DabSpacing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stamping a pencil stroke: placing its dabs with DabSpacing and drawing the cached alpha mask
+ * of the dab at each of them through the paper grain, which is fixed to the buffer, into a
+ * 1024 x 1024 buffer, for the same stroke and widths as RasterizerBenchmark, so the textured
+ * brush can be compared with the plain stroke. Rendering the dab and the grain, which only
+ * happens when they are not cached yet, is measured on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DabStampingBenchmark {
+    private static final int SIZE = 1024;
+    private static final int POINTS = 256;
+    //spacing of the pencil relative to the dab diameter
+    private static final float SPACING = 0.2f;
+    //premultiplied, the color filter tints the grain with it
+    private static final int COLOR = 0xFF336699;
+    private static final int GRAIN_SIZE = BrushDab.PENCIL_GRAIN_SIZE;
+
+    @Param({"5", "40"})
+    public float width;
+
+    private final int[] mPixels = new int[SIZE * SIZE];
+    private final float[] mStroke = new float[POINTS * 2];
+    private final DabSpacing mSpacing = new DabSpacing();
+    private int mDiameter;
+    private int[] mDab;
+    //alpha of the dab, one byte per pixel like an ALPHA_8 bitmap
+    private byte[] mMask;
+    private final int[] mGrainPixels = new int[GRAIN_SIZE * GRAIN_SIZE];
+    //alpha of the grain
+    private final byte[] mGrain = new byte[GRAIN_SIZE * GRAIN_SIZE];
+
+    @Setup
+    public void setUp(){
+        //a wave across the buffer
+        for (int i = 0; i < POINTS; i++){
+            mStroke[i * 2] = 32 + i * (SIZE - 64f) / POINTS;
+            mStroke[i * 2 + 1] = (float) (SIZE / 2 + SIZE / 3 * Math.sin(i * 0.1));
+        }
+        mDiameter = BrushDab.getDiameter(width);
+        mDab = new int[mDiameter * mDiameter];
+        mMask = new byte[mDiameter * mDiameter];
+        BrushDab.renderPencil(mDiameter, 0xFF000000, mDab);
+        for (int i = 0; i < mMask.length; i++){
+            mMask[i] = (byte) (mDab[i] >>> 24);
+        }
+        BrushDab.renderPencilGrain(GRAIN_SIZE, mGrainPixels);
+        for (int i = 0; i < mGrain.length; i++){
+            mGrain[i] = (byte) (mGrainPixels[i] >>> 24);
+        }
+    }
+
+    @Benchmark
+    public int[] renderDab(){
+        BrushDab.renderPencil(mDiameter, 0xFF000000, mDab);
+        return mDab;
+    }
+
+    @Benchmark
+    public int[] renderGrain(){
+        BrushDab.renderPencilGrain(GRAIN_SIZE, mGrainPixels);
+        return mGrainPixels;
+    }
+
+    @Benchmark
+    public int[] stampStroke(){
+        mSpacing.begin(mStroke[0], mStroke[1], mDiameter * SPACING);
+        for (int i = 1; i <= POINTS; i++){
+            while (mSpacing.next()){
+                stamp(mSpacing.getX(), mSpacing.getY());
+            }
+            if (i < POINTS){
+                mSpacing.lineTo(mStroke[i * 2], mStroke[i * 2 + 1]);
+            }
+        }
+        return mPixels;
+    }
+
+    /**
+     * Blend the color source-over with its center at the position, with the alpha of the mask
+     * times the grain under each pixel, in premultiplied 8 bit fixed point like the raster
+     * blitters do for a mask drawn with a shader. The turn of the grain is left out
+     */
+    private void stamp(float x, float y){
+        int left = Math.round(x - mDiameter / 2f);
+        int top = Math.round(y - mDiameter / 2f);
+        for (int row = Math.max(0, -top); row < mDiameter && top + row < SIZE; row++){
+            int offset = (top + row) * SIZE + left;
+            int maskRow = row * mDiameter;
+            int grainRow = ((top + row) & (GRAIN_SIZE - 1)) * GRAIN_SIZE;
+            for (int column = Math.max(0, -left); column < mDiameter && left + column < SIZE;
+                    column++){
+                int mask = mMask[maskRow + column] & 0xFF;
+                if (mask == 0){
+                    continue;
+                }
+                int grain = mGrain[grainRow + ((left + column) & (GRAIN_SIZE - 1))] & 0xFF;
+                int source = scale(COLOR, (mask * grain >> 8) + 1);
+                int destination = mPixels[offset + column];
+                mPixels[offset + column] = source + scale(destination, 256 - (source >>> 24));
+            }
+        }
+    }
+
+    /**
+     * Scale the four channels of a premultiplied color
+     * @param scale 0 to 256
+     */
+    private static int scale(int color, int scale){
+        int redBlue = ((color & 0x00FF00FF) * scale >>> 8) & 0x00FF00FF;
+        int alphaGreen = ((color >>> 8) & 0x00FF00FF) * scale & 0xFF00FF00;
+        return alphaGreen | redBlue;
+    }
+}
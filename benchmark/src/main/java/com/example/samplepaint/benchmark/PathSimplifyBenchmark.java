@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.StrokeSmoother;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decimation and Ramer-Douglas-Peucker simplification of a completed stroke, as done when a
+ * pointer is lifted. Each invocation works on a fresh copy of the same noisy stroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathSimplifyBenchmark {
+    @Param({"64", "1024", "16384"})
+    public int points;
+
+    private float[] mStroke;
+    private float[] mWork;
+    private final StrokeSmoother mSmoother = new StrokeSmoother();
+
+    @Setup
+    public void setUp(){
+        Random random = new Random(42);
+        mStroke = new float[points * 2];
+        float x = 0;
+        float y = 0;
+        double heading = 0;
+        for (int i = 0; i < points; i++){
+            heading += (random.nextDouble() - 0.5) * 0.3;
+            x += (float) (3 * Math.cos(heading)) + (random.nextFloat() - 0.5f) * 0.4f;
+            y += (float) (3 * Math.sin(heading)) + (random.nextFloat() - 0.5f) * 0.4f;
+            mStroke[i * 2] = x;
+            mStroke[i * 2 + 1] = y;
+        }
+        mWork = new float[mStroke.length];
+    }
+
+    @Benchmark
+    public int simplify(){
+        System.arraycopy(mStroke, 0, mWork, 0, mStroke.length);
+        return mSmoother.simplify(mWork, points);
+    }
+
+    @Benchmark
+    public int process(){
+        System.arraycopy(mStroke, 0, mWork, 0, mStroke.length);
+        return mSmoother.process(mWork, points);
+    }
+}
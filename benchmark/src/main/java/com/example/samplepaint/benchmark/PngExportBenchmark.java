@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.PngStripEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG export of a 4 megapixel canvas with strokes, on one thread and on pools of increasing
+ * size, to see how the strip encoder scales with the cores. The encoded bytes are discarded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PngExportBenchmark {
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 2048;
+
+    //0 encodes serially on the calling thread
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService mExecutor;
+    private final int[] mPixels = new int[WIDTH * HEIGHT];
+    private final PngStripEncoder.PixelSource mSource = new PngStripEncoder.PixelSource() {
+        @Override
+        public void readRows(int top, int rows, int[] pixels) {
+            System.arraycopy(mPixels, top * WIDTH, pixels, 0, rows * WIDTH);
+        }
+    };
+    private final WritableByteChannel mSink = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer buffer) {
+            int length = buffer.remaining();
+            buffer.position(buffer.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Setup
+    public void setUp(){
+        mExecutor = threads == 0 ? null : Executors.newFixedThreadPool(threads);
+        Random random = new Random(42);
+        for (int stroke = 0; stroke < 2000; stroke++){
+            int x = random.nextInt(WIDTH - 200);
+            int y = random.nextInt(HEIGHT - 8);
+            int color = 0xFF000000 | random.nextInt(0x1000000);
+            for (int row = y; row < y + 8; row++){
+                for (int column = x; column < x + 200; column++){
+                    mPixels[row * WIDTH + column] = color;
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown(){
+        if (mExecutor != null){
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void encode() throws IOException {
+        new PngStripEncoder(mExecutor).encode(mSource, WIDTH, HEIGHT, mSink);
+    }
+}
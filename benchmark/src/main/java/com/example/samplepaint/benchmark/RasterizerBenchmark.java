@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.StrokeRasterizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Software rasterization of a smoothed stroke across a 1024 x 1024 buffer with the app's
+ * default brush width and a wide one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RasterizerBenchmark {
+    private static final int SIZE = 1024;
+    private static final int POINTS = 256;
+
+    @Param({"5", "40"})
+    public float width;
+
+    private StrokeRasterizer mRasterizer;
+    private final float[] mStroke = new float[POINTS * 2];
+
+    @Setup
+    public void setUp(){
+        mRasterizer = new StrokeRasterizer(new int[SIZE * SIZE], SIZE, SIZE);
+        //a wave across the buffer
+        for (int i = 0; i < POINTS; i++){
+            mStroke[i * 2] = 32 + i * (SIZE - 64f) / POINTS;
+            mStroke[i * 2 + 1] = (float) (SIZE / 2 + SIZE / 3 * Math.sin(i * 0.1));
+        }
+    }
+
+    @Benchmark
+    public int[] drawStroke(){
+        mRasterizer.drawStroke(mStroke, POINTS, 0x80336699, width);
+        return mRasterizer.getPixels();
+    }
+}
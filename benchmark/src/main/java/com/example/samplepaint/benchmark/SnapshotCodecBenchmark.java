@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.PixelRunLength;
+import com.example.samplepaint.SnapshotHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canvas snapshot codecs: the raw snapshot format used to save the canvas, with direct
+ * buffers standing in for the bitmaps and the file, and the run-length encoding of the tile
+ * pre-images kept by the undo history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotCodecBenchmark {
+    private static final int TILE_SIZE = 256;
+    private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+    @Param({"4", "64"})
+    public int tiles;
+
+    private SnapshotHeader mHeader;
+    private ByteBuffer[] mTilePixels;
+    private ByteBuffer mFile;
+    private ByteBuffer mRestored;
+
+    private final int[] mStroked = new int[TILE_PIXELS];
+    private final int[] mScratch = new int[TILE_PIXELS * 2];
+    private final int[] mDecoded = new int[TILE_PIXELS];
+    private int[] mRuns;
+
+    @Setup
+    public void setUp(){
+        int[] columns = new int[tiles];
+        int[] rows = new int[tiles];
+        mTilePixels = new ByteBuffer[tiles];
+        for (int i = 0; i < tiles; i++){
+            columns[i] = i % 8;
+            rows[i] = i / 8;
+            mTilePixels[i] = ByteBuffer.allocateDirect(TILE_PIXELS * 4);
+        }
+        mHeader = new SnapshotHeader(2048, 2048, TILE_SIZE, columns, rows);
+        mFile = ByteBuffer.allocateDirect((int) mHeader.getFileBytes());
+        mRestored = ByteBuffer.allocateDirect(TILE_PIXELS * 4);
+
+        //a few strokes on a transparent tile
+        Random random = new Random(42);
+        for (int stroke = 0; stroke < 8; stroke++){
+            int row = random.nextInt(TILE_SIZE);
+            int color = 0xFF000000 | random.nextInt(0x1000000);
+            for (int y = row; y < Math.min(TILE_SIZE, row + 5); y++){
+                for (int x = 0; x < TILE_SIZE; x++){
+                    mStroked[y * TILE_SIZE + x] = color;
+                }
+            }
+        }
+        for (ByteBuffer tile : mTilePixels){
+            tile.asIntBuffer().put(mStroked);
+        }
+        mRuns = PixelRunLength.encode(mStroked, TILE_PIXELS, mScratch);
+        encodeSnapshot();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeSnapshot(){
+        mFile.clear();
+        mFile.put(mHeader.encode());
+        for (ByteBuffer tile : mTilePixels){
+            tile.rewind();
+            mFile.put(tile);
+        }
+        return mFile;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeSnapshot() throws IOException {
+        mFile.clear();
+        SnapshotHeader header = SnapshotHeader.decode(mFile, TILE_SIZE);
+        int offset = header.getPixelOffset();
+        for (int i = 0; i < header.getTileCount(); i++){
+            mFile.limit(offset + header.getTileBytes()).position(offset);
+            mRestored.clear();
+            mRestored.put(mFile);
+            offset += header.getTileBytes();
+        }
+        return mRestored;
+    }
+
+    @Benchmark
+    public int[] encodeUndoTile(){
+        return PixelRunLength.encode(mStroked, TILE_PIXELS, mScratch);
+    }
+
+    @Benchmark
+    public int[] decodeUndoTile(){
+        PixelRunLength.decode(mRuns, mDecoded, TILE_PIXELS);
+        return mDecoded;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.StrokeFileReader;
+import com.example.samplepaint.StrokeFileWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stroke file codec: writing and streaming back a drawing of random walk strokes. The size of
+ * the encoded drawing is printed once per fork, for comparison with the raw canvas snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeFileBenchmark {
+    private static final int POINTS_PER_STROKE = 200;
+    private static final int[] PALETTE = {0xFF33B5E5, 0xFFAA66CC, 0xFF99CC00, 0xFF000000};
+
+    @Param({"10", "500"})
+    public int strokes;
+
+    private float[][] mStrokes;
+    private int[] mColors;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+    private byte[] mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        mStrokes = new float[strokes][POINTS_PER_STROKE * 2];
+        mColors = new int[strokes];
+        for (int s = 0; s < strokes; s++){
+            float x = random.nextInt(2048);
+            float y = random.nextInt(2048);
+            for (int i = 0; i < POINTS_PER_STROKE; i++){
+                x += random.nextFloat() * 6 - 3;
+                y += random.nextFloat() * 6 - 3;
+                mStrokes[s][i * 2] = x;
+                mStrokes[s][i * 2 + 1] = y;
+            }
+            mColors[s] = PALETTE[random.nextInt(PALETTE.length)];
+        }
+        write();
+        mFile = mOut.toByteArray();
+        System.out.println("stroke file of " + strokes + " strokes: " + mFile.length + " bytes");
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream write() throws IOException {
+        mOut.reset();
+        StrokeFileWriter writer = new StrokeFileWriter(Channels.newChannel(mOut), 2048, 2048,
+                PALETTE);
+        for (int s = 0; s < strokes; s++){
+            writer.write(0, 0, 0, mColors[s], 5f, mStrokes[s], POINTS_PER_STROKE);
+        }
+        writer.flush();
+        return mOut;
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        StrokeFileReader reader = new StrokeFileReader(
+                Channels.newChannel(new ByteArrayInputStream(mFile)));
+        int points = 0;
+        while (reader.next()){
+            points += reader.getPointCount();
+        }
+        return points;
+    }
+}
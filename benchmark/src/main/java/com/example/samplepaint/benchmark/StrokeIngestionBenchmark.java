@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.StrokePredictor;
+import com.example.samplepaint.StrokeSmoother;
+import com.example.samplepaint.TouchSampleBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of taking in one touch sample the way a live stroke does: queue it in the
+ * TouchSampleBuffer and, once per frame worth of samples, drain the buffer through the
+ * StrokeSmoother and the StrokePredictor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeIngestionBenchmark {
+    //samples delivered per frame, 4 for a 240Hz digitizer at 60 fps
+    @Param({"4", "16"})
+    public int samplesPerFrame;
+
+    private static final int PATH_LENGTH = 4096;
+
+    private final float[] mX = new float[PATH_LENGTH];
+    private final float[] mY = new float[PATH_LENGTH];
+    private TouchSampleBuffer mBuffer;
+    private final StrokeSmoother mSmoother = new StrokeSmoother();
+    private final StrokePredictor mPredictor = new StrokePredictor(null);
+    private final CountingSink mSink = new CountingSink();
+    private final float[] mPrediction = new float[2];
+    private int mNext;
+    private long mTime;
+
+    @Setup
+    public void setUp(){
+        //a spiral, so that the smoother neither drops every sample nor none of them
+        for (int i = 0; i < PATH_LENGTH; i++){
+            double angle = i * 0.05;
+            double radius = 50 + i * 0.1;
+            mX[i] = (float) (500 + radius * Math.cos(angle));
+            mY[i] = (float) (500 + radius * Math.sin(angle));
+        }
+        mBuffer = new TouchSampleBuffer(samplesPerFrame);
+        mSmoother.begin(mX[0], mY[0], mSink);
+        mPredictor.reset();
+    }
+
+    @Benchmark
+    public int ingestSample(){
+        int i = mNext;
+        mNext = (i + 1) & (PATH_LENGTH - 1);
+        mTime += 4;
+        mBuffer.add(mX[i], mY[i], mTime);
+        if (mBuffer.isFull()){
+            for (int s = 0; s < mBuffer.size(); s++){
+                mPredictor.add(mBuffer.getX(s), mBuffer.getY(s), mBuffer.getTime(s));
+                mSmoother.add(mBuffer.getX(s), mBuffer.getY(s), mSink);
+            }
+            mBuffer.clear();
+            mPredictor.predict(StrokePredictor.DEFAULT_HORIZON, mPrediction);
+        }
+        return mSink.segments;
+    }
+
+    /**
+     * Counts segments instead of building a path, so only the smoothing is measured
+     */
+    private static class CountingSink implements StrokeSmoother.PathSink {
+        int segments;
+
+        @Override
+        public void moveTo(float x, float y){
+            segments++;
+        }
+
+        @Override
+        public void lineTo(float x, float y){
+            segments++;
+        }
+
+        @Override
+        public void quadTo(float controlX, float controlY, float x, float y){
+            segments++;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint.benchmark;
+
+import com.example.samplepaint.StrokeMesh;
+import com.example.samplepaint.StrokeSmoother;
+import com.example.samplepaint.StrokeWidthModel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of taking in one touch sample of a variable-width stroke the way a live stroke does:
+ * get its width from the StrokeWidthModel, smooth it and tessellate the new segment into the
+ * StrokeMesh, dropping the stable rows every LIVE_SEGMENTS segments as a commit would.
+ * Compare with StrokeIngestionBenchmark for the fixed-width path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StrokeMeshBenchmark {
+    @Param({"1", "2"})
+    public int widthMode;
+
+    private static final int PATH_LENGTH = 4096;
+    //CustomPaintView commits the live part of a stroke after this many segments
+    private static final int LIVE_SEGMENTS = 32;
+
+    private final float[] mX = new float[PATH_LENGTH];
+    private final float[] mY = new float[PATH_LENGTH];
+    private final float[] mPressure = new float[PATH_LENGTH];
+    private final StrokeWidthModel mWidthModel = new StrokeWidthModel();
+    private final StrokeSmoother mSmoother = new StrokeSmoother();
+    private final StrokeMesh mMesh = new StrokeMesh();
+    private float mLastWidth;
+    private int mSegments;
+    private int mNext;
+    private long mTime;
+
+    @Setup
+    public void setUp(){
+        //the spiral of StrokeIngestionBenchmark, with the pressure rising and falling
+        for (int i = 0; i < PATH_LENGTH; i++){
+            double angle = i * 0.05;
+            double radius = 50 + i * 0.1;
+            mX[i] = (float) (500 + radius * Math.cos(angle));
+            mY[i] = (float) (500 + radius * Math.sin(angle));
+            mPressure[i] = (float) (0.5 + 0.5 * Math.sin(i * 0.01));
+        }
+        mLastWidth = mWidthModel.begin(widthMode, 12, mX[0], mY[0], 0, mPressure[0]);
+        mMesh.setWidth(mLastWidth);
+        mSmoother.begin(mX[0], mY[0], mMesh);
+    }
+
+    @Benchmark
+    public int ingestSample(){
+        int i = mNext;
+        mNext = (i + 1) & (PATH_LENGTH - 1);
+        mTime += 4;
+        float width = mWidthModel.next(mX[i], mY[i], mTime, mPressure[i]);
+        mMesh.setWidth((mLastWidth + width) / 2);
+        if (mSmoother.add(mX[i], mY[i], mMesh)){
+            mLastWidth = width;
+            if (++mSegments == LIVE_SEGMENTS){
+                mMesh.commit();
+                mSegments = 0;
+            }
+        }
+        return mMesh.getRowCount();
+    }
+}
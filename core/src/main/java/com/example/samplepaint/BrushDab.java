@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Renders the pixels of the dabs of the built-in brushes, as unpremultiplied ARGB colors of a
+ * square of diameter x diameter pixels. The color of a dab is the brush color with its alpha
+ * scaled by the coverage of each pixel, so a dab only has to be rendered once per brush, size
+ * and color and can then be stamped any number of times.
+ */
+public final class BrushDab {
+    //alpha one airbrush dab adds at its center, the spray builds up from many of them
+    static final float AIRBRUSH_FLOW = 0.15f;
+    //alpha of one marker dab
+    static final float MARKER_FLOW = 0.35f;
+    //width of the chisel tip of the marker relative to its length
+    static final float MARKER_ASPECT = 0.35f;
+    //alpha of one pencil dab over the darkest grain
+    static final float PENCIL_FLOW = 0.6f;
+    //lightest grain of the pencil texture, the paper showing through
+    static final float PENCIL_MIN_GRAIN = 0.25f;
+    //size of the pencil texture, it repeats across the document
+    public static final int PENCIL_GRAIN_SIZE = 64;
+
+    private static final float SQRT_HALF = (float) Math.sqrt(0.5);
+
+    private BrushDab(){
+    }
+
+    /**
+     * Get the diameter of the dabs of a stroke
+     * @param width stroke width
+     * @return int at least 1
+     */
+    public static int getDiameter(float width){
+        return Math.max(1, Math.round(width));
+    }
+
+    /**
+     * Soft round dab whose alpha falls off quadratically from the center to the edge
+     * @param diameter
+     * @param color
+     * @param pixels at least diameter * diameter long
+     */
+    public static void renderAirbrush(int diameter, int color, int[] pixels){
+        float radius = diameter / 2f;
+        for (int y = 0; y < diameter; y++){
+            for (int x = 0; x < diameter; x++){
+                float dx = x + 0.5f - radius;
+                float dy = y + 0.5f - radius;
+                float r = (float) Math.sqrt(dx * dx + dy * dy) / radius;
+                float falloff = r >= 1 ? 0 : (1 - r) * (1 - r);
+                pixels[y * diameter + x] = withCoverage(color, falloff * AIRBRUSH_FLOW);
+            }
+        }
+    }
+
+    /**
+     * Translucent chisel tip: an ellipse along the diagonal from the bottom left to the top
+     * right, with antialiased edges
+     * @param diameter
+     * @param color
+     * @param pixels at least diameter * diameter long
+     */
+    public static void renderMarker(int diameter, int color, int[] pixels){
+        float radius = diameter / 2f;
+        float minor = Math.max(0.5f, radius * MARKER_ASPECT);
+        for (int y = 0; y < diameter; y++){
+            for (int x = 0; x < diameter; x++){
+                float dx = x + 0.5f - radius;
+                float dy = y + 0.5f - radius;
+                float u = (dx - dy) * SQRT_HALF;
+                float v = (dx + dy) * SQRT_HALF;
+                float e = (float) Math.sqrt(u * u / (radius * radius) + v * v / (minor * minor));
+                //distance to the edge in pixels, measured along the minor axis
+                float coverage = clamp((1 - e) * minor + 0.5f);
+                pixels[y * diameter + x] = withCoverage(color, coverage * MARKER_FLOW);
+            }
+        }
+    }
+
+    /**
+     * Hard round dab with antialiased edges. The grain of the pencil is not part of the dab:
+     * it is a texture fixed to the document, rendered by renderPencilGrain, that the dabs are
+     * drawn through, so overlapping stamps darken the same paper pattern and one dab serves
+     * every color
+     * @param diameter
+     * @param color
+     * @param pixels at least diameter * diameter long
+     */
+    public static void renderPencil(int diameter, int color, int[] pixels){
+        float radius = diameter / 2f;
+        for (int y = 0; y < diameter; y++){
+            for (int x = 0; x < diameter; x++){
+                float dx = x + 0.5f - radius;
+                float dy = y + 0.5f - radius;
+                float coverage = clamp(radius - (float) Math.sqrt(dx * dx + dy * dy) + 0.5f);
+                pixels[y * diameter + x] = withCoverage(color, coverage * PENCIL_FLOW);
+            }
+        }
+    }
+
+    /**
+     * Paper grain of the pencil, as white pixels whose alpha is the share of the color that
+     * sticks to the paper. The texture repeats seamlessly every size pixels
+     * @param size width and height of the texture
+     * @param pixels at least size * size long
+     */
+    public static void renderPencilGrain(int size, int[] pixels){
+        for (int y = 0; y < size; y++){
+            for (int x = 0; x < size; x++){
+                float grain = PENCIL_MIN_GRAIN + (1 - PENCIL_MIN_GRAIN) * grain(x, y);
+                pixels[y * size + x] = withCoverage(0xFFFFFFFF, grain);
+            }
+        }
+    }
+
+    /**
+     * Get a pseudo-random value for a pixel from an integer hash of its position
+     * @return float 0 to 1
+     */
+    static float grain(int x, int y){
+        int h = x * 0x27D4EB2D ^ y * 0x165667B1;
+        h ^= h >>> 15;
+        h *= 0x2C1B3C6D;
+        h ^= h >>> 12;
+        return (h & 0xFF) / 255f;
+    }
+
+    private static int withCoverage(int color, float coverage){
+        int alpha = Math.round((color >>> 24) * coverage);
+        return alpha << 24 | (color & 0xFFFFFF);
+    }
+
+    private static float clamp(float value){
+        return value < 0 ? 0 : value > 1 ? 1 : value;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * HSV conversions of packed ARGB colors without android.graphics.Color, so the color picker's
+ * sorting and pressed state math can run and be measured on any JVM. The conversions follow
+ * the ones Color.colorToHSV and Color.HSVToColor use.
+ */
+public final class ColorMath {
+
+    private ColorMath(){
+    }
+
+    /**
+     * Convert the color to hue, saturation and value
+     * @param color ARGB color, alpha is ignored
+     * @param hsv receives hue in [0, 360), saturation and value in [0, 1]
+     */
+    public static void colorToHsv(int color, float[] hsv){
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        int max = Math.max(red, Math.max(green, blue));
+        int min = Math.min(red, Math.min(green, blue));
+        if (max == 0){
+            hsv[0] = 0;
+            hsv[1] = 0;
+            hsv[2] = 0;
+            return;
+        }
+        float delta = max - min;
+        float hue;
+        if (delta == 0){
+            hue = 0;
+        } else if (red == max){
+            hue = (green - blue) / delta;
+        } else if (green == max){
+            hue = 2 + (blue - red) / delta;
+        } else {
+            hue = 4 + (red - green) / delta;
+        }
+        hue *= 60;
+        if (hue < 0){
+            hue += 360;
+        }
+        hsv[0] = hue;
+        hsv[1] = delta / max;
+        hsv[2] = max / 255f;
+    }
+
+    /**
+     * Convert hue, saturation and value to a color
+     * @param alpha alpha of the color, 0 to 255
+     * @param hsv hue in [0, 360), saturation and value in [0, 1]
+     * @return int ARGB color
+     */
+    public static int hsvToColor(int alpha, float[] hsv){
+        float saturation = clamp(hsv[1]);
+        float value = clamp(hsv[2]);
+        int v = Math.round(value * 255);
+        if (saturation <= 1f / 4096){
+            return argb(alpha, v, v, v);
+        }
+        float hue = hsv[0] < 0 || hsv[0] >= 360 ? 0 : hsv[0] / 60;
+        int sector = (int) Math.floor(hue);
+        float fraction = hue - sector;
+        int p = Math.round((1 - saturation) * value * 255);
+        int q = Math.round((1 - saturation * fraction) * value * 255);
+        int t = Math.round((1 - saturation * (1 - fraction)) * value * 255);
+        switch (sector){
+            case 0:
+                return argb(alpha, v, t, p);
+            case 1:
+                return argb(alpha, q, v, p);
+            case 2:
+                return argb(alpha, p, v, t);
+            case 3:
+                return argb(alpha, p, q, v);
+            case 4:
+                return argb(alpha, t, p, v);
+            default:
+                return argb(alpha, v, p, q);
+        }
+    }
+
+    /**
+     * Multiply the value of the color, keeping its hue, saturation and alpha
+     * @param color
+     * @param multiplier
+     * @param hsv work array of 3 floats, reused between calls
+     * @return int ARGB color
+     */
+    public static int scaleValue(int color, float multiplier, float[] hsv){
+        colorToHsv(color, hsv);
+        hsv[2] *= multiplier;
+        return hsvToColor(color >>> 24, hsv);
+    }
+
+    /**
+     * Order colors by descending hue, then saturation, then value
+     * @param lhs
+     * @param rhs
+     * @return int negative if lhs sorts first
+     */
+    public static int compareHsv(int lhs, int rhs){
+        int order = Float.compare(hue(rhs), hue(lhs));
+        if (order != 0){
+            return order;
+        }
+        order = Float.compare(saturation(rhs), saturation(lhs));
+        if (order != 0){
+            return order;
+        }
+        return Float.compare(value(rhs), value(lhs));
+    }
+
+    /**
+     * Hue of the color, the same as colorToHsv computes, without a work array
+     */
+    private static float hue(int color){
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        int max = Math.max(red, Math.max(green, blue));
+        float delta = max - Math.min(red, Math.min(green, blue));
+        if (max == 0 || delta == 0){
+            return 0;
+        }
+        float hue;
+        if (red == max){
+            hue = (green - blue) / delta;
+        } else if (green == max){
+            hue = 2 + (blue - red) / delta;
+        } else {
+            hue = 4 + (red - green) / delta;
+        }
+        hue *= 60;
+        return hue < 0 ? hue + 360 : hue;
+    }
+
+    private static float saturation(int color){
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+        int max = Math.max(red, Math.max(green, blue));
+        if (max == 0){
+            return 0;
+        }
+        return (float) (max - Math.min(red, Math.min(green, blue))) / max;
+    }
+
+    private static float value(int color){
+        return Math.max((color >> 16) & 0xFF, Math.max((color >> 8) & 0xFF, color & 0xFF)) / 255f;
+    }
+
+    private static float clamp(float value){
+        return Math.max(0, Math.min(1, value));
+    }
+
+    private static int argb(int alpha, int red, int green, int blue){
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
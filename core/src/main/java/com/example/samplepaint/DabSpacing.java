@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Places dabs at an even distance along a polyline. The distance left over at the end of a
+ * segment is carried into the next one, so the spacing stays even across segments and across
+ * calls, however short the segments a stroke arrives in. The iterator keeps its state in
+ * primitive fields and is reused for every stroke, so walking a stroke allocates nothing:
+ * <pre>
+ * spacing.begin(x0, y0, step);
+ * while (spacing.next()) stamp(spacing.getX(), spacing.getY());
+ * spacing.lineTo(x1, y1);
+ * while (spacing.next()) stamp(spacing.getX(), spacing.getY());
+ * </pre>
+ */
+public final class DabSpacing {
+    //smallest distance between two dabs, so a tiny brush cannot stall a stroke
+    public static final float MIN_STEP = 0.5f;
+
+    private float mStep;
+    //current segment
+    private float mStartX;
+    private float mStartY;
+    private float mEndX;
+    private float mEndY;
+    private float mLength;
+    //distance from the start of the segment to the next dab
+    private float mNext;
+    //position of the dab returned by next()
+    private float mX;
+    private float mY;
+    private int mCount;
+
+    /**
+     * Start a stroke. The first dab is placed on the start point
+     * @param x
+     * @param y
+     * @param step distance between two dabs
+     */
+    public void begin(float x, float y, float step){
+        mStep = Math.max(step, MIN_STEP);
+        mStartX = x;
+        mStartY = y;
+        mEndX = x;
+        mEndY = y;
+        mLength = 0;
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Continue the stroke with a straight segment from the end of the previous one. The dabs
+     * of the previous segment have to be read with next() first
+     * @param x
+     * @param y
+     */
+    public void lineTo(float x, float y){
+        mNext -= mLength;
+        mStartX = mEndX;
+        mStartY = mEndY;
+        mEndX = x;
+        mEndY = y;
+        float dx = x - mStartX;
+        float dy = y - mStartY;
+        mLength = (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Move to the next dab of the current segment
+     * @return false once the segment has no more dabs
+     */
+    public boolean next(){
+        if (mNext > mLength){
+            return false;
+        }
+        if (mLength == 0){
+            mX = mStartX;
+            mY = mStartY;
+        } else {
+            float t = mNext / mLength;
+            mX = mStartX + (mEndX - mStartX) * t;
+            mY = mStartY + (mEndY - mStartY) * t;
+        }
+        mNext += mStep;
+        mCount++;
+        return true;
+    }
+
+    public float getX(){
+        return mX;
+    }
+
+    public float getY(){
+        return mY;
+    }
+
+    /**
+     * Get the number of dabs placed since begin
+     * @return int
+     */
+    public int getCount(){
+        return mCount;
+    }
+}
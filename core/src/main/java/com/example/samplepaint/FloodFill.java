@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * Scanline flood fill of an ARGB int[] buffer. The pixels connected to the seed, horizontally
+ * or vertically, whose channels all differ from the seed's color by at most the tolerance are
+ * set to the fill color. A stack of spans to scan is used instead of recursion, and a visited
+ * mask keeps pixels from being filled twice when the fill color is itself within the
+ * tolerance.
+ *
+ * The buffer is split into square tiles. Each tile is filled by its own task, which only
+ * touches the pixels of its tile and hands the spans that cross its border to the neighboring
+ * tile. The fill runs in rounds: every tile with spans handed to it is filled in parallel on
+ * the executor, and the spans crossing the borders are merged into the next round, until no
+ * tile has any left. A tile the executor did not start by the time the calling thread waits
+ * for it is filled on the calling thread, so the executor may be one the fill itself runs on.
+ */
+public class FloodFill {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    /**
+     * Part of the buffer filled by one task
+     */
+    private class Tile implements Runnable {
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+
+        //spans handed over by the neighbors, (y, x0, x1) triples
+        private int[] mIncoming = new int[48];
+        private int mIncomingSize;
+        //spans still to scan by this tile's task
+        private int[] mStack = new int[48];
+        private int mStackSize;
+
+        int filled;
+        int filledLeft;
+        int filledTop;
+        int filledRight;
+        int filledBottom;
+
+        Tile(int left, int top, int right, int bottom){
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        synchronized void handOver(int y, int x0, int x1){
+            if (mIncomingSize + 3 > mIncoming.length){
+                mIncoming = grow(mIncoming);
+            }
+            mIncoming[mIncomingSize++] = y;
+            mIncoming[mIncomingSize++] = x0;
+            mIncoming[mIncomingSize++] = x1;
+        }
+
+        /**
+         * Move the handed over spans onto the stack of the task
+         * @return false if there were none
+         */
+        synchronized boolean takeIncoming(){
+            if (mIncomingSize == 0){
+                return false;
+            }
+            int[] stack = mStack;
+            mStack = mIncoming;
+            mStackSize = mIncomingSize;
+            mIncoming = stack;
+            mIncomingSize = 0;
+            return true;
+        }
+
+        private void push(int y, int x0, int x1){
+            if (mStackSize + 3 > mStack.length){
+                mStack = grow(mStack);
+            }
+            mStack[mStackSize++] = y;
+            mStack[mStackSize++] = x0;
+            mStack[mStackSize++] = x1;
+        }
+
+        @Override
+        public void run(){
+            int[] pixels = mPixels;
+            byte[] visited = mVisited;
+            int width = mWidth;
+            while (mStackSize > 0){
+                int x1 = mStack[--mStackSize];
+                int x0 = mStack[--mStackSize];
+                int y = mStack[--mStackSize];
+                int row = y * width;
+                //from an index into the visited mask to the same pixel in the buffer
+                int shift = mOffset + y * (mStride - width);
+                for (int x = x0; x <= x1; x++){
+                    if (!matches(row + x, shift)){
+                        continue;
+                    }
+                    int spanLeft = x;
+                    while (spanLeft > left && matches(row + spanLeft - 1, shift)){
+                        spanLeft--;
+                    }
+                    int spanRight = x;
+                    while (spanRight < right - 1 && matches(row + spanRight + 1, shift)){
+                        spanRight++;
+                    }
+                    for (int i = row + spanLeft; i <= row + spanRight; i++){
+                        pixels[i + shift] = mColor;
+                        visited[i] = 1;
+                    }
+                    addFilled(spanLeft, y, spanRight);
+
+                    if (spanLeft == left && left > 0){
+                        tileAt(left - 1, y).handOver(y, left - 1, left - 1);
+                    }
+                    if (spanRight == right - 1 && right < width){
+                        tileAt(right, y).handOver(y, right, right);
+                    }
+                    if (y > top){
+                        push(y - 1, spanLeft, spanRight);
+                    } else if (y > 0){
+                        tileAt(spanLeft, y - 1).handOver(y - 1, spanLeft, spanRight);
+                    }
+                    if (y < bottom - 1){
+                        push(y + 1, spanLeft, spanRight);
+                    } else if (y < mHeight - 1){
+                        tileAt(spanLeft, y + 1).handOver(y + 1, spanLeft, spanRight);
+                    }
+                    x = spanRight + 1;
+                }
+            }
+        }
+
+        private void addFilled(int x0, int y, int x1){
+            if (filled == 0){
+                filledLeft = x0;
+                filledTop = y;
+                filledRight = x1 + 1;
+                filledBottom = y + 1;
+            } else {
+                filledLeft = Math.min(filledLeft, x0);
+                filledTop = Math.min(filledTop, y);
+                filledRight = Math.max(filledRight, x1 + 1);
+                filledBottom = Math.max(filledBottom, y + 1);
+            }
+            filled += x1 - x0 + 1;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final int mTileSize;
+
+    //state of the fill in progress
+    private int[] mPixels;
+    private int mOffset;
+    private int mStride;
+    private byte[] mVisited = new byte[0];
+    private int mWidth;
+    private int mHeight;
+    private int mColor;
+    private int mTarget;
+    private int mTolerance;
+    private Tile[] mTiles;
+    private int mColumns;
+
+    //bounds of the last fill, right and bottom exclusive
+    private int mLeft;
+    private int mTop;
+    private int mRight;
+    private int mBottom;
+
+    /**
+     * @param executor runs the tiles of large fills in parallel, or null to fill on the
+     *                 calling thread
+     */
+    public FloodFill(ExecutorService executor){
+        this(executor, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param executor runs the tiles of large fills in parallel, or null to fill on the
+     *                 calling thread
+     * @param tileSize size of the square tiles filled by one task
+     */
+    public FloodFill(ExecutorService executor, int tileSize){
+        mExecutor = executor;
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Fill the region around the seed
+     * @param pixels width x height ARGB pixels, row by row, changed in place
+     * @param width
+     * @param height
+     * @param x seed column
+     * @param y seed row
+     * @param color fill color
+     * @param tolerance largest difference of any channel from the seed's color, 0 to 255
+     * @return int number of pixels filled
+     */
+    public int fill(int[] pixels, int width, int height, int x, int y, int color,
+            int tolerance){
+        return fill(pixels, 0, width, width, height, x, y, color, tolerance);
+    }
+
+    /**
+     * Fill the region around the seed, confined to a width x height area of a larger buffer.
+     * The seed and the filled bounds are relative to the area
+     * @param pixels ARGB pixels, row by row, changed in place
+     * @param offset index of the top left pixel of the area
+     * @param stride number of pixels from one row of the buffer to the next
+     * @param width
+     * @param height
+     * @param x seed column
+     * @param y seed row
+     * @param color fill color
+     * @param tolerance largest difference of any channel from the seed's color, 0 to 255
+     * @return int number of pixels filled
+     */
+    public int fill(int[] pixels, int offset, int stride, int width, int height, int x, int y,
+            int color, int tolerance){
+        mLeft = 0;
+        mTop = 0;
+        mRight = 0;
+        mBottom = 0;
+        if (x < 0 || y < 0 || x >= width || y >= height){
+            return 0;
+        }
+        mPixels = pixels;
+        mOffset = offset;
+        mStride = stride;
+        mWidth = width;
+        mHeight = height;
+        mColor = color;
+        mTarget = pixels[offset + y * stride + x];
+        mTolerance = tolerance;
+        if (mVisited.length < width * height){
+            mVisited = new byte[width * height];
+        } else {
+            for (int i = 0; i < width * height; i++){
+                mVisited[i] = 0;
+            }
+        }
+        createTiles();
+        try {
+            tileAt(x, y).handOver(y, x, x);
+            runRounds();
+            return collectBounds();
+        } finally {
+            mPixels = null;
+            mTiles = null;
+        }
+    }
+
+    /**
+     * Get the left edge of the pixels changed by the last fill
+     * @return int
+     */
+    public int getLeft(){
+        return mLeft;
+    }
+
+    public int getTop(){
+        return mTop;
+    }
+
+    /**
+     * Get the right edge of the pixels changed by the last fill, exclusive
+     * @return int
+     */
+    public int getRight(){
+        return mRight;
+    }
+
+    /**
+     * Get the bottom edge of the pixels changed by the last fill, exclusive
+     * @return int
+     */
+    public int getBottom(){
+        return mBottom;
+    }
+
+    private void createTiles(){
+        mColumns = (mWidth + mTileSize - 1) / mTileSize;
+        int rows = (mHeight + mTileSize - 1) / mTileSize;
+        mTiles = new Tile[mColumns * rows];
+        for (int row = 0; row < rows; row++){
+            for (int column = 0; column < mColumns; column++){
+                int left = column * mTileSize;
+                int top = row * mTileSize;
+                mTiles[row * mColumns + column] = new Tile(left, top,
+                        Math.min(left + mTileSize, mWidth), Math.min(top + mTileSize, mHeight));
+            }
+        }
+    }
+
+    /**
+     * Fill every tile that has spans handed to it, in parallel, until none has
+     */
+    private void runRounds(){
+        ArrayList<Tile> active = new ArrayList<Tile>();
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+        while (true){
+            active.clear();
+            for (Tile tile : mTiles){
+                if (tile.takeIncoming()){
+                    active.add(tile);
+                }
+            }
+            if (active.isEmpty()){
+                return;
+            }
+            if (mExecutor == null || active.size() == 1){
+                for (Tile tile : active){
+                    tile.run();
+                }
+                continue;
+            }
+            futures.clear();
+            //the calling thread fills the first tile itself
+            for (int i = 1; i < active.size(); i++){
+                futures.add(mExecutor.submit(active.get(i)));
+            }
+            active.get(0).run();
+            for (Future<?> future : futures){
+                await(future);
+            }
+        }
+    }
+
+    private static void await(Future<?> future){
+        if (future instanceof RunnableFuture){
+            //does nothing if a thread of the executor already took the tile
+            ((RunnableFuture<?>) future).run();
+        }
+        boolean interrupted = false;
+        try {
+            while (true){
+                try {
+                    future.get();
+                    return;
+                } catch (InterruptedException e) {
+                    //the tiles must be complete before the buffer is handed back
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private int collectBounds(){
+        int filled = 0;
+        for (Tile tile : mTiles){
+            if (tile.filled == 0){
+                continue;
+            }
+            if (filled == 0){
+                mLeft = tile.filledLeft;
+                mTop = tile.filledTop;
+                mRight = tile.filledRight;
+                mBottom = tile.filledBottom;
+            } else {
+                mLeft = Math.min(mLeft, tile.filledLeft);
+                mTop = Math.min(mTop, tile.filledTop);
+                mRight = Math.max(mRight, tile.filledRight);
+                mBottom = Math.max(mBottom, tile.filledBottom);
+            }
+            filled += tile.filled;
+        }
+        return filled;
+    }
+
+    private Tile tileAt(int x, int y){
+        return mTiles[(y / mTileSize) * mColumns + x / mTileSize];
+    }
+
+    /**
+     * Whether the pixel is not filled yet and within the tolerance of the seed's color
+     */
+    private boolean matches(int index, int shift){
+        if (mVisited[index] != 0){
+            return false;
+        }
+        int pixel = mPixels[index + shift];
+        if (pixel == mTarget){
+            return true;
+        }
+        int tolerance = mTolerance;
+        return Math.abs((pixel >>> 24) - (mTarget >>> 24)) <= tolerance
+                && Math.abs(((pixel >> 16) & 0xFF) - ((mTarget >> 16) & 0xFF)) <= tolerance
+                && Math.abs(((pixel >> 8) & 0xFF) - ((mTarget >> 8) & 0xFF)) <= tolerance
+                && Math.abs((pixel & 0xFF) - (mTarget & 0xFF)) <= tolerance;
+    }
+
+    private static int[] grow(int[] array){
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Histogram of durations in fixed width buckets of microseconds. Durations past the last
+ * bucket are counted in an overflow bucket. Recording only increments primitive counters, so
+ * it can be done on every frame without allocating. Percentiles are reported as the upper
+ * bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+    private final long[] mCounts;
+    private final int mBucketWidth;
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    /**
+     * @param bucketWidth width of a bucket in microseconds
+     * @param bucketCount number of buckets, not counting the overflow bucket
+     */
+    public LatencyHistogram(int bucketWidth, int bucketCount){
+        mBucketWidth = bucketWidth;
+        mCounts = new long[bucketCount + 1];
+    }
+
+    /**
+     * Record a duration
+     * @param micros
+     */
+    public synchronized void record(long micros){
+        if (micros < 0){
+            micros = 0;
+        }
+        int bucket = (int) Math.min(micros / mBucketWidth, mCounts.length - 1);
+        mCounts[bucket]++;
+        mCount++;
+        mSum += micros;
+        if (micros > mMax){
+            mMax = micros;
+        }
+    }
+
+    /**
+     * Get the duration the given fraction of the recorded durations does not exceed
+     * @param fraction between 0 and 1, 0.95f for the 95th percentile
+     * @return long microseconds, the largest recorded duration if it is in the overflow
+     *         bucket, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(float fraction){
+        if (mCount == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * mCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < mCounts.length - 1; bucket++){
+            seen += mCounts[bucket];
+            if (seen >= rank){
+                return Math.min((long) (bucket + 1) * mBucketWidth, mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public synchronized long getCount(){
+        return mCount;
+    }
+
+    public synchronized long getMax(){
+        return mMax;
+    }
+
+    /**
+     * Get the mean of the recorded durations
+     * @return long microseconds
+     */
+    public synchronized long getMean(){
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * Drop every recorded duration
+     */
+    public synchronized void clear(){
+        for (int i = 0; i < mCounts.length; i++){
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.util.Arrays;
+
+/**
+ * Run-length codec for ARGB pixel arrays. Drawings are mostly large areas of a single color, so
+ * storing (count, color) pairs keeps tile snapshots a small fraction of their raw size.
+ */
+public final class PixelRunLength {
+
+    private PixelRunLength(){
+    }
+
+    /**
+     * Encode the pixels as (count, color) pairs
+     * @param pixels
+     * @param count number of pixels to encode
+     * @param scratch work array of at least 2 * count ints, reused between calls
+     * @return int[] the runs, or null if every pixel is fully transparent
+     */
+    public static int[] encode(int[] pixels, int count, int[] scratch){
+        int length = 0;
+        boolean transparent = true;
+        int i = 0;
+        while (i < count){
+            int color = pixels[i];
+            int start = i;
+            while (i < count && pixels[i] == color){
+                i++;
+            }
+            scratch[length++] = i - start;
+            scratch[length++] = color;
+            transparent &= color == 0;
+        }
+        return transparent ? null : Arrays.copyOf(scratch, length);
+    }
+
+    /**
+     * Decode runs created by encode
+     * @param runs the runs, or null for fully transparent pixels
+     * @param pixels receives the decoded pixels
+     * @param count number of pixels to decode when runs is null
+     */
+    public static void decode(int[] runs, int[] pixels, int count){
+        if (runs == null){
+            Arrays.fill(pixels, 0, count, 0);
+            return;
+        }
+        int offset = 0;
+        for (int i = 0; i < runs.length; i += 2){
+            Arrays.fill(pixels, offset, offset + runs[i], runs[i + 1]);
+            offset += runs[i];
+        }
+    }
+}
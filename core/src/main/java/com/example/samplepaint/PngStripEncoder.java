@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streaming PNG encoder for images too large to hold encoded in memory. The image is read in
+ * horizontal strips of ARGB pixels and written as 8 bit RGBA, each row with the Sub filter.
+ * Only a bounded number of strips is held at any time, and the compressed strips go out as
+ * IDAT chunks as soon as they are ready.
+ *
+ * With an executor the strips are filtered and deflated in parallel, each into a raw deflate
+ * stream that ends on a byte boundary with a sync flush, so the streams join into the single
+ * zlib stream of the image. Every strip is primed with the last 32 KB of the strip before it
+ * as a preset dictionary, so matches across the boundary are kept and the output is only a few
+ * bytes per strip larger than a serial encode. The checksums of the strips are combined into
+ * the one of the whole stream. Without an executor the strips go through one Deflater on the
+ * calling thread, which does not need the sync flush of Java 7.
+ */
+public class PngStripEncoder {
+    /**
+     * Interface definition for the pixels of the image, read on the thread calling encode()
+     */
+    public interface PixelSource {
+        /**
+         * Copy rows of the image
+         * @param top first row
+         * @param rows number of rows
+         * @param pixels receives rows x width non-premultiplied ARGB pixels
+         */
+        void readRows(int top, int rows, int[] pixels);
+    }
+
+    //raw bytes of a strip, the rows are rounded to a whole number
+    public static final int DEFAULT_STRIP_BYTES = 256 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+    private static final int OUTPUT_BYTES = 64 * 1024;
+
+    private final ExecutorService mExecutor;
+    //strips read ahead of the one being written
+    private final int mMaxPending;
+    private int mLevel = Deflater.DEFAULT_COMPRESSION;
+    private int mStripBytes = DEFAULT_STRIP_BYTES;
+
+    private final CRC32 mCrc = new CRC32();
+    private final ByteBuffer mChunkHeader = ByteBuffer.allocate(8);
+    private final ByteBuffer mChunkCrc = ByteBuffer.allocate(4);
+
+    /**
+     * Deflated bytes of one strip and the checksum of its raw bytes
+     */
+    private static class Strip {
+        byte[] data;
+        int length;
+        int adler;
+        int rawLength;
+    }
+
+    /**
+     * Filters and deflates one strip on a worker
+     */
+    private class StripTask implements Callable<Strip> {
+        private final int[] mPixels;
+        private final int mRows;
+        private final int[] mPrevious;
+        private final int mPreviousRows;
+        private final int mWidth;
+        private final boolean mLast;
+
+        StripTask(int[] pixels, int rows, int[] previous, int previousRows, int width,
+                boolean last){
+            mPixels = pixels;
+            mRows = rows;
+            mPrevious = previous;
+            mPreviousRows = previousRows;
+            mWidth = width;
+            mLast = last;
+        }
+
+        @Override
+        public Strip call() {
+            int rowBytes = 1 + mWidth * 4;
+            byte[] raw = new byte[mRows * rowBytes];
+            filterRows(mPixels, 0, mRows, mWidth, raw, 0);
+            Strip strip = new Strip();
+            Adler32 adler = new Adler32();
+            adler.update(raw, 0, raw.length);
+            strip.adler = (int) adler.getValue();
+            strip.rawLength = raw.length;
+
+            Deflater deflater = new Deflater(mLevel, true);
+            try {
+                if (mPrevious != null){
+                    //the rows of the previous strip that fill the window
+                    int rows = Math.min(mPreviousRows,
+                            (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+                    byte[] tail = new byte[rows * rowBytes];
+                    filterRows(mPrevious, mPreviousRows - rows, rows, mWidth, tail, 0);
+                    int length = Math.min(tail.length, DICTIONARY_BYTES);
+                    deflater.setDictionary(tail, tail.length - length, length);
+                }
+                deflater.setInput(raw);
+                byte[] out = new byte[raw.length / 4 + 64];
+                int length = 0;
+                if (mLast){
+                    deflater.finish();
+                }
+                while (true){
+                    if (length == out.length){
+                        out = Arrays.copyOf(out, out.length * 2);
+                    }
+                    int space = out.length - length;
+                    int written = mLast ? deflater.deflate(out, length, space)
+                            : deflater.deflate(out, length, space, Deflater.SYNC_FLUSH);
+                    length += written;
+                    if (mLast ? deflater.finished() : written < space){
+                        break;
+                    }
+                }
+                strip.data = out;
+                strip.length = length;
+            } finally {
+                deflater.end();
+            }
+            return strip;
+        }
+    }
+
+    /**
+     * Create an encoder
+     * @param executor runs the strips in parallel, or null to encode on the calling thread
+     */
+    public PngStripEncoder(ExecutorService executor){
+        mExecutor = executor;
+        mMaxPending = Runtime.getRuntime().availableProcessors() + 1;
+    }
+
+    /**
+     * Set the deflate level
+     * @param level 0 to 9, or Deflater.DEFAULT_COMPRESSION
+     */
+    public void setLevel(int level){
+        mLevel = level;
+    }
+
+    /**
+     * Set the size of the strips the image is split into, which bounds the memory of the
+     * encoder together with the number of strips in flight
+     * @param bytes raw bytes per strip, rounded up to a whole row
+     */
+    public void setStripBytes(int bytes){
+        mStripBytes = bytes;
+    }
+
+    /**
+     * Encode the image into the channel. The channel is left open
+     * @param source
+     * @param width
+     * @param height
+     * @param channel
+     * @throws IOException if writing fails or the calling thread is interrupted
+     */
+    public void encode(PixelSource source, int width, int height, WritableByteChannel channel)
+            throws IOException {
+        write(channel, ByteBuffer.wrap(SIGNATURE));
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height);
+        //8 bits per channel, RGBA, deflate, adaptive filtering, no interlace
+        header.put((byte) 8).put((byte) 6).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(channel, "IHDR", header.array(), 0, 13);
+
+        int stripRows = Math.max(1, mStripBytes / (1 + width * 4));
+        if (mExecutor == null){
+            encodeSerial(source, width, height, stripRows, channel);
+        } else {
+            encodeParallel(source, width, height, stripRows, channel);
+        }
+        writeChunk(channel, "IEND", new byte[0], 0, 0);
+    }
+
+    private void encodeParallel(PixelSource source, int width, int height, int stripRows,
+            WritableByteChannel channel) throws IOException {
+        //zlib header: deflate with a 32 KB window, no preset dictionary
+        writeChunk(channel, "IDAT", new byte[] {0x78, (byte) 0x9C}, 0, 2);
+        ArrayDeque<Future<Strip>> pending = new ArrayDeque<Future<Strip>>();
+        long adler = 1;
+        int[] previous = null;
+        int previousRows = 0;
+        try {
+            for (int top = 0; top < height; top += stripRows){
+                int rows = Math.min(stripRows, height - top);
+                int[] pixels = new int[rows * width];
+                source.readRows(top, rows, pixels);
+                pending.add(mExecutor.submit(new StripTask(pixels, rows, previous, previousRows,
+                        width, top + rows == height)));
+                previous = pixels;
+                previousRows = rows;
+                while (pending.size() > mMaxPending){
+                    adler = writeStrip(channel, pending.poll(), adler);
+                }
+            }
+            while (!pending.isEmpty()){
+                adler = writeStrip(channel, pending.poll(), adler);
+            }
+        } finally {
+            for (Future<Strip> future : pending){
+                future.cancel(true);
+            }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) adler);
+        writeChunk(channel, "IDAT", trailer.array(), 0, 4);
+    }
+
+    /**
+     * Wait for a strip, write it and return the checksum of the stream so far
+     */
+    private long writeStrip(WritableByteChannel channel, Future<Strip> future, long adler)
+            throws IOException {
+        if (future instanceof RunnableFuture){
+            //a strip the executor did not start yet is deflated on the calling thread
+            ((RunnableFuture<?>) future).run();
+        }
+        Strip strip;
+        try {
+            strip = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        writeChunk(channel, "IDAT", strip.data, 0, strip.length);
+        return combineAdler(adler, strip.adler & 0xFFFFFFFFL, strip.rawLength);
+    }
+
+    private void encodeSerial(PixelSource source, int width, int height, int stripRows,
+            WritableByteChannel channel) throws IOException {
+        Deflater deflater = new Deflater(mLevel);
+        try {
+            int[] pixels = new int[stripRows * width];
+            byte[] raw = new byte[stripRows * (1 + width * 4)];
+            byte[] out = new byte[OUTPUT_BYTES];
+            for (int top = 0; top < height; top += stripRows){
+                int rows = Math.min(stripRows, height - top);
+                source.readRows(top, rows, pixels);
+                filterRows(pixels, 0, rows, width, raw, 0);
+                boolean last = top + rows == height;
+                deflater.setInput(raw, 0, rows * (1 + width * 4));
+                if (last){
+                    deflater.finish();
+                }
+                while (true){
+                    int length = deflater.deflate(out);
+                    if (length > 0){
+                        writeChunk(channel, "IDAT", out, 0, length);
+                    }
+                    if (last ? deflater.finished() : deflater.needsInput()){
+                        break;
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Convert rows of ARGB pixels into PNG rows of RGBA bytes with the Sub filter, each byte
+     * stored as its difference to the same channel of the pixel to its left
+     * @param pixels
+     * @param firstRow
+     * @param rows
+     * @param width
+     * @param out receives rows x (1 + width x 4) bytes
+     * @param offset
+     */
+    static void filterRows(int[] pixels, int firstRow, int rows, int width, byte[] out,
+            int offset){
+        for (int row = 0; row < rows; row++){
+            int p = (firstRow + row) * width;
+            out[offset++] = 1;
+            int r0 = 0;
+            int g0 = 0;
+            int b0 = 0;
+            int a0 = 0;
+            for (int x = 0; x < width; x++){
+                int color = pixels[p + x];
+                int a = color >>> 24;
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+                out[offset++] = (byte) (r - r0);
+                out[offset++] = (byte) (g - g0);
+                out[offset++] = (byte) (b - b0);
+                out[offset++] = (byte) (a - a0);
+                r0 = r;
+                g0 = g;
+                b0 = b;
+                a0 = a;
+            }
+        }
+    }
+
+    /**
+     * Get the Adler-32 of two byte sequences joined, from the checksum of each
+     * @param adler1 checksum of the first sequence
+     * @param adler2 checksum of the second sequence
+     * @param length2 length of the second sequence
+     * @return long
+     */
+    static long combineAdler(long adler1, long adler2, long length2){
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        sum1 %= ADLER_BASE;
+        sum2 %= ADLER_BASE;
+        return (sum2 << 16) | sum1;
+    }
+
+    private void writeChunk(WritableByteChannel channel, String type, byte[] data, int offset,
+            int length) throws IOException {
+        mChunkHeader.clear();
+        mChunkHeader.putInt(length);
+        for (int i = 0; i < 4; i++){
+            mChunkHeader.put((byte) type.charAt(i));
+        }
+        mCrc.reset();
+        mCrc.update(mChunkHeader.array(), 4, 4);
+        mCrc.update(data, offset, length);
+        mChunkCrc.clear();
+        mChunkCrc.putInt((int) mCrc.getValue());
+        mChunkHeader.flip();
+        mChunkCrc.flip();
+        write(channel, mChunkHeader);
+        write(channel, ByteBuffer.wrap(data, offset, length));
+        write(channel, mChunkCrc);
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Header and tile index of a raw canvas snapshot, kept apart from the bitmaps so that the
+ * format can be encoded, decoded and measured without android.graphics.
+ *
+ * Layout, big endian:
+ * <pre>
+ * int magic, int version, int width, int height, int tileSize, int tileCount
+ * tileCount x (int column, int row)
+ * padding to a multiple of PAGE_BYTES
+ * tileCount x tileSize x tileSize x 4 pixel bytes
+ * </pre>
+ */
+public class SnapshotHeader {
+    public static final int MAGIC = 0x53504332; //"SPC2"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 6 * 4;
+    public static final int INDEX_ENTRY_BYTES = 2 * 4;
+    public static final int PAGE_BYTES = 4096;
+
+    public final int width;
+    public final int height;
+    public final int tileSize;
+    public final int[] columns;
+    public final int[] rows;
+
+    public SnapshotHeader(int width, int height, int tileSize, int[] columns, int[] rows){
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public int getTileCount(){
+        return columns.length;
+    }
+
+    /**
+     * Get the size of the pixels of one tile
+     * @return int bytes
+     */
+    public int getTileBytes(){
+        return tileSize * tileSize * 4;
+    }
+
+    /**
+     * Offset of the first tile's pixels, page aligned so that mapped tiles start on a page
+     * @return int bytes
+     */
+    public int getPixelOffset(){
+        int index = HEADER_BYTES + getTileCount() * INDEX_ENTRY_BYTES;
+        return (index + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES;
+    }
+
+    /**
+     * Get the size of a snapshot with this header
+     * @return long bytes
+     */
+    public long getFileBytes(){
+        return getPixelOffset() + (long) getTileCount() * getTileBytes();
+    }
+
+    /**
+     * Encode the header, the index and the padding up to the pixels
+     * @return ByteBuffer positioned at 0, getPixelOffset() bytes long
+     */
+    public ByteBuffer encode(){
+        int count = getTileCount();
+        ByteBuffer header = ByteBuffer.allocate(getPixelOffset()).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                .putInt(tileSize).putInt(count);
+        for (int i = 0; i < count; i++){
+            header.putInt(columns[i]).putInt(rows[i]);
+        }
+        header.rewind();
+        return header;
+    }
+
+    /**
+     * Decode the header and index at the start of the buffer
+     * @param buffer a whole snapshot, read from its current position
+     * @param tileSize the tile size the caller expects
+     * @return SnapshotHeader
+     * @throws IOException if the buffer does not hold a complete snapshot of this format
+     */
+    public static SnapshotHeader decode(ByteBuffer buffer, int tileSize) throws IOException {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC
+                || buffer.getInt() != VERSION){
+            throw new IOException("Not a canvas snapshot");
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int size = buffer.getInt();
+        int count = buffer.getInt();
+        if (size != tileSize || count < 0
+                || buffer.remaining() < (long) count * INDEX_ENTRY_BYTES){
+            throw new IOException("Unexpected canvas snapshot layout");
+        }
+        int[] columns = new int[count];
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++){
+            columns[i] = buffer.getInt();
+            rows[i] = buffer.getInt();
+        }
+        SnapshotHeader header = new SnapshotHeader(width, height, size, columns, rows);
+        if (buffer.capacity() < header.getFileBytes()){
+            throw new IOException("Truncated canvas snapshot");
+        }
+        return header;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a stroke file written by StrokeFileWriter one command at a time, straight from a
+ * channel. Only the bytes of the current record have to be read before it is returned, so a
+ * caller can draw the first strokes while the rest of the file is still arriving. The values
+ * of the current record are valid until the next call to next().
+ */
+public class StrokeFileReader {
+    private final ReadableByteChannel mChannel;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(StrokeFileWriter.BUFFER_BYTES)
+            .order(ByteOrder.BIG_ENDIAN);
+    private boolean mEndOfStream;
+
+    private final int mVersion;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mPalette;
+
+    //current record
+    private int mType;
+    private int mLayer;
+    private int mBrushType;
+    private int mColor;
+    private float mStrokeWidth;
+    private float[] mPoints = new float[256];
+    private int mPointCount;
+    private float[] mPointWidths = new float[128];
+    private boolean mHasPointWidths;
+
+    /**
+     * Read the header of a drawing
+     * @param channel
+     * @throws IOException if the channel does not start with a stroke file of a known version
+     */
+    public StrokeFileReader(ReadableByteChannel channel) throws IOException {
+        mChannel = channel;
+        mBuffer.flip();
+        fill(4 + 4 * StrokeFileWriter.MAX_VARINT_BYTES);
+        if (mBuffer.remaining() < 4 || mBuffer.getInt() != StrokeFileWriter.MAGIC){
+            throw new IOException("Not a stroke file");
+        }
+        mVersion = getVarint();
+        if (mVersion < 1 || mVersion > StrokeFileWriter.VERSION){
+            throw new IOException("Unsupported stroke file version " + mVersion);
+        }
+        mWidth = getVarint();
+        mHeight = getVarint();
+        int paletteSize = getVarint();
+        if (paletteSize < 0 || paletteSize > StrokeFileWriter.MAX_PALETTE_SIZE){
+            throw new IOException("Malformed stroke file");
+        }
+        fill(paletteSize * 4);
+        if (mBuffer.remaining() < paletteSize * 4){
+            throw new IOException("Truncated stroke file");
+        }
+        mPalette = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++){
+            mPalette[i] = mBuffer.getInt();
+        }
+    }
+
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getHeight(){
+        return mHeight;
+    }
+
+    public int[] getPalette(){
+        return mPalette;
+    }
+
+    /**
+     * Read the next command, waiting only for its own bytes
+     * @return false at the end of the file
+     * @throws IOException if the file ends in the middle of a command or a command is
+     * malformed, larger than StrokeFileWriter.MAX_RECORD_BYTES or in a layer out of range
+     */
+    public boolean next() throws IOException {
+        fill(StrokeFileWriter.MAX_VARINT_BYTES);
+        if (!mBuffer.hasRemaining()){
+            return false;
+        }
+        int length = getVarint();
+        if (length < 0 || length > StrokeFileWriter.MAX_RECORD_BYTES){
+            throw new IOException("Malformed stroke file");
+        }
+        fill(length);
+        if (mBuffer.remaining() < length){
+            throw new IOException("Truncated stroke file");
+        }
+        int end = mBuffer.position() + length;
+        int limit = mBuffer.limit();
+        //a malformed record cannot read into the next one
+        mBuffer.limit(end);
+        try {
+            readRecord();
+        } finally {
+            mBuffer.limit(limit);
+        }
+        if (mBuffer.position() != end){
+            throw new IOException("Malformed stroke file");
+        }
+        return true;
+    }
+
+    public int getType(){
+        return mType;
+    }
+
+    public int getLayer(){
+        return mLayer;
+    }
+
+    /**
+     * Get the brush type of the current command, 0 in files written before brushes
+     * @return int
+     */
+    public int getBrushType(){
+        return mBrushType;
+    }
+
+    public int getColor(){
+        return mColor;
+    }
+
+    public float getStrokeWidth(){
+        return mStrokeWidth;
+    }
+
+    public int getPointCount(){
+        return mPointCount;
+    }
+
+    /**
+     * Get the packed x, y pairs of the current command. The array is reused by the next
+     * command and only the first getPointCount() pairs are valid
+     * @return float[]
+     */
+    public float[] getPoints(){
+        return mPoints;
+    }
+
+    /**
+     * Get the width at each point of the current command if it is a variable-width stroke.
+     * The array is reused by the next command and only the first getPointCount() widths are
+     * valid
+     * @return float[], or null for a fixed-width command
+     */
+    public float[] getPointWidths(){
+        return mHasPointWidths ? mPointWidths : null;
+    }
+
+    private void readRecord() throws IOException {
+        if (!mBuffer.hasRemaining()){
+            throw new IOException("Malformed stroke file");
+        }
+        mType = mBuffer.get();
+        mLayer = getVarint();
+        if (mLayer < 0 || mLayer >= StrokeFileWriter.MAX_LAYERS){
+            throw new IOException("Layer out of range");
+        }
+        mBrushType = mVersion >= 2 ? getVarint() : 0;
+        int color = getVarint();
+        if (color == 0){
+            if (mBuffer.remaining() < 4){
+                throw new IOException("Malformed stroke file");
+            }
+            mColor = mBuffer.getInt();
+        } else if (color <= mPalette.length){
+            mColor = mPalette[color - 1];
+        } else {
+            throw new IOException("Color outside the palette");
+        }
+        mStrokeWidth = (float) getVarint() / StrokeFileWriter.WIDTH_SCALE;
+        mPointCount = getVarint();
+        //every point takes at least two bytes
+        if (mPointCount < 0 || mPointCount > mBuffer.remaining() / 2){
+            throw new IOException("Malformed stroke file");
+        }
+        if (mPoints.length < mPointCount * 2){
+            mPoints = Arrays.copyOf(mPoints, Math.max(mPointCount * 2, mPoints.length * 2));
+        }
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < mPointCount; i++){
+            x += unzigzag(getVarint());
+            y += unzigzag(getVarint());
+            mPoints[i * 2] = (float) x / StrokeFileWriter.COORDINATE_SCALE;
+            mPoints[i * 2 + 1] = (float) y / StrokeFileWriter.COORDINATE_SCALE;
+        }
+        int widthCount = mVersion >= 3 ? getVarint() : 0;
+        if (widthCount != 0 && widthCount != mPointCount){
+            throw new IOException("Malformed stroke file");
+        }
+        mHasPointWidths = widthCount > 0;
+        if (mPointWidths.length < widthCount){
+            mPointWidths = Arrays.copyOf(mPointWidths,
+                    Math.max(widthCount, mPointWidths.length * 2));
+        }
+        for (int i = 0; i < widthCount; i++){
+            mPointWidths[i] = (float) getVarint() / StrokeFileWriter.WIDTH_SCALE;
+        }
+    }
+
+    /**
+     * Read from the channel until the given number of bytes is buffered or the stream ends,
+     * growing the buffer for records larger than it
+     * @param bytes
+     * @throws IOException
+     */
+    private void fill(int bytes) throws IOException {
+        if (mBuffer.remaining() >= bytes || mEndOfStream){
+            return;
+        }
+        if (mBuffer.capacity() < bytes){
+            ByteBuffer larger = ByteBuffer.allocate(bytes).order(ByteOrder.BIG_ENDIAN);
+            larger.put(mBuffer);
+            mBuffer = larger;
+        } else {
+            mBuffer.compact();
+        }
+        while (mBuffer.position() < bytes){
+            if (mChannel.read(mBuffer) < 0){
+                mEndOfStream = true;
+                break;
+            }
+        }
+        mBuffer.flip();
+    }
+
+    /**
+     * Get an unsigned value written by StrokeFileWriter.putVarint
+     * @return int
+     * @throws IOException if the buffered bytes end inside the value
+     */
+    private int getVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7){
+            if (!mBuffer.hasRemaining()){
+                throw new IOException("Truncated stroke file");
+            }
+            int b = mBuffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed stroke file");
+    }
+
+    static int unzigzag(int value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Writes the commands of a drawing in the compact stroke file format, streaming them to a
+ * channel through a fixed buffer. Point coordinates are stored as zig-zag varint deltas in
+ * 1/COORDINATE_SCALE pixels, so a point of a stroke usually takes two or three bytes, and
+ * colors of the palette take a single byte. Every record is prefixed with its length, which
+ * lets StrokeFileReader hand out each command as soon as its bytes arrive.
+ *
+ * Layout, big endian:
+ * <pre>
+ * int magic, varint version, varint width, varint height
+ * varint paletteSize, paletteSize x int color
+ * until the end of the file, one record per command:
+ *   varint length of the rest of the record
+ *   byte type, varint layer, varint brush type (since version 2, 0 before)
+ *   varint color: palette index + 1, or 0 followed by int color
+ *   varint width x WIDTH_SCALE, varint pointCount
+ *   pointCount x (varint zigzag(dx), varint zigzag(dy)), each point relative to the one
+ *   before it and the first to 0, 0
+ *   since version 3: varint widthCount, 0 or pointCount for a variable-width stroke,
+ *   widthCount x varint width x WIDTH_SCALE
+ * </pre>
+ */
+public class StrokeFileWriter {
+    public static final int MAGIC = 0x53505331; //"SPS1"
+    public static final int VERSION = 3;
+    //coordinates are rounded to 1/16 of a pixel and widths to 1/16 of a pixel
+    public static final int COORDINATE_SCALE = 16;
+    public static final int WIDTH_SCALE = 16;
+    //palette indices are stored in one byte, next to 0 for colors outside the palette
+    public static final int MAX_PALETTE_SIZE = 127;
+    //a reader refuses larger records and higher layer indices, so that a corrupt file cannot
+    //make it allocate without bound
+    public static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+    public static final int MAX_LAYERS = 32;
+
+    static final int MAX_VARINT_BYTES = 5;
+    static final int BUFFER_BYTES = 64 * 1024;
+    //type, layer, brush type, color, width, point count and width count of a record
+    private static final int RECORD_HEADER_BYTES = 1 + 6 * MAX_VARINT_BYTES + 4;
+
+    private final WritableByteChannel mChannel;
+    private final int[] mPalette;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_BYTES)
+            .order(ByteOrder.BIG_ENDIAN);
+    //encoded record waiting for its length prefix, grown for long strokes
+    private ByteBuffer mRecord = ByteBuffer.allocate(1024).order(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Write the header of a drawing
+     * @param channel
+     * @param width of the document in pixels
+     * @param height
+     * @param palette colors stored as one byte indices, at most MAX_PALETTE_SIZE are used
+     * @throws IOException
+     */
+    public StrokeFileWriter(WritableByteChannel channel, int width, int height, int[] palette)
+            throws IOException {
+        mChannel = channel;
+        mPalette = Arrays.copyOf(palette, Math.min(palette.length, MAX_PALETTE_SIZE));
+        mBuffer.putInt(MAGIC);
+        putVarint(mBuffer, VERSION);
+        putVarint(mBuffer, width);
+        putVarint(mBuffer, height);
+        putVarint(mBuffer, mPalette.length);
+        for (int color : mPalette){
+            mBuffer.putInt(color);
+        }
+    }
+
+    /**
+     * Append one command
+     * @param type type of the command, stored as is
+     * @param layer index of the layer it belongs to
+     * @param brushType brush the stroke is drawn with, 0 for a plain stroke
+     * @param color
+     * @param width stroke width, or any other non-negative value the command keeps there
+     * @param points packed x, y pairs
+     * @param pointCount
+     * @throws IOException
+     */
+    public void write(int type, int layer, int brushType, int color, float width,
+            float[] points, int pointCount) throws IOException {
+        write(type, layer, brushType, color, width, points, null, pointCount);
+    }
+
+    /**
+     * Append one command with a width at each of its points
+     * @param type type of the command, stored as is
+     * @param layer index of the layer it belongs to, below MAX_LAYERS
+     * @param brushType brush the stroke is drawn with, 0 for a plain stroke
+     * @param color
+     * @param width stroke width, or any other non-negative value the command keeps there
+     * @param points packed x, y pairs
+     * @param widths width at each point, or null for a fixed-width command
+     * @param pointCount
+     * @throws IOException if the command cannot be read back, its layer is out of range or
+     * it takes more than MAX_RECORD_BYTES
+     */
+    public void write(int type, int layer, int brushType, int color, float width,
+            float[] points, float[] widths, int pointCount) throws IOException {
+        if (layer < 0 || layer >= MAX_LAYERS){
+            throw new IOException("Layer out of range: " + layer);
+        }
+        int capacity = RECORD_HEADER_BYTES + pointCount * 3 * MAX_VARINT_BYTES;
+        if (mRecord.capacity() < capacity){
+            mRecord = ByteBuffer.allocate(capacity).order(ByteOrder.BIG_ENDIAN);
+        }
+        mRecord.clear();
+        mRecord.put((byte) type);
+        putVarint(mRecord, layer);
+        putVarint(mRecord, brushType);
+        int index = paletteIndex(color);
+        putVarint(mRecord, index + 1);
+        if (index < 0){
+            mRecord.putInt(color);
+        }
+        putVarint(mRecord, Math.round(width * WIDTH_SCALE));
+        putVarint(mRecord, pointCount);
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < pointCount; i++){
+            int x = Math.round(points[i * 2] * COORDINATE_SCALE);
+            int y = Math.round(points[i * 2 + 1] * COORDINATE_SCALE);
+            putVarint(mRecord, zigzag(x - lastX));
+            putVarint(mRecord, zigzag(y - lastY));
+            lastX = x;
+            lastY = y;
+        }
+        if (widths == null){
+            putVarint(mRecord, 0);
+        } else {
+            putVarint(mRecord, pointCount);
+            for (int i = 0; i < pointCount; i++){
+                putVarint(mRecord, Math.round(widths[i] * WIDTH_SCALE));
+            }
+        }
+        mRecord.flip();
+        if (mRecord.remaining() > MAX_RECORD_BYTES){
+            throw new IOException("Command too large: " + mRecord.remaining() + " bytes");
+        }
+
+        if (mBuffer.remaining() < MAX_VARINT_BYTES + mRecord.remaining()){
+            flush();
+        }
+        putVarint(mBuffer, mRecord.remaining());
+        if (mBuffer.remaining() < mRecord.remaining()){
+            //larger than the buffer, write it straight through
+            flush();
+            while (mRecord.hasRemaining()){
+                mChannel.write(mRecord);
+            }
+        } else {
+            mBuffer.put(mRecord);
+        }
+    }
+
+    /**
+     * Write out the buffered records. The channel is left open
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()){
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    private int paletteIndex(int color){
+        for (int i = 0; i < mPalette.length; i++){
+            if (mPalette[i] == color){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Map a signed value to an unsigned one with small magnitudes staying small
+     * @param value
+     * @return int
+     */
+    static int zigzag(int value){
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Put an unsigned value seven bits per byte, least significant group first
+     * @param buffer
+     * @param value
+     */
+    static void putVarint(ByteBuffer buffer, int value){
+        while ((value & ~0x7F) != 0){
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.util.Arrays;
+
+/**
+ * Mesh covering a variable-width stroke, drawn with Canvas.drawVertices. The smoothed curve of
+ * the stroke is flattened into short lines and every line end gets a row of four vertices
+ * across the curve: an outer and an inner vertex to either side. The inner vertices lie half a
+ * feather inside the edge of the stroke and carry its color, the outer ones half a feather
+ * outside with no alpha, so the alpha fades out across the edge the way antialiasing would
+ * fade it. The rows follow the width as it changes. Joins are mitered and both ends get a
+ * round cap, made of rows across the half circle that narrow down to its pole.
+ *
+ * Consecutive rows are joined by three quads, the fringe on either side and the body between
+ * them, and the triangles of any run of rows come from one index pattern shared by every mesh.
+ * The triangles of adjacent rows share their edges, so runs of rows drawn one after the other
+ * meet without a seam.
+ *
+ * The mesh is built incrementally: a new segment appends its rows and only moves the row at
+ * the join it makes with the segment before it. All rows except the last one are therefore
+ * stable, and can be drawn into the canvas and dropped with commit(), leaving a short live run
+ * that is cheap to draw every frame. The vertex array is reused and only grows to the longest
+ * live run.
+ */
+public class StrokeMesh implements StrokeSmoother.PathSink {
+    //joins are mitered up to this multiple of half the width, the farthest the edge gets from
+    //the curve
+    public static final float MITER_LIMIT = 2f;
+    //width of the fringe the alpha fades out over, centered on the edge, in pixels
+    public static final float FEATHER = 1f;
+    public static final int VERTICES_PER_ROW = 4;
+    //most rows one draw can take, so that every index fits into a short
+    public static final int MAX_DRAW_ROWS = 1024;
+    //indices of the triangles between two rows
+    public static final int INDICES_PER_ROW = 18;
+
+    //maximum distance of the flattened polyline from the curve, in pixels
+    private static final float FLATNESS = 0.25f;
+    private static final int MAX_CURVE_SEGMENTS = 16;
+    //lines of the half circle of a round cap
+    static final int CAP_SEGMENTS = 8;
+    //rows of a cap besides the row at the end of the stroke, down to its pole
+    static final int CAP_ROWS = CAP_SEGMENTS / 2;
+    //segments shorter than this have no direction and only update the width
+    private static final float MIN_SEGMENT_LENGTH = 1e-3f;
+
+    private static short[] sIndices;
+
+    //x, y pairs, VERTICES_PER_ROW vertices for every row, from the outer left to the outer
+    //right
+    private float[] mVertices = new float[256];
+    //share of the color the inner vertices of each row carry, less than 1 where the stroke is
+    //thinner than the feather
+    private float[] mCoverage = new float[32];
+    private int mRowCount;
+    //width at the end of the next segments
+    private float mWidth = 1;
+    //end of the last segment and the width there
+    private float mPenX;
+    private float mPenY;
+    private float mPenWidth;
+    //unit normal of the last segment, to the left of its direction
+    private float mNormalX;
+    private float mNormalY;
+    private boolean mHasSegment;
+    private boolean mEnded;
+
+    /**
+     * Set the width the stroke has at the end of the segments added after this call. The
+     * width changes linearly along each segment
+     * @param width
+     */
+    public void setWidth(float width){
+        mWidth = width;
+    }
+
+    public float getWidth(){
+        return mWidth;
+    }
+
+    /**
+     * Start a new stroke at the point, dropping every row
+     * @param x
+     * @param y
+     */
+    @Override
+    public void moveTo(float x, float y){
+        mRowCount = 0;
+        mPenX = x;
+        mPenY = y;
+        mPenWidth = mWidth;
+        mHasSegment = false;
+        mEnded = false;
+    }
+
+    @Override
+    public void lineTo(float x, float y){
+        addSegment(x, y, mWidth);
+    }
+
+    @Override
+    public void quadTo(float controlX, float controlY, float x, float y){
+        float x0 = mPenX;
+        float y0 = mPenY;
+        float width0 = mPenWidth;
+        //the distance of the chords from the curve falls with the square of their number
+        float ddx = x0 - 2 * controlX + x;
+        float ddy = y0 - 2 * controlY + y;
+        float deviation = (float) Math.sqrt(ddx * ddx + ddy * ddy);
+        int segments = Math.max(1, Math.min(MAX_CURVE_SEGMENTS,
+                (int) Math.ceil(Math.sqrt(deviation / (4 * FLATNESS)))));
+        for (int i = 1; i < segments; i++){
+            float t = (float) i / segments;
+            float u = 1 - t;
+            addSegment(u * u * x0 + 2 * u * t * controlX + t * t * x,
+                    u * u * y0 + 2 * u * t * controlY + t * t * y,
+                    width0 + (mWidth - width0) * t);
+        }
+        addSegment(x, y, mWidth);
+    }
+
+    /**
+     * Close the stroke with a round cap at its end. The whole mesh is stable afterwards
+     */
+    public void end(){
+        if (mHasSegment && !mEnded){
+            //the cap bulges forward, which is to the right of the left normal
+            appendCap(mPenX, mPenY, mPenWidth / 2, mNormalY, -mNormalX, false);
+        }
+        mEnded = true;
+    }
+
+    /**
+     * Build the mesh of a whole stroke, the same mesh a live stroke gets when the points and
+     * widths are fed to it through StrokeSmoother with the width of each curve set to the
+     * mean of the widths of its end samples
+     * @param points x, y pairs
+     * @param widths width at each point
+     * @param count number of points
+     */
+    public void build(float[] points, float[] widths, int count){
+        if (count == 0){
+            mRowCount = 0;
+            mHasSegment = false;
+            mEnded = true;
+            return;
+        }
+        setWidth(widths[0]);
+        moveTo(points[0], points[1]);
+        for (int i = 1; i < count; i++){
+            float lastX = points[i * 2 - 2];
+            float lastY = points[i * 2 - 1];
+            setWidth((widths[i - 1] + widths[i]) / 2);
+            quadTo(lastX, lastY, (lastX + points[i * 2]) / 2, (lastY + points[i * 2 + 1]) / 2);
+        }
+        setWidth(widths[count - 1]);
+        if (count > 1){
+            lineTo(points[count * 2 - 2], points[count * 2 - 1]);
+        }
+        end();
+    }
+
+    /**
+     * Get the vertices, x, y pairs, VERTICES_PER_ROW of them for each row: the outer left, the
+     * inner left, the inner right and the outer right one. Only the vertices of the first
+     * getRowCount() rows are valid
+     * @return float[]
+     */
+    public float[] getVertices(){
+        return mVertices;
+    }
+
+    /**
+     * Get the share of the color of the stroke the inner vertices of each row carry, the
+     * outer ones carry none. Only the first getRowCount() values are valid
+     * @return float[] 1 unless the stroke is thinner than the feather there
+     */
+    public float[] getCoverage(){
+        return mCoverage;
+    }
+
+    /**
+     * Get the number of rows
+     * @return int
+     */
+    public int getRowCount(){
+        return mRowCount;
+    }
+
+    /**
+     * Get the number of leading rows that no later segment will move: all of them once the
+     * stroke ended, and all but the last one before that
+     * @return int
+     */
+    public int getStableRowCount(){
+        return mEnded ? mRowCount : Math.max(0, mRowCount - 1);
+    }
+
+    /**
+     * Drop the stable rows once they are drawn, except for the last stable one, which the rest
+     * of the mesh continues from
+     */
+    public void commit(){
+        int keep = mRowCount - getStableRowCount() + 1;
+        if (keep >= mRowCount){
+            return;
+        }
+        int first = mRowCount - keep;
+        System.arraycopy(mVertices, first * VERTICES_PER_ROW * 2, mVertices, 0,
+                keep * VERTICES_PER_ROW * 2);
+        System.arraycopy(mCoverage, first, mCoverage, 0, keep);
+        mRowCount = keep;
+    }
+
+    /**
+     * Get the indices of the triangles between consecutive rows, for up to MAX_DRAW_ROWS rows
+     * whose vertices start at the first index. The first (rows - 1) * INDICES_PER_ROW indices
+     * cover a run of rows, so every mesh draws from this one array
+     * @return short[] triangles as triples of vertex indices
+     */
+    public static synchronized short[] getIndices(){
+        if (sIndices == null){
+            short[] indices = new short[(MAX_DRAW_ROWS - 1) * INDICES_PER_ROW];
+            int n = 0;
+            for (int row = 0; row + 1 < MAX_DRAW_ROWS; row++){
+                int top = row * VERTICES_PER_ROW;
+                int bottom = top + VERTICES_PER_ROW;
+                //the left fringe, the body and the right fringe
+                for (int i = 0; i + 1 < VERTICES_PER_ROW; i++){
+                    indices[n++] = (short) (top + i);
+                    indices[n++] = (short) (top + i + 1);
+                    indices[n++] = (short) (bottom + i);
+                    indices[n++] = (short) (top + i + 1);
+                    indices[n++] = (short) (bottom + i + 1);
+                    indices[n++] = (short) (bottom + i);
+                }
+            }
+            sIndices = indices;
+        }
+        return sIndices;
+    }
+
+    /**
+     * Emit the body of the mesh between two rows as closed triangles, all wound the same way so
+     * that overlapping ones add up under the winding fill rule. The corners lie between the
+     * inner and the outer vertices, on the edge of the stroke, so the triangles can be filled
+     * as one antialiased path where a canvas cannot draw vertices
+     * @param start first row
+     * @param end exclusive
+     * @param sink
+     */
+    public void triangles(int start, int end, StrokeSmoother.PathSink sink){
+        float[] v = mVertices;
+        for (int row = start; row + 1 < end; row++){
+            int top = row * VERTICES_PER_ROW * 2;
+            int bottom = top + VERTICES_PER_ROW * 2;
+            //halfway across the feather, or at the width of a row thinner than the feather,
+            //whose inner vertices sit on its center
+            float topShare = mCoverage[row] / (mCoverage[row] + 1);
+            float bottomShare = mCoverage[row + 1] / (mCoverage[row + 1] + 1);
+            float leftTopX = edge(v[top + 2], v[top], topShare);
+            float leftTopY = edge(v[top + 3], v[top + 1], topShare);
+            float rightTopX = edge(v[top + 4], v[top + 6], topShare);
+            float rightTopY = edge(v[top + 5], v[top + 7], topShare);
+            float leftBottomX = edge(v[bottom + 2], v[bottom], bottomShare);
+            float leftBottomY = edge(v[bottom + 3], v[bottom + 1], bottomShare);
+            float rightBottomX = edge(v[bottom + 4], v[bottom + 6], bottomShare);
+            float rightBottomY = edge(v[bottom + 5], v[bottom + 7], bottomShare);
+            triangle(leftTopX, leftTopY, rightTopX, rightTopY, leftBottomX, leftBottomY, sink);
+            triangle(rightTopX, rightTopY, rightBottomX, rightBottomY, leftBottomX, leftBottomY,
+                    sink);
+        }
+    }
+
+    private static float edge(float inner, float outer, float share){
+        return inner + (outer - inner) * share;
+    }
+
+    /**
+     * Emit a closed triangle wound counterclockwise
+     */
+    private static void triangle(float ax, float ay, float bx, float by, float cx, float cy,
+            StrokeSmoother.PathSink sink){
+        float cross = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        sink.moveTo(ax, ay);
+        if (cross < 0){
+            sink.lineTo(cx, cy);
+            sink.lineTo(bx, by);
+        } else {
+            sink.lineTo(bx, by);
+            sink.lineTo(cx, cy);
+        }
+    }
+
+    /**
+     * Extend the mesh with a line from the pen to the point, widening or narrowing to the
+     * given width along it
+     */
+    private void addSegment(float x, float y, float width){
+        float dx = x - mPenX;
+        float dy = y - mPenY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length < MIN_SEGMENT_LENGTH || mEnded){
+            mPenWidth = width;
+            return;
+        }
+        float normalX = -dy / length;
+        float normalY = dx / length;
+        float half = mPenWidth / 2;
+        if (!mHasSegment){
+            //the start cap bulges backwards and ends with the first row
+            appendCap(mPenX, mPenY, half, -normalY, normalX, true);
+            appendRow(mPenX, mPenY, normalX, normalY, half);
+            mHasSegment = true;
+        } else {
+            //move the last row onto the miter between the two segments
+            float miterX = mNormalX + normalX;
+            float miterY = mNormalY + normalY;
+            float miterLength = (float) Math.sqrt(miterX * miterX + miterY * miterY);
+            if (miterLength < MIN_SEGMENT_LENGTH){
+                //the stroke turns back on itself
+                miterX = normalX;
+                miterY = normalY;
+            } else {
+                float cosine = (miterX * normalX + miterY * normalY) / miterLength;
+                //stretched so that the edge and the fringe keep their distance from the curve
+                float stretch = Math.min(MITER_LIMIT, 1 / cosine) / miterLength;
+                miterX *= stretch;
+                miterY *= stretch;
+            }
+            mRowCount--;
+            appendRow(mPenX, mPenY, miterX, miterY, half);
+        }
+        appendRow(x, y, normalX, normalY, width / 2);
+        mNormalX = normalX;
+        mNormalY = normalY;
+        mPenX = x;
+        mPenY = y;
+        mPenWidth = width;
+    }
+
+    /**
+     * Append a row across the stroke
+     * @param x center of the row
+     * @param y
+     * @param leftX direction to the left side, of unit length unless stretched by a miter
+     * @param leftY
+     * @param half distance of the edge from the center along the direction
+     */
+    private void appendRow(float x, float y, float leftX, float leftY, float half){
+        if ((mRowCount + 1) * VERTICES_PER_ROW * 2 > mVertices.length){
+            mVertices = Arrays.copyOf(mVertices, mVertices.length * 2);
+        }
+        if (mRowCount == mCoverage.length){
+            mCoverage = Arrays.copyOf(mCoverage, mCoverage.length * 2);
+        }
+        float inner = Math.max(0, half - FEATHER / 2);
+        float outer = half + FEATHER / 2;
+        int i = mRowCount * VERTICES_PER_ROW * 2;
+        mVertices[i] = x + leftX * outer;
+        mVertices[i + 1] = y + leftY * outer;
+        mVertices[i + 2] = x + leftX * inner;
+        mVertices[i + 3] = y + leftY * inner;
+        mVertices[i + 4] = x - leftX * inner;
+        mVertices[i + 5] = y - leftY * inner;
+        mVertices[i + 6] = x - leftX * outer;
+        mVertices[i + 7] = y - leftY * outer;
+        //a stroke thinner than the feather covers the pixels under it only in part
+        mCoverage[mRowCount] = Math.min(1, 2 * half / FEATHER);
+        mRowCount++;
+    }
+
+    /**
+     * Append the rows of a half circle at a line end, bulging in the given direction. Each
+     * row is a chord of the circle parallel to the row at the line end, from the one next to
+     * it out to the pole, where the row has no width. A start cap runs the other way, from the
+     * pole in to the row next to the line end, which the caller appends
+     * @param x
+     * @param y
+     * @param radius
+     * @param directionX unit vector towards the pole
+     * @param directionY
+     * @param start
+     */
+    private void appendCap(float x, float y, float radius, float directionX, float directionY,
+            boolean start){
+        //the left side is the direction turned by a quarter clockwise, or counterclockwise for
+        //a start cap, which points backwards
+        float leftX = start ? directionY : -directionY;
+        float leftY = start ? -directionX : directionX;
+        for (int i = 1; i <= CAP_ROWS; i++){
+            int step = start ? CAP_ROWS + 1 - i : i;
+            double angle = Math.PI / 2 * step / CAP_ROWS;
+            float ahead = (float) Math.sin(angle) * radius;
+            float half = (float) Math.cos(angle) * radius;
+            appendRow(x + directionX * ahead, y + directionY * ahead, leftX, leftY, half);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Extrapolates where the pointer will be a few milliseconds after its last touch sample, from
+ * the velocity and acceleration of the last three samples. The predicted point is drawn as a
+ * tail of the live stroke and replaced as soon as real samples arrive.
+ *
+ * Every prediction is checked against the samples that follow it. The part of the horizon the
+ * prediction got right, scaled by how far it missed relative to the distance actually moved,
+ * is recorded as the latency the tail took off the stroke.
+ */
+public class StrokePredictor {
+    public static final float DEFAULT_HORIZON = 16f;
+
+    //last three samples, index 2 is the newest
+    private final float[] mX = new float[3];
+    private final float[] mY = new float[3];
+    private final long[] mTime = new long[3];
+    private int mCount;
+
+    //motion model of the last prediction, relative to the newest sample at that time
+    private boolean mPredicting;
+    private float mOriginX;
+    private float mOriginY;
+    private long mOriginTime;
+    private float mVelocityX;
+    private float mVelocityY;
+    private float mAccelerationX;
+    private float mAccelerationY;
+    private float mHorizon;
+
+    //receives the measured latency reduction in microseconds, may be null
+    private final LatencyHistogram mReduction;
+
+    /**
+     * @param reduction receives the measured latency reduction of every prediction, may be null
+     */
+    public StrokePredictor(LatencyHistogram reduction){
+        mReduction = reduction;
+    }
+
+    /**
+     * Forget the samples of the previous stroke
+     */
+    public void reset(){
+        mCount = 0;
+        mPredicting = false;
+    }
+
+    /**
+     * Add a real sample. The last prediction is measured against it
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     */
+    public void add(float x, float y, long time){
+        if (mPredicting && time > mOriginTime){
+            measure(x, y, time);
+        }
+        if (mCount > 0 && time <= mTime[2]){
+            //same timestamp, keep the newest position only
+            mX[2] = x;
+            mY[2] = y;
+            return;
+        }
+        mX[0] = mX[1];
+        mY[0] = mY[1];
+        mTime[0] = mTime[1];
+        mX[1] = mX[2];
+        mY[1] = mY[2];
+        mTime[1] = mTime[2];
+        mX[2] = x;
+        mY[2] = y;
+        mTime[2] = time;
+        mCount = Math.min(mCount + 1, 3);
+    }
+
+    /**
+     * Predict the position of the pointer after the newest sample
+     * @param horizon milliseconds after the newest sample
+     * @param out receives the predicted x, y
+     * @return false if there are not enough samples to predict
+     */
+    public boolean predict(float horizon, float[] out){
+        if (mCount < 2){
+            mPredicting = false;
+            return false;
+        }
+        float dt = mTime[2] - mTime[1];
+        mVelocityX = (mX[2] - mX[1]) / dt;
+        mVelocityY = (mY[2] - mY[1]) / dt;
+        mAccelerationX = 0;
+        mAccelerationY = 0;
+        if (mCount == 3){
+            float previousDt = mTime[1] - mTime[0];
+            float interval = (mTime[2] - mTime[0]) / 2f;
+            mAccelerationX = (mVelocityX - (mX[1] - mX[0]) / previousDt) / interval;
+            mAccelerationY = (mVelocityY - (mY[1] - mY[0]) / previousDt) / interval;
+            //the difference gives the velocity half an interval before the newest sample
+            mVelocityX += mAccelerationX * dt / 2;
+            mVelocityY += mAccelerationY * dt / 2;
+        }
+        mOriginX = mX[2];
+        mOriginY = mY[2];
+        mOriginTime = mTime[2];
+        mHorizon = horizon;
+        mPredicting = true;
+
+        out[0] = positionX(horizon);
+        out[1] = positionY(horizon);
+        return true;
+    }
+
+    /**
+     * Compare the last prediction with the real motion up to the new sample, at the end of the
+     * horizon or at the sample if it came earlier
+     */
+    private void measure(float x, float y, long time){
+        mPredicting = false;
+        float elapsed = time - mOriginTime;
+        float at = Math.min(elapsed, mHorizon);
+        //real position at that time, assuming straight motion from the origin to the sample
+        float fraction = at / elapsed;
+        float actualX = mOriginX + (x - mOriginX) * fraction;
+        float actualY = mOriginY + (y - mOriginY) * fraction;
+        float travel = distance(mOriginX, mOriginY, actualX, actualY);
+        if (travel == 0 || mReduction == null){
+            return;
+        }
+        float error = distance(positionX(at), positionY(at), actualX, actualY);
+        float gained = Math.max(0, 1 - error / travel);
+        mReduction.record((long) (gained * at * 1000));
+    }
+
+    /**
+     * Position of the motion model the given number of milliseconds after its origin. The
+     * acceleration term is limited to the size of the velocity term so that a sharp turn does
+     * not throw the tail far off the stroke
+     */
+    private float positionX(float dt){
+        float linear = mVelocityX * dt;
+        float accelerated = 0.5f * mAccelerationX * dt * dt;
+        return mOriginX + linear + clamp(accelerated, Math.abs(linear));
+    }
+
+    private float positionY(float dt){
+        float linear = mVelocityY * dt;
+        float accelerated = 0.5f * mAccelerationY * dt * dt;
+        return mOriginY + linear + clamp(accelerated, Math.abs(linear));
+    }
+
+    private static float clamp(float value, float limit){
+        return Math.max(-limit, Math.min(limit, value));
+    }
+
+    private static float distance(float x0, float y0, float x1, float y1){
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Software rasterizer for strokes drawn the way CustomPaintView's brush draws them: antialiased,
+ * with round caps and round joins, blended source-over into an ARGB int[] buffer holding
+ * non-premultiplied pixels, the layout of Bitmap.getPixels.
+ *
+ * The points of a stroke are smoothed with the same curve StrokeSmoother gives the live path
+ * and the curve is flattened into a polyline. The stroke is the set of pixels within half the
+ * width of the polyline, so round caps and joins come for free. It is rasterized one row at a
+ * time: every segment adds its coverage to a row buffer, keeping the largest coverage where
+ * segments overlap, and the covered span is blended once. Rows are grouped in bands so that a
+ * row only visits the segments near it. Buffers are reused between strokes,
+ * so drawing does not allocate once the polyline buffer has grown to the longest stroke.
+ */
+public class StrokeRasterizer implements StrokeSmoother.PathSink {
+    //maximum distance of the flattened polyline from the curve, in pixels
+    private static final float FLATNESS = 0.25f;
+    private static final int MAX_CURVE_SEGMENTS = 16;
+    //rows are rasterized in bands, each row only visits the segments that reach its band
+    private static final int BAND_ROWS = 16;
+
+    private final int[] mPixels;
+    private final int mWidth;
+    private final int mHeight;
+    //coverage of the current row, 0 to 255
+    private final int[] mCoverage;
+
+    //flattened curve, x, y pairs
+    private float[] mPolyline = new float[256];
+    private int mPolylineCount;
+    private float mPenX;
+    private float mPenY;
+    //x range of the row crossing the segment being rasterized
+    private float mCrossingLeft;
+    private float mCrossingRight;
+    //segments reaching the current band
+    private int[] mBandSegments = new int[64];
+    //covered runs of the current row, a stroke crossing a row several times has several runs
+    private int[] mRunStarts = new int[64];
+    private int[] mRunEnds = new int[64];
+    //source alpha for every coverage value, for the color being drawn
+    private final int[] mAlphaByCoverage = new int[256];
+
+    /**
+     * @param pixels width x height ARGB pixels, row by row
+     * @param width
+     * @param height
+     */
+    public StrokeRasterizer(int[] pixels, int width, int height){
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        mCoverage = new int[width];
+    }
+
+    public int[] getPixels(){
+        return mPixels;
+    }
+
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getHeight(){
+        return mHeight;
+    }
+
+    /**
+     * Set every pixel to transparent
+     */
+    public void clear(){
+        for (int i = 0; i < mPixels.length; i++){
+            mPixels[i] = 0;
+        }
+    }
+
+    /**
+     * Blend a buffer of the same size and layout source-over into this one, for example a
+     * layer that was rasterized on its own
+     * @param source width x height ARGB pixels, row by row
+     */
+    public void drawPixels(int[] source){
+        int[] pixels = mPixels;
+        int count = mWidth * mHeight;
+        for (int i = 0; i < count; i++){
+            int color = source[i];
+            int sourceAlpha = color >>> 24;
+            if (sourceAlpha != 0){
+                pixels[i] = blend(pixels[i], sourceAlpha, color);
+            }
+        }
+    }
+
+    /**
+     * Draw the smoothed curve through the points
+     * @param points x, y pairs
+     * @param count number of points
+     * @param color ARGB color
+     * @param width stroke width in pixels
+     */
+    public void drawStroke(float[] points, int count, int color, float width){
+        if (count == 0){
+            return;
+        }
+        mPolylineCount = 0;
+        StrokeSmoother.smooth(points, count, this);
+        fillPolyline(mPolyline, mPolylineCount, color, width);
+    }
+
+    /**
+     * Draw straight segments between the points
+     * @param points x, y pairs
+     * @param count number of points
+     * @param color ARGB color
+     * @param width stroke width in pixels
+     */
+    public void drawPolyline(float[] points, int count, int color, float width){
+        if (count > 0){
+            fillPolyline(points, count, color, width);
+        }
+    }
+
+    @Override
+    public void moveTo(float x, float y){
+        addPolylinePoint(x, y);
+    }
+
+    @Override
+    public void lineTo(float x, float y){
+        addPolylinePoint(x, y);
+    }
+
+    @Override
+    public void quadTo(float controlX, float controlY, float x, float y){
+        float x0 = mPenX;
+        float y0 = mPenY;
+        //the distance of the chords from the curve falls with the square of their number
+        float ddx = x0 - 2 * controlX + x;
+        float ddy = y0 - 2 * controlY + y;
+        float deviation = (float) Math.sqrt(ddx * ddx + ddy * ddy);
+        int segments = Math.max(1, Math.min(MAX_CURVE_SEGMENTS,
+                (int) Math.ceil(Math.sqrt(deviation / (4 * FLATNESS)))));
+        for (int i = 1; i < segments; i++){
+            float t = (float) i / segments;
+            float u = 1 - t;
+            addPolylinePoint(u * u * x0 + 2 * u * t * controlX + t * t * x,
+                    u * u * y0 + 2 * u * t * controlY + t * t * y);
+        }
+        addPolylinePoint(x, y);
+    }
+
+    private void addPolylinePoint(float x, float y){
+        if (mPolylineCount * 2 + 2 > mPolyline.length){
+            float[] polyline = new float[mPolyline.length * 2];
+            System.arraycopy(mPolyline, 0, polyline, 0, mPolylineCount * 2);
+            mPolyline = polyline;
+        }
+        mPolyline[mPolylineCount * 2] = x;
+        mPolyline[mPolylineCount * 2 + 1] = y;
+        mPolylineCount++;
+        mPenX = x;
+        mPenY = y;
+    }
+
+    /**
+     * Rasterize the pixels within half the width of the polyline, row by row
+     */
+    private void fillPolyline(float[] points, int count, int color, float width){
+        float radius = width / 2;
+        //pixels whose center is closer than this get some coverage
+        float reach = radius + 0.5f;
+
+        float top = Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++){
+            top = Math.min(top, points[i * 2 + 1]);
+            bottom = Math.max(bottom, points[i * 2 + 1]);
+        }
+        int firstRow = Math.max(0, (int) Math.floor(top - reach));
+        int lastRow = Math.min(mHeight - 1, (int) Math.ceil(bottom + reach));
+        int segments = Math.max(1, count - 1);
+        if (mBandSegments.length < segments){
+            mBandSegments = new int[segments];
+            mRunStarts = new int[segments];
+            mRunEnds = new int[segments];
+        }
+        int colorAlpha = color >>> 24;
+        for (int value = 0; value < 256; value++){
+            mAlphaByCoverage[value] = div255(colorAlpha * value);
+        }
+
+        for (int bandTop = firstRow; bandTop <= lastRow; bandTop += BAND_ROWS){
+            int bandBottom = Math.min(bandTop + BAND_ROWS - 1, lastRow);
+            int bandCount = 0;
+            for (int s = 0; s < segments; s++){
+                float ay = points[s * 2 + 1];
+                float by = points[Math.min(s + 1, count - 1) * 2 + 1];
+                if (Math.max(ay, by) + reach >= bandTop
+                        && Math.min(ay, by) - reach <= bandBottom + 1){
+                    mBandSegments[bandCount++] = s;
+                }
+            }
+            if (bandCount > 0){
+                fillBand(points, count, bandTop, bandBottom, bandCount, color, radius, reach);
+            }
+        }
+    }
+
+    /**
+     * Rasterize the rows of a band with the segments that reach it
+     */
+    private void fillBand(float[] points, int count, int bandTop, int bandBottom,
+            int bandCount, int color, float radius, float reach){
+        for (int y = bandTop; y <= bandBottom; y++){
+            float centerY = y + 0.5f;
+            int runCount = 0;
+            for (int i = 0; i < bandCount; i++){
+                int s = mBandSegments[i];
+                float ax = points[s * 2];
+                float ay = points[s * 2 + 1];
+                int next = Math.min(s + 1, count - 1);
+                float bx = points[next * 2];
+                float by = points[next * 2 + 1];
+                if (centerY < Math.min(ay, by) - reach || centerY > Math.max(ay, by) + reach){
+                    continue;
+                }
+                if (!crossRow(ax, ay, bx, by, centerY, reach)){
+                    continue;
+                }
+                //pixels whose center is inside the crossing
+                int start = Math.max(0, (int) Math.ceil(mCrossingLeft - 0.5f));
+                int end = Math.min(mWidth - 1, (int) Math.floor(mCrossingRight - 0.5f));
+                if (start > end){
+                    continue;
+                }
+                //consecutive segments mostly extend the run of the previous one
+                if (runCount > 0 && start <= mRunEnds[runCount - 1] + 1
+                        && end >= mRunStarts[runCount - 1] - 1){
+                    mRunStarts[runCount - 1] = Math.min(mRunStarts[runCount - 1], start);
+                    mRunEnds[runCount - 1] = Math.max(mRunEnds[runCount - 1], end);
+                } else {
+                    mRunStarts[runCount] = start;
+                    mRunEnds[runCount] = end;
+                    runCount++;
+                }
+                //pixels whose whole box filter is inside the stroke need no distance
+                int innerStart = end + 1;
+                int innerEnd = end;
+                if (radius > 0.5f && crossRow(ax, ay, bx, by, centerY, radius - 0.5f)){
+                    innerStart = Math.max(start, (int) Math.ceil(mCrossingLeft - 0.5f));
+                    innerEnd = Math.min(end, (int) Math.floor(mCrossingRight - 0.5f));
+                    if (innerStart > innerEnd){
+                        innerStart = end + 1;
+                        innerEnd = end;
+                    }
+                }
+                coverSegment(ax, ay, bx, by, centerY, start, innerStart - 1, radius);
+                fillCoverage(innerStart, innerEnd);
+                coverSegment(ax, ay, bx, by, centerY, innerEnd + 1, end, radius);
+            }
+            //runs may overlap where the stroke crosses itself, blending resets the coverage so
+            //no pixel is blended twice
+            for (int run = 0; run < runCount; run++){
+                blendSpan(y * mWidth, mRunStarts[run], mRunEnds[run], color);
+            }
+        }
+    }
+
+    /**
+     * Find where the row crosses the capsule of the given radius around the segment: the
+     * union of the circles around its end points and the rectangle along it
+     * @return false if the row misses the capsule
+     */
+    private boolean crossRow(float ax, float ay, float bx, float by, float centerY,
+            float reach){
+        mCrossingLeft = Float.MAX_VALUE;
+        mCrossingRight = -Float.MAX_VALUE;
+        crossCircle(ax, ay, centerY, reach);
+        crossCircle(bx, by, centerY, reach);
+        float dx = bx - ax;
+        float dy = by - ay;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length > 0){
+            float nx = -dy / length * reach;
+            float ny = dx / length * reach;
+            crossEdge(ax + nx, ay + ny, bx + nx, by + ny, centerY);
+            crossEdge(bx + nx, by + ny, bx - nx, by - ny, centerY);
+            crossEdge(bx - nx, by - ny, ax - nx, ay - ny, centerY);
+            crossEdge(ax - nx, ay - ny, ax + nx, ay + ny, centerY);
+        }
+        return mCrossingLeft <= mCrossingRight;
+    }
+
+    private void crossCircle(float cx, float cy, float centerY, float reach){
+        float dy = centerY - cy;
+        if (dy * dy > reach * reach){
+            return;
+        }
+        float half = (float) Math.sqrt(reach * reach - dy * dy);
+        mCrossingLeft = Math.min(mCrossingLeft, cx - half);
+        mCrossingRight = Math.max(mCrossingRight, cx + half);
+    }
+
+    private void crossEdge(float x0, float y0, float x1, float y1, float centerY){
+        if ((centerY < y0 && centerY < y1) || (centerY > y0 && centerY > y1)){
+            return;
+        }
+        if (y0 == y1){
+            mCrossingLeft = Math.min(mCrossingLeft, Math.min(x0, x1));
+            mCrossingRight = Math.max(mCrossingRight, Math.max(x0, x1));
+            return;
+        }
+        float x = x0 + (centerY - y0) * (x1 - x0) / (y1 - y0);
+        mCrossingLeft = Math.min(mCrossingLeft, x);
+        mCrossingRight = Math.max(mCrossingRight, x);
+    }
+
+    /**
+     * Add the coverage of the segment to the row buffer between start and end. The coverage
+     * of a pixel is the part of a one pixel wide box filter around its center inside the
+     * stroke, measured along the distance from the segment
+     */
+    private void coverSegment(float ax, float ay, float bx, float by, float centerY,
+            int start, int end, float radius){
+        if (start > end){
+            return;
+        }
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float inverseLength = lengthSquared == 0 ? 0 : 1 / lengthSquared;
+        float py = centerY - ay;
+        int[] coverage = mCoverage;
+        for (int x = start; x <= end; x++){
+            float px = x + 0.5f - ax;
+            float t = (px * dx + py * dy) * inverseLength;
+            if (t < 0){
+                t = 0;
+            } else if (t > 1){
+                t = 1;
+            }
+            float ex = px - t * dx;
+            float ey = py - t * dy;
+            float inside = radius + 0.5f - (float) Math.sqrt(ex * ex + ey * ey);
+            if (inside <= 0){
+                continue;
+            }
+            int value = inside >= 1 ? 255 : (int) (inside * 255 + 0.5f);
+            if (value > coverage[x]){
+                coverage[x] = value;
+            }
+        }
+    }
+
+    private void fillCoverage(int start, int end){
+        int[] coverage = mCoverage;
+        for (int x = start; x <= end; x++){
+            coverage[x] = 255;
+        }
+    }
+
+    /**
+     * Blend the color into the row with the coverage of each pixel, and reset the coverage
+     */
+    private void blendSpan(int rowOffset, int start, int end, int color){
+        int[] coverage = mCoverage;
+        int[] pixels = mPixels;
+        int[] alphaByCoverage = mAlphaByCoverage;
+        for (int x = start; x <= end; x++){
+            int value = coverage[x];
+            if (value == 0){
+                continue;
+            }
+            coverage[x] = 0;
+            int sourceAlpha = alphaByCoverage[value];
+            if (sourceAlpha == 0){
+                continue;
+            }
+            int index = rowOffset + x;
+            pixels[index] = blend(pixels[index], sourceAlpha, color);
+        }
+    }
+
+    /**
+     * Blend the color with the given alpha over a pixel, both non-premultiplied
+     * @param destination
+     * @param sourceAlpha 1 to 255, replacing the alpha of the color
+     * @param color
+     * @return int the blended pixel
+     */
+    private static int blend(int destination, int sourceAlpha, int color){
+        int destinationAlpha = destination >>> 24;
+        if (sourceAlpha == 255 || destinationAlpha == 0){
+            return (sourceAlpha << 24) | (color & 0xFFFFFF);
+        }
+        //non-premultiplied source over, with one division for the three channels
+        int destinationWeight = div255(destinationAlpha * (255 - sourceAlpha));
+        int alpha = sourceAlpha + destinationWeight;
+        long inverse = (1L << 32) / alpha;
+        int r = (int) (((((color >> 16) & 0xFF) * sourceAlpha
+                + ((destination >> 16) & 0xFF) * destinationWeight) * inverse + (1L << 31)) >>> 32);
+        int g = (int) (((((color >> 8) & 0xFF) * sourceAlpha
+                + ((destination >> 8) & 0xFF) * destinationWeight) * inverse + (1L << 31)) >>> 32);
+        int b = (int) ((((color & 0xFF) * sourceAlpha
+                + (destination & 0xFF) * destinationWeight) * inverse + (1L << 31)) >>> 32);
+        return (alpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Divide by 255 with rounding, for values up to 255 * 255
+     */
+    private static int div255(int value){
+        value += 128;
+        return (value + (value >> 8)) >> 8;
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.util.Arrays;
+
+/**
+ * Stroke processing without any dependency on android.graphics. While a stroke is drawn,
+ * samples closer than the minimum distance to the previous one are dropped and the rest are
+ * joined with quadratic Bezier curves through the midpoints of consecutive samples. Once the
+ * stroke is complete its points are decimated by distance and angle and simplified with the
+ * Ramer-Douglas-Peucker algorithm before they are stored. Alternatively the smoothed curve
+ * itself can be flattened into a polyline and simplified, which keeps the stored stroke within
+ * the tolerances of the curve that was drawn live.
+ *
+ * Points are passed around as x, y pairs packed in float arrays. The widths of a
+ * variable-width stroke, one per point, are compacted along with its points.
+ */
+public class StrokeSmoother {
+    public static final float DEFAULT_MIN_DISTANCE = 2f;
+    public static final float DEFAULT_ANGLE_TOLERANCE = (float) Math.toRadians(4);
+    public static final float DEFAULT_EPSILON = 0.5f;
+
+    //largest distance of a chord of a flattened curve from the curve
+    private static final float FLATNESS = 0.25f;
+    private static final int MAX_CURVE_SEGMENTS = 16;
+
+    /**
+     * Receives the segments of a smoothed stroke
+     */
+    public interface PathSink {
+        void moveTo(float x, float y);
+
+        void lineTo(float x, float y);
+
+        void quadTo(float controlX, float controlY, float x, float y);
+    }
+
+    private final float mMinDistance;
+    private final float mAngleTolerance;
+    private final float mEpsilon;
+
+    //last accepted sample
+    private float mLastX;
+    private float mLastY;
+    //end of the last emitted segment
+    private float mPenX;
+    private float mPenY;
+    private int mSampleCount;
+
+    //reused by simplify
+    private int[] mStack = new int[64];
+    private boolean[] mKeep = new boolean[64];
+    //reused by flatten
+    private float[] mCurve = new float[128];
+    private float[] mCurveWidths = new float[64];
+    private int mCurveCount;
+
+    public StrokeSmoother(){
+        this(DEFAULT_MIN_DISTANCE, DEFAULT_ANGLE_TOLERANCE, DEFAULT_EPSILON);
+    }
+
+    /**
+     * @param minDistance samples closer than this to the previous sample are dropped
+     * @param angleTolerance points where the direction turns by less than this many radians
+     *                       are removed from completed strokes
+     * @param epsilon maximum distance of a removed point from the simplified polyline
+     */
+    public StrokeSmoother(float minDistance, float angleTolerance, float epsilon){
+        mMinDistance = minDistance;
+        mAngleTolerance = angleTolerance;
+        mEpsilon = epsilon;
+    }
+
+    /**
+     * Start a live stroke
+     * @param x
+     * @param y
+     * @param sink
+     */
+    public void begin(float x, float y, PathSink sink){
+        mLastX = x;
+        mLastY = y;
+        mPenX = x;
+        mPenY = y;
+        mSampleCount = 1;
+        sink.moveTo(x, y);
+    }
+
+    /**
+     * Add a sample to the live stroke. The curve is drawn up to the midpoint between the
+     * previous sample and this one, with the previous sample as control point
+     * @param x
+     * @param y
+     * @param sink
+     * @return false if the sample was dropped
+     */
+    public boolean add(float x, float y, PathSink sink){
+        float dx = x - mLastX;
+        float dy = y - mLastY;
+        if (dx * dx + dy * dy < mMinDistance * mMinDistance){
+            return false;
+        }
+        float midX = (mLastX + x) / 2;
+        float midY = (mLastY + y) / 2;
+        sink.quadTo(mLastX, mLastY, midX, midY);
+        mLastX = x;
+        mLastY = y;
+        mPenX = midX;
+        mPenY = midY;
+        mSampleCount++;
+        return true;
+    }
+
+    /**
+     * Finish the live stroke with a line to the last accepted sample
+     * @param sink
+     */
+    public void end(PathSink sink){
+        if (mSampleCount > 1 && (mPenX != mLastX || mPenY != mLastY)){
+            sink.lineTo(mLastX, mLastY);
+        }
+        mPenX = mLastX;
+        mPenY = mLastY;
+    }
+
+    /**
+     * Get the x coordinate the live curve currently ends at
+     * @return float
+     */
+    public float getPenX(){
+        return mPenX;
+    }
+
+    /**
+     * Get the y coordinate the live curve currently ends at
+     * @return float
+     */
+    public float getPenY(){
+        return mPenY;
+    }
+
+    /**
+     * Emit the smoothed curve through the points, the same curve that begin, add and end
+     * produce for them
+     * @param points x, y pairs
+     * @param count number of points
+     * @param sink
+     */
+    public static void smooth(float[] points, int count, PathSink sink){
+        if (count == 0){
+            return;
+        }
+        sink.moveTo(points[0], points[1]);
+        if (count == 1){
+            return;
+        }
+        for (int i = 1; i < count; i++){
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            float lastX = points[i * 2 - 2];
+            float lastY = points[i * 2 - 1];
+            sink.quadTo(lastX, lastY, (lastX + x) / 2, (lastY + y) / 2);
+        }
+        sink.lineTo(points[count * 2 - 2], points[count * 2 - 1]);
+    }
+
+    /**
+     * Flatten the smoothed curve through the points into a polyline, the same curve that
+     * smooth emits for them. The points of the polyline lie on the curve and no chord is
+     * farther than a quarter pixel from it. The width along each curve goes linearly from the
+     * width at its start to the mean of the widths of the samples around its end, the way a
+     * StrokeMesh built from the points gets it
+     * @param points x, y pairs
+     * @param widths width at each point, may be null
+     * @param count number of points
+     * @return int number of points of the polyline, read them with getCurve and getCurveWidths
+     */
+    public int flatten(float[] points, float[] widths, int count){
+        mCurveCount = 0;
+        if (count == 0){
+            return 0;
+        }
+        float penX = points[0];
+        float penY = points[1];
+        float penWidth = widths == null ? 0 : widths[0];
+        addCurvePoint(penX, penY, penWidth);
+        for (int i = 1; i < count; i++){
+            float controlX = points[i * 2 - 2];
+            float controlY = points[i * 2 - 1];
+            float x = (controlX + points[i * 2]) / 2;
+            float y = (controlY + points[i * 2 + 1]) / 2;
+            float width = widths == null ? 0 : (widths[i - 1] + widths[i]) / 2;
+            //the distance of the chords from the curve falls with the square of their number
+            float ddx = penX - 2 * controlX + x;
+            float ddy = penY - 2 * controlY + y;
+            float deviation = (float) Math.sqrt(ddx * ddx + ddy * ddy);
+            int segments = Math.max(1, Math.min(MAX_CURVE_SEGMENTS,
+                    (int) Math.ceil(Math.sqrt(deviation / (4 * FLATNESS)))));
+            for (int s = 1; s <= segments; s++){
+                float t = (float) s / segments;
+                float u = 1 - t;
+                addCurvePoint(u * u * penX + 2 * u * t * controlX + t * t * x,
+                        u * u * penY + 2 * u * t * controlY + t * t * y,
+                        penWidth + (width - penWidth) * t);
+            }
+            penX = x;
+            penY = y;
+            penWidth = width;
+        }
+        if (count > 1){
+            addCurvePoint(points[count * 2 - 2], points[count * 2 - 1],
+                    widths == null ? 0 : widths[count - 1]);
+        }
+        return mCurveCount;
+    }
+
+    /**
+     * Get the points of the polyline of the last flatten call
+     * @return float[] x, y pairs, only the first flatten() pairs are valid
+     */
+    public float[] getCurve(){
+        return mCurve;
+    }
+
+    /**
+     * Get the widths at the points of the polyline of the last flatten call
+     * @return float[]
+     */
+    public float[] getCurveWidths(){
+        return mCurveWidths;
+    }
+
+    private void addCurvePoint(float x, float y, float width){
+        if (mCurveCount == mCurveWidths.length){
+            mCurve = Arrays.copyOf(mCurve, mCurve.length * 2);
+            mCurveWidths = Arrays.copyOf(mCurveWidths, mCurveWidths.length * 2);
+        }
+        mCurve[mCurveCount * 2] = x;
+        mCurve[mCurveCount * 2 + 1] = y;
+        mCurveWidths[mCurveCount] = width;
+        mCurveCount++;
+    }
+
+    /**
+     * Remove points closer than the minimum distance to the previous kept point and points
+     * where the direction turns by less than the angle tolerance. The first and last points
+     * are always kept
+     * @param points x, y pairs, compacted in place
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int decimate(float[] points, int count){
+        return decimate(points, null, count);
+    }
+
+    /**
+     * Decimate the points of a variable-width stroke, keeping the width of every kept point.
+     * A point where the direction barely turns is only removed if the edges of the stroke
+     * also move by no more than epsilon when its width is interpolated from the widths around
+     * it
+     * @param points x, y pairs, compacted in place
+     * @param widths width at each point, compacted in place, may be null
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int decimate(float[] points, float[] widths, int count){
+        if (count <= 2){
+            return count;
+        }
+        float minDistanceSquared = mMinDistance * mMinDistance;
+        int kept = 1;
+        for (int i = 1; i < count - 1; i++){
+            float keptX = points[kept * 2 - 2];
+            float keptY = points[kept * 2 - 1];
+            float x = points[i * 2];
+            float y = points[i * 2 + 1];
+            float dx = x - keptX;
+            float dy = y - keptY;
+            if (dx * dx + dy * dy < minDistanceSquared){
+                continue;
+            }
+            float nextX = points[i * 2 + 2];
+            float nextY = points[i * 2 + 3];
+            if (turnAngle(keptX, keptY, x, y, nextX, nextY) < mAngleTolerance
+                    && (widths == null || widthDeviation(x, y, widths[i], keptX, keptY,
+                            widths[kept - 1], nextX, nextY, widths[i + 1]) <= mEpsilon)){
+                continue;
+            }
+            points[kept * 2] = x;
+            points[kept * 2 + 1] = y;
+            if (widths != null){
+                widths[kept] = widths[i];
+            }
+            kept++;
+        }
+        points[kept * 2] = points[count * 2 - 2];
+        points[kept * 2 + 1] = points[count * 2 - 1];
+        if (widths != null){
+            widths[kept] = widths[count - 1];
+        }
+        return kept + 1;
+    }
+
+    /**
+     * Simplify the polyline with the Ramer-Douglas-Peucker algorithm, removing the points
+     * within epsilon of the line between the points kept around them
+     * @param points x, y pairs, compacted in place
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int simplify(float[] points, int count){
+        return simplify(points, null, count);
+    }
+
+    /**
+     * Simplify the points of a variable-width stroke, keeping the width of every kept point.
+     * The error of a removed point is its distance from the line plus how far the edges of
+     * the stroke move when its width is interpolated along the line, so points where only
+     * the width changes are kept as well
+     * @param points x, y pairs, compacted in place
+     * @param widths width at each point, compacted in place, may be null
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int simplify(float[] points, float[] widths, int count){
+        if (count <= 2){
+            return count;
+        }
+        if (mKeep.length < count){
+            mKeep = new boolean[count];
+        }
+        boolean[] keep = mKeep;
+        for (int i = 0; i < count; i++){
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        //explicit stack of (first, last) index pairs instead of recursion
+        int top = 0;
+        top = push(top, 0, count - 1);
+        float epsilonSquared = mEpsilon * mEpsilon;
+        while (top > 0){
+            int last = mStack[--top];
+            int first = mStack[--top];
+            float ax = points[first * 2];
+            float ay = points[first * 2 + 1];
+            float bx = points[last * 2];
+            float by = points[last * 2 + 1];
+            float maxDistance = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++){
+                float distance = segmentDistanceSquared(points[i * 2], points[i * 2 + 1],
+                        ax, ay, bx, by);
+                if (widths != null){
+                    distance = (float) Math.sqrt(distance) + widthDeviation(points[i * 2],
+                            points[i * 2 + 1], widths[i], ax, ay, widths[first], bx, by,
+                            widths[last]);
+                    distance *= distance;
+                }
+                if (distance > maxDistance){
+                    maxDistance = distance;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDistance > epsilonSquared){
+                keep[index] = true;
+                top = push(top, first, index);
+                top = push(top, index, last);
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++){
+            if (keep[i]){
+                points[kept * 2] = points[i * 2];
+                points[kept * 2 + 1] = points[i * 2 + 1];
+                if (widths != null){
+                    widths[kept] = widths[i];
+                }
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Decimate and then simplify the points of a completed stroke
+     * @param points x, y pairs, compacted in place
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int process(float[] points, int count){
+        return process(points, null, count);
+    }
+
+    /**
+     * Decimate and then simplify the points of a completed variable-width stroke
+     * @param points x, y pairs, compacted in place
+     * @param widths width at each point, compacted in place, may be null
+     * @param count number of points
+     * @return int number of points left
+     */
+    public int process(float[] points, float[] widths, int count){
+        return simplify(points, widths, decimate(points, widths, count));
+    }
+
+    private int push(int top, int first, int last){
+        if (top + 2 > mStack.length){
+            int[] stack = new int[mStack.length * 2];
+            System.arraycopy(mStack, 0, stack, 0, top);
+            mStack = stack;
+        }
+        mStack[top] = first;
+        mStack[top + 1] = last;
+        return top + 2;
+    }
+
+    /**
+     * Angle in radians between the direction from a to b and the direction from b to c
+     */
+    private static float turnAngle(float ax, float ay, float bx, float by, float cx, float cy){
+        double angle = Math.atan2(cy - by, cx - bx) - Math.atan2(by - ay, bx - ax);
+        angle = Math.abs(angle);
+        return (float) (angle > Math.PI ? 2 * Math.PI - angle : angle);
+    }
+
+    /**
+     * Squared distance of point p from the segment from a to b
+     */
+    private static float segmentDistanceSquared(float px, float py, float ax, float ay,
+            float bx, float by){
+        float dx = bx - ax;
+        float dy = by - ay;
+        float t = project(px, py, ax, ay, bx, by);
+        float x = ax + t * dx - px;
+        float y = ay + t * dy - py;
+        return x * x + y * y;
+    }
+
+    /**
+     * Distance each edge of a stroke moves at point p when its width is interpolated between
+     * the widths at a and b, at the point of the segment closest to p. Half the difference of
+     * the widths, since the width is split evenly to either side
+     */
+    private static float widthDeviation(float px, float py, float width, float ax, float ay,
+            float widthA, float bx, float by, float widthB){
+        float t = project(px, py, ax, ay, bx, by);
+        return Math.abs(widthA + (widthB - widthA) * t - width) / 2;
+    }
+
+    /**
+     * Position of the point of the segment from a to b closest to point p, from 0 at a to 1
+     * at b
+     */
+    private static float project(float px, float py, float ax, float ay, float bx, float by){
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Width of a variable-width stroke at each of its touch samples, taken from the pressure of the
+ * pointer or from its speed: harder presses draw wider and faster movements draw thinner, like
+ * ink running from a nib. The width never exceeds the base width of the stroke, so a stroke
+ * covers no more than a fixed-width one, and it is low-pass filtered so that the noise of the
+ * digitizer does not show as ripples along the edges.
+ */
+public class StrokeWidthModel {
+    public static final int MODE_FIXED = 0;
+    public static final int MODE_PRESSURE = 1;
+    public static final int MODE_VELOCITY = 2;
+
+    //thinnest width as a share of the base width
+    static final float MIN_FACTOR = 0.3f;
+    //speed in pixels per millisecond at which the velocity mode reaches the thinnest width
+    static final float THIN_SPEED = 3f;
+    //weight of the newest sample in the filtered width
+    static final float SMOOTHING = 0.4f;
+
+    private int mMode;
+    private float mBaseWidth;
+    private float mWidth;
+    private float mLastX;
+    private float mLastY;
+    private long mLastTime;
+
+    /**
+     * Start a stroke
+     * @param mode MODE_FIXED, MODE_PRESSURE or MODE_VELOCITY
+     * @param baseWidth widest the stroke gets
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @param pressure
+     * @return float the width at the first sample
+     */
+    public float begin(int mode, float baseWidth, float x, float y, long time, float pressure){
+        mMode = mode;
+        mBaseWidth = baseWidth;
+        mLastX = x;
+        mLastY = y;
+        mLastTime = time;
+        //a stroke starts at rest
+        mWidth = mode == MODE_PRESSURE ? pressureWidth(pressure) : baseWidth;
+        return mWidth;
+    }
+
+    /**
+     * Get the width at the next sample of the stroke
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @param pressure as reported by MotionEvent.getPressure, values above 1 count as 1
+     * @return float
+     */
+    public float next(float x, float y, long time, float pressure){
+        float target;
+        switch (mMode){
+            case MODE_PRESSURE:
+                target = pressureWidth(pressure);
+                break;
+            case MODE_VELOCITY:
+                long dt = time - mLastTime;
+                if (dt <= 0){
+                    //samples of the same event, the speed is unknown
+                    target = mWidth;
+                    break;
+                }
+                float dx = x - mLastX;
+                float dy = y - mLastY;
+                float speed = (float) Math.sqrt(dx * dx + dy * dy) / dt;
+                float thinning = Math.min(1, speed / THIN_SPEED);
+                target = mBaseWidth * (1 - thinning * (1 - MIN_FACTOR));
+                break;
+            default:
+                return mBaseWidth;
+        }
+        mLastX = x;
+        mLastY = y;
+        mLastTime = time;
+        mWidth += (target - mWidth) * SMOOTHING;
+        return mWidth;
+    }
+
+    /**
+     * Get the width at the last sample
+     * @return float
+     */
+    public float getWidth(){
+        return mWidth;
+    }
+
+    private float pressureWidth(float pressure){
+        float clamped = Math.max(0, Math.min(1, pressure));
+        return mBaseWidth * (MIN_FACTOR + (1 - MIN_FACTOR) * clamped);
+    }
+}
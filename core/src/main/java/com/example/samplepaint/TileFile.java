@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Scratch file holding tile sized blocks of pixels in numbered slots. The file is memory mapped
+ * a chunk of slots at a time, so writing and reading a tile is a copy between an int[] and the
+ * page cache, and the file only grows as far as the highest slot in use. Freed slots are
+ * handed out again before the file grows. The pixels are stored in native byte order and are
+ * only meant to be read back by the same process.
+ */
+public class TileFile {
+    //slots mapped together
+    public static final int CHUNK_SLOTS = 16;
+
+    private final File mFile;
+    private final RandomAccessFile mAccess;
+    private final FileChannel mChannel;
+    private final int mTilePixels;
+    private final ArrayList<IntBuffer> mChunks = new ArrayList<IntBuffer>();
+    private int[] mFreeSlots = new int[CHUNK_SLOTS];
+    private int mFreeCount;
+    private int mSlotCount;
+    private boolean mClosed;
+
+    /**
+     * Create an empty file, replacing any file of the same name
+     * @param file
+     * @param tilePixels number of pixels of a slot
+     * @throws IOException
+     */
+    public TileFile(File file, int tilePixels) throws IOException {
+        mFile = file;
+        mTilePixels = tilePixels;
+        mAccess = new RandomAccessFile(file, "rw");
+        mAccess.setLength(0);
+        mChannel = mAccess.getChannel();
+    }
+
+    /**
+     * Get a slot that is not in use
+     * @return int
+     */
+    public synchronized int allocateSlot(){
+        if (mFreeCount > 0){
+            return mFreeSlots[--mFreeCount];
+        }
+        return mSlotCount++;
+    }
+
+    /**
+     * Hand a slot back to be reused
+     * @param slot
+     */
+    public synchronized void freeSlot(int slot){
+        if (mFreeCount == mFreeSlots.length){
+            int[] grown = new int[mFreeSlots.length * 2];
+            System.arraycopy(mFreeSlots, 0, grown, 0, mFreeCount);
+            mFreeSlots = grown;
+        }
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    /**
+     * Get the number of slots handed out so far, including the free ones
+     * @return int
+     */
+    public synchronized int getSlotCount(){
+        return mSlotCount;
+    }
+
+    /**
+     * Copy the pixels of a tile into a slot
+     * @param slot
+     * @param pixels at least the number of pixels of a slot long
+     * @throws IOException
+     */
+    public synchronized void write(int slot, int[] pixels) throws IOException {
+        IntBuffer chunk = mapChunk(slot / CHUNK_SLOTS);
+        chunk.position((slot % CHUNK_SLOTS) * mTilePixels);
+        chunk.put(pixels, 0, mTilePixels);
+    }
+
+    /**
+     * Copy the pixels of a slot into a tile
+     * @param slot
+     * @param pixels at least the number of pixels of a slot long
+     * @throws IOException
+     */
+    public synchronized void read(int slot, int[] pixels) throws IOException {
+        IntBuffer chunk = mapChunk(slot / CHUNK_SLOTS);
+        chunk.position((slot % CHUNK_SLOTS) * mTilePixels);
+        chunk.get(pixels, 0, mTilePixels);
+    }
+
+    /**
+     * Close and delete the file. The slots cannot be used afterwards
+     */
+    public synchronized void close(){
+        if (mClosed){
+            return;
+        }
+        mClosed = true;
+        mChunks.clear();
+        try {
+            mAccess.close();
+        } catch (IOException e) {
+            //nothing is kept in the file, it is deleted below
+        }
+        mFile.delete();
+    }
+
+    private IntBuffer mapChunk(int chunk) throws IOException {
+        if (mClosed){
+            throw new IOException("Tile file is closed");
+        }
+        long chunkBytes = (long) CHUNK_SLOTS * mTilePixels * 4;
+        while (mChunks.size() <= chunk){
+            mChunks.add(mChannel.map(FileChannel.MapMode.READ_WRITE, mChunks.size() * chunkBytes,
+                    chunkBytes).order(ByteOrder.nativeOrder()).asIntBuffer());
+        }
+        return mChunks.get(chunk);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.samplepaint;
+
+/**
+ * Fixed capacity ring buffer of touch samples. The coordinates, event times and pressures are
+ * kept in preallocated primitive arrays so that queuing and draining samples does not allocate.
+ * Samples are read back oldest first with an index relative to the oldest sample.
+ */
+public class TouchSampleBuffer {
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mTime;
+    private final float[] mPressure;
+    private final int mMask;
+    //index of the oldest sample
+    private int mHead;
+    private int mSize;
+
+    /**
+     * Create a buffer holding at least the given number of samples. The capacity is rounded up
+     * to a power of two
+     * @param capacity
+     */
+    public TouchSampleBuffer(int capacity){
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mX = new float[size];
+        mY = new float[size];
+        mTime = new long[size];
+        mPressure = new float[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Append a sample with full pressure. The caller has to drain the buffer when it is full
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @return false if the buffer is full and the sample was not added
+     */
+    public boolean add(float x, float y, long time){
+        return add(x, y, time, 1f);
+    }
+
+    /**
+     * Append a sample. The caller has to drain the buffer when it is full
+     * @param x
+     * @param y
+     * @param time event time in milliseconds
+     * @param pressure as reported by MotionEvent.getPressure, usually 0 to 1
+     * @return false if the buffer is full and the sample was not added
+     */
+    public boolean add(float x, float y, long time, float pressure){
+        if (mSize == mX.length){
+            return false;
+        }
+        int index = (mHead + mSize) & mMask;
+        mX[index] = x;
+        mY[index] = y;
+        mTime[index] = time;
+        mPressure[index] = pressure;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Drop the given number of oldest samples
+     * @param count
+     */
+    public void consume(int count){
+        count = Math.min(count, mSize);
+        mHead = (mHead + count) & mMask;
+        mSize -= count;
+    }
+
+    /**
+     * Drop all samples
+     */
+    public void clear(){
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public int size(){
+        return mSize;
+    }
+
+    public int capacity(){
+        return mX.length;
+    }
+
+    public boolean isFull(){
+        return mSize == mX.length;
+    }
+
+    public float getX(int i){
+        return mX[(mHead + i) & mMask];
+    }
+
+    public float getY(int i){
+        return mY[(mHead + i) & mMask];
+    }
+
+    public long getTime(int i){
+        return mTime[(mHead + i) & mMask];
+    }
+
+    public float getPressure(int i){
+        return mPressure[(mHead + i) & mMask];
+    }
+}
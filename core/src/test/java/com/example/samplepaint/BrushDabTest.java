@@ -0,0 +1,87 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for BrushDab
+ */
+public class BrushDabTest {
+    private static final int DIAMETER = 21;
+    private static final int COLOR = 0xFF3366CC;
+
+    @Test
+    public void getDiameter_roundsWidthToAtLeastOnePixel() throws Exception {
+        assertEquals(1, BrushDab.getDiameter(0.2f));
+        assertEquals(5, BrushDab.getDiameter(5f));
+        assertEquals(8, BrushDab.getDiameter(7.6f));
+    }
+
+    @Test
+    public void renderAirbrush_fallsOffFromCenter() throws Exception {
+        int[] pixels = render(0);
+        int center = alpha(pixels, DIAMETER / 2, DIAMETER / 2);
+        assertEquals(Math.round(255 * BrushDab.AIRBRUSH_FLOW), center, 2);
+        assertTrue(alpha(pixels, DIAMETER / 2 + 5, DIAMETER / 2) < center);
+        assertEquals(0, alpha(pixels, 0, 0));
+        assertEquals(COLOR & 0xFFFFFF, pixels[DIAMETER / 2 * DIAMETER + DIAMETER / 2] & 0xFFFFFF);
+    }
+
+    @Test
+    public void renderMarker_isLongerAlongItsDiagonal() throws Exception {
+        int[] pixels = render(1);
+        int c = DIAMETER / 2;
+        assertEquals(Math.round(255 * BrushDab.MARKER_FLOW), alpha(pixels, c, c));
+        assertTrue(alpha(pixels, c + 6, c - 6) > 0);
+        assertEquals(0, alpha(pixels, c + 6, c + 6));
+    }
+
+    @Test
+    public void renderPencil_isSolidInsideAndNothingOutside() throws Exception {
+        int[] pixels = render(2);
+        int c = DIAMETER / 2;
+        for (int y = c - 3; y <= c + 3; y++){
+            for (int x = c - 3; x <= c + 3; x++){
+                assertEquals(Math.round(255 * BrushDab.PENCIL_FLOW), alpha(pixels, x, y));
+            }
+        }
+        assertEquals(0, alpha(pixels, 0, 0));
+        assertEquals(COLOR & 0xFFFFFF, pixels[c * DIAMETER + c] & 0xFFFFFF);
+    }
+
+    @Test
+    public void renderPencilGrain_variesAboveTheLightestGrain() throws Exception {
+        int size = BrushDab.PENCIL_GRAIN_SIZE;
+        int[] pixels = new int[size * size];
+        BrushDab.renderPencilGrain(size, pixels);
+        int min = 255;
+        int max = 0;
+        for (int pixel : pixels){
+            min = Math.min(min, pixel >>> 24);
+            max = Math.max(max, pixel >>> 24);
+            assertEquals(0xFFFFFF, pixel & 0xFFFFFF);
+        }
+        assertTrue(min >= Math.round(255 * BrushDab.PENCIL_MIN_GRAIN) - 1);
+        assertTrue(max > min);
+        int[] again = new int[size * size];
+        BrushDab.renderPencilGrain(size, again);
+        assertArrayEquals(pixels, again);
+    }
+
+    private static int[] render(int brush){
+        int[] pixels = new int[DIAMETER * DIAMETER];
+        if (brush == 0){
+            BrushDab.renderAirbrush(DIAMETER, COLOR, pixels);
+        } else if (brush == 1){
+            BrushDab.renderMarker(DIAMETER, COLOR, pixels);
+        } else {
+            BrushDab.renderPencil(DIAMETER, COLOR, pixels);
+        }
+        return pixels;
+    }
+
+    private static int alpha(int[] pixels, int x, int y){
+        return pixels[y * DIAMETER + x] >>> 24;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for ColorMath
+ */
+public class ColorMathTest {
+
+    @Test
+    public void colorToHsv_primaries() throws Exception {
+        float[] hsv = new float[3];
+        ColorMath.colorToHsv(0xFF00FF00, hsv);
+        assertArrayEquals(new float[] {120f, 1f, 1f}, hsv, 0.0001f);
+        ColorMath.colorToHsv(0xFF000080, hsv);
+        assertArrayEquals(new float[] {240f, 1f, 128 / 255f}, hsv, 0.0001f);
+        ColorMath.colorToHsv(0xFF808080, hsv);
+        assertArrayEquals(new float[] {0f, 0f, 128 / 255f}, hsv, 0.0001f);
+    }
+
+    @Test
+    public void hsvToColor_roundTrip() throws Exception {
+        int[] colors = {0xFF33B5E5, 0xFFAA66CC, 0xFF99CC00, 0xFFFFBB33, 0xFFFF4444, 0xFF000000,
+                0xFFFFFFFF};
+        float[] hsv = new float[3];
+        for (int color : colors) {
+            ColorMath.colorToHsv(color, hsv);
+            assertEquals(color, ColorMath.hsvToColor(0xFF, hsv));
+        }
+    }
+
+    @Test
+    public void scaleValue_darkensAndKeepsAlpha() throws Exception {
+        assertEquals(0x80B30000, ColorMath.scaleValue(0x80FF0000, 0.7f, new float[3]));
+    }
+
+    @Test
+    public void compareHsv_ordersByDescendingHue() throws Exception {
+        //blue, green, red
+        assertTrue(ColorMath.compareHsv(0xFF0000FF, 0xFF00FF00) < 0);
+        assertTrue(ColorMath.compareHsv(0xFFFF0000, 0xFF00FF00) > 0);
+        //same hue, the more saturated one first
+        assertTrue(ColorMath.compareHsv(0xFFFF0000, 0xFFFF8080) < 0);
+        assertEquals(0, ColorMath.compareHsv(0xFF123456, 0xFF123456));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DabSpacing
+ */
+public class DabSpacingTest {
+    private static final float EPSILON = 1e-3f;
+
+    @Test
+    public void next_placesFirstDabOnStart() throws Exception {
+        DabSpacing spacing = new DabSpacing();
+        spacing.begin(3, 4, 2);
+        assertTrue(spacing.next());
+        assertEquals(3, spacing.getX(), EPSILON);
+        assertEquals(4, spacing.getY(), EPSILON);
+        assertFalse(spacing.next());
+    }
+
+    @Test
+    public void next_spacesDabsEvenlyAlongSegment() throws Exception {
+        DabSpacing spacing = new DabSpacing();
+        spacing.begin(0, 0, 2);
+        while (spacing.next()){
+        }
+        spacing.lineTo(10, 0);
+        float x = 0;
+        while (spacing.next()){
+            x += 2;
+            assertEquals(x, spacing.getX(), EPSILON);
+            assertEquals(0, spacing.getY(), EPSILON);
+        }
+        assertEquals(10, x, EPSILON);
+        assertEquals(6, spacing.getCount());
+    }
+
+    @Test
+    public void next_carriesSpacingAcrossSegments() throws Exception {
+        DabSpacing spacing = new DabSpacing();
+        spacing.begin(0, 0, 3);
+        float[] corners = {1, 0, 1, 4, 5, 4, 5.5f, 4, 5.5f, 10};
+        float lastX = 0;
+        float lastY = 0;
+        //distance along the polyline of the pen and of the last dab
+        float walked = 0;
+        float lastDab = 0;
+        int dabs = 0;
+        while (spacing.next()){
+            dabs++;
+        }
+        for (int i = 0; i < corners.length; i += 2){
+            spacing.lineTo(corners[i], corners[i + 1]);
+            float length = (float) Math.hypot(corners[i] - lastX, corners[i + 1] - lastY);
+            while (spacing.next()){
+                float along = walked + (float) Math.hypot(spacing.getX() - lastX,
+                        spacing.getY() - lastY);
+                assertEquals(3, along - lastDab, EPSILON);
+                lastDab = along;
+                dabs++;
+            }
+            walked += length;
+            lastX = corners[i];
+            lastY = corners[i + 1];
+        }
+        assertEquals(1 + (int) (walked / 3), dabs);
+    }
+
+    @Test
+    public void next_zeroLengthSegmentHasNoDabs() throws Exception {
+        DabSpacing spacing = new DabSpacing();
+        spacing.begin(5, 5, 1);
+        spacing.next();
+        spacing.lineTo(5, 5);
+        assertFalse(spacing.next());
+        assertEquals(1, spacing.getCount());
+    }
+
+    @Test
+    public void begin_clampsTinyStep() throws Exception {
+        DabSpacing spacing = new DabSpacing();
+        spacing.begin(0, 0, 0);
+        spacing.next();
+        spacing.lineTo(1, 0);
+        int count = 0;
+        while (spacing.next()){
+            count++;
+        }
+        assertEquals((int) (1 / DabSpacing.MIN_STEP), count);
+    }
+}
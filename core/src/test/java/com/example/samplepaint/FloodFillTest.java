@@ -0,0 +1,143 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for FloodFill
+ */
+public class FloodFillTest {
+    private static final int WALL = 0xFF000000;
+    private static final int RED = 0xFFFF0000;
+
+    @Test
+    public void emptyBuffer_fillsEverything() throws Exception {
+        int[] pixels = new int[40 * 30];
+        FloodFill fill = new FloodFill(null, 16);
+
+        assertEquals(40 * 30, fill.fill(pixels, 40, 30, 5, 5, RED, 0));
+        for (int pixel : pixels){
+            assertEquals(RED, pixel);
+        }
+        assertEquals(0, fill.getLeft());
+        assertEquals(0, fill.getTop());
+        assertEquals(40, fill.getRight());
+        assertEquals(30, fill.getBottom());
+    }
+
+    @Test
+    public void wall_stopsTheFill() throws Exception {
+        int[] pixels = new int[32 * 32];
+        for (int y = 0; y < 32; y++){
+            pixels[y * 32 + 20] = WALL;
+        }
+        FloodFill fill = new FloodFill(null, 8);
+
+        assertEquals(20 * 32, fill.fill(pixels, 32, 32, 3, 3, RED, 0));
+        assertEquals(RED, pixels[31 * 32 + 19]);
+        assertEquals(WALL, pixels[10 * 32 + 20]);
+        assertEquals(0, pixels[10 * 32 + 21]);
+        assertEquals(20, fill.getRight());
+    }
+
+    @Test
+    public void tolerance_includesSimilarColors() throws Exception {
+        int[] pixels = new int[16 * 16];
+        //a slightly tinted column splits the buffer unless the tolerance covers it
+        for (int y = 0; y < 16; y++){
+            pixels[y * 16 + 8] = 0x00000010;
+        }
+
+        assertEquals(8 * 16, new FloodFill(null).fill(pixels.clone(), 16, 16, 0, 0, RED, 15));
+        assertEquals(16 * 16, new FloodFill(null).fill(pixels.clone(), 16, 16, 0, 0, RED, 16));
+    }
+
+    @Test
+    public void fillColorWithinTolerance_fillsEachPixelOnce() throws Exception {
+        int[] pixels = new int[20 * 20];
+        Arrays.fill(pixels, RED);
+
+        assertEquals(20 * 20, new FloodFill(null, 8).fill(pixels, 20, 20, 10, 10, RED, 255));
+    }
+
+    @Test
+    public void seedOutsideTheBuffer_fillsNothing() throws Exception {
+        FloodFill fill = new FloodFill(null);
+
+        assertEquals(0, fill.fill(new int[16], 4, 4, 4, 0, RED, 0));
+        assertEquals(0, fill.getRight());
+    }
+
+    @Test
+    public void area_confinesTheFill() throws Exception {
+        int[] pixels = new int[16 * 16];
+        FloodFill fill = new FloodFill(null, 4);
+
+        //the area from (4, 2) to (10, 7), seeded at its own (1, 1)
+        assertEquals(6 * 5, fill.fill(pixels, 2 * 16 + 4, 16, 6, 5, 1, 1, RED, 0));
+        assertEquals(0, pixels[2 * 16 + 3]);
+        assertEquals(RED, pixels[2 * 16 + 4]);
+        assertEquals(RED, pixels[6 * 16 + 9]);
+        assertEquals(0, pixels[6 * 16 + 10]);
+        assertEquals(0, pixels[7 * 16 + 9]);
+        assertEquals(6, fill.getRight());
+        assertEquals(5, fill.getBottom());
+    }
+
+    @Test
+    public void parallelFill_matchesSerialFill() throws Exception {
+        //a serpentine corridor crosses the tile borders back and forth
+        int width = 101;
+        int height = 77;
+        int[] pixels = new int[width * height];
+        for (int y = 4; y < height; y += 4){
+            int gap = (y / 4) % 2 == 0 ? 0 : width - 1;
+            for (int x = 0; x < width; x++){
+                if (x != gap){
+                    pixels[y * width + x] = WALL;
+                }
+            }
+        }
+        int[] serial = pixels.clone();
+        int serialCount = new FloodFill(null, 16).fill(serial, width, height, 50, 1, RED, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            FloodFill fill = new FloodFill(executor, 16);
+            int[] parallel = pixels.clone();
+            assertEquals(serialCount, fill.fill(parallel, width, height, 50, 1, RED, 0));
+            assertArrayEquals(serial, parallel);
+            assertEquals(height, fill.getBottom());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void fillOnItsOwnExecutor_finishes() throws Exception {
+        final int width = 64;
+        final int height = 64;
+        final int[] pixels = new int[width * height];
+        //the only thread of the executor runs the fill, so it fills the other tiles itself
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> filled = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return new FloodFill(executor, 16).fill(pixels, width, height, 0, 0, RED, 0);
+                }
+            });
+            assertEquals(width * height, (int) filled.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_reportBucketUpperBound() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(100, 10);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(i * 5);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(300, histogram.getPercentile(0.5f));
+        assertEquals(495, histogram.getPercentile(0.99f));
+        assertEquals(495, histogram.getMax());
+    }
+
+    @Test
+    public void overflow_reportsMaximum() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(100, 10);
+        histogram.record(50);
+        histogram.record(5000);
+        assertEquals(100, histogram.getPercentile(0.5f));
+        assertEquals(5000, histogram.getPercentile(0.99f));
+    }
+
+    @Test
+    public void clear_dropsSamples() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(100, 10);
+        histogram.record(250);
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5f));
+    }
+}
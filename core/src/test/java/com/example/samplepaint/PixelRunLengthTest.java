@@ -0,0 +1,28 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PixelRunLength
+ */
+public class PixelRunLengthTest {
+
+    @Test
+    public void encode_returnsNullForTransparentPixels() throws Exception {
+        int[] pixels = new int[16];
+        assertNull(PixelRunLength.encode(pixels, pixels.length, new int[32]));
+    }
+
+    @Test
+    public void encode_decode_roundTrip() throws Exception {
+        int[] pixels = {0, 0, 0, 0xFF000000, 0xFF000000, 0x80FF0000, 0, 0};
+        int[] runs = PixelRunLength.encode(pixels, pixels.length, new int[16]);
+        assertArrayEquals(new int[] {3, 0, 2, 0xFF000000, 1, 0x80FF0000, 2, 0}, runs);
+
+        int[] decoded = new int[pixels.length];
+        PixelRunLength.decode(runs, decoded, decoded.length);
+        assertArrayEquals(pixels, decoded);
+    }
+}
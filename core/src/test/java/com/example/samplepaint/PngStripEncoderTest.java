@@ -0,0 +1,124 @@
+package com.example.samplepaint;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PngStripEncoder
+ */
+public class PngStripEncoderTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 211;
+    //a few rows per strip so the image spans many strips
+    private static final int STRIP_ROWS = 7;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void encode_parallelStripsDecodeToThePixels() throws Exception {
+        int[] pixels = image();
+        byte[] png = encode(new PngStripEncoder(mExecutor), pixels);
+        assertPixels(pixels, png);
+    }
+
+    @Test
+    public void encode_serialStripsDecodeToThePixels() throws Exception {
+        int[] pixels = image();
+        byte[] png = encode(new PngStripEncoder(null), pixels);
+        assertPixels(pixels, png);
+    }
+
+    @Test
+    public void encode_stripsMatchTheStripBeforeThem() throws Exception {
+        //noise repeating every strip only compresses through matches across strips
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(3);
+        for (int i = 0; i < WIDTH * STRIP_ROWS; i++){
+            pixels[i] = random.nextInt();
+        }
+        for (int i = WIDTH * STRIP_ROWS; i < pixels.length; i++){
+            pixels[i] = pixels[i - WIDTH * STRIP_ROWS];
+        }
+        byte[] parallel = encode(new PngStripEncoder(mExecutor), pixels);
+        byte[] serial = encode(new PngStripEncoder(null), pixels);
+        assertPixels(pixels, parallel);
+        assertTrue(parallel.length < serial.length * 1.5);
+    }
+
+    @Test
+    public void combineAdler_matchesTheChecksumOfTheJoinedBytes() throws Exception {
+        byte[] bytes = new byte[100000];
+        new Random(7).nextBytes(bytes);
+        Adler32 first = new Adler32();
+        first.update(bytes, 0, 40000);
+        Adler32 second = new Adler32();
+        second.update(bytes, 40000, 60000);
+        Adler32 whole = new Adler32();
+        whole.update(bytes);
+        assertEquals(whole.getValue(),
+                PngStripEncoder.combineAdler(first.getValue(), second.getValue(), 60000));
+    }
+
+    /**
+     * Strokes of a few colors, some translucent, on a transparent background
+     */
+    private static int[] image(){
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int stroke = 0; stroke < 40; stroke++){
+            int y = random.nextInt(HEIGHT);
+            int x = random.nextInt(WIDTH / 2);
+            int color = (random.nextBoolean() ? 0xFF000000 : 0x80000000)
+                    | random.nextInt(0x1000000);
+            for (int row = y; row < Math.min(HEIGHT, y + 4); row++){
+                for (int column = x; column < x + WIDTH / 2; column++){
+                    pixels[row * WIDTH + column] = color;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static byte[] encode(PngStripEncoder encoder, final int[] pixels) throws Exception {
+        encoder.setStripBytes((1 + WIDTH * 4) * STRIP_ROWS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(new PngStripEncoder.PixelSource() {
+            @Override
+            public void readRows(int top, int rows, int[] target) {
+                System.arraycopy(pixels, top * WIDTH, target, 0, rows * WIDTH);
+            }
+        }, WIDTH, HEIGHT, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static void assertPixels(int[] expected, byte[] png) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        int[] decoded = image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        for (int i = 0; i < expected.length; i++){
+            //fully transparent pixels may decode with any color
+            if (expected[i] != 0 || decoded[i] != 0){
+                assertEquals("pixel " + i, expected[i], decoded[i]);
+            }
+        }
+    }
+}
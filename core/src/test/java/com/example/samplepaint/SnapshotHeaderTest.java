@@ -0,0 +1,42 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SnapshotHeader
+ */
+public class SnapshotHeaderTest {
+
+    @Test
+    public void encode_decode_roundTrip() throws Exception {
+        SnapshotHeader header = new SnapshotHeader(1000, 700, 16, new int[] {0, 3},
+                new int[] {2, 1});
+        ByteBuffer file = ByteBuffer.allocate((int) header.getFileBytes());
+        file.put(header.encode());
+        file.rewind();
+
+        SnapshotHeader decoded = SnapshotHeader.decode(file, 16);
+        assertEquals(1000, decoded.width);
+        assertEquals(700, decoded.height);
+        assertArrayEquals(new int[] {0, 3}, decoded.columns);
+        assertArrayEquals(new int[] {2, 1}, decoded.rows);
+        assertEquals(SnapshotHeader.PAGE_BYTES, decoded.getPixelOffset());
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedFile() throws Exception {
+        SnapshotHeader header = new SnapshotHeader(16, 16, 16, new int[] {0}, new int[] {0});
+        SnapshotHeader.decode(header.encode(), 16);
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherTileSize() throws Exception {
+        SnapshotHeader header = new SnapshotHeader(16, 16, 16, new int[0], new int[0]);
+        SnapshotHeader.decode(header.encode(), 256);
+    }
+}
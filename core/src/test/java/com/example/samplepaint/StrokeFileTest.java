@@ -0,0 +1,252 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokeFileWriter and StrokeFileReader
+ */
+public class StrokeFileTest {
+    private static final int[] PALETTE = {0xFF33B5E5, 0xFFAA66CC, 0xFF000000};
+
+    @Test
+    public void writeThenRead_returnsTheCommands() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokeFileWriter writer = new StrokeFileWriter(Channels.newChannel(out), 800, 600,
+                PALETTE);
+        writer.write(0, 0, 3, 0xFFAA66CC, 5f,
+                new float[] {10.5f, 20f, 12.25f, 19.0625f, -3f, 0f}, 3);
+        writer.write(1, 2, 0, 0, 0, new float[0], 0);
+        writer.write(2, 1, 0, 0x80123456, 32, new float[] {1, 2, 0, 0, 800, 600}, 3);
+        writer.flush();
+
+        StrokeFileReader reader = new StrokeFileReader(channel(out.toByteArray(), 4096));
+        assertEquals(800, reader.getWidth());
+        assertEquals(600, reader.getHeight());
+        assertArrayEquals(PALETTE, reader.getPalette());
+
+        assertTrue(reader.next());
+        assertEquals(0, reader.getType());
+        assertEquals(3, reader.getBrushType());
+        assertEquals(0xFFAA66CC, reader.getColor());
+        assertEquals(5f, reader.getStrokeWidth(), 0);
+        assertEquals(3, reader.getPointCount());
+        assertArrayEquals(new float[] {10.5f, 20f, 12.25f, 19.0625f, -3f, 0f},
+                Arrays.copyOf(reader.getPoints(), 6), 0);
+        assertNull(reader.getPointWidths());
+
+        assertTrue(reader.next());
+        assertEquals(1, reader.getType());
+        assertEquals(2, reader.getLayer());
+        assertEquals(0, reader.getPointCount());
+
+        assertTrue(reader.next());
+        assertEquals(2, reader.getType());
+        assertEquals(1, reader.getLayer());
+        assertEquals(0x80123456, reader.getColor());
+        assertEquals(32f, reader.getStrokeWidth(), 0);
+        assertEquals(600f, reader.getPoints()[5], 0);
+
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void read_returnsEachCommandFromAChannelDeliveringSingleBytes() throws Exception {
+        float[] points = stroke(5000);
+        byte[] file = write(points, 5000, 3);
+
+        StrokeFileReader reader = new StrokeFileReader(channel(file, 1));
+        for (int i = 0; i < 3; i++){
+            assertTrue(reader.next());
+            assertEquals(5000, reader.getPointCount());
+            assertEquals(points[9999], reader.getPoints()[9999],
+                    0.5f / StrokeFileWriter.COORDINATE_SCALE);
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void write_storesAPointOfASmoothStrokeInAFewBytes() throws Exception {
+        byte[] file = write(stroke(1000), 1000, 1);
+        assertTrue(file.length < 1000 * 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsOtherFiles() throws Exception {
+        new StrokeFileReader(channel(new byte[] {'S', 'P', 'C', '2', 1, 0, 0, 0}, 16));
+    }
+
+    @Test(expected = IOException.class)
+    public void next_rejectsTruncatedCommand() throws Exception {
+        byte[] file = write(stroke(100), 100, 1);
+        StrokeFileReader reader = new StrokeFileReader(
+                channel(Arrays.copyOf(file, file.length - 1), 4096));
+        reader.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void next_rejectsRecordLongerThanTheCap() throws Exception {
+        ByteBuffer file = header();
+        StrokeFileWriter.putVarint(file, StrokeFileWriter.MAX_RECORD_BYTES + 1);
+        file.flip();
+        StrokeFileReader reader = new StrokeFileReader(channel(Arrays.copyOf(file.array(),
+                file.limit()), 4096));
+        reader.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void next_rejectsLayerBeyondTheCap() throws Exception {
+        ByteBuffer file = header();
+        ByteBuffer record = ByteBuffer.allocate(16);
+        record.put((byte) 0);
+        StrokeFileWriter.putVarint(record, StrokeFileWriter.MAX_LAYERS);
+        //brush type, a color outside the palette, width, point count and width count
+        StrokeFileWriter.putVarint(record, 0);
+        StrokeFileWriter.putVarint(record, 0);
+        record.putInt(0xFF000000);
+        StrokeFileWriter.putVarint(record, 0);
+        StrokeFileWriter.putVarint(record, 0);
+        StrokeFileWriter.putVarint(record, 0);
+        record.flip();
+        StrokeFileWriter.putVarint(file, record.remaining());
+        file.put(record).flip();
+        StrokeFileReader reader = new StrokeFileReader(channel(Arrays.copyOf(file.array(),
+                file.limit()), 4096));
+        reader.next();
+    }
+
+    @Test(expected = IOException.class)
+    public void write_rejectsLayerBeyondTheCap() throws Exception {
+        StrokeFileWriter writer = new StrokeFileWriter(
+                Channels.newChannel(new ByteArrayOutputStream()), 800, 600, PALETTE);
+        writer.write(0, StrokeFileWriter.MAX_LAYERS, 0, 0, 5f, new float[0], 0);
+    }
+
+    /**
+     * The header of a version 3 file of 800 x 600 pixels with an empty palette
+     */
+    private static ByteBuffer header(){
+        ByteBuffer file = ByteBuffer.allocate(64);
+        file.putInt(StrokeFileWriter.MAGIC);
+        StrokeFileWriter.putVarint(file, StrokeFileWriter.VERSION);
+        StrokeFileWriter.putVarint(file, 800);
+        StrokeFileWriter.putVarint(file, 600);
+        StrokeFileWriter.putVarint(file, 0);
+        return file;
+    }
+
+    @Test
+    public void zigzag_roundTripsSignedValues() throws Exception {
+        for (int value : new int[] {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE}){
+            assertEquals(value, StrokeFileReader.unzigzag(StrokeFileWriter.zigzag(value)));
+        }
+        assertEquals(1, StrokeFileWriter.zigzag(-1));
+    }
+
+    /**
+     * A wavy stroke moving a couple of pixels per point
+     */
+    private static float[] stroke(int pointCount){
+        float[] points = new float[pointCount * 2];
+        for (int i = 0; i < pointCount; i++){
+            points[i * 2] = 100 + i * 1.5f;
+            points[i * 2 + 1] = 300 + 50 * (float) Math.sin(i / 20.0);
+        }
+        return points;
+    }
+
+    @Test
+    public void read_readsVersion1FilesWithoutBrushType() throws Exception {
+        ByteBuffer file = ByteBuffer.allocate(64);
+        file.putInt(StrokeFileWriter.MAGIC);
+        StrokeFileWriter.putVarint(file, 1);
+        StrokeFileWriter.putVarint(file, 800);
+        StrokeFileWriter.putVarint(file, 600);
+        StrokeFileWriter.putVarint(file, 0);
+        //type, layer, explicit color, width, one point
+        byte[] record = {0, 1, 0, (byte) 0xFF, 0x11, 0x22, 0x33, 0x50, 1, 0x20, 0x40};
+        StrokeFileWriter.putVarint(file, record.length);
+        file.put(record);
+
+        StrokeFileReader reader = new StrokeFileReader(
+                channel(Arrays.copyOf(file.array(), file.position()), 4096));
+        assertTrue(reader.next());
+        assertEquals(1, reader.getLayer());
+        assertEquals(0, reader.getBrushType());
+        assertEquals(0xFF112233, reader.getColor());
+        assertEquals(5f, reader.getStrokeWidth(), 0);
+        assertEquals(1f, reader.getPoints()[0], 0);
+        assertEquals(2f, reader.getPoints()[1], 0);
+        assertNull(reader.getPointWidths());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void writeThenRead_returnsTheWidthsOfVariableWidthStrokes() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokeFileWriter writer = new StrokeFileWriter(Channels.newChannel(out), 800, 600,
+                PALETTE);
+        writer.write(0, 0, 0, 0xFF000000, 8f, new float[] {1, 2, 3, 4, 5, 6},
+                new float[] {2.5f, 8f, 4.0625f}, 3);
+        writer.write(0, 0, 0, 0xFF000000, 8f, new float[] {1, 2}, 1);
+        writer.flush();
+
+        StrokeFileReader reader = new StrokeFileReader(channel(out.toByteArray(), 4096));
+        assertTrue(reader.next());
+        assertEquals(8f, reader.getStrokeWidth(), 0);
+        assertArrayEquals(new float[] {2.5f, 8f, 4.0625f},
+                Arrays.copyOf(reader.getPointWidths(), 3), 0);
+        assertTrue(reader.next());
+        assertNull(reader.getPointWidths());
+        assertFalse(reader.next());
+    }
+
+    private static byte[] write(float[] points, int pointCount, int strokes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokeFileWriter writer = new StrokeFileWriter(Channels.newChannel(out), 4096, 4096,
+                PALETTE);
+        for (int i = 0; i < strokes; i++){
+            writer.write(0, 0, 0, PALETTE[2], 5f, points, pointCount);
+        }
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * A channel over the bytes returning at most chunk bytes per read
+     */
+    private static ReadableByteChannel channel(byte[] bytes, final int chunk){
+        final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                ByteBuffer slice = buffer.duplicate();
+                slice.limit(Math.min(buffer.limit(), buffer.position() + chunk));
+                int read = channel.read(slice);
+                if (read > 0){
+                    buffer.position(buffer.position() + read);
+                }
+                return read;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
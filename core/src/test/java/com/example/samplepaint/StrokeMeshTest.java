@@ -0,0 +1,312 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokeMesh
+ */
+public class StrokeMeshTest {
+    //rows of the start cap, up to and including the first row
+    private static final int START_CAP = StrokeMesh.CAP_ROWS + 1;
+    private static final float HALF_FEATHER = StrokeMesh.FEATHER / 2;
+
+    /**
+     * Checks the winding of the triangles emitted as paths
+     */
+    private static class TriangleSink implements StrokeSmoother.PathSink {
+        float[] corners = new float[6 * 64];
+        int corner;
+        int triangles;
+        int clockwise;
+
+        @Override
+        public void moveTo(float x, float y) {
+            corner = triangles * 3;
+            add(x, y);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            add(x, y);
+            if (corner == triangles * 3 + 3) {
+                int c = triangles * 6;
+                float cross = (corners[c + 2] - corners[c]) * (corners[c + 5] - corners[c + 1])
+                        - (corners[c + 3] - corners[c + 1]) * (corners[c + 4] - corners[c]);
+                if (cross < 0) {
+                    clockwise++;
+                }
+                triangles++;
+            }
+        }
+
+        @Override
+        public void quadTo(float controlX, float controlY, float x, float y) {
+            fail();
+        }
+
+        private void add(float x, float y) {
+            if (corner * 2 + 2 > corners.length) {
+                corners = Arrays.copyOf(corners, corners.length * 2);
+            }
+            corners[corner * 2] = x;
+            corners[corner * 2 + 1] = y;
+            corner++;
+        }
+
+        boolean covers(float x, float y) {
+            for (int i = 0; i < triangles; i++) {
+                int c = i * 6;
+                float d0 = side(corners, c, c + 2, x, y);
+                float d1 = side(corners, c + 2, c + 4, x, y);
+                float d2 = side(corners, c + 4, c, x, y);
+                if (d0 >= 0 && d1 >= 0 && d2 >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void lineTo_addsStartCapAndRowAtEnd() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(4);
+        mesh.moveTo(0, 0);
+        mesh.lineTo(10, 0);
+
+        assertEquals(START_CAP + 1, mesh.getRowCount());
+        assertEquals(START_CAP, mesh.getStableRowCount());
+        assertRow(0, 2, 0, -2, mesh, START_CAP - 1);
+        assertRow(10, 2, 10, -2, mesh, START_CAP);
+        //the pole of the start cap leads the mesh
+        assertRow(-2, 0, -2, 0, mesh, 0);
+    }
+
+    @Test
+    public void appendRow_feathersTheEdges() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(4);
+        mesh.moveTo(0, 0);
+        mesh.lineTo(10, 0);
+
+        float[] vertices = mesh.getVertices();
+        int row = START_CAP * StrokeMesh.VERTICES_PER_ROW;
+        assertVertex(10, 2 + HALF_FEATHER, vertices, row);
+        assertVertex(10, 2 - HALF_FEATHER, vertices, row + 1);
+        assertVertex(10, -2 + HALF_FEATHER, vertices, row + 2);
+        assertVertex(10, -2 - HALF_FEATHER, vertices, row + 3);
+        assertEquals(1f, mesh.getCoverage()[START_CAP], 0f);
+    }
+
+    @Test
+    public void appendRow_fadesStrokesThinnerThanTheFeather() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(StrokeMesh.FEATHER / 4);
+        mesh.moveTo(0, 0);
+        mesh.lineTo(10, 0);
+
+        float[] vertices = mesh.getVertices();
+        int row = START_CAP * StrokeMesh.VERTICES_PER_ROW;
+        //the inner vertices meet on the curve
+        assertVertex(10, 0, vertices, row + 1);
+        assertVertex(10, 0, vertices, row + 2);
+        assertEquals(0.25f, mesh.getCoverage()[START_CAP], 1e-6f);
+    }
+
+    @Test
+    public void end_addsCapAndMakesMeshStable() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(4);
+        mesh.moveTo(0, 0);
+        mesh.lineTo(10, 0);
+        mesh.end();
+
+        int count = mesh.getRowCount();
+        assertEquals(2 * START_CAP, count);
+        assertEquals(count, mesh.getStableRowCount());
+        assertRow(12, 0, 12, 0, mesh, count - 1);
+        float[] edges = edges(mesh);
+        for (int i = START_CAP + 1; i < count; i++) {
+            for (int side = 0; side < 2; side++) {
+                float dx = edges[i * 4 + side * 2] - 10;
+                float dy = edges[i * 4 + side * 2 + 1];
+                assertEquals(2f, (float) Math.sqrt(dx * dx + dy * dy), 1e-4f);
+                assertTrue(dx > 0);
+            }
+        }
+    }
+
+    @Test
+    public void lineTo_mitersJoin() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(2);
+        mesh.moveTo(0, 0);
+        mesh.lineTo(10, 0);
+        mesh.lineTo(10, 10);
+
+        assertRow(9, 1, 11, -1, mesh, START_CAP);
+        assertRow(9, 10, 11, 10, mesh, START_CAP + 1);
+        //the fringe keeps its width along the miter
+        float[] vertices = mesh.getVertices();
+        int row = START_CAP * StrokeMesh.VERTICES_PER_ROW;
+        assertVertex(9 - HALF_FEATHER, 1 + HALF_FEATHER, vertices, row);
+    }
+
+    @Test
+    public void quadTo_interpolatesWidthAlongCurve() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(2);
+        mesh.moveTo(0, 0);
+        mesh.setWidth(10);
+        mesh.quadTo(50, 0, 100, 0);
+
+        //a straight curve is a single line
+        assertRow(100, 5, 100, -5, mesh, START_CAP);
+        assertRow(0, 1, 0, -1, mesh, START_CAP - 1);
+    }
+
+    @Test
+    public void commit_keepsLastStableRow() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.setWidth(2);
+        mesh.moveTo(0, 0);
+        for (int i = 1; i <= 5; i++) {
+            mesh.lineTo(i * 10, (i % 2) * 10);
+        }
+        int count = mesh.getRowCount();
+        int floats = StrokeMesh.VERTICES_PER_ROW * 2;
+        float[] stable = Arrays.copyOfRange(mesh.getVertices(), (count - 2) * floats,
+                count * floats);
+
+        mesh.commit();
+        assertEquals(2, mesh.getRowCount());
+        assertEquals(1, mesh.getStableRowCount());
+        assertArrayEquals(stable, Arrays.copyOf(mesh.getVertices(), 2 * floats), 0f);
+
+        //the mesh goes on from the kept row
+        mesh.lineTo(60, 0);
+        assertEquals(3, mesh.getRowCount());
+        assertArrayEquals(Arrays.copyOf(stable, floats),
+                Arrays.copyOf(mesh.getVertices(), floats), 0f);
+    }
+
+    @Test
+    public void build_matchesLiveStroke() throws Exception {
+        float[] points = {0, 0, 10, 0, 20, 15, 35, 10, 50, 30};
+        float[] widths = {2, 4, 8, 6, 3};
+        StrokeMesh live = new StrokeMesh();
+        StrokeSmoother smoother = new StrokeSmoother();
+        live.setWidth(widths[0]);
+        smoother.begin(points[0], points[1], live);
+        for (int i = 1; i < 5; i++) {
+            live.setWidth((widths[i - 1] + widths[i]) / 2);
+            assertTrue(smoother.add(points[i * 2], points[i * 2 + 1], live));
+        }
+        live.setWidth(widths[4]);
+        smoother.end(live);
+        live.end();
+
+        StrokeMesh built = new StrokeMesh();
+        built.build(points, widths, 5);
+        int floats = StrokeMesh.VERTICES_PER_ROW * 2;
+        assertEquals(live.getRowCount(), built.getRowCount());
+        assertArrayEquals(Arrays.copyOf(live.getVertices(), live.getRowCount() * floats),
+                Arrays.copyOf(built.getVertices(), built.getRowCount() * floats), 0f);
+    }
+
+    @Test
+    public void build_leavesSinglePointEmpty() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.build(new float[] {5, 5}, new float[] {4}, 1);
+        assertEquals(0, mesh.getRowCount());
+    }
+
+    @Test
+    public void triangles_areWoundTheSameWay() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.build(new float[] {0, 0, 10, 0, 10, 10, 0, 10}, new float[] {4, 4, 4, 4}, 4);
+        TriangleSink sink = new TriangleSink();
+        mesh.triangles(0, mesh.getRowCount(), sink);
+
+        assertEquals((mesh.getRowCount() - 1) * 2, sink.triangles);
+        assertEquals(0, sink.clockwise);
+    }
+
+    @Test
+    public void build_coversBothCaps() throws Exception {
+        StrokeMesh mesh = new StrokeMesh();
+        mesh.build(new float[] {0, 0, 40, 0}, new float[] {40, 40}, 2);
+        TriangleSink sink = new TriangleSink();
+        mesh.triangles(0, mesh.getRowCount(), sink);
+
+        //every point of the stroke inside the inscribed polygon of its caps
+        float radius = 20 * (float) Math.cos(Math.PI / (2 * StrokeMesh.CAP_SEGMENTS)) - 0.01f;
+        int uncovered = 0;
+        for (float y = -radius; y <= radius; y += 0.25f) {
+            for (float x = -radius; x <= 40 + radius; x += 0.25f) {
+                float dx = x - Math.max(0, Math.min(40, x));
+                if (dx * dx + y * y <= radius * radius && !sink.covers(x, y)) {
+                    uncovered++;
+                }
+            }
+        }
+        assertEquals(0, uncovered);
+    }
+
+    @Test
+    public void getIndices_joinsConsecutiveRowsWithSixTriangles() throws Exception {
+        short[] indices = StrokeMesh.getIndices();
+        int rows = StrokeMesh.MAX_DRAW_ROWS;
+        assertEquals((rows - 1) * StrokeMesh.INDICES_PER_ROW, indices.length);
+        for (int row = 0; row + 1 < rows; row++) {
+            int first = row * StrokeMesh.VERTICES_PER_ROW;
+            for (int i = 0; i < StrokeMesh.INDICES_PER_ROW; i++) {
+                int index = indices[row * StrokeMesh.INDICES_PER_ROW + i];
+                assertTrue(index >= first && index < first + 2 * StrokeMesh.VERTICES_PER_ROW);
+            }
+        }
+        assertSame(indices, StrokeMesh.getIndices());
+    }
+
+    /**
+     * Get the edge points of every row, halfway between its inner and outer vertices, as
+     * left x, left y, right x, right y
+     */
+    private static float[] edges(StrokeMesh mesh) {
+        float[] v = mesh.getVertices();
+        float[] edges = new float[mesh.getRowCount() * 4];
+        for (int row = 0; row < mesh.getRowCount(); row++) {
+            int i = row * StrokeMesh.VERTICES_PER_ROW * 2;
+            float coverage = mesh.getCoverage()[row];
+            float share = coverage / (coverage + 1);
+            edges[row * 4] = v[i + 2] + (v[i] - v[i + 2]) * share;
+            edges[row * 4 + 1] = v[i + 3] + (v[i + 1] - v[i + 3]) * share;
+            edges[row * 4 + 2] = v[i + 4] + (v[i + 6] - v[i + 4]) * share;
+            edges[row * 4 + 3] = v[i + 5] + (v[i + 7] - v[i + 5]) * share;
+        }
+        return edges;
+    }
+
+    private static float side(float[] corners, int a, int b, float x, float y) {
+        return (corners[b] - corners[a]) * (y - corners[a + 1])
+                - (corners[b + 1] - corners[a + 1]) * (x - corners[a]);
+    }
+
+    private static void assertRow(float leftX, float leftY, float rightX, float rightY,
+            StrokeMesh mesh, int row) {
+        float[] edges = edges(mesh);
+        assertEquals(leftX, edges[row * 4], 1e-4f);
+        assertEquals(leftY, edges[row * 4 + 1], 1e-4f);
+        assertEquals(rightX, edges[row * 4 + 2], 1e-4f);
+        assertEquals(rightY, edges[row * 4 + 3], 1e-4f);
+    }
+
+    private static void assertVertex(float x, float y, float[] vertices, int index) {
+        assertEquals(x, vertices[index * 2], 1e-4f);
+        assertEquals(y, vertices[index * 2 + 1], 1e-4f);
+    }
+}
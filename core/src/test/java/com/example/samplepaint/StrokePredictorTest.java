@@ -0,0 +1,64 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokePredictor
+ */
+public class StrokePredictorTest {
+
+    @Test
+    public void predict_needsTwoSamples() throws Exception {
+        StrokePredictor predictor = new StrokePredictor(null);
+        float[] out = new float[2];
+        predictor.add(0, 0, 0);
+        assertFalse(predictor.predict(16, out));
+        predictor.add(8, 0, 8);
+        assertTrue(predictor.predict(16, out));
+        assertEquals(24f, out[0], 0.001f);
+        assertEquals(0f, out[1], 0.001f);
+    }
+
+    @Test
+    public void predict_followsAcceleration() throws Exception {
+        StrokePredictor predictor = new StrokePredictor(null);
+        float[] out = new float[2];
+        //x = t * t / 8, so the velocity grows by 0.25 per ms every ms
+        predictor.add(0, 0, 0);
+        predictor.add(0.5f, 0, 2);
+        predictor.add(2f, 0, 4);
+        assertTrue(predictor.predict(4, out));
+        assertEquals(8f, out[0], 0.5f);
+    }
+
+    @Test
+    public void exactPrediction_gainsTheWholeHorizon() throws Exception {
+        LatencyHistogram reduction = new LatencyHistogram(100, 100);
+        StrokePredictor predictor = new StrokePredictor(reduction);
+        float[] out = new float[2];
+        predictor.add(0, 0, 0);
+        predictor.add(8, 8, 8);
+        predictor.predict(8, out);
+        predictor.add(16, 16, 16);
+
+        assertEquals(1, reduction.getCount());
+        assertEquals(8000, reduction.getMean());
+    }
+
+    @Test
+    public void wrongPrediction_gainsNothing() throws Exception {
+        LatencyHistogram reduction = new LatencyHistogram(100, 100);
+        StrokePredictor predictor = new StrokePredictor(reduction);
+        float[] out = new float[2];
+        predictor.add(0, 0, 0);
+        predictor.add(8, 0, 8);
+        predictor.predict(8, out);
+        //the pointer turned back
+        predictor.add(0, 0, 16);
+
+        assertEquals(1, reduction.getCount());
+        assertEquals(0, reduction.getMean());
+    }
+}
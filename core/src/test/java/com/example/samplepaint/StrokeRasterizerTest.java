@@ -0,0 +1,88 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokeRasterizer
+ */
+public class StrokeRasterizerTest {
+
+    @Test
+    public void horizontalStroke_coversHalfWidthAroundTheLine() throws Exception {
+        StrokeRasterizer rasterizer = new StrokeRasterizer(new int[32 * 32], 32, 32);
+        rasterizer.drawPolyline(new float[] {8, 16, 24, 16}, 2, 0xFF0000FF, 5);
+        int[] pixels = rasterizer.getPixels();
+
+        //centers within 2 pixels of the line are fully covered
+        assertEquals(0xFF0000FF, pixels[16 * 32 + 16]);
+        assertEquals(0xFF0000FF, pixels[14 * 32 + 16]);
+        assertEquals(0xFF0000FF, pixels[17 * 32 + 16]);
+        //2.5 pixels away is the antialiased edge, 3.5 pixels away is outside
+        assertEquals(0x80, pixels[13 * 32 + 16] >>> 24);
+        assertEquals(0, pixels[12 * 32 + 16]);
+        assertEquals(0, pixels[19 * 32 + 16]);
+    }
+
+    @Test
+    public void roundCap_extendsPastTheEndPoint() throws Exception {
+        StrokeRasterizer rasterizer = new StrokeRasterizer(new int[32 * 32], 32, 32);
+        rasterizer.drawPolyline(new float[] {8, 16, 24, 16}, 2, 0xFF000000, 5);
+        int[] pixels = rasterizer.getPixels();
+
+        assertEquals(0xFF000000, pixels[15 * 32 + 25]);
+        assertEquals(0, pixels[15 * 32 + 27]);
+        //the corner of a square cap would be covered, the round cap leaves it out
+        assertEquals(0, pixels[18 * 32 + 26]);
+    }
+
+    @Test
+    public void singlePoint_drawsADot() throws Exception {
+        StrokeRasterizer rasterizer = new StrokeRasterizer(new int[16 * 16], 16, 16);
+        rasterizer.drawStroke(new float[] {8, 8}, 1, 0xFFFF0000, 5);
+        int[] pixels = rasterizer.getPixels();
+
+        assertEquals(0xFFFF0000, pixels[8 * 16 + 8]);
+        assertEquals(0, pixels[0]);
+    }
+
+    @Test
+    public void overlappingSegments_blendOnce() throws Exception {
+        StrokeRasterizer rasterizer = new StrokeRasterizer(new int[32 * 32], 32, 32);
+        //the joint at (16, 16) is covered by both segments
+        rasterizer.drawPolyline(new float[] {4, 16, 16, 16, 16, 28}, 3, 0x80FF0000, 5);
+
+        assertEquals(0x80FF0000, rasterizer.getPixels()[16 * 32 + 16]);
+    }
+
+    @Test
+    public void translucentStroke_blendsSourceOver() throws Exception {
+        int[] pixels = new int[8 * 8];
+        java.util.Arrays.fill(pixels, 0xFF0000FF);
+        StrokeRasterizer rasterizer = new StrokeRasterizer(pixels, 8, 8);
+        rasterizer.drawPolyline(new float[] {0, 4, 8, 4}, 2, 0x80FF0000, 3);
+
+        assertEquals(0xFF80007F, pixels[4 * 8 + 4]);
+    }
+
+    @Test
+    public void drawPixels_blendsSourceOver() throws Exception {
+        int[] pixels = new int[2 * 2];
+        java.util.Arrays.fill(pixels, 0xFF0000FF);
+        StrokeRasterizer rasterizer = new StrokeRasterizer(pixels, 2, 2);
+        rasterizer.drawPixels(new int[] {0x80FF0000, 0, 0xFF00FF00, 0x80FF0000});
+
+        assertEquals(0xFF80007F, pixels[0]);
+        assertEquals(0xFF0000FF, pixels[1]);
+        assertEquals(0xFF00FF00, pixels[2]);
+    }
+
+    @Test
+    public void strokeOutsideTheBuffer_isClipped() throws Exception {
+        StrokeRasterizer rasterizer = new StrokeRasterizer(new int[8 * 8], 8, 8);
+        rasterizer.drawPolyline(new float[] {-20, -20, 30, 30}, 2, 0xFF000000, 4);
+
+        assertEquals(0xFF000000, rasterizer.getPixels()[4 * 8 + 4]);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokeSmoother
+ */
+public class StrokeSmootherTest {
+
+    /**
+     * Records the segments emitted by the smoother
+     */
+    private static class RecordingSink implements StrokeSmoother.PathSink {
+        final StringBuilder segments = new StringBuilder();
+
+        @Override
+        public void moveTo(float x, float y) {
+            segments.append("M").append(x).append(',').append(y).append(' ');
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            segments.append("L").append(x).append(',').append(y).append(' ');
+        }
+
+        @Override
+        public void quadTo(float controlX, float controlY, float x, float y) {
+            segments.append("Q").append(controlX).append(',').append(controlY).append(' ')
+                    .append(x).append(',').append(y).append(' ');
+        }
+    }
+
+    @Test
+    public void add_dropsSamplesCloserThanMinDistance() throws Exception {
+        StrokeSmoother smoother = new StrokeSmoother(2f, 0f, 0.5f);
+        RecordingSink sink = new RecordingSink();
+        smoother.begin(0, 0, sink);
+        assertFalse(smoother.add(1, 1, sink));
+        assertTrue(smoother.add(4, 0, sink));
+        assertEquals("M0.0,0.0 Q0.0,0.0 2.0,0.0 ", sink.segments.toString());
+        assertEquals(2f, smoother.getPenX(), 0f);
+    }
+
+    @Test
+    public void smooth_matchesLiveStroke() throws Exception {
+        float[] points = {0, 0, 10, 0, 10, 10, 20, 10};
+        StrokeSmoother smoother = new StrokeSmoother();
+        RecordingSink live = new RecordingSink();
+        smoother.begin(points[0], points[1], live);
+        for (int i = 1; i < 4; i++) {
+            smoother.add(points[i * 2], points[i * 2 + 1], live);
+        }
+        smoother.end(live);
+
+        RecordingSink replay = new RecordingSink();
+        StrokeSmoother.smooth(points, 4, replay);
+        assertEquals(live.segments.toString(), replay.segments.toString());
+    }
+
+    @Test
+    public void flatten_followsTheSmoothedCurve() throws Exception {
+        float[] points = {0, 0, 10, 0, 10, 10};
+        float[] widths = {2, 4, 6};
+        StrokeSmoother smoother = new StrokeSmoother();
+        int count = smoother.flatten(points, widths, 3);
+        float[] curve = smoother.getCurve();
+        float[] curveWidths = smoother.getCurveWidths();
+        //the curves end halfway between the samples, with the mean of their widths
+        assertTrue(containsPoint(curve, curveWidths, count, 5, 0, 3));
+        assertTrue(containsPoint(curve, curveWidths, count, 10, 5, 5));
+        assertEquals(0f, curve[0], 0f);
+        assertEquals(10f, curve[count * 2 - 1], 0f);
+        assertEquals(6f, curveWidths[count - 1], 0f);
+        //the second curve bends around the corner in several chords
+        assertTrue(count > 4);
+        for (int i = 0; i < count; i++) {
+            assertTrue(curve[i * 2 + 1] <= 5 || curve[i * 2] == 10);
+        }
+    }
+
+    private static boolean containsPoint(float[] curve, float[] widths, int count, float x,
+            float y, float width) {
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(curve[i * 2] - x) < 1e-4f && Math.abs(curve[i * 2 + 1] - y) < 1e-4f) {
+                return Math.abs(widths[i] - width) < 1e-4f;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void simplify_removesPointsWithinEpsilon() throws Exception {
+        float[] points = {0, 0, 5, 0.2f, 10, -0.2f, 15, 0, 15, 10};
+        int count = new StrokeSmoother(0f, 0f, 0.5f).simplify(points, 5);
+        assertEquals(3, count);
+        assertEquals(15f, points[2], 0f);
+        assertEquals(10f, points[5], 0f);
+    }
+
+    @Test
+    public void simplify_keepsPointsWhereWidthChanges() throws Exception {
+        float[] points = {0, 0, 5, 0, 10, 0, 15, 0};
+        float[] widths = {2, 5, 8, 3};
+        int count = new StrokeSmoother(0f, 0f, 0.5f).simplify(points, widths, 4);
+        assertEquals(3, count);
+        assertArrayEquals(new float[] {2, 8, 3}, Arrays.copyOf(widths, count), 0f);
+    }
+
+    @Test
+    public void decimate_removesCollinearAndClosePoints() throws Exception {
+        float[] points = {0, 0, 0.5f, 0, 5, 0, 10, 0, 10, 5, 10, 10};
+        int count = new StrokeSmoother().decimate(points, 6);
+        assertArrayEquals(new float[] {0, 0, 10, 0, 10, 10},
+                Arrays.copyOf(points, count * 2), 0f);
+    }
+
+    @Test
+    public void process_compactsWidthsWithPoints() throws Exception {
+        float[] points = {0, 0, 0.5f, 0, 5, 0, 10, 0, 10, 5, 10, 10};
+        float[] widths = {1, 2, 3, 4, 5, 6};
+        int count = new StrokeSmoother().process(points, widths, 6);
+        assertEquals(3, count);
+        assertArrayEquals(new float[] {1, 4, 6}, Arrays.copyOf(widths, count), 0f);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StrokeWidthModel
+ */
+public class StrokeWidthModelTest {
+
+    @Test
+    public void fixed_keepsBaseWidth() throws Exception {
+        StrokeWidthModel model = new StrokeWidthModel();
+        assertEquals(10f, model.begin(StrokeWidthModel.MODE_FIXED, 10, 0, 0, 0, 0.1f), 0f);
+        assertEquals(10f, model.next(100, 0, 1, 0.1f), 0f);
+    }
+
+    @Test
+    public void pressure_mapsToWidthBetweenMinimumAndBase() throws Exception {
+        StrokeWidthModel model = new StrokeWidthModel();
+        assertEquals(10 * StrokeWidthModel.MIN_FACTOR,
+                model.begin(StrokeWidthModel.MODE_PRESSURE, 10, 0, 0, 0, 0), 1e-5f);
+        for (int i = 1; i < 100; i++) {
+            model.next(i, 0, i, 1.5f);
+        }
+        assertEquals(10f, model.getWidth(), 1e-3f);
+    }
+
+    @Test
+    public void pressure_isSmoothed() throws Exception {
+        StrokeWidthModel model = new StrokeWidthModel();
+        model.begin(StrokeWidthModel.MODE_PRESSURE, 10, 0, 0, 0, 0);
+        float width = model.next(1, 0, 1, 1);
+        assertTrue(width > 10 * StrokeWidthModel.MIN_FACTOR);
+        assertTrue(width < 10);
+    }
+
+    @Test
+    public void velocity_thinsFastMovementsOnly() throws Exception {
+        StrokeWidthModel model = new StrokeWidthModel();
+        assertEquals(10f, model.begin(StrokeWidthModel.MODE_VELOCITY, 10, 0, 0, 0, 1), 0f);
+        for (int i = 1; i < 100; i++) {
+            model.next(i * 100, 0, i, 1);
+        }
+        assertEquals(10 * StrokeWidthModel.MIN_FACTOR, model.getWidth(), 1e-3f);
+
+        //slow movement widens again, up to the base width
+        float x = 9900;
+        for (int i = 100; i < 300; i++) {
+            x += 0.01f;
+            assertTrue(model.next(x, 0, i, 1) <= 10);
+        }
+        assertTrue(model.getWidth() > 9.9f);
+    }
+
+    @Test
+    public void velocity_keepsWidthForSamplesAtTheSameTime() throws Exception {
+        StrokeWidthModel model = new StrokeWidthModel();
+        model.begin(StrokeWidthModel.MODE_VELOCITY, 10, 0, 0, 0, 1);
+        model.next(100, 0, 10, 1);
+        float width = model.getWidth();
+        assertEquals(width, model.next(500, 0, 10, 1), 0f);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.samplepaint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for TileFile
+ */
+public class TileFileTest {
+    private static final int TILE_PIXELS = 64;
+
+    private File mFile;
+    private TileFile mTileFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("tiles", ".bin");
+        mTileFile = new TileFile(mFile, TILE_PIXELS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mTileFile.close();
+    }
+
+    @Test
+    public void writeThenRead_returnsThePixels() throws Exception {
+        int first = mTileFile.allocateSlot();
+        //a slot in a later chunk maps the chunks before it
+        int far = 0;
+        for (int i = 0; i < TileFile.CHUNK_SLOTS * 2; i++){
+            far = mTileFile.allocateSlot();
+        }
+        mTileFile.write(first, pattern(1));
+        mTileFile.write(far, pattern(7));
+
+        int[] pixels = new int[TILE_PIXELS];
+        mTileFile.read(far, pixels);
+        assertArrayEquals(pattern(7), pixels);
+        mTileFile.read(first, pixels);
+        assertArrayEquals(pattern(1), pixels);
+    }
+
+    @Test
+    public void freedSlot_isReused() throws Exception {
+        int a = mTileFile.allocateSlot();
+        int b = mTileFile.allocateSlot();
+        mTileFile.freeSlot(a);
+
+        assertEquals(a, mTileFile.allocateSlot());
+        assertEquals(b + 1, mTileFile.allocateSlot());
+        assertEquals(3, mTileFile.getSlotCount());
+    }
+
+    @Test
+    public void close_deletesTheFile() throws Exception {
+        mTileFile.write(mTileFile.allocateSlot(), pattern(3));
+        mTileFile.close();
+
+        assertFalse(mFile.exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void readAfterClose_fails() throws Exception {
+        mTileFile.write(mTileFile.allocateSlot(), pattern(3));
+        mTileFile.close();
+
+        mTileFile.read(0, new int[TILE_PIXELS]);
+    }
+
+    private static int[] pattern(int seed){
+        int[] pixels = new int[TILE_PIXELS];
+        for (int i = 0; i < pixels.length; i++){
+            pixels[i] = seed * 0x01010101 + i;
+        }
+        return pixels;
+    }
+}
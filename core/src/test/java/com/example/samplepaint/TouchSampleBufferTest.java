@@ -0,0 +1,54 @@
+package com.example.samplepaint;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for TouchSampleBuffer
+ */
+public class TouchSampleBufferTest {
+
+    @Test
+    public void capacity_isRoundedUpToPowerOfTwo() throws Exception {
+        assertEquals(128, new TouchSampleBuffer(100).capacity());
+        assertEquals(64, new TouchSampleBuffer(64).capacity());
+    }
+
+    @Test
+    public void add_rejectsSamplesWhenFull() throws Exception {
+        TouchSampleBuffer buffer = new TouchSampleBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.add(i, i, i));
+        }
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.add(5, 5, 5));
+    }
+
+    @Test
+    public void samples_areReadOldestFirstAcrossWrapAround() throws Exception {
+        TouchSampleBuffer buffer = new TouchSampleBuffer(4);
+        buffer.add(1, 10, 100);
+        buffer.add(2, 20, 200);
+        buffer.add(3, 30, 300);
+        buffer.consume(2);
+        buffer.add(4, 40, 400);
+        buffer.add(5, 50, 500);
+        buffer.add(6, 60, 600);
+
+        assertEquals(4, buffer.size());
+        assertEquals(3f, buffer.getX(0), 0f);
+        assertEquals(60f, buffer.getY(3), 0f);
+        assertEquals(500L, buffer.getTime(2));
+    }
+
+    @Test
+    public void add_defaultsToFullPressure() throws Exception {
+        TouchSampleBuffer buffer = new TouchSampleBuffer(4);
+        buffer.add(1, 1, 1);
+        buffer.add(2, 2, 2, 0.25f);
+
+        assertEquals(1f, buffer.getPressure(0), 0f);
+        assertEquals(0.25f, buffer.getPressure(1), 0f);
+    }
+}